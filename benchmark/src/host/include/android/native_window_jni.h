@@ -0,0 +1,45 @@
+#ifndef __HOST_NATIVE_WINDOW_JNI_H__
+#define __HOST_NATIVE_WINDOW_JNI_H__
+//
+// host build only,NativeRender has no window to draw to on the desktop jvm.
+// lets restreaming.c compile,every call fails so renderingSurface does nothing.
+//
+#include <jni.h>
+#include <stdint.h>
+
+typedef struct ANativeWindow ANativeWindow;
+
+typedef struct {
+	int32_t width;
+	int32_t height;
+	int32_t stride;
+	int32_t format;
+	void *bits;
+	uint32_t reserved[6];
+} ANativeWindow_Buffer;
+
+static inline ANativeWindow *ANativeWindow_fromSurface(JNIEnv *env,jobject surface)
+{
+	return NULL;
+}
+
+static inline int32_t ANativeWindow_setBuffersGeometry(ANativeWindow *window,int32_t width,int32_t height,int32_t format)
+{
+	return -1;
+}
+
+static inline int32_t ANativeWindow_lock(ANativeWindow *window,ANativeWindow_Buffer *outBuffer,void *inOutDirtyBounds)
+{
+	return -1;
+}
+
+static inline int32_t ANativeWindow_unlockAndPost(ANativeWindow *window)
+{
+	return -1;
+}
+
+static inline void ANativeWindow_release(ANativeWindow *window)
+{
+}
+
+#endif
@@ -0,0 +1,97 @@
+package me.lake.librestreaming.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.lake.librestreaming.core.ColorHelper;
+
+/**
+ * Per frame cost of the soft pipeline conversions at common preview sizes.<br/>
+ * native rows need librestreaming on java.library.path,see build.gradle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColorHelperBenchmark {
+    @Param({"640x360", "1280x720", "1920x1080"})
+    public String resolution;
+    @Param({"java", "native"})
+    public String implementation;
+
+    private int width;
+    private int height;
+    private byte[] nv21;
+    private byte[] yuv;
+    private int[] argb;
+    private int[] glPixels;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        nv21 = new byte[width * height * 3 / 2];
+        yuv = new byte[nv21.length];
+        argb = new int[width * height];
+        glPixels = new int[width * height];
+        Random random = new Random(width);
+        random.nextBytes(nv21);
+        for (int i = 0; i < glPixels.length; ++i) {
+            glPixels[i] = random.nextInt();
+        }
+        selectImplementation(implementation);
+    }
+
+    @Benchmark
+    public byte[] nv21ToYuv420sp() {
+        ColorHelper.NV21TOYUV420SP(nv21, yuv, width * height);
+        return yuv;
+    }
+
+    @Benchmark
+    public byte[] nv21ToYuv420p() {
+        ColorHelper.NV21TOYUV420P(nv21, yuv, width * height);
+        return yuv;
+    }
+
+    @Benchmark
+    public byte[] yuv420spToYuv420p() {
+        ColorHelper.YUV420SPTOYUV420P(nv21, yuv, width * height);
+        return yuv;
+    }
+
+    @Benchmark
+    public int[] nv21ToArgb() {
+        ColorHelper.NV21TOARGB(nv21, argb, width, height);
+        return argb;
+    }
+
+    @Benchmark
+    public int[] fixGlPixel() {
+        ColorHelper.FIXGLPIXEL(glPixels, argb, width, height);
+        return argb;
+    }
+
+    /**
+     * @param implementation "java" or "native"
+     */
+    static void selectImplementation(String implementation) {
+        if ("native".equals(implementation)) {
+            if (!ColorHelper.isNativeLoaded()) {
+                throw new IllegalStateException("librestreaming not loaded,run with -PhostNative");
+            }
+            ColorHelper.setImplementation(ColorHelper.IMPLEMENTATION_NATIVE);
+        } else {
+            ColorHelper.setImplementation(ColorHelper.IMPLEMENTATION_JAVA);
+        }
+    }
+}
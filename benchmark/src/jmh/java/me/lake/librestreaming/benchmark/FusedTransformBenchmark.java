@@ -0,0 +1,99 @@
+package me.lake.librestreaming.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.lake.librestreaming.core.ColorHelper;
+
+/**
+ * Soft mode camera frame to encoder input buffer,per frame cost of both pipelines.<br/>
+ * transformThenConvert:camera thread rotates into the frame ring,filter thread converts into the encoder buffer.<br/>
+ * copyThenFused:camera thread copies into the frame ring,filter thread rotates & converts in one pass (no filter set).<br/>
+ * both move the frame 4 times (2 reads,2 writes),the fused one trades the format conversion pass for a plain copy.
+ * colorFormat is COLOR_FormatYUV420SemiPlanar(21) or COLOR_FormatYUV420Planar(19).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FusedTransformBenchmark {
+    private static final int COLOR_FORMAT_YUV420P = 19;
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+    @Param({"16", "32", "129"})
+    public int directionFlag;
+    @Param({"21", "19"})
+    public int colorFormat;
+    @Param({"java", "native"})
+    public String implementation;
+
+    private int width;
+    private int height;
+    private byte[] camera;
+    private byte[] ringSlot;
+    private byte[] staging;
+    private ByteBuffer encoderBuffer;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        camera = new byte[width * height * 3 / 2];
+        ringSlot = new byte[camera.length];
+        staging = new byte[camera.length];
+        encoderBuffer = ByteBuffer.allocateDirect(camera.length);
+        new Random(width).nextBytes(camera);
+        ColorHelperBenchmark.selectImplementation(implementation);
+    }
+
+    @Benchmark
+    public ByteBuffer transformThenConvert() {
+        ColorHelper.NV21Transform(camera, ringSlot, width, height, directionFlag);
+        int ySize = width * height;
+        if (colorFormat == COLOR_FORMAT_YUV420P) {
+            if (!ColorHelper.NV21TOYUV420P(ringSlot, encoderBuffer, ySize)) {
+                ColorHelper.NV21TOYUV420P(ringSlot, staging, ySize);
+                putStaging();
+            }
+        } else {
+            if (!ColorHelper.NV21TOYUV420SP(ringSlot, encoderBuffer, ySize)) {
+                ColorHelper.NV21TOYUV420SP(ringSlot, staging, ySize);
+                putStaging();
+            }
+        }
+        return encoderBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer copyThenFused() {
+        System.arraycopy(camera, 0, ringSlot, 0, camera.length);
+        if (colorFormat == COLOR_FORMAT_YUV420P) {
+            if (!ColorHelper.NV21TransformTOYUV420P(ringSlot, encoderBuffer, width, height, directionFlag)) {
+                ColorHelper.NV21TransformTOYUV420P(ringSlot, staging, width, height, directionFlag);
+                putStaging();
+            }
+        } else {
+            if (!ColorHelper.NV21TransformTOYUV420SP(ringSlot, encoderBuffer, width, height, directionFlag)) {
+                ColorHelper.NV21TransformTOYUV420SP(ringSlot, staging, width, height, directionFlag);
+                putStaging();
+            }
+        }
+        return encoderBuffer;
+    }
+
+    private void putStaging() {
+        encoderBuffer.position(0);
+        encoderBuffer.put(staging, 0, staging.length);
+    }
+}
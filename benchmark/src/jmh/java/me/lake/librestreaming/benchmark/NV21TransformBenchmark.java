@@ -0,0 +1,53 @@
+package me.lake.librestreaming.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import me.lake.librestreaming.core.ColorHelper;
+
+/**
+ * NV21Transform for every rotation & flip combination.<br/>
+ * directionFlag is one of ROATATION_0(16),90(32),180(64),270(128) plus FLIP_HORIZONTAL(1) and/or FLIP_VERTICAL(2).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NV21TransformBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+    @Param({"16", "17", "18", "19", "32", "33", "34", "35", "64", "65", "66", "67", "128", "129", "130", "131"})
+    public int directionFlag;
+    @Param({"java", "native"})
+    public String implementation;
+
+    private int width;
+    private int height;
+    private byte[] src;
+    private byte[] dst;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        src = new byte[width * height * 3 / 2];
+        dst = new byte[src.length];
+        new Random(width).nextBytes(src);
+        ColorHelperBenchmark.selectImplementation(implementation);
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        ColorHelper.NV21Transform(src, dst, width, height, directionFlag);
+        return dst;
+    }
+}
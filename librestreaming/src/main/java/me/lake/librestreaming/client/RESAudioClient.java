@@ -4,6 +4,7 @@ import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
 
+import me.lake.librestreaming.core.RESLatencyHistogram;
 import me.lake.librestreaming.core.RESSoftAudioCore;
 import me.lake.librestreaming.filter.softaudiofilter.BaseSoftAudioFilter;
 import me.lake.librestreaming.model.RESConfig;
@@ -87,6 +88,18 @@ public class RESAudioClient {
         softAudioCore.releaseAudioFilter();
     }
 
+    public long getEncoderDroppedFrames() {
+        synchronized (syncOp) {
+            return softAudioCore == null ? 0 : softAudioCore.getEncoderDroppedFrames();
+        }
+    }
+
+    public RESLatencyHistogram getEncodeLatency() {
+        synchronized (syncOp) {
+            return softAudioCore == null ? null : softAudioCore.getEncodeLatency();
+        }
+    }
+
     private boolean prepareAudio() {
         int minBufferSize = AudioRecord.getMinBufferSize(resCoreParameters.audioRecoderSampleRate,
                 resCoreParameters.audioRecoderChannelConfig,
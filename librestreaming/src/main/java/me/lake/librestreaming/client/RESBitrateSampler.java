@@ -0,0 +1,104 @@
+package me.lake.librestreaming.client;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+
+import me.lake.librestreaming.core.RESBitrateController;
+import me.lake.librestreaming.core.listener.RESBitrateChangeListener;
+import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * Librestreaming project.
+ * samples send queue & throughput on a timer,applies decisions of {@link RESBitrateController}.
+ */
+public class RESBitrateSampler {
+    private static final int SAMPLE_INTERVAL_MS = 1000;
+    private final RESBitrateController controller;
+    private final RESRtmpSender rtmpSender;
+    private final RESVideoClient videoClient;
+    private final Object syncOp = new Object();
+    private HandlerThread samplerHandlerThread;
+    private SamplerHandler samplerHandler;
+    private RESBitrateChangeListener bitrateChangeListener;
+    private final Object syncBitrateChangeListener = new Object();
+
+    RESBitrateSampler(RESBitrateController controller, RESRtmpSender rtmpSender, RESVideoClient videoClient) {
+        this.controller = controller;
+        this.rtmpSender = rtmpSender;
+        this.videoClient = videoClient;
+    }
+
+    public RESBitrateController getController() {
+        return controller;
+    }
+
+    public void setBitrateChangeListener(RESBitrateChangeListener listener) {
+        synchronized (syncBitrateChangeListener) {
+            bitrateChangeListener = listener;
+        }
+    }
+
+    void start() {
+        synchronized (syncOp) {
+            if (samplerHandlerThread != null) {
+                return;
+            }
+            samplerHandlerThread = new HandlerThread("RESBitrateSampler,samplerHandlerThread");
+            samplerHandlerThread.start();
+            samplerHandler = new SamplerHandler(samplerHandlerThread.getLooper());
+            samplerHandler.sendEmptyMessageDelayed(SamplerHandler.WHAT_SAMPLE, SAMPLE_INTERVAL_MS);
+        }
+    }
+
+    void stop() {
+        synchronized (syncOp) {
+            if (samplerHandlerThread == null) {
+                return;
+            }
+            samplerHandler.removeCallbacksAndMessages(null);
+            samplerHandlerThread.quit();
+            samplerHandlerThread = null;
+            samplerHandler = null;
+        }
+    }
+
+    private class SamplerHandler extends Handler {
+        static final int WHAT_SAMPLE = 1;
+
+        SamplerHandler(Looper looper) {
+            super(looper);
+            controller.reset();
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what != WHAT_SAMPLE) {
+                return;
+            }
+            if (rtmpSender.isReconnecting()) {
+                //the send queue is on hold,nothing to sample
+                controller.hold();
+                sendEmptyMessageDelayed(WHAT_SAMPLE, SAMPLE_INTERVAL_MS);
+                return;
+            }
+            int currentBitrate = videoClient.getVideoBitrate();
+            int targetBitrate = controller.onSample(rtmpSender.getSendBufferFreePercent(),
+                    rtmpSender.getVideoSpeed(),
+                    currentBitrate);
+            if (targetBitrate != currentBitrate) {
+                LogTools.d("RESBitrateSampler,bitrate " + currentBitrate + "->" + targetBitrate);
+                videoClient.reSetVideoBitrate(targetBitrate);
+                synchronized (syncBitrateChangeListener) {
+                    if (bitrateChangeListener != null) {
+                        CallbackDelivery.i().post(new RESBitrateChangeListener.RESBitrateChangeRunable(bitrateChangeListener,
+                                currentBitrate, targetBitrate, controller.getLastReason()));
+                    }
+                }
+            }
+            sendEmptyMessageDelayed(WHAT_SAMPLE, SAMPLE_INTERVAL_MS);
+        }
+    }
+}
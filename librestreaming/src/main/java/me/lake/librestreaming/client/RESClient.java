@@ -5,7 +5,20 @@ import android.annotation.TargetApi;
 import android.graphics.SurfaceTexture;
 import android.os.Build;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.lake.librestreaming.core.RESBitrateController;
+import me.lake.librestreaming.core.RESFrameScheduler;
+import me.lake.librestreaming.core.RESKeyFrameController;
+import me.lake.librestreaming.core.RESLatencyHistogram;
+import me.lake.librestreaming.core.RESOutputSurface;
+import me.lake.librestreaming.core.RESStageTimer;
+import me.lake.librestreaming.core.listener.RESBitrateChangeListener;
 import me.lake.librestreaming.core.listener.RESConnectionListener;
+import me.lake.librestreaming.core.listener.RESFrameTapListener;
+import me.lake.librestreaming.core.listener.RESKeyFrameRequestListener;
 import me.lake.librestreaming.core.listener.RESScreenShotListener;
 import me.lake.librestreaming.core.listener.RESVideoChangeListener;
 import me.lake.librestreaming.filter.hardvideofilter.BaseHardVideoFilter;
@@ -14,22 +27,40 @@ import me.lake.librestreaming.filter.softvideofilter.BaseSoftVideoFilter;
 import me.lake.librestreaming.model.RESConfig;
 import me.lake.librestreaming.model.RESCoreParameters;
 import me.lake.librestreaming.model.Size;
+import me.lake.librestreaming.rtmp.FLvMetaData;
 import me.lake.librestreaming.rtmp.RESFlvData;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+import me.lake.librestreaming.rtmp.RESFlvDataFanOut;
+import me.lake.librestreaming.rtmp.RESFlvFileWriter;
+import me.lake.librestreaming.rtmp.RESFlvMuxer;
 import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.rtmp.droppolicy.BaseDropPolicy;
 import me.lake.librestreaming.tools.LogTools;
 
 /**
  * Created by lake on 16-3-16.
  */
 public class RESClient {
-    private RESVideoClient videoClient;
+    //volatile,read without SyncOp by requestKeyFrame on sender threads
+    private volatile RESVideoClient videoClient;
     private RESAudioClient audioClient;
     private final Object SyncOp;
     //parameters
     RESCoreParameters coreParameters;
     private RESRtmpSender rtmpSender;
     private RESFlvDataCollecter dataCollecter;
+    private RESFlvMuxer flvMuxer;
+    private RESFlvDataFanOut flvDataFanOut;
+    private RESFlvFileWriter flvFileWriter;
+    private final ArrayList<RESRtmpDestination> destinations = new ArrayList<>();
+    private boolean isStreaming = false;
+    private final RESKeyFrameRequestListener keyFrameRequestListener = new RESKeyFrameRequestListener() {
+        @Override
+        public void onKeyFrameRequest() {
+            requestKeyFrame();
+        }
+    };
+    private RESBitrateSampler bitrateSampler;
 
     public RESClient() {
         SyncOp = new Object();
@@ -50,6 +81,13 @@ public class RESClient {
             coreParameters.rtmpAddr = resConfig.getRtmpAddr();
             coreParameters.printDetailMsg = resConfig.isPrintDetailMsg();
             coreParameters.senderQueueLength = 150;
+            coreParameters.rtmpBackend = resConfig.getRtmpBackend();
+            coreParameters.rtmpChunkSize = resConfig.getRtmpChunkSize();
+            coreParameters.muxLatency = resConfig.getMuxLatency();
+            coreParameters.reconnectTimes = resConfig.getReconnectTimes();
+            coreParameters.reconnectDelay = resConfig.getReconnectDelay();
+            coreParameters.encoderCallbackMode = resConfig.isEncoderCallbackMode();
+            coreParameters.muxWindow = RESFlvMuxer.DEFAULT_WINDOW;
             videoClient = new RESVideoClient(coreParameters);
             audioClient = new RESAudioClient(coreParameters);
             if (!videoClient.prepare(resConfig)) {
@@ -64,12 +102,25 @@ public class RESClient {
             }
             rtmpSender = new RESRtmpSender();
             rtmpSender.prepare(coreParameters);
-            dataCollecter = new RESFlvDataCollecter() {
+            rtmpSender.setKeyFrameRequestListener(keyFrameRequestListener);
+            if (resConfig.isAdaptiveBitRateEnabled()) {
+                bitrateSampler = new RESBitrateSampler(new RESBitrateController(resConfig.getAdaptiveMinBitRate(),
+                        resConfig.getAdaptiveMaxBitRate()), rtmpSender, videoClient);
+            }
+            flvDataFanOut = new RESFlvDataFanOut();
+            flvDataFanOut.addConsumer(new RESFlvDataCollecter() {
                 @Override
                 public void collect(RESFlvData flvData, int type) {
                     rtmpSender.feed(flvData, type);
                 }
-            };
+            });
+            if (coreParameters.muxLatency > 0) {
+                flvMuxer = new RESFlvMuxer(flvDataFanOut, coreParameters.muxLatency, coreParameters.muxWindow);
+                dataCollecter = flvMuxer;
+            } else {
+                flvMuxer = null;
+                dataCollecter = flvDataFanOut;
+            }
             coreParameters.done = true;
             LogTools.d("===INFO===coreParametersReady:");
             LogTools.d(coreParameters.toString());
@@ -83,9 +134,19 @@ public class RESClient {
      */
     public void startStreaming() {
         synchronized (SyncOp) {
+            if (flvMuxer != null) {
+                flvMuxer.reset();
+            }
             videoClient.startStreaming(dataCollecter);
             rtmpSender.start(coreParameters.rtmpAddr);
+            for (RESRtmpDestination destination : destinations) {
+                destination.start();
+            }
             audioClient.start(dataCollecter);
+            isStreaming = true;
+            if (bitrateSampler != null) {
+                bitrateSampler.start();
+            }
             LogTools.d("RESClient,startStreaming()");
         }
     }
@@ -95,9 +156,19 @@ public class RESClient {
      */
     public void stopStreaming() {
         synchronized (SyncOp) {
+            if (bitrateSampler != null) {
+                bitrateSampler.stop();
+            }
             videoClient.stopStreaming();
             audioClient.stop();
+            if (flvMuxer != null) {
+                flvMuxer.flush();
+            }
             rtmpSender.stop();
+            for (RESRtmpDestination destination : destinations) {
+                destination.stop();
+            }
+            isStreaming = false;
             LogTools.d("RESClient,stopStreaming()");
         }
     }
@@ -107,9 +178,20 @@ public class RESClient {
      */
     public void destroy() {
         synchronized (SyncOp) {
+            stopRecording();
+            if (bitrateSampler != null) {
+                bitrateSampler.stop();
+                bitrateSampler = null;
+            }
             rtmpSender.destroy();
+            for (RESRtmpDestination destination : destinations) {
+                flvDataFanOut.removeConsumer(destination.getDataCollecter());
+                destination.destroy();
+            }
+            destinations.clear();
             videoClient.destroy();
             audioClient.destroy();
+            flvDataFanOut.getSequenceHeaderCache().clear();
             rtmpSender = null;
             videoClient = null;
             audioClient = null;
@@ -224,6 +306,152 @@ public class RESClient {
         }
     }
 
+    /**
+     * @return camera frames replaced by newer ones or rejected before they were filtered
+     */
+    public long getCameraDroppedFrames() {
+        synchronized (SyncOp) {
+            return videoClient == null ? 0 : videoClient.getCameraDroppedFrames();
+        }
+    }
+
+    /**
+     * @return camera frames between capture and filter right now,being copied,waiting or being filtered
+     */
+    public int getVideoPipelineOccupancy() {
+        synchronized (SyncOp) {
+            return videoClient == null ? 0 : videoClient.getPipelineOccupancy();
+        }
+    }
+
+    /**
+     * only for soft filter mode.<br/>
+     * @return video frames dropped because the encoder had no free input buffer in time
+     */
+    public long getVideoEncoderDroppedFrames() {
+        synchronized (SyncOp) {
+            return videoClient == null ? 0 : videoClient.getEncoderDroppedFrames();
+        }
+    }
+
+    /**
+     * @return audio frames dropped because the encoder had no free input buffer in time
+     */
+    public long getAudioEncoderDroppedFrames() {
+        synchronized (SyncOp) {
+            return audioClient == null ? 0 : audioClient.getEncoderDroppedFrames();
+        }
+    }
+
+    /**
+     * @return time from a video frame entering the encoder to its tag being collected,null before prepare
+     */
+    public RESLatencyHistogram getVideoEncodeLatency() {
+        synchronized (SyncOp) {
+            return videoClient == null ? null : videoClient.getEncodeLatency();
+        }
+    }
+
+    /**
+     * @return time from an audio frame entering the encoder to its tag being collected,null before prepare
+     */
+    public RESLatencyHistogram getAudioEncodeLatency() {
+        synchronized (SyncOp) {
+            return audioClient == null ? null : audioClient.getEncodeLatency();
+        }
+    }
+
+    /**
+     * @return pacing of the video draw loop,skipped frames & wake up jitter,null before prepare
+     */
+    public RESFrameScheduler getVideoFrameScheduler() {
+        synchronized (SyncOp) {
+            return videoClient == null ? null : videoClient.getFrameScheduler();
+        }
+    }
+
+    /**
+     * only for hard filter mode
+     *
+     * @return cpu time of each draw stage on the gl thread,null in soft filter mode or before prepare
+     */
+    public RESStageTimer getDrawStageTimer() {
+        synchronized (SyncOp) {
+            return videoClient == null ? null : videoClient.getDrawStageTimer();
+        }
+    }
+
+    /**
+     * only for hard filter mode<br/>
+     * filtered frames are read back without stalling the stream & passed to listener on a worker thread,
+     * e.g. for thumbnails or content moderation.
+     *
+     * @param intervalMs least time between two frames,keep it low rate
+     */
+    public void addFrameTap(RESFrameTapListener listener, int intervalMs) {
+        synchronized (SyncOp) {
+            if (videoClient != null) {
+                videoClient.addFrameTap(listener, intervalMs);
+            }
+        }
+    }
+
+    /**
+     * only for hard filter mode
+     */
+    public void removeFrameTap(RESFrameTapListener listener) {
+        synchronized (SyncOp) {
+            if (videoClient != null) {
+                videoClient.removeFrameTap(listener);
+            }
+        }
+    }
+
+    /**
+     * only for hard filter mode<br/>
+     * draw every filtered frame to another window too,e.g. the input surface of a second encoder.
+     * drawn from the same gl context as preview & encoder,an extra output costs one blit.
+     *
+     * @param outputSurface window,viewport & texture coordinates
+     */
+    public void addOutputSurface(RESOutputSurface outputSurface) {
+        synchronized (SyncOp) {
+            if (videoClient != null) {
+                videoClient.addOutputSurface(outputSurface);
+            }
+        }
+    }
+
+    /**
+     * only for hard filter mode<br/>
+     * returns once nothing is drawn to it anymore,the window can be released then.
+     */
+    public void removeOutputSurface(RESOutputSurface outputSurface) {
+        synchronized (SyncOp) {
+            if (videoClient != null) {
+                videoClient.removeOutputSurface(outputSurface);
+            }
+        }
+    }
+
+    /**
+     * @return true while the sender is reopening a lost connection,see {@link RESConfig#setReconnect(int, int)}
+     */
+    public boolean isReconnecting() {
+        synchronized (SyncOp) {
+            return rtmpSender != null && rtmpSender.isReconnecting();
+        }
+    }
+
+    /**
+     * @return connections reopened by the sender since prepare
+     */
+    public int getReconnectCount() {
+        synchronized (SyncOp) {
+            return rtmpSender == null ? 0 : rtmpSender.getReconnectCount();
+        }
+    }
+
     /**
      * only for soft filter mode.<br/>
      * set videofilter.<br/>
@@ -308,6 +536,132 @@ public class RESClient {
         }
     }
 
+    /**
+     * set the policy deciding which tags to abandon when network is not enough.<br/>
+     * call it AFTER {@link #prepare(RESConfig)}
+     *
+     * @param dropPolicy null to use default {@link me.lake.librestreaming.rtmp.droppolicy.GOPDropPolicy}
+     */
+    public void setSendDropPolicy(BaseDropPolicy dropPolicy) {
+        synchronized (SyncOp) {
+            rtmpSender.setDropPolicy(dropPolicy);
+        }
+    }
+
+    /**
+     * get the policy in use,read dropped frames/bytes from it.
+     *
+     * @return
+     */
+    public BaseDropPolicy getSendDropPolicy() {
+        synchronized (SyncOp) {
+            return rtmpSender == null ? null : rtmpSender.getDropPolicy();
+        }
+    }
+
+    /**
+     * publish the same encoded stream to one more rtmp endpoint,no extra encoding is done.<br/>
+     * started right away when streaming,otherwise together with {@link #startStreaming()}.<br/>
+     * call it AFTER {@link #prepare(RESConfig)}
+     *
+     * @param rtmpAddr rtmp url of the extra endpoint
+     * @return handle to read statistics of this endpoint or to remove it
+     */
+    public RESRtmpDestination addDestination(String rtmpAddr) {
+        synchronized (SyncOp) {
+            RESRtmpDestination destination = new RESRtmpDestination(rtmpAddr, coreParameters, keyFrameRequestListener);
+            destinations.add(destination);
+            if (isStreaming) {
+                destination.start();
+            }
+            flvDataFanOut.addConsumer(destination.getDataCollecter());
+            if (isStreaming) {
+                requestKeyFrame();
+            }
+            return destination;
+        }
+    }
+
+    /**
+     * disconnect and release one endpoint added by {@link #addDestination(String)}
+     */
+    public void removeDestination(RESRtmpDestination destination) {
+        synchronized (SyncOp) {
+            if (!destinations.remove(destination)) {
+                return;
+            }
+            flvDataFanOut.removeConsumer(destination.getDataCollecter());
+            destination.stop();
+            destination.destroy();
+        }
+    }
+
+    /**
+     * @return endpoints added by {@link #addDestination(String)},the main rtmpAddr is not included
+     */
+    public List<RESRtmpDestination> getDestinations() {
+        synchronized (SyncOp) {
+            return new ArrayList<>(destinations);
+        }
+    }
+
+    /**
+     * record the published tags into a local flv file,in parallel with rtmp.<br/>
+     * tags only flow while streaming,call it AFTER {@link #prepare(RESConfig)}
+     *
+     * @param filePath path of the .flv file,overwritten if exists
+     * @return false if the file can not be created
+     */
+    public boolean startRecording(String filePath) {
+        synchronized (SyncOp) {
+            stopRecording();
+            RESFlvFileWriter fileWriter = new RESFlvFileWriter(new File(filePath), new FLvMetaData(coreParameters));
+            if (!fileWriter.start()) {
+                return false;
+            }
+            flvFileWriter = fileWriter;
+            flvDataFanOut.addConsumer(flvFileWriter);
+            if (isStreaming) {
+                requestKeyFrame();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * stop recording and close the file,blocks until queued tags are written.
+     */
+    public void stopRecording() {
+        synchronized (SyncOp) {
+            if (flvFileWriter == null) {
+                return;
+            }
+            flvDataFanOut.removeConsumer(flvFileWriter);
+            flvFileWriter.stop();
+            flvFileWriter = null;
+        }
+    }
+
+    /**
+     * @return null if not recording
+     */
+    public RESFlvFileWriter getFlvFileWriter() {
+        synchronized (SyncOp) {
+            return flvFileWriter;
+        }
+    }
+
+    /**
+     * read reorder depth & added delay from it.
+     *
+     * @return null if muxing is disabled by {@link RESConfig#setMuxLatency(int)}
+     */
+    public RESFlvMuxer getFlvMuxer() {
+        synchronized (SyncOp) {
+            return flvMuxer;
+        }
+    }
+
     /**
      * call it AFTER {@link #prepare(RESConfig)}
      *
@@ -317,6 +671,31 @@ public class RESClient {
         rtmpSender.setConnectionListener(connectionListener);
     }
 
+    /**
+     * only work when adaptive bitrate is enabled by {@link RESConfig#setAdaptiveBitRate(int, int)}.<br/>
+     * call it AFTER {@link #prepare(RESConfig)}
+     *
+     * @param bitrateChangeListener
+     */
+    public void setBitrateChangeListener(RESBitrateChangeListener bitrateChangeListener) {
+        synchronized (SyncOp) {
+            if (bitrateSampler != null) {
+                bitrateSampler.setBitrateChangeListener(bitrateChangeListener);
+            }
+        }
+    }
+
+    /**
+     * tune thresholds,steps & hysteresis of adaptive bitrate.
+     *
+     * @return null if adaptive bitrate is not enabled
+     */
+    public RESBitrateController getBitrateController() {
+        synchronized (SyncOp) {
+            return bitrateSampler == null ? null : bitrateSampler.getController();
+        }
+    }
+
     /**
      * listener for video size change
      * @param videoChangeListener
@@ -366,6 +745,26 @@ public class RESClient {
         videoClient.reSetVideoBitrate(bitrate);
     }
 
+    /**
+     * ask the encoder for an IDR now instead of waiting for the GOP,rate limited.<br/>
+     * called automatically when a sender drops video until the next IDR,
+     * after a reconnect and when a destination or recording is added while streaming.
+     */
+    public void requestKeyFrame() {
+        RESVideoClient client = videoClient;
+        if (client != null) {
+            client.requestKeyFrame();
+        }
+    }
+
+    /**
+     * @return forced & scheduled IDR counters,null before prepare
+     */
+    public RESKeyFrameController getKeyFrameController() {
+        RESVideoClient client = videoClient;
+        return client == null ? null : client.getKeyFrameController();
+    }
+
     /**
      * get current bitrate
      * @return current bitrate bits/sec
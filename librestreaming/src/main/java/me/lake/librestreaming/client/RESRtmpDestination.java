@@ -0,0 +1,96 @@
+package me.lake.librestreaming.client;
+
+import me.lake.librestreaming.core.listener.RESConnectionListener;
+import me.lake.librestreaming.core.listener.RESKeyFrameRequestListener;
+import me.lake.librestreaming.model.RESCoreParameters;
+import me.lake.librestreaming.rtmp.RESFlvData;
+import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.rtmp.droppolicy.BaseDropPolicy;
+
+/**
+ * One extra rtmp endpoint fed by the same encoders,see {@link RESClient#addDestination(String)}.<br/>
+ * it has its own send queue,drop policy,connection & statistics,
+ * a slow destination drops its own frames and never stalls the others.
+ */
+public class RESRtmpDestination {
+    private final String rtmpAddr;
+    private final RESRtmpSender rtmpSender;
+    private final RESFlvDataCollecter dataCollecter;
+
+    RESRtmpDestination(String rtmpAddr, RESCoreParameters coreParameters,
+                       RESKeyFrameRequestListener keyFrameRequestListener) {
+        this.rtmpAddr = rtmpAddr;
+        rtmpSender = new RESRtmpSender();
+        rtmpSender.prepare(coreParameters);
+        rtmpSender.setKeyFrameRequestListener(keyFrameRequestListener);
+        dataCollecter = new RESFlvDataCollecter() {
+            @Override
+            public void collect(RESFlvData flvData, int type) {
+                rtmpSender.feed(flvData, type);
+            }
+        };
+    }
+
+    RESFlvDataCollecter getDataCollecter() {
+        return dataCollecter;
+    }
+
+    void start() {
+        rtmpSender.start(rtmpAddr);
+    }
+
+    void stop() {
+        rtmpSender.stop();
+    }
+
+    void destroy() {
+        rtmpSender.destroy();
+    }
+
+    public String getRtmpAddr() {
+        return rtmpAddr;
+    }
+
+    /**
+     * @param dropPolicy null to use default {@link me.lake.librestreaming.rtmp.droppolicy.GOPDropPolicy}
+     */
+    public void setSendDropPolicy(BaseDropPolicy dropPolicy) {
+        rtmpSender.setDropPolicy(dropPolicy);
+    }
+
+    public BaseDropPolicy getSendDropPolicy() {
+        return rtmpSender.getDropPolicy();
+    }
+
+    public void setConnectionListener(RESConnectionListener connectionListener) {
+        rtmpSender.setConnectionListener(connectionListener);
+    }
+
+    public String getServerIpAddr() {
+        return rtmpSender.getServerIpAddr();
+    }
+
+    public float getSendFrameRate() {
+        return rtmpSender.getSendFrameRate();
+    }
+
+    public float getSendBufferFreePercent() {
+        return rtmpSender.getSendBufferFreePercent();
+    }
+
+    public boolean isReconnecting() {
+        return rtmpSender.isReconnecting();
+    }
+
+    public int getReconnectCount() {
+        return rtmpSender.getReconnectCount();
+    }
+
+    /**
+     * @return speed in B/s
+     */
+    public int getAVSpeed() {
+        return rtmpSender.getTotalSpeed();
+    }
+}
@@ -7,9 +7,15 @@ import java.io.IOException;
 import java.util.List;
 
 import me.lake.librestreaming.core.CameraHelper;
+import me.lake.librestreaming.core.RESFrameScheduler;
 import me.lake.librestreaming.core.RESHardVideoCore;
+import me.lake.librestreaming.core.RESKeyFrameController;
+import me.lake.librestreaming.core.RESLatencyHistogram;
+import me.lake.librestreaming.core.RESOutputSurface;
 import me.lake.librestreaming.core.RESSoftVideoCore;
+import me.lake.librestreaming.core.RESStageTimer;
 import me.lake.librestreaming.core.RESVideoCore;
+import me.lake.librestreaming.core.listener.RESFrameTapListener;
 import me.lake.librestreaming.core.listener.RESScreenShotListener;
 import me.lake.librestreaming.core.listener.RESVideoChangeListener;
 import me.lake.librestreaming.filter.hardvideofilter.BaseHardVideoFilter;
@@ -294,6 +300,20 @@ public class RESVideoClient {
         }
     }
 
+    public void requestKeyFrame() {
+        synchronized (syncOp) {
+            if (videoCore != null) {
+                videoCore.requestKeyFrame();
+            }
+        }
+    }
+
+    public RESKeyFrameController getKeyFrameController() {
+        synchronized (syncOp) {
+            return videoCore == null ? null : videoCore.getKeyFrameController();
+        }
+    }
+
     public int getVideoBitrate() {
         synchronized (syncOp) {
             if (videoCore != null) {
@@ -419,6 +439,77 @@ public class RESVideoClient {
         }
     }
 
+    public long getCameraDroppedFrames() {
+        synchronized (syncOp) {
+            return videoCore == null ? 0 : videoCore.getCameraDroppedFrames();
+        }
+    }
+
+    public int getPipelineOccupancy() {
+        synchronized (syncOp) {
+            return videoCore == null ? 0 : videoCore.getPipelineOccupancy();
+        }
+    }
+
+    public long getEncoderDroppedFrames() {
+        synchronized (syncOp) {
+            return videoCore == null ? 0 : videoCore.getEncoderDroppedFrames();
+        }
+    }
+
+    public RESLatencyHistogram getEncodeLatency() {
+        synchronized (syncOp) {
+            return videoCore == null ? null : videoCore.getEncodeLatency();
+        }
+    }
+
+    public RESFrameScheduler getFrameScheduler() {
+        synchronized (syncOp) {
+            return videoCore == null ? null : videoCore.getFrameScheduler();
+        }
+    }
+
+    public RESStageTimer getDrawStageTimer() {
+        synchronized (syncOp) {
+            if (videoCore == null || resCoreParameters.filterMode != RESCoreParameters.FILTER_MODE_HARD) {
+                return null;
+            }
+            return ((RESHardVideoCore) videoCore).getDrawStageTimer();
+        }
+    }
+
+    public void addFrameTap(RESFrameTapListener listener, int intervalMs) {
+        synchronized (syncOp) {
+            if (videoCore != null && resCoreParameters.filterMode == RESCoreParameters.FILTER_MODE_HARD) {
+                ((RESHardVideoCore) videoCore).addFrameTap(listener, intervalMs);
+            }
+        }
+    }
+
+    public void removeFrameTap(RESFrameTapListener listener) {
+        synchronized (syncOp) {
+            if (videoCore != null && resCoreParameters.filterMode == RESCoreParameters.FILTER_MODE_HARD) {
+                ((RESHardVideoCore) videoCore).removeFrameTap(listener);
+            }
+        }
+    }
+
+    public void addOutputSurface(RESOutputSurface outputSurface) {
+        synchronized (syncOp) {
+            if (videoCore != null && resCoreParameters.filterMode == RESCoreParameters.FILTER_MODE_HARD) {
+                ((RESHardVideoCore) videoCore).addOutputSurface(outputSurface);
+            }
+        }
+    }
+
+    public void removeOutputSurface(RESOutputSurface outputSurface) {
+        synchronized (syncOp) {
+            if (videoCore != null && resCoreParameters.filterMode == RESCoreParameters.FILTER_MODE_HARD) {
+                ((RESHardVideoCore) videoCore).removeOutputSurface(outputSurface);
+            }
+        }
+    }
+
     private void resoveResolution(RESCoreParameters resCoreParameters, Size targetVideoSize) {
         if (resCoreParameters.filterMode == RESCoreParameters.FILTER_MODE_SOFT) {
             if (resCoreParameters.isPortrait) {
@@ -1,16 +1,26 @@
 package me.lake.librestreaming.core;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import me.lake.librestreaming.rtmp.RESFlvData;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+import me.lake.librestreaming.rtmp.RESFlvDataPool;
 import me.lake.librestreaming.rtmp.RESRtmpSender;
 import me.lake.librestreaming.tools.LogTools;
 
 /**
  * Created by lakeinchina on 26/05/16.
+ * same delivery modes as {@link VideoSenderThread}.
  */
 public class AudioSenderThread extends Thread {
     private static final long WAIT_TIME = 5000;//1ms;
@@ -18,24 +28,68 @@ public class AudioSenderThread extends Thread {
     private long startTime = 0;
     private MediaCodec dstAudioEncoder;
     private RESFlvDataCollecter dataCollecter;
+    private final RESLatencyHistogram encodeLatency;
+    //callback mode
+    private final boolean callbackMode;
+    private HandlerThread callbackThread;
+    private final LinkedBlockingQueue<Integer> inputBufferIndexes = new LinkedBlockingQueue<>();
 
-    AudioSenderThread(String name, MediaCodec encoder, RESFlvDataCollecter flvDataCollecter) {
+    /**
+     * @param callbackMode use MediaCodec.Callback if supported,call before encoder.configure() then
+     */
+    AudioSenderThread(String name, MediaCodec encoder, RESFlvDataCollecter flvDataCollecter,
+                      RESLatencyHistogram encodeLatency, boolean callbackMode) {
         super(name);
         eInfo = new MediaCodec.BufferInfo();
         startTime = 0;
         dstAudioEncoder = encoder;
         dataCollecter = flvDataCollecter;
+        this.encodeLatency = encodeLatency;
+        this.callbackMode = callbackMode && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        if (this.callbackMode) {
+            callbackThread = new HandlerThread(name + "Callback");
+            callbackThread.start();
+            encoder.setCallback(new EncoderCallback(), new Handler(callbackThread.getLooper()));
+        }
+    }
+
+    /**
+     * replace of encoder.dequeueInputBuffer(),which is not allowed in callback mode.
+     */
+    int dequeueInputBuffer(long timeoutUs) {
+        if (!callbackMode) {
+            return dstAudioEncoder.dequeueInputBuffer(timeoutUs);
+        }
+        try {
+            Integer index = inputBufferIndexes.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            return index == null ? MediaCodec.INFO_TRY_AGAIN_LATER : index;
+        } catch (InterruptedException e) {
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
     }
 
     private boolean shouldQuit = false;
 
     void quit() {
         shouldQuit = true;
+        if (callbackThread != null) {
+            callbackThread.quitSafely();
+        }
         this.interrupt();
     }
 
     @Override
     public void run() {
+        if (callbackMode) {
+            //lives as long as callbackThread,so join() still waits for the last delivery
+            while (callbackThread.isAlive()) {
+                try {
+                    callbackThread.join();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return;
+        }
         while (!shouldQuit) {
             int eobIndex = dstAudioEncoder.dequeueOutputBuffer(eInfo, WAIT_TIME);
             switch (eobIndex) {
@@ -53,39 +107,72 @@ public class AudioSenderThread extends Thread {
                     break;
                 default:
                     LogTools.d("AudioSenderThread,MediaCode,eobIndex=" + eobIndex);
-                    if (startTime == 0) {
-                        startTime = eInfo.presentationTimeUs / 1000;
-                    }
-                    /**
-                     * we send audio SpecificConfig already in INFO_OUTPUT_FORMAT_CHANGED
-                     * so we ignore MediaCodec.BUFFER_FLAG_CODEC_CONFIG
-                     */
-                    if (eInfo.flags != MediaCodec.BUFFER_FLAG_CODEC_CONFIG && eInfo.size != 0) {
-                        ByteBuffer realData = dstAudioEncoder.getOutputBuffers()[eobIndex];
-                        realData.position(eInfo.offset);
-                        realData.limit(eInfo.offset + eInfo.size);
-                        sendRealData((eInfo.presentationTimeUs / 1000) - startTime, realData);
-                    }
-                    dstAudioEncoder.releaseOutputBuffer(eobIndex, false);
+                    drainOutputBuffer(dstAudioEncoder, eobIndex, eInfo);
                     break;
             }
         }
         eInfo = null;
     }
 
+    private void drainOutputBuffer(MediaCodec encoder, int eobIndex, MediaCodec.BufferInfo info) {
+        if (startTime == 0) {
+            startTime = info.presentationTimeUs / 1000;
+        }
+        /**
+         * we send audio SpecificConfig already in INFO_OUTPUT_FORMAT_CHANGED
+         * so we ignore MediaCodec.BUFFER_FLAG_CODEC_CONFIG
+         */
+        if (info.flags != MediaCodec.BUFFER_FLAG_CODEC_CONFIG && info.size != 0) {
+            ByteBuffer realData = encoder.getOutputBuffer(eobIndex);
+            realData.position(info.offset);
+            realData.limit(info.offset + info.size);
+            sendRealData((info.presentationTimeUs / 1000) - startTime, realData);
+            //presentation time is taken from SystemClock.uptimeMillis() when the frame is queued
+            encodeLatency.record(SystemClock.uptimeMillis() - info.presentationTimeUs / 1000);
+        }
+        encoder.releaseOutputBuffer(eobIndex, false);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private class EncoderCallback extends MediaCodec.Callback {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            inputBufferIndexes.offer(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            try {
+                drainOutputBuffer(codec, index, info);
+            } catch (IllegalStateException e) {
+                //encoder stopped meanwhile
+                LogTools.trace("AudioSenderThread,onOutputBufferAvailable", e);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            LogTools.trace("AudioSenderThread,onError", e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            LogTools.d("AudioSenderThread,onOutputFormatChanged:" + format.toString());
+            sendAudioSpecificConfig(0, format.getByteBuffer("csd-0"));
+        }
+    }
+
     private void sendAudioSpecificConfig(long tms, ByteBuffer realData) {
         int packetLen = Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH +
                 realData.remaining();
-        byte[] finalBuff = new byte[packetLen];
+        RESFlvData resFlvData = RESFlvDataPool.i().obtain(packetLen);
+        byte[] finalBuff = resFlvData.byteBuffer;
         realData.get(finalBuff, Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH,
                 realData.remaining());
         Packager.FLVPackager.fillFlvAudioTag(finalBuff,
                 0,
                 true);
-        RESFlvData resFlvData = new RESFlvData();
         resFlvData.droppable = false;
-        resFlvData.byteBuffer = finalBuff;
-        resFlvData.size = finalBuff.length;
         resFlvData.dts = (int) tms;
         resFlvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO;
         dataCollecter.collect(resFlvData, RESRtmpSender.FROM_AUDIO);
@@ -94,16 +181,14 @@ public class AudioSenderThread extends Thread {
     private void sendRealData(long tms, ByteBuffer realData) {
         int packetLen = Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH +
                 realData.remaining();
-        byte[] finalBuff = new byte[packetLen];
+        RESFlvData resFlvData = RESFlvDataPool.i().obtain(packetLen);
+        byte[] finalBuff = resFlvData.byteBuffer;
         realData.get(finalBuff, Packager.FLVPackager.FLV_AUDIO_TAG_LENGTH,
                 realData.remaining());
         Packager.FLVPackager.fillFlvAudioTag(finalBuff,
                 0,
                 false);
-        RESFlvData resFlvData = new RESFlvData();
         resFlvData.droppable = true;
-        resFlvData.byteBuffer = finalBuff;
-        resFlvData.size = finalBuff.length;
         resFlvData.dts = (int) tms;
         resFlvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO;
         dataCollecter.collect(resFlvData, RESRtmpSender.FROM_AUDIO);
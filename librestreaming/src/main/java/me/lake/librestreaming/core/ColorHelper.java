@@ -1,21 +1,196 @@
 package me.lake.librestreaming.core;
 
+import java.nio.ByteBuffer;
+
+import me.lake.librestreaming.tools.LogTools;
+
 /**
  * Created by lake on 16-4-5.
+ * conversions run in librestreaming when it is loaded,otherwise in {@link JavaColorHelper}.
  */
 @SuppressWarnings("all")
 public class ColorHelper {
+    /**
+     * native when loaded,java otherwise
+     */
+    public static final int IMPLEMENTATION_AUTO = 0;
+    public static final int IMPLEMENTATION_NATIVE = 1;
+    public static final int IMPLEMENTATION_JAVA = 2;
+
+    private static final boolean nativeLoaded;
+    private static volatile boolean useNative;
+
+    static {
+        boolean loaded;
+        try {
+            System.loadLibrary("restreaming");
+            loaded = true;
+        } catch (UnsatisfiedLinkError e) {
+            loaded = false;
+        }
+        nativeLoaded = loaded;
+        useNative = loaded;
+    }
+
+    public static boolean isNativeLoaded() {
+        return nativeLoaded;
+    }
+
+    /**
+     * @param implementation {@link #IMPLEMENTATION_AUTO},{@link #IMPLEMENTATION_NATIVE} or {@link #IMPLEMENTATION_JAVA},
+     *                       native falls back to java if librestreaming is not loaded.
+     */
+    public static void setImplementation(int implementation) {
+        if (implementation == IMPLEMENTATION_JAVA) {
+            useNative = false;
+        } else {
+            if (implementation == IMPLEMENTATION_NATIVE && !nativeLoaded) {
+                LogTools.e("ColorHelper,librestreaming not loaded,use java implementation");
+            }
+            useNative = nativeLoaded;
+        }
+    }
+
+    /**
+     * @return implementation in use,{@link #IMPLEMENTATION_NATIVE} or {@link #IMPLEMENTATION_JAVA}
+     */
+    public static int getImplementation() {
+        return useNative ? IMPLEMENTATION_NATIVE : IMPLEMENTATION_JAVA;
+    }
 
-    static public native void NV21TOYUV420SP(byte[] src, byte[] dst, int YSize);
+    static public void NV21TOYUV420SP(byte[] src, byte[] dst, int YSize) {
+        if (useNative) {
+            nativeNV21TOYUV420SP(src, dst, YSize);
+        } else {
+            JavaColorHelper.NV21TOYUV420SP(src, dst, YSize);
+        }
+    }
 
-    static public native void NV21TOYUV420P(byte[] src, byte[] dst, int YSize);
+    static public void NV21TOYUV420P(byte[] src, byte[] dst, int YSize) {
+        if (useNative) {
+            nativeNV21TOYUV420P(src, dst, YSize);
+        } else {
+            JavaColorHelper.NV21TOYUV420P(src, dst, YSize);
+        }
+    }
 
-    static public native void YUV420SPTOYUV420P(byte[] src, byte[] dst, int YSize);
+    /**
+     * convert straight into a direct buffer such as an encoder input buffer,from position 0,no staging array.
+     *
+     * @return false if nothing written (java implementation,heap or too small buffer),convert through an array instead
+     */
+    static public boolean NV21TOYUV420SP(byte[] src, ByteBuffer dst, int YSize) {
+        return useNative && dst.isDirect() && nativeNV21TOYUV420SPBuffer(src, dst, YSize);
+    }
 
-    static public native void NV21TOARGB(byte[] src, int[] dst, int width,int height);
+    /**
+     * see {@link #NV21TOYUV420SP(byte[], ByteBuffer, int)}
+     */
+    static public boolean NV21TOYUV420P(byte[] src, ByteBuffer dst, int YSize) {
+        return useNative && dst.isDirect() && nativeNV21TOYUV420PBuffer(src, dst, YSize);
+    }
 
-    static public native void FIXGLPIXEL(int[] src,int[] dst, int width,int height);
+    static public void YUV420SPTOYUV420P(byte[] src, byte[] dst, int YSize) {
+        if (useNative) {
+            nativeYUV420SPTOYUV420P(src, dst, YSize);
+        } else {
+            JavaColorHelper.YUV420SPTOYUV420P(src, dst, YSize);
+        }
+    }
+
+    static public void NV21TOARGB(byte[] src, int[] dst, int width, int height) {
+        if (useNative) {
+            nativeNV21TOARGB(src, dst, width, height);
+        } else {
+            JavaColorHelper.NV21TOARGB(src, dst, width, height);
+        }
+    }
+
+    static public void FIXGLPIXEL(int[] src, int[] dst, int width, int height) {
+        if (useNative) {
+            nativeFIXGLPIXEL(src, dst, width, height);
+        } else {
+            JavaColorHelper.FIXGLPIXEL(src, dst, width, height);
+        }
+    }
 
     //slow
-    static public native void NV21Transform(byte[] src, byte[] dst, int srcwidth,int srcheight,int directionFlag);
+    static public void NV21Transform(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag) {
+        if (useNative) {
+            nativeNV21Transform(src, dst, srcwidth, srcheight, directionFlag);
+        } else {
+            JavaColorHelper.NV21Transform(src, dst, srcwidth, srcheight, directionFlag);
+        }
+    }
+
+    /**
+     * NV21Transform then NV21TOYUV420SP,done in one pass.dst is srcheight x srcwidth when rotated.
+     */
+    static public void NV21TransformTOYUV420SP(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag) {
+        if (useNative) {
+            nativeNV21TransformTOYUV420SP(src, dst, srcwidth, srcheight, directionFlag);
+        } else {
+            JavaColorHelper.NV21TransformTOYUV420SP(src, dst, srcwidth, srcheight, directionFlag);
+        }
+    }
+
+    /**
+     * NV21Transform then NV21TOYUV420P,done in one pass.
+     */
+    static public void NV21TransformTOYUV420P(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag) {
+        if (useNative) {
+            nativeNV21TransformTOYUV420P(src, dst, srcwidth, srcheight, directionFlag);
+        } else {
+            JavaColorHelper.NV21TransformTOYUV420P(src, dst, srcwidth, srcheight, directionFlag);
+        }
+    }
+
+    /**
+     * transform & convert straight into a direct buffer such as an encoder input buffer,from position 0.
+     *
+     * @return false if nothing written (java implementation,heap or too small buffer),use the array version instead
+     */
+    static public boolean NV21TransformTOYUV420SP(byte[] src, ByteBuffer dst, int srcwidth, int srcheight, int directionFlag) {
+        return useNative && dst.isDirect() && nativeNV21TransformTOYUV420SPBuffer(src, dst, srcwidth, srcheight, directionFlag);
+    }
+
+    /**
+     * see {@link #NV21TransformTOYUV420SP(byte[], ByteBuffer, int, int, int)}
+     */
+    static public boolean NV21TransformTOYUV420P(byte[] src, ByteBuffer dst, int srcwidth, int srcheight, int directionFlag) {
+        return useNative && dst.isDirect() && nativeNV21TransformTOYUV420PBuffer(src, dst, srcwidth, srcheight, directionFlag);
+    }
+
+    /**
+     * @return threads a native conversion splits into,1 if native is not loaded
+     */
+    static int getConvertThreads() {
+        return nativeLoaded ? nativeGetConvertThreads() : 1;
+    }
+
+    static private native void nativeNV21TOYUV420SP(byte[] src, byte[] dst, int YSize);
+
+    static private native void nativeNV21TOYUV420P(byte[] src, byte[] dst, int YSize);
+
+    static private native boolean nativeNV21TOYUV420SPBuffer(byte[] src, ByteBuffer dst, int YSize);
+
+    static private native boolean nativeNV21TOYUV420PBuffer(byte[] src, ByteBuffer dst, int YSize);
+
+    static private native void nativeYUV420SPTOYUV420P(byte[] src, byte[] dst, int YSize);
+
+    static private native void nativeNV21TOARGB(byte[] src, int[] dst, int width, int height);
+
+    static private native void nativeFIXGLPIXEL(int[] src, int[] dst, int width, int height);
+
+    static private native void nativeNV21Transform(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag);
+
+    static private native void nativeNV21TransformTOYUV420SP(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag);
+
+    static private native void nativeNV21TransformTOYUV420P(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag);
+
+    static private native boolean nativeNV21TransformTOYUV420SPBuffer(byte[] src, ByteBuffer dst, int srcwidth, int srcheight, int directionFlag);
+
+    static private native boolean nativeNV21TransformTOYUV420PBuffer(byte[] src, ByteBuffer dst, int srcwidth, int srcheight, int directionFlag);
+
+    static private native int nativeGetConvertThreads();
 }
@@ -0,0 +1,63 @@
+package me.lake.librestreaming.core;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Marks a point in the command stream of the current context,the cpu can check whether the gpu got past it without waiting.<br/>
+ * built on es3 sync objects (GLES30,api 18),
+ * an es2 context has none,{@link #signal()} falls back to glFinish() there and the fence is passed on return.<br/>
+ * create,use & release on the gl thread,with the same context current.
+ */
+public class GLFence {
+    private final boolean useSync;
+    private long sync;
+    private boolean set;
+
+    /**
+     * @param useSync true if the context is es3,see {@link me.lake.librestreaming.model.OffScreenGLWapper#glVersion}
+     */
+    public GLFence(boolean useSync) {
+        this.useSync = useSync;
+    }
+
+    /**
+     * place the fence after every command issued so far,replaces the one placed before.
+     */
+    public void signal() {
+        release();
+        if (useSync) {
+            sync = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        } else {
+            GLES20.glFinish();
+        }
+        set = true;
+    }
+
+    /**
+     * @return true if signaled and not released yet
+     */
+    public boolean isSet() {
+        return set;
+    }
+
+    /**
+     * never blocks,pending commands are flushed so the fence is reached eventually.
+     *
+     * @return true once the gpu executed everything before the fence
+     */
+    public boolean isPassed() {
+        if (sync == 0) {
+            return set;
+        }
+        return GLES30.glClientWaitSync(sync, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0) != GLES30.GL_TIMEOUT_EXPIRED;
+    }
+
+    public void release() {
+        if (sync != 0) {
+            GLES30.glDeleteSync(sync);
+            sync = 0;
+        }
+        set = false;
+    }
+}
@@ -1,12 +1,10 @@
 package me.lake.librestreaming.core;
 
-import android.graphics.SurfaceTexture;
 import android.opengl.EGL14;
 import android.opengl.EGLConfig;
-import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
-import android.view.Surface;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -15,10 +13,8 @@ import java.nio.ShortBuffer;
 
 import javax.microedition.khronos.egl.EGL10;
 
-import me.lake.librestreaming.model.MediaCodecGLWapper;
 import me.lake.librestreaming.model.OffScreenGLWapper;
 import me.lake.librestreaming.model.RESCoreParameters;
-import me.lake.librestreaming.model.ScreenGLWapper;
 import me.lake.librestreaming.tools.GLESTools;
 
 /**
@@ -27,6 +23,7 @@ import me.lake.librestreaming.tools.GLESTools;
  */
 public class GLHelper {
     private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+    private static final int EGL_OPENGL_ES3_BIT_KHR = 0x0040;
     private static String VERTEXSHADER = "" +
             "attribute vec4 aPosition;\n" +
             "attribute vec2 aTextureCoord;\n" +
@@ -101,12 +98,7 @@ public class GLHelper {
             0.0f, 1.0f,
             0.0f, 0.0f,
             1.0f, 0.0f};
-    private static float MediaCodecTextureVertices[] = {
-            0.0f, 1.0f,
-            0.0f, 0.0f,
-            1.0f, 0.0f,
-            1.0f, 1.0f};
-    private static float ScreenTextureVertices[] = {
+    private static float OutputTextureVertices[] = {
             0.0f, 1.0f,
             0.0f, 0.0f,
             1.0f, 0.0f,
@@ -125,130 +117,69 @@ public class GLHelper {
         if (!EGL14.eglInitialize(wapper.eglDisplay, versions, 0, versions, 1)) {
             throw new RuntimeException("eglInitialize,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
         }
-        int configsCount[] = new int[1];
-        EGLConfig configs[] = new EGLConfig[1];
-        int configSpec[] = new int[]{
-                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
-                EGL14.EGL_RED_SIZE, 8,
-                EGL14.EGL_GREEN_SIZE, 8,
-                EGL14.EGL_BLUE_SIZE, 8,
-                EGL14.EGL_DEPTH_SIZE, 0,
-                EGL14.EGL_STENCIL_SIZE, 0,
-                EGL14.EGL_NONE
-        };
-        EGL14.eglChooseConfig(wapper.eglDisplay, configSpec, 0, configs, 0, 1, configsCount, 0);
-        if (configsCount[0] <= 0) {
+        //es3 when available,pixel buffer objects make readback asynchronous,see RESFrameReader
+        int clientVersion = 3;
+        wapper.eglConfig = chooseOffScreenConfig(wapper.eglDisplay, EGL14.EGL_OPENGL_ES2_BIT | EGL_OPENGL_ES3_BIT_KHR);
+        if (wapper.eglConfig == null) {
+            clientVersion = 2;
+            wapper.eglConfig = chooseOffScreenConfig(wapper.eglDisplay, EGL14.EGL_OPENGL_ES2_BIT);
+        }
+        if (wapper.eglConfig == null) {
             throw new RuntimeException("eglChooseConfig,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
         }
-        wapper.eglConfig = configs[0];
         int[] surfaceAttribs = {
                 EGL10.EGL_WIDTH, 1,
                 EGL10.EGL_HEIGHT, 1,
                 EGL14.EGL_NONE
         };
         int contextSpec[] = new int[]{
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
+                EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion,
                 EGL14.EGL_NONE
         };
         wapper.eglContext = EGL14.eglCreateContext(wapper.eglDisplay, wapper.eglConfig, EGL14.EGL_NO_CONTEXT, contextSpec, 0);
-        if (EGL14.EGL_NO_CONTEXT == wapper.eglContext) {
-            throw new RuntimeException("eglCreateContext,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-        int[] values = new int[1];
-        EGL14.eglQueryContext(wapper.eglDisplay, wapper.eglContext, EGL14.EGL_CONTEXT_CLIENT_VERSION, values, 0);
-        wapper.eglSurface = EGL14.eglCreatePbufferSurface(wapper.eglDisplay, wapper.eglConfig, surfaceAttribs, 0);
-        if (null == wapper.eglSurface || EGL14.EGL_NO_SURFACE == wapper.eglSurface) {
-            throw new RuntimeException("eglCreateWindowSurface,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
+        if (EGL14.EGL_NO_CONTEXT == wapper.eglContext && clientVersion == 3) {
+            contextSpec[1] = 2;
+            wapper.eglContext = EGL14.eglCreateContext(wapper.eglDisplay, wapper.eglConfig, EGL14.EGL_NO_CONTEXT, contextSpec, 0);
         }
-    }
-
-    public static void initMediaCodecGL(MediaCodecGLWapper wapper, EGLContext sharedContext, Surface mediaInputSurface) {
-        wapper.eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
-        if (EGL14.EGL_NO_DISPLAY == wapper.eglDisplay) {
-            throw new RuntimeException("eglGetDisplay,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-        int versions[] = new int[2];
-        if (!EGL14.eglInitialize(wapper.eglDisplay, versions, 0, versions, 1)) {
-            throw new RuntimeException("eglInitialize,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-        int configsCount[] = new int[1];
-        EGLConfig configs[] = new EGLConfig[1];
-        int configSpec[] = new int[]{
-                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
-                EGL14.EGL_RED_SIZE, 8,
-                EGL14.EGL_GREEN_SIZE, 8,
-                EGL14.EGL_BLUE_SIZE, 8,
-                EGL_RECORDABLE_ANDROID, 1,
-                EGL14.EGL_DEPTH_SIZE, 0,
-                EGL14.EGL_STENCIL_SIZE, 0,
-                EGL14.EGL_NONE
-        };
-        EGL14.eglChooseConfig(wapper.eglDisplay, configSpec, 0, configs, 0, 1, configsCount, 0);
-        if (configsCount[0] <= 0) {
-            throw new RuntimeException("eglChooseConfig,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-        wapper.eglConfig = configs[0];
-        int[] surfaceAttribs = {
-                EGL14.EGL_NONE
-        };
-        int contextSpec[] = new int[]{
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
-                EGL14.EGL_NONE
-        };
-        wapper.eglContext = EGL14.eglCreateContext(wapper.eglDisplay, wapper.eglConfig, sharedContext, contextSpec, 0);
         if (EGL14.EGL_NO_CONTEXT == wapper.eglContext) {
             throw new RuntimeException("eglCreateContext,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
         }
         int[] values = new int[1];
         EGL14.eglQueryContext(wapper.eglDisplay, wapper.eglContext, EGL14.EGL_CONTEXT_CLIENT_VERSION, values, 0);
-        wapper.eglSurface = EGL14.eglCreateWindowSurface(wapper.eglDisplay, wapper.eglConfig, mediaInputSurface, surfaceAttribs, 0);
+        wapper.glVersion = values[0];
+        wapper.eglSurface = EGL14.eglCreatePbufferSurface(wapper.eglDisplay, wapper.eglConfig, surfaceAttribs, 0);
         if (null == wapper.eglSurface || EGL14.EGL_NO_SURFACE == wapper.eglSurface) {
             throw new RuntimeException("eglCreateWindowSurface,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
         }
     }
 
-    public static void initScreenGL(ScreenGLWapper wapper, EGLContext sharedContext, SurfaceTexture screenSurface) {
-        wapper.eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
-        if (EGL14.EGL_NO_DISPLAY == wapper.eglDisplay) {
-            throw new RuntimeException("eglGetDisplay,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-        int versions[] = new int[2];
-        if (!EGL14.eglInitialize(wapper.eglDisplay, versions, 0, versions, 1)) {
-            throw new RuntimeException("eglInitialize,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
+    /**
+     * output window surfaces(encoder,preview) are created on this config too,see RESOutputSurfaceManager
+     *
+     * @return null if no config has renderableType
+     */
+    private static EGLConfig chooseOffScreenConfig(EGLDisplay eglDisplay, int renderableType) {
         int configsCount[] = new int[1];
         EGLConfig configs[] = new EGLConfig[1];
         int configSpec[] = new int[]{
-                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
                 EGL14.EGL_RED_SIZE, 8,
                 EGL14.EGL_GREEN_SIZE, 8,
                 EGL14.EGL_BLUE_SIZE, 8,
                 EGL14.EGL_DEPTH_SIZE, 0,
                 EGL14.EGL_STENCIL_SIZE, 0,
+                //keep it last,the fallback below cuts the list here
+                EGL_RECORDABLE_ANDROID, 1,
                 EGL14.EGL_NONE
         };
-        EGL14.eglChooseConfig(wapper.eglDisplay, configSpec, 0, configs, 0, 1, configsCount, 0);
+        EGL14.eglChooseConfig(eglDisplay, configSpec, 0, configs, 0, 1, configsCount, 0);
         if (configsCount[0] <= 0) {
-            throw new RuntimeException("eglChooseConfig,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-        wapper.eglConfig = configs[0];
-        int[] surfaceAttribs = {
-                EGL14.EGL_NONE
-        };
-        int contextSpec[] = new int[]{
-                EGL14.EGL_CONTEXT_CLIENT_VERSION, 2,
-                EGL14.EGL_NONE
-        };
-        wapper.eglContext = EGL14.eglCreateContext(wapper.eglDisplay, wapper.eglConfig, sharedContext, contextSpec, 0);
-        if (EGL14.EGL_NO_CONTEXT == wapper.eglContext) {
-            throw new RuntimeException("eglCreateContext,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-        int[] values = new int[1];
-        EGL14.eglQueryContext(wapper.eglDisplay, wapper.eglContext, EGL14.EGL_CONTEXT_CLIENT_VERSION, values, 0);
-        wapper.eglSurface = EGL14.eglCreateWindowSurface(wapper.eglDisplay, wapper.eglConfig, screenSurface, surfaceAttribs, 0);
-        if (null == wapper.eglSurface || EGL14.EGL_NO_SURFACE == wapper.eglSurface) {
-            throw new RuntimeException("eglCreateWindowSurface,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
+            //no recordable config,encoder surface may still accept it
+            configSpec[configSpec.length - 3] = EGL14.EGL_NONE;
+            EGL14.eglChooseConfig(eglDisplay, configSpec, 0, configs, 0, 1, configsCount, 0);
         }
+        return configsCount[0] <= 0 ? null : configs[0];
     }
 
     public static void makeCurrent(OffScreenGLWapper wapper) {
@@ -257,18 +188,6 @@ public class GLHelper {
         }
     }
 
-    public static void makeCurrent(MediaCodecGLWapper wapper) {
-        if (!EGL14.eglMakeCurrent(wapper.eglDisplay, wapper.eglSurface, wapper.eglSurface, wapper.eglContext)) {
-            throw new RuntimeException("eglMakeCurrent,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-    }
-
-    public static void makeCurrent(ScreenGLWapper wapper) {
-        if (!EGL14.eglMakeCurrent(wapper.eglDisplay, wapper.eglSurface, wapper.eglSurface, wapper.eglContext)) {
-            throw new RuntimeException("eglMakeCurrent,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
-        }
-    }
-
     public static void createCamFrameBuff(int[] frameBuffer, int[] frameBufferTex, int width, int height) {
         GLES20.glGenFramebuffers(1, frameBuffer, 0);
         GLES20.glGenTextures(1, frameBufferTex, 0);
@@ -313,11 +232,7 @@ public class GLHelper {
         return GLESTools.createProgram(VERTEXSHADER, FRAGMENTSHADER_CAMERA);
     }
 
-    public static int createMediaCodecProgram() {
-        return GLESTools.createProgram(VERTEXSHADER, FRAGMENTSHADER_2D);
-    }
-
-    public static int createScreenProgram() {
+    public static int createOutputProgram() {
         return GLESTools.createProgram(VERTEXSHADER, FRAGMENTSHADER_2D);
     }
 
@@ -339,20 +254,11 @@ public class GLHelper {
         return result;
     }
 
-    public static FloatBuffer getMediaCodecTextureVerticesBuffer() {
-        FloatBuffer result = ByteBuffer.allocateDirect(FLOAT_SIZE_BYTES * MediaCodecTextureVertices.length).
-                order(ByteOrder.nativeOrder()).
-                asFloatBuffer();
-        result.put(MediaCodecTextureVertices);
-        result.position(0);
-        return result;
-    }
-
-    public static FloatBuffer getScreenTextureVerticesBuffer() {
-        FloatBuffer result = ByteBuffer.allocateDirect(FLOAT_SIZE_BYTES * ScreenTextureVertices.length).
+    public static FloatBuffer getOutputTextureVerticesBuffer() {
+        FloatBuffer result = ByteBuffer.allocateDirect(FLOAT_SIZE_BYTES * OutputTextureVertices.length).
                 order(ByteOrder.nativeOrder()).
                 asFloatBuffer();
-        result.put(ScreenTextureVertices);
+        result.put(OutputTextureVertices);
         result.position(0);
         return result;
     }
@@ -0,0 +1,111 @@
+package me.lake.librestreaming.core;
+
+import android.opengl.GLES20;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Full screen quad kept in buffer objects,uploaded once instead of every draw.<br/>
+ * texture coordinates live in their own buffers,see {@link #createTextureCoordBuffer(FloatBuffer)}.<br/>
+ * {@link #disable(int, int)} unbinds the buffers,so passes using client side arrays keep working.<br/>
+ * create,use & release on the same gl context.
+ */
+public class GLQuad {
+    private final int indexBuffer;
+    private final int shapeBuffer;
+    private final int indexCount;
+
+    public GLQuad() {
+        int[] buffers = new int[2];
+        GLES20.glGenBuffers(2, buffers, 0);
+        indexBuffer = buffers[0];
+        shapeBuffer = buffers[1];
+        ShortBuffer indices = GLHelper.getDrawIndecesBuffer();
+        indexCount = indices.limit();
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexCount * GLHelper.SHORT_SIZE_BYTES, indices, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        FloatBuffer shape = GLHelper.getShapeVerticesBuffer();
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, shapeBuffer);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, shape.limit() * GLHelper.FLOAT_SIZE_BYTES, shape, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * @param textureCoords 4 (s,t) pairs
+     * @return buffer object,delete with {@link #deleteBuffer(int)}
+     */
+    public static int createTextureCoordBuffer(FloatBuffer textureCoords) {
+        int[] buffers = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+        textureCoords.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, textureCoords.limit() * GLHelper.FLOAT_SIZE_BYTES, textureCoords, GLES20.GL_DYNAMIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        return buffers[0];
+    }
+
+    /**
+     * replace the coordinates,same size as created.
+     */
+    public static void updateTextureCoordBuffer(int textureCoordBuffer, FloatBuffer textureCoords) {
+        textureCoords.position(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, textureCoordBuffer);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, textureCoords.limit() * GLHelper.FLOAT_SIZE_BYTES, textureCoords);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    public static void deleteBuffer(int buffer) {
+        GLES20.glDeleteBuffers(1, new int[]{buffer}, 0);
+    }
+
+    /**
+     * point position at the quad & texture coordinates at textureCoordBuffer.
+     */
+    public void enable(int posLoc, int texLoc, int textureCoordBuffer) {
+        enableShape(posLoc);
+        setTextureCoord(texLoc, textureCoordBuffer);
+    }
+
+    /**
+     * point position at the quad only.
+     */
+    public void enableShape(int posLoc) {
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, shapeBuffer);
+        GLES20.glEnableVertexAttribArray(posLoc);
+        GLES20.glVertexAttribPointer(posLoc, GLHelper.COORDS_PER_VERTEX,
+                GLES20.GL_FLOAT, false,
+                GLHelper.COORDS_PER_VERTEX * GLHelper.FLOAT_SIZE_BYTES, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * point texture coordinates at textureCoordBuffer,may be switched between draws.
+     */
+    public void setTextureCoord(int texLoc, int textureCoordBuffer) {
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, textureCoordBuffer);
+        GLES20.glEnableVertexAttribArray(texLoc);
+        GLES20.glVertexAttribPointer(texLoc, GLHelper.TEXTURE_COORDS_PER_VERTEX,
+                GLES20.GL_FLOAT, false,
+                GLHelper.TEXTURE_COORDS_PER_VERTEX * GLHelper.FLOAT_SIZE_BYTES, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    public void draw() {
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    public void disable(int posLoc, int texLoc) {
+        GLES20.glDisableVertexAttribArray(posLoc);
+        GLES20.glDisableVertexAttribArray(texLoc);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    public void release() {
+        GLES20.glDeleteBuffers(2, new int[]{indexBuffer, shapeBuffer}, 0);
+    }
+}
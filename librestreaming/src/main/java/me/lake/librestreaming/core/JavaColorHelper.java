@@ -0,0 +1,266 @@
+package me.lake.librestreaming.core;
+
+import me.lake.librestreaming.model.RESCoreParameters;
+
+/**
+ * Pure java version of the conversions in colorConvert.c,same signatures & same output as {@link ColorHelper}.<br/>
+ * used when librestreaming is not loaded (plain jvm,missing abi),or when selected by {@link ColorHelper#setImplementation(int)}.<br/>
+ * loops keep a plain index over local arrays so the jit can hoist most range checks,
+ * whole rows are moved with System.arraycopy.
+ */
+@SuppressWarnings("all")
+public class JavaColorHelper {
+    //rotation is done in TILE_SIZE x TILE_SIZE blocks to keep both sides in cache
+    private static final int TILE_SIZE = 32;
+    //output layouts of transform
+    private static final int FORMAT_NV21 = 0;
+    private static final int FORMAT_YUV420SP = 1;
+    private static final int FORMAT_YUV420P = 2;
+
+    static public void NV21TOYUV420SP(byte[] src, byte[] dst, int YSize) {
+        System.arraycopy(src, 0, dst, 0, YSize);
+        int end = YSize + (YSize >> 1);
+        for (int i = YSize; i < end; i += 2) {
+            byte v = src[i];
+            dst[i] = src[i + 1];
+            dst[i + 1] = v;
+        }
+    }
+
+    static public void NV21TOYUV420P(byte[] src, byte[] dst, int YSize) {
+        System.arraycopy(src, 0, dst, 0, YSize);
+        int uSize = YSize >> 2;
+        int uStart = YSize;
+        int vStart = YSize + uSize;
+        for (int i = 0, uv = YSize; i < uSize; ++i, uv += 2) {
+            dst[uStart + i] = src[uv + 1];
+            dst[vStart + i] = src[uv];
+        }
+    }
+
+    static public void YUV420SPTOYUV420P(byte[] src, byte[] dst, int YSize) {
+        System.arraycopy(src, 0, dst, 0, YSize);
+        int uSize = YSize >> 2;
+        int uStart = YSize;
+        int vStart = YSize + uSize;
+        for (int i = 0, uv = YSize; i < uSize; ++i, uv += 2) {
+            dst[uStart + i] = src[uv];
+            dst[vStart + i] = src[uv + 1];
+        }
+    }
+
+    static public void NV21TOARGB(byte[] src, int[] dst, int width, int height) {
+        int frameSize = width * height;
+        int yp = 0;
+        for (int j = 0; j < height; ++j) {
+            int uvp = frameSize + (j >> 1) * width;
+            int u = 0;
+            int v = 0;
+            for (int i = 0; i < width; ++i, ++yp) {
+                int y = (0xff & src[yp]) - 16;
+                if (y < 0) {
+                    y = 0;
+                }
+                if ((i & 1) == 0) {
+                    v = (0xff & src[uvp++]) - 128;
+                    u = (0xff & src[uvp++]) - 128;
+                }
+                int y1192 = 1192 * y;
+                int r = (y1192 + 1634 * v);
+                int g = (y1192 - 833 * v - 400 * u);
+                int b = (y1192 + 2066 * u);
+                if (r < 0) r = 0;
+                else if (r > 262143) r = 262143;
+                if (g < 0) g = 0;
+                else if (g > 262143) g = 262143;
+                if (b < 0) b = 0;
+                else if (b > 262143) b = 262143;
+                dst[yp] = 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+            }
+        }
+    }
+
+    /**
+     * flip vertically & swap R,B of every pixel,glReadPixels RGBA to ARGB.
+     */
+    static public void FIXGLPIXEL(int[] src, int[] dst, int width, int height) {
+        for (int y = 0; y < height; ++y) {
+            int s = y * width;
+            int d = (height - y - 1) * width;
+            for (int x = 0; x < width; ++x) {
+                int p = src[s + x];
+                dst[d + x] = (p & 0xff00ff00) | ((p & 0xff) << 16) | ((p >> 16) & 0xff);
+            }
+        }
+    }
+
+    static public void NV21Transform(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag) {
+        transform(src, dst, srcwidth, srcheight, directionFlag, FORMAT_NV21);
+    }
+
+    /**
+     * NV21Transform & NV21TOYUV420SP in one pass.
+     */
+    static public void NV21TransformTOYUV420SP(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag) {
+        transform(src, dst, srcwidth, srcheight, directionFlag, FORMAT_YUV420SP);
+    }
+
+    /**
+     * NV21Transform & NV21TOYUV420P in one pass.
+     */
+    static public void NV21TransformTOYUV420P(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag) {
+        transform(src, dst, srcwidth, srcheight, directionFlag, FORMAT_YUV420P);
+    }
+
+    private static void transform(byte[] src, byte[] dst, int srcwidth, int srcheight, int directionFlag, int dstFormat) {
+        boolean rotate;
+        boolean hflip;
+        boolean vflip;
+        boolean flagH = (RESCoreParameters.FLAG_DIRECTION_FLIP_HORIZONTAL & directionFlag) != 0;
+        boolean flagV = (RESCoreParameters.FLAG_DIRECTION_FLIP_VERTICAL & directionFlag) != 0;
+        rotate = (RESCoreParameters.FLAG_DIRECTION_ROATATION_0 & directionFlag) == 0
+                && (RESCoreParameters.FLAG_DIRECTION_ROATATION_180 & directionFlag) == 0;
+        if ((RESCoreParameters.FLAG_DIRECTION_ROATATION_0 & directionFlag) != 0
+                || (RESCoreParameters.FLAG_DIRECTION_ROATATION_90 & directionFlag) != 0) {
+            hflip = flagH;
+            vflip = flagV;
+        } else {
+            //180 & 270 are 0 & 90 flipped both ways
+            hflip = !flagH;
+            vflip = !flagV;
+        }
+        int ySize = srcwidth * srcheight;
+        int uSize = ySize >> 2;
+        int halfWidth = srcwidth >> 1;
+        int uvHeight = srcheight >> 1;
+        transformLuma(src, dst, srcwidth, srcheight, rotate,
+                mapYStart(rotate, hflip, vflip, srcwidth, srcheight),
+                mapYStep(rotate, vflip, srcwidth),
+                mapXStep(rotate, hflip, srcheight));
+        int uOffset;
+        int vOffset;
+        int pairStride;
+        if (dstFormat == FORMAT_YUV420P) {
+            uOffset = ySize;
+            vOffset = ySize + uSize;
+            pairStride = 1;
+        } else if (dstFormat == FORMAT_YUV420SP) {
+            uOffset = ySize;
+            vOffset = ySize + 1;
+            pairStride = 2;
+        } else {
+            uOffset = ySize + 1;
+            vOffset = ySize;
+            pairStride = 2;
+        }
+        transformChroma(src, ySize, dst, uOffset, vOffset, pairStride, halfWidth, uvHeight, rotate,
+                mapYStart(rotate, hflip, vflip, halfWidth, uvHeight) * pairStride,
+                mapYStep(rotate, vflip, halfWidth) * pairStride,
+                mapXStep(rotate, hflip, uvHeight) * pairStride);
+    }
+
+    /**
+     * element (srcX,srcY) of a width x height plane lands at yStart+srcY*yStep+srcX*xStep.
+     */
+    private static int mapYStart(boolean rotate, boolean hflip, boolean vflip, int width, int height) {
+        int planeSize = width * height;
+        if (rotate) {
+            if (hflip) {
+                return vflip ? planeSize - height : planeSize - 1;
+            }
+            return vflip ? 0 : height - 1;
+        }
+        return (vflip ? planeSize - width : 0) + (hflip ? width - 1 : 0);
+    }
+
+    private static int mapYStep(boolean rotate, boolean vflip, int width) {
+        if (rotate) {
+            return vflip ? 1 : -1;
+        }
+        return vflip ? -width : width;
+    }
+
+    private static int mapXStep(boolean rotate, boolean hflip, int height) {
+        if (rotate) {
+            return hflip ? -height : height;
+        }
+        return hflip ? -1 : 1;
+    }
+
+    private static void transformLuma(byte[] src, byte[] dst, int width, int height, boolean rotate,
+                                      int yStart, int yStep, int xStep) {
+        if (xStep == 1) {
+            for (int srcY = 0; srcY < height; ++srcY) {
+                System.arraycopy(src, srcY * width, dst, yStart + srcY * yStep, width);
+            }
+            return;
+        }
+        if (!rotate) {
+            for (int srcY = 0; srcY < height; ++srcY) {
+                int s = srcY * width;
+                int d = yStart + srcY * yStep;
+                for (int srcX = 0; srcX < width; ++srcX) {
+                    dst[d - srcX] = src[s + srcX];
+                }
+            }
+            return;
+        }
+        for (int tileRow = 0; tileRow < height; tileRow += TILE_SIZE) {
+            int tileRowEnd = Math.min(tileRow + TILE_SIZE, height);
+            for (int tileCol = 0; tileCol < width; tileCol += TILE_SIZE) {
+                int tileColEnd = Math.min(tileCol + TILE_SIZE, width);
+                for (int srcY = tileRow; srcY < tileRowEnd; ++srcY) {
+                    int s = srcY * width;
+                    int d = yStart + srcY * yStep + tileCol * xStep;
+                    for (int srcX = tileCol; srcX < tileColEnd; ++srcX) {
+                        dst[d] = src[s + srcX];
+                        d += xStep;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * NV21 vu pairs from srcOffset,pair k goes to dst[uOffset+k*pairStride] & dst[vOffset+k*pairStride].
+     * steps are in bytes,already scaled by pairStride.
+     */
+    private static void transformChroma(byte[] src, int srcOffset, byte[] dst, int uOffset, int vOffset, int pairStride,
+                                        int width, int height, boolean rotate, int yStart, int yStep, int xStep) {
+        int rowBytes = width * 2;
+        if (!rotate) {
+            if (xStep == 2 && vOffset + 1 == uOffset) {
+                //NV21 to NV21,rows stay whole
+                for (int srcY = 0; srcY < height; ++srcY) {
+                    System.arraycopy(src, srcOffset + srcY * rowBytes, dst, vOffset + yStart + srcY * yStep, rowBytes);
+                }
+                return;
+            }
+            for (int srcY = 0; srcY < height; ++srcY) {
+                int s = srcOffset + srcY * rowBytes;
+                int d = yStart + srcY * yStep;
+                for (int srcX = 0; srcX < width; ++srcX) {
+                    dst[vOffset + d] = src[s + 2 * srcX];
+                    dst[uOffset + d] = src[s + 2 * srcX + 1];
+                    d += xStep;
+                }
+            }
+            return;
+        }
+        for (int tileRow = 0; tileRow < height; tileRow += TILE_SIZE) {
+            int tileRowEnd = Math.min(tileRow + TILE_SIZE, height);
+            for (int tileCol = 0; tileCol < width; tileCol += TILE_SIZE) {
+                int tileColEnd = Math.min(tileCol + TILE_SIZE, width);
+                for (int srcY = tileRow; srcY < tileRowEnd; ++srcY) {
+                    int s = srcOffset + srcY * rowBytes;
+                    int d = yStart + srcY * yStep + tileCol * xStep;
+                    for (int srcX = tileCol; srcX < tileColEnd; ++srcX) {
+                        dst[vOffset + d] = src[s + 2 * srcX];
+                        dst[uOffset + d] = src[s + 2 * srcX + 1];
+                        d += xStep;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -75,6 +75,27 @@ public class Packager {
             }
         }
 
+        /**
+         * same with {@link #fillFlvVideoTag(byte[], int, boolean, boolean, int)},absolute puts.
+         */
+        public static void fillFlvVideoTag(ByteBuffer dst, int pos, boolean isAVCSequenceHeader, boolean isIDR, int readDataLength) {
+            //FrameType&CodecID
+            dst.put(pos, isIDR ? (byte) 0x17 : (byte) 0x27);
+            //AVCPacketType
+            dst.put(pos + 1, isAVCSequenceHeader ? (byte) 0x00 : (byte) 0x01);
+            //LAKETODO CompositionTime
+            dst.put(pos + 2, (byte) 0x00);
+            dst.put(pos + 3, (byte) 0x00);
+            dst.put(pos + 4, (byte) 0x00);
+            if (!isAVCSequenceHeader) {
+                //NALU HEADER,big-endian
+                dst.put(pos + 5, (byte) ((readDataLength >> 24) & 0xFF));
+                dst.put(pos + 6, (byte) ((readDataLength >> 16) & 0xFF));
+                dst.put(pos + 7, (byte) ((readDataLength >> 8) & 0xFF));
+                dst.put(pos + 8, (byte) ((readDataLength) & 0xFF));
+            }
+        }
+
         public static void fillFlvAudioTag(byte[] dst, int pos, boolean isAACSequenceHeader) {
             /**
              * UB[4] 10=AAC
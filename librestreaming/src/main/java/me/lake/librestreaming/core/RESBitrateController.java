@@ -0,0 +1,158 @@
+package me.lake.librestreaming.core;
+
+import me.lake.librestreaming.core.listener.RESBitrateChangeListener;
+
+/**
+ * AIMD video bitrate controller.<br/>
+ * fed with send queue occupancy and measured video throughput every sample,
+ * decrease bitrate multiplicatively when the queue is crowded,
+ * increase it additively when the queue stays clear.<br/>
+ * holds no timer and touches no encoder,see {@link #onSample(float, int, int)}.
+ */
+public class RESBitrateController {
+    private final int minBitrate;
+    private final int maxBitrate;
+    private float congestedFreePercent = 0.5f;
+    private float clearFreePercent = 0.9f;
+    private float decreaseFactor = 0.75f;
+    private int increaseStep;
+    private int increaseAfterSamples = 3;
+    private int holdAfterDecreaseSamples = 5;
+    private int minDecreaseIntervalSamples = 2;
+
+    private int clearStreak;
+    private int sinceLastDecrease;
+    private int lastReason;
+
+    /**
+     * @param minBitrate floor bits/sec
+     * @param maxBitrate ceiling bits/sec
+     */
+    public RESBitrateController(int minBitrate, int maxBitrate) {
+        if (minBitrate <= 0 || maxBitrate < minBitrate) {
+            throw new IllegalArgumentException("invalid bitrate range:[" + minBitrate + "," + maxBitrate + "]");
+        }
+        this.minBitrate = minBitrate;
+        this.maxBitrate = maxBitrate;
+        increaseStep = Math.max(maxBitrate / 20, 1);
+        reset();
+    }
+
+    /**
+     * @param congestedFreePercent decrease when free percent of send buffer below it
+     * @param clearFreePercent     may increase when free percent of send buffer above it
+     */
+    public void setThreshold(float congestedFreePercent, float clearFreePercent) {
+        if (clearFreePercent < congestedFreePercent) {
+            throw new IllegalArgumentException("clearFreePercent should not be less than congestedFreePercent");
+        }
+        this.congestedFreePercent = congestedFreePercent;
+        this.clearFreePercent = clearFreePercent;
+    }
+
+    /**
+     * @param decreaseFactor multiplicative decrease,(0.0f,1.0f)
+     * @param increaseStep   additive increase bits/sec
+     */
+    public void setStep(float decreaseFactor, int increaseStep) {
+        if (decreaseFactor <= 0f || decreaseFactor >= 1f || increaseStep <= 0) {
+            throw new IllegalArgumentException("invalid step:decreaseFactor=" + decreaseFactor + ",increaseStep=" + increaseStep);
+        }
+        this.decreaseFactor = decreaseFactor;
+        this.increaseStep = increaseStep;
+    }
+
+    /**
+     * @param increaseAfterSamples       clear samples in a row needed before an increase
+     * @param holdAfterDecreaseSamples   samples to wait after a decrease before any increase
+     * @param minDecreaseIntervalSamples samples between two decreases
+     */
+    public void setHysteresis(int increaseAfterSamples, int holdAfterDecreaseSamples, int minDecreaseIntervalSamples) {
+        this.increaseAfterSamples = Math.max(1, increaseAfterSamples);
+        this.holdAfterDecreaseSamples = Math.max(0, holdAfterDecreaseSamples);
+        this.minDecreaseIntervalSamples = Math.max(1, minDecreaseIntervalSamples);
+    }
+
+    public int getMinBitrate() {
+        return minBitrate;
+    }
+
+    public int getMaxBitrate() {
+        return maxBitrate;
+    }
+
+    /**
+     * @return reason of the last change,0 if nothing changed yet
+     */
+    public int getLastReason() {
+        return lastReason;
+    }
+
+    public void reset() {
+        clearStreak = 0;
+        sinceLastDecrease = Integer.MAX_VALUE / 2;
+        lastReason = 0;
+    }
+
+    /**
+     * call instead of {@link #onSample(float, int, int)} while the link is down (e.g. reconnecting),
+     * queue & throughput say nothing about the link then.<br/>
+     * once samples resume,waits as after a decrease so the backlog flush is not taken for congestion.
+     */
+    public void hold() {
+        clearStreak = 0;
+        sinceLastDecrease = 0;
+    }
+
+    /**
+     * @param sendBufferFreePercent free percent of send buffer [0.0f,1.0f]
+     * @param videoSpeed            measured video send speed B/s,0 if unknown
+     * @param currentBitrate        bitrate in use,bits/sec
+     * @return the bitrate to apply,equals to currentBitrate if nothing to change
+     */
+    public int onSample(float sendBufferFreePercent, int videoSpeed, int currentBitrate) {
+        if (sinceLastDecrease < Integer.MAX_VALUE / 2) {
+            ++sinceLastDecrease;
+        }
+        if (currentBitrate < minBitrate || currentBitrate > maxBitrate) {
+            clearStreak = 0;
+            lastReason = RESBitrateChangeListener.REASON_OUT_OF_RANGE;
+            return clamp(currentBitrate);
+        }
+        if (sendBufferFreePercent < congestedFreePercent) {
+            clearStreak = 0;
+            if (sinceLastDecrease < minDecreaseIntervalSamples) {
+                return currentBitrate;
+            }
+            long target = (long) (currentBitrate * decreaseFactor);
+            long measured = (long) videoSpeed * 8;
+            if (measured > 0 && measured < target) {
+                target = measured;
+            }
+            int res = clamp(target);
+            if (res != currentBitrate) {
+                sinceLastDecrease = 0;
+                lastReason = RESBitrateChangeListener.REASON_CONGESTED;
+            }
+            return res;
+        }
+        if (sendBufferFreePercent >= clearFreePercent) {
+            ++clearStreak;
+            if (clearStreak >= increaseAfterSamples && sinceLastDecrease >= holdAfterDecreaseSamples) {
+                clearStreak = 0;
+                int res = clamp((long) currentBitrate + increaseStep);
+                if (res != currentBitrate) {
+                    lastReason = RESBitrateChangeListener.REASON_RECOVERED;
+                }
+                return res;
+            }
+            return currentBitrate;
+        }
+        clearStreak = 0;
+        return currentBitrate;
+    }
+
+    private int clamp(long bitrate) {
+        return (int) Math.min(Math.max(bitrate, minBitrate), maxBitrate);
+    }
+}
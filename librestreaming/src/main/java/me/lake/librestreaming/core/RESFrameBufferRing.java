@@ -0,0 +1,168 @@
+package me.lake.librestreaming.core;
+
+import android.opengl.GLES20;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring of framebuffer/texture pairs between camera copy and filter of the hard core.<br/>
+ * the camera copy writes a free slot and publishes it,the draw takes the newest published slot and frees it when done,
+ * so the camera never rewrites the texture the filter and outputs are reading.<br/>
+ * slots are written round robin,a freed slot is rewritten as late as possible.<br/>
+ * when no slot is free the oldest published one is overwritten.<br/>
+ * gl thread only,except the statistics.
+ */
+class RESFrameBufferRing {
+    static final int FREE = 0;
+    static final int WRITING = 1;
+    static final int READY = 2;
+    static final int READING = 3;
+
+    private final int[] frameBuffers;
+    private final int[] frameBufferTextures;
+    private final int[] states;
+    private final long[] sequences;
+    private long publishSequence;
+    private int nextWriteIndex;
+    //statistics
+    private final AtomicLong publishedFrames = new AtomicLong(0);
+    private final AtomicLong droppedFrames = new AtomicLong(0);
+    private volatile int occupancy;
+
+    /**
+     * @param slotNum at least 2,one being written and one being read
+     */
+    RESFrameBufferRing(int slotNum) {
+        if (slotNum < 2) {
+            throw new IllegalArgumentException("invalid framebuffer ring slot num:" + slotNum);
+        }
+        frameBuffers = new int[slotNum];
+        frameBufferTextures = new int[slotNum];
+        states = new int[slotNum];
+        sequences = new long[slotNum];
+    }
+
+    /**
+     * create every slot with the given size,all slots become free.
+     */
+    void create(int width, int height) {
+        int[] fb = new int[1], fbt = new int[1];
+        for (int i = 0; i < frameBuffers.length; ++i) {
+            GLHelper.createCamFrameBuff(fb, fbt, width, height);
+            frameBuffers[i] = fb[0];
+            frameBufferTextures[i] = fbt[0];
+            states[i] = FREE;
+        }
+        updateOccupancy();
+    }
+
+    void destroy() {
+        GLES20.glDeleteFramebuffers(frameBuffers.length, frameBuffers, 0);
+        GLES20.glDeleteTextures(frameBufferTextures.length, frameBufferTextures, 0);
+    }
+
+    /**
+     * @return slot to draw the camera frame into,call {@link #endWrite(int)} after drawing
+     */
+    int beginWrite() {
+        int index = -1;
+        for (int i = 0; i < states.length; ++i) {
+            int candidate = (nextWriteIndex + i) % states.length;
+            if (states[candidate] == FREE) {
+                index = candidate;
+                break;
+            }
+        }
+        if (index < 0) {
+            //overwrite the oldest frame the draw did not take
+            for (int i = 0; i < states.length; ++i) {
+                if (states[i] == READY && (index < 0 || sequences[i] < sequences[index])) {
+                    index = i;
+                }
+            }
+            droppedFrames.incrementAndGet();
+        }
+        states[index] = WRITING;
+        nextWriteIndex = (index + 1) % states.length;
+        updateOccupancy();
+        return index;
+    }
+
+    void endWrite(int index) {
+        states[index] = READY;
+        sequences[index] = ++publishSequence;
+        publishedFrames.incrementAndGet();
+        updateOccupancy();
+    }
+
+    /**
+     * take the newest published slot,older published slots will never be drawn and are freed.
+     *
+     * @return slot to read,-1 if nothing new.call {@link #endRead(int)} after reading
+     */
+    int beginRead() {
+        int index = -1;
+        for (int i = 0; i < states.length; ++i) {
+            if (states[i] == READY && (index < 0 || sequences[i] > sequences[index])) {
+                index = i;
+            }
+        }
+        if (index < 0) {
+            return -1;
+        }
+        for (int i = 0; i < states.length; ++i) {
+            if (i != index && states[i] == READY) {
+                states[i] = FREE;
+                droppedFrames.incrementAndGet();
+            }
+        }
+        states[index] = READING;
+        updateOccupancy();
+        return index;
+    }
+
+    void endRead(int index) {
+        states[index] = FREE;
+        updateOccupancy();
+    }
+
+    int getFrameBuffer(int index) {
+        return frameBuffers[index];
+    }
+
+    int getFrameBufferTexture(int index) {
+        return frameBufferTextures[index];
+    }
+
+    int getSlotNum() {
+        return states.length;
+    }
+
+    long getPublishedFrames() {
+        return publishedFrames.get();
+    }
+
+    /**
+     * @return camera frames copied but replaced before they were drawn
+     */
+    long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return slots not free,being written,waiting or being read
+     */
+    int getOccupancy() {
+        return occupancy;
+    }
+
+    private void updateOccupancy() {
+        int res = 0;
+        for (int state : states) {
+            if (state != FREE) {
+                ++res;
+            }
+        }
+        occupancy = res;
+    }
+}
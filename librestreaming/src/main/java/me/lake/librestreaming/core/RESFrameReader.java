@@ -0,0 +1,420 @@
+package me.lake.librestreaming.core;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import me.lake.librestreaming.client.CallbackDelivery;
+import me.lake.librestreaming.core.listener.RESFrameTapListener;
+import me.lake.librestreaming.core.listener.RESScreenShotListener;
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * Reads filtered frames back for screenshots & frame taps without stalling the draw loop.<br/>
+ * on es3 glReadPixels goes into a pixel buffer object guarded by a {@link GLFence},
+ * the buffer is mapped on a later frame once the fence signaled,so the gl thread never waits for the gpu.<br/>
+ * on es2 glReadPixels stays synchronous.<br/>
+ * either way pixels are copied into reused buffers,flipped & turned into bitmaps on the reader thread.<br/>
+ * request from any thread,{@link #initGL(boolean)},{@link #onFrame(int, int, int, long)} & {@link #releaseGL()} on the gl thread.
+ */
+class RESFrameReader {
+    private static final int PIXEL_BUFFER_NUM = 2;
+    //frames being delivered on the reader thread
+    private static final int FRAME_NUM = 2;
+    private static final int WHAT_FRAME = 1;
+
+    private final Object syncRequests = new Object();
+    private RESScreenShotListener screenShotListener;
+    private final ArrayList<FrameTap> frameTaps = new ArrayList<>();
+
+    private final ArrayBlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<>(FRAME_NUM);
+    private HandlerThread readerThread;
+    private volatile Handler readerHandler;
+
+    //gl thread only
+    private boolean usePixelBuffer;
+    private final int[] pixelBuffers = new int[PIXEL_BUFFER_NUM];
+    private final GLFence[] fences = new GLFence[PIXEL_BUFFER_NUM];
+    private final ReadRequest[] readRequests = new ReadRequest[PIXEL_BUFFER_NUM];
+    private int issueIndex;
+    private int collectIndex;
+    private int width;
+    private int height;
+
+    RESFrameReader() {
+        for (int i = 0; i < FRAME_NUM; ++i) {
+            freeFrames.offer(new Frame());
+        }
+        for (int i = 0; i < PIXEL_BUFFER_NUM; ++i) {
+            readRequests[i] = new ReadRequest();
+        }
+    }
+
+    void start() {
+        readerThread = new HandlerThread("FrameReaderThread");
+        readerThread.start();
+        readerHandler = new ReaderHandler(readerThread.getLooper());
+    }
+
+    /**
+     * frames already read are still delivered.
+     */
+    void quit() {
+        readerThread.quitSafely();
+        try {
+            readerThread.join();
+        } catch (InterruptedException ignored) {
+        }
+        readerThread = null;
+        readerHandler = null;
+    }
+
+    /**
+     * read the next drawn frame,see {@link RESHardVideoCore#takeScreenShot(RESScreenShotListener)}
+     */
+    void requestScreenShot(RESScreenShotListener listener) {
+        synchronized (syncRequests) {
+            screenShotListener = listener;
+        }
+    }
+
+    /**
+     * @param intervalMs least time between two frames delivered to listener
+     */
+    void addFrameTap(RESFrameTapListener listener, int intervalMs) {
+        synchronized (syncRequests) {
+            removeFrameTap(listener);
+            frameTaps.add(new FrameTap(listener, intervalMs * 1000000L));
+        }
+    }
+
+    /**
+     * a frame already read may still be delivered to listener.
+     */
+    void removeFrameTap(RESFrameTapListener listener) {
+        synchronized (syncRequests) {
+            for (int i = frameTaps.size() - 1; i >= 0; --i) {
+                if (frameTaps.get(i).listener == listener) {
+                    frameTaps.remove(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param usePixelBuffer true if the context is es3
+     */
+    void initGL(boolean usePixelBuffer) {
+        this.usePixelBuffer = usePixelBuffer;
+        if (usePixelBuffer) {
+            GLES30.glGenBuffers(PIXEL_BUFFER_NUM, pixelBuffers, 0);
+            for (int i = 0; i < PIXEL_BUFFER_NUM; ++i) {
+                fences[i] = new GLFence(true);
+            }
+        }
+        width = 0;
+        height = 0;
+        issueIndex = 0;
+        collectIndex = 0;
+    }
+
+    void releaseGL() {
+        if (usePixelBuffer) {
+            cancelReads();
+            GLES30.glDeleteBuffers(PIXEL_BUFFER_NUM, pixelBuffers, 0);
+        }
+    }
+
+    /**
+     * deliver frames read earlier whose pixels arrived,then read this frame if someone asks for it.
+     *
+     * @param frameBuffer holds the filtered frame
+     */
+    void onFrame(int frameBuffer, int width, int height, long presentationTimeNs) {
+        if (width != this.width || height != this.height) {
+            resize(width, height);
+        }
+        if (usePixelBuffer) {
+            collectPixelBuffers();
+            readToPixelBuffer(frameBuffer, presentationTimeNs);
+        } else {
+            readDirectly(frameBuffer, presentationTimeNs);
+        }
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        if (usePixelBuffer) {
+            cancelReads();
+            for (int pixelBuffer : pixelBuffers) {
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffer);
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, width * height * 4, null, GLES30.GL_STREAM_READ);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+    }
+
+    /**
+     * drop reads in flight,screenshot requests are kept for the next frame.
+     */
+    private void cancelReads() {
+        for (int i = 0; i < PIXEL_BUFFER_NUM; ++i) {
+            if (fences[i].isSet()) {
+                fences[i].release();
+                ReadRequest request = readRequests[i];
+                if (request.screenShotListener != null) {
+                    synchronized (syncRequests) {
+                        if (screenShotListener == null) {
+                            screenShotListener = request.screenShotListener;
+                        }
+                    }
+                }
+                request.clear();
+            }
+        }
+        issueIndex = 0;
+        collectIndex = 0;
+    }
+
+    private void readToPixelBuffer(int frameBuffer, long presentationTimeNs) {
+        int index = issueIndex;
+        if (fences[index].isSet()) {
+            //every pixel buffer in flight,requests wait for the next frame
+            return;
+        }
+        ReadRequest request = readRequests[index];
+        if (!takeRequests(request, presentationTimeNs)) {
+            return;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[index]);
+        GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        fences[index].signal();
+        issueIndex = (index + 1) % PIXEL_BUFFER_NUM;
+    }
+
+    /**
+     * in read order,stops at the first buffer still being written.
+     */
+    private void collectPixelBuffers() {
+        while (fences[collectIndex].isSet()) {
+            int index = collectIndex;
+            if (!fences[index].isPassed()) {
+                return;
+            }
+            Frame frame = freeFrames.poll();
+            if (frame == null) {
+                //reader thread still busy,keep the pixels on the gpu side
+                return;
+            }
+            fences[index].release();
+            frame.prepare(width, height);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[index]);
+            ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, width * height * 4, GLES30.GL_MAP_READ_BIT);
+            if (mapped != null) {
+                frame.pixels.put(mapped);
+                frame.valid = true;
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            } else {
+                LogTools.e("RESFrameReader,glMapBufferRange failed:" + GLES20.glGetError());
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            deliver(frame, readRequests[index]);
+            collectIndex = (index + 1) % PIXEL_BUFFER_NUM;
+        }
+    }
+
+    private void readDirectly(int frameBuffer, long presentationTimeNs) {
+        Frame frame = freeFrames.poll();
+        if (frame == null) {
+            return;
+        }
+        ReadRequest request = readRequests[0];
+        if (!takeRequests(request, presentationTimeNs)) {
+            freeFrames.offer(frame);
+            return;
+        }
+        frame.prepare(width, height);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, frame.pixels);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        frame.valid = true;
+        deliver(frame, request);
+    }
+
+    /**
+     * move screenshot & due taps into request.
+     *
+     * @return false if nobody wants this frame
+     */
+    private boolean takeRequests(ReadRequest request, long presentationTimeNs) {
+        synchronized (syncRequests) {
+            request.screenShotListener = screenShotListener;
+            screenShotListener = null;
+            for (int i = 0; i < frameTaps.size(); ++i) {
+                FrameTap frameTap = frameTaps.get(i);
+                if (presentationTimeNs >= frameTap.nextTimeNs) {
+                    request.frameTapListeners.add(frameTap.listener);
+                    frameTap.nextTimeNs = presentationTimeNs + frameTap.intervalNs;
+                }
+            }
+        }
+        request.presentationTimeNs = presentationTimeNs;
+        return request.screenShotListener != null || !request.frameTapListeners.isEmpty();
+    }
+
+    private void deliver(Frame frame, ReadRequest request) {
+        frame.screenShotListener = request.screenShotListener;
+        for (int i = 0; i < request.frameTapListeners.size(); ++i) {
+            frame.frameTapListeners.add(request.frameTapListeners.get(i));
+        }
+        frame.presentationTimeNs = request.presentationTimeNs;
+        request.clear();
+        Handler handler = readerHandler;
+        if (handler != null) {
+            handler.sendMessage(handler.obtainMessage(WHAT_FRAME, frame));
+        } else {
+            frame.clear();
+            freeFrames.offer(frame);
+        }
+    }
+
+    private class ReaderHandler extends Handler {
+        //reader thread only
+        private byte[] topRow;
+        private byte[] bottomRow;
+
+        ReaderHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case WHAT_FRAME: {
+                    Frame frame = (Frame) msg.obj;
+                    if (frame.valid) {
+                        flipRows(frame);
+                    }
+                    if (frame.screenShotListener != null) {
+                        Bitmap result = null;
+                        if (frame.valid) {
+                            try {
+                                result = Bitmap.createBitmap(frame.width, frame.height, Bitmap.Config.ARGB_8888);
+                                frame.pixels.position(0);
+                                result.copyPixelsFromBuffer(frame.pixels);
+                            } catch (Exception e) {
+                                LogTools.trace("takescreenshot failed:", e);
+                                result = null;
+                            }
+                        }
+                        CallbackDelivery.i().post(new RESScreenShotListener.RESScreenShotListenerRunable(frame.screenShotListener, result));
+                    }
+                    if (frame.valid) {
+                        for (int i = 0; i < frame.frameTapListeners.size(); ++i) {
+                            frame.pixels.position(0);
+                            try {
+                                frame.frameTapListeners.get(i).onFrameTap(frame.pixels, frame.width, frame.height, frame.presentationTimeNs);
+                            } catch (Exception e) {
+                                LogTools.trace("onFrameTap failed:", e);
+                            }
+                        }
+                    }
+                    frame.clear();
+                    freeFrames.offer(frame);
+                }
+                break;
+            }
+        }
+
+        /**
+         * gl rows start at the bottom,bitmap rows at the top.
+         */
+        private void flipRows(Frame frame) {
+            int rowSize = frame.width * 4;
+            if (topRow == null || topRow.length != rowSize) {
+                topRow = new byte[rowSize];
+                bottomRow = new byte[rowSize];
+            }
+            ByteBuffer pixels = frame.pixels;
+            for (int top = 0, bottom = frame.height - 1; top < bottom; ++top, --bottom) {
+                pixels.position(top * rowSize);
+                pixels.get(topRow);
+                pixels.position(bottom * rowSize);
+                pixels.get(bottomRow);
+                pixels.position(bottom * rowSize);
+                pixels.put(topRow);
+                pixels.position(top * rowSize);
+                pixels.put(bottomRow);
+            }
+            pixels.position(0);
+        }
+    }
+
+    private static class FrameTap {
+        final RESFrameTapListener listener;
+        final long intervalNs;
+        long nextTimeNs;
+
+        FrameTap(RESFrameTapListener listener, long intervalNs) {
+            this.listener = listener;
+            this.intervalNs = intervalNs;
+        }
+    }
+
+    /**
+     * who asked for the frame in a pixel buffer.
+     */
+    private static class ReadRequest {
+        RESScreenShotListener screenShotListener;
+        final ArrayList<RESFrameTapListener> frameTapListeners = new ArrayList<>();
+        long presentationTimeNs;
+
+        void clear() {
+            screenShotListener = null;
+            frameTapListeners.clear();
+        }
+    }
+
+    /**
+     * pixels on their way to the reader thread,reused.
+     */
+    private static class Frame {
+        ByteBuffer pixels;
+        boolean valid;
+        int width;
+        int height;
+        long presentationTimeNs;
+        RESScreenShotListener screenShotListener;
+        final ArrayList<RESFrameTapListener> frameTapListeners = new ArrayList<>();
+
+        void prepare(int width, int height) {
+            int size = width * height * 4;
+            if (pixels == null || pixels.capacity() < size) {
+                pixels = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            }
+            pixels.clear();
+            pixels.limit(size);
+            this.width = width;
+            this.height = height;
+        }
+
+        void clear() {
+            valid = false;
+            screenShotListener = null;
+            frameTapListeners.clear();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package me.lake.librestreaming.core;
+
+/**
+ * Paces a draw loop on absolute nanosecond deadlines.<br/>
+ * frame k is due at base+k*1e9/fps,computed from k every time,so the loop never drifts
+ * and presentation times are spaced exactly one interval apart however late the loop wakes up.<br/>
+ * when the loop is late by one interval or more the missed frames are skipped and counted.<br/>
+ * wake up lateness of every frame is kept as jitter statistics.<br/>
+ * the clock is injectable,default is System.nanoTime(),the same base as SystemClock.uptimeMillis().
+ */
+public class RESFrameScheduler {
+    public interface Clock {
+        long nanoTime();
+    }
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+    private final Clock clock;
+    private int fps = 30;
+    private long baseNs;
+    private long nextIndex;
+    //statistics
+    private long frameCount;
+    private long skippedFrames;
+    private long jitterTotalNs;
+    private long jitterMaxNs;
+
+    public RESFrameScheduler() {
+        this(SYSTEM_CLOCK);
+    }
+
+    public RESFrameScheduler(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * restart pacing,the first frame is due one interval from now.
+     */
+    public synchronized void start() {
+        baseNs = clock.nanoTime();
+        nextIndex = 1;
+    }
+
+    /**
+     * takes effect from the next due frame,earlier presentation times stay as they were.
+     */
+    public synchronized void setFrameRate(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("invalid fps:" + fps);
+        }
+        if (fps == this.fps) {
+            return;
+        }
+        baseNs = getFrameTimeNs(nextIndex);
+        nextIndex = 0;
+        this.fps = fps;
+    }
+
+    public synchronized int getFrameRate() {
+        return fps;
+    }
+
+    /**
+     * @return when the next frame is due,in clock time
+     */
+    public synchronized long getNextFrameTimeNs() {
+        return getFrameTimeNs(nextIndex);
+    }
+
+    /**
+     * @return next due time in ms for Handler.sendMessageAtTime(),never later than the deadline
+     */
+    public long getNextFrameUptimeMillis() {
+        return getNextFrameTimeNs() / 1000000;
+    }
+
+    /**
+     * call when the loop wakes up for a frame.
+     *
+     * @return presentation time of the frame to draw now,in clock time
+     */
+    public synchronized long onFrame() {
+        long now = clock.nanoTime();
+        long index = nextIndex;
+        if (now >= getFrameTimeNs(index + 1)) {
+            //woke up after the next deadline too,jump to the newest due frame
+            long newestIndex = (now - baseNs) * fps / NANOS_PER_SECOND;
+            skippedFrames += newestIndex - index;
+            index = newestIndex;
+        }
+        long presentationTimeNs = getFrameTimeNs(index);
+        long jitterNs = Math.abs(now - presentationTimeNs);
+        ++frameCount;
+        jitterTotalNs += jitterNs;
+        if (jitterNs > jitterMaxNs) {
+            jitterMaxNs = jitterNs;
+        }
+        nextIndex = index + 1;
+        return presentationTimeNs;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return frames whose deadline passed while the loop was late
+     */
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    /**
+     * @return average distance in us between wake up and deadline
+     */
+    public synchronized long getAverageJitterUs() {
+        return frameCount == 0 ? 0 : jitterTotalNs / frameCount / 1000;
+    }
+
+    public synchronized long getMaxJitterUs() {
+        return jitterMaxNs / 1000;
+    }
+
+    public synchronized void resetStatistics() {
+        frameCount = 0;
+        skippedFrames = 0;
+        jitterTotalNs = 0;
+        jitterMaxNs = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "fps=" + fps + ",frames=" + frameCount + ",skipped=" + skippedFrames +
+                ",jitterAvg=" + getAverageJitterUs() + "us,jitterMax=" + getMaxJitterUs() + "us";
+    }
+
+    private long getFrameTimeNs(long index) {
+        return baseNs + index * NANOS_PER_SECOND / fps;
+    }
+}
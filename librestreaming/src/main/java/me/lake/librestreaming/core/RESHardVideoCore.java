@@ -1,13 +1,11 @@
 package me.lake.librestreaming.core;
 
 import android.annotation.TargetApi;
-import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.opengl.EGL14;
-import android.opengl.EGLExt;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.os.Build;
@@ -16,25 +14,22 @@ import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
-import android.os.SystemClock;
 import android.view.Surface;
 
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import me.lake.librestreaming.client.CallbackDelivery;
+import me.lake.librestreaming.core.listener.RESFrameTapListener;
 import me.lake.librestreaming.core.listener.RESScreenShotListener;
 import me.lake.librestreaming.core.listener.RESVideoChangeListener;
 import me.lake.librestreaming.filter.hardvideofilter.BaseHardVideoFilter;
-import me.lake.librestreaming.model.MediaCodecGLWapper;
 import me.lake.librestreaming.model.OffScreenGLWapper;
 import me.lake.librestreaming.model.RESConfig;
 import me.lake.librestreaming.model.RESCoreParameters;
-import me.lake.librestreaming.model.ScreenGLWapper;
 import me.lake.librestreaming.model.Size;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
 import me.lake.librestreaming.tools.LogTools;
@@ -53,15 +48,22 @@ public class RESHardVideoCore implements RESVideoCore {
     private final Object syncPreview = new Object();
     private HandlerThread videoGLHandlerThread;
     private VideoGLHandler videoGLHander;
-
-    final private Object syncResScreenShotListener = new Object();
-    private RESScreenShotListener resScreenShotListener;
+    private final RESKeyFrameController keyFrameController = new RESKeyFrameController();
+    private final RESLatencyHistogram encodeLatency = new RESLatencyHistogram();
+    //cpu time of each draw stage
+    public static final int STAGE_CAMERA = 0;
+    public static final int STAGE_FRAMEBUFFER = 1;
+    public static final int STAGE_OUTPUT = 2;
+    private final RESStageTimer drawStageTimer = new RESStageTimer("camera", "framebuffer", "output");
+
+    //screenshots & frame taps
+    private final RESFrameReader frameReader = new RESFrameReader();
     final private Object syncResVideoChangeListener = new Object();
     private RESVideoChangeListener resVideoChangeListener;
     private final Object syncIsLooping = new Object();
     private boolean isPreviewing = false;
     private boolean isStreaming = false;
-    private int loopingInterval;
+    private final RESFrameScheduler frameScheduler = new RESFrameScheduler();
 
     public RESHardVideoCore(RESCoreParameters parameters) {
         resCoreParameters = parameters;
@@ -82,8 +84,9 @@ public class RESHardVideoCore implements RESVideoCore {
             resCoreParameters.videoBufferQueueNum = resConfig.getVideoBufferQueueNum();
             resCoreParameters.mediacodecAVCIFrameInterval = resConfig.getVideoGOP();
             resCoreParameters.mediacodecAVCFrameRate = resCoreParameters.videoFPS;
-            loopingInterval = 1000 / resCoreParameters.videoFPS;
+            frameScheduler.setFrameRate(resCoreParameters.videoFPS);
             dstVideoFormat = new MediaFormat();
+            frameReader.start();
             videoGLHandlerThread = new HandlerThread("GLThread");
             videoGLHandlerThread.start();
             videoGLHander = new VideoGLHandler(videoGLHandlerThread.getLooper());
@@ -100,7 +103,8 @@ public class RESHardVideoCore implements RESVideoCore {
             synchronized (syncIsLooping) {
                 if (!isPreviewing && !isStreaming) {
                     videoGLHander.removeMessages(VideoGLHandler.WHAT_DRAW);
-                    videoGLHander.sendMessageDelayed(videoGLHander.obtainMessage(VideoGLHandler.WHAT_DRAW, SystemClock.uptimeMillis() + loopingInterval), loopingInterval);
+                    frameScheduler.start();
+                    videoGLHander.sendEmptyMessageAtTime(VideoGLHandler.WHAT_DRAW, frameScheduler.getNextFrameUptimeMillis());
                 }
                 isPreviewing = true;
             }
@@ -133,7 +137,8 @@ public class RESHardVideoCore implements RESVideoCore {
             synchronized (syncIsLooping) {
                 if (!isPreviewing && !isStreaming) {
                     videoGLHander.removeMessages(VideoGLHandler.WHAT_DRAW);
-                    videoGLHander.sendMessageDelayed(videoGLHander.obtainMessage(VideoGLHandler.WHAT_DRAW, SystemClock.uptimeMillis() + loopingInterval), loopingInterval);
+                    frameScheduler.start();
+                    videoGLHander.sendEmptyMessageAtTime(VideoGLHandler.WHAT_DRAW, frameScheduler.getNextFrameUptimeMillis());
                 }
                 isStreaming = true;
             }
@@ -172,6 +177,7 @@ public class RESHardVideoCore implements RESVideoCore {
             }
             videoGLHandlerThread = null;
             videoGLHander = null;
+            frameReader.quit();
             return true;
         }
     }
@@ -196,11 +202,25 @@ public class RESHardVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public void requestKeyFrame() {
+        synchronized (syncOp) {
+            if (videoGLHander != null && isStreaming && keyFrameController.tryRequest()) {
+                videoGLHander.sendEmptyMessage(VideoGLHandler.WHAT_REQUEST_KEY_FRAME);
+            }
+        }
+    }
+
+    @Override
+    public RESKeyFrameController getKeyFrameController() {
+        return keyFrameController;
+    }
+
     @Override
     public void reSetVideoFPS(int fps) {
         synchronized (syncOp) {
             resCoreParameters.videoFPS = fps;
-            loopingInterval = 1000 / resCoreParameters.videoFPS;
+            frameScheduler.setFrameRate(resCoreParameters.videoFPS);
         }
     }
 
@@ -242,9 +262,7 @@ public class RESHardVideoCore implements RESVideoCore {
 
     @Override
     public void takeScreenShot(RESScreenShotListener listener) {
-        synchronized (syncResScreenShotListener) {
-            resScreenShotListener = listener;
-        }
+        frameReader.requestScreenShot(listener);
     }
 
     @Override
@@ -261,6 +279,82 @@ public class RESHardVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public long getCameraDroppedFrames() {
+        synchronized (syncOp) {
+            return videoGLHander == null ? 0 : videoGLHander.getCameraDroppedFrames();
+        }
+    }
+
+    @Override
+    public int getPipelineOccupancy() {
+        synchronized (syncOp) {
+            return videoGLHander == null ? 0 : videoGLHander.getPipelineOccupancy();
+        }
+    }
+
+    /**
+     * encoder reads from its input surface,nothing is dropped on the way in.
+     */
+    @Override
+    public long getEncoderDroppedFrames() {
+        return 0;
+    }
+
+    @Override
+    public RESLatencyHistogram getEncodeLatency() {
+        return encodeLatency;
+    }
+
+    @Override
+    public RESFrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
+    /**
+     * @return cpu time of {@link #STAGE_CAMERA},{@link #STAGE_FRAMEBUFFER},{@link #STAGE_OUTPUT}
+     */
+    public RESStageTimer getDrawStageTimer() {
+        return drawStageTimer;
+    }
+
+    /**
+     * filtered frames are read back & passed to listener at most once every intervalMs,
+     * while previewing or streaming.
+     */
+    public void addFrameTap(RESFrameTapListener listener, int intervalMs) {
+        frameReader.addFrameTap(listener, intervalMs);
+    }
+
+    public void removeFrameTap(RESFrameTapListener listener) {
+        frameReader.removeFrameTap(listener);
+    }
+
+    /**
+     * every filtered frame is drawn to outputSurface as well while previewing or streaming,
+     * e.g. the input surface of another encoder.
+     */
+    public void addOutputSurface(RESOutputSurface outputSurface) {
+        synchronized (syncOp) {
+            if (videoGLHander != null) {
+                outputSurface.setRemoved(false);
+                videoGLHander.sendMessage(videoGLHander.obtainMessage(VideoGLHandler.WHAT_ADD_OUTPUT, outputSurface));
+            }
+        }
+    }
+
+    /**
+     * returns once the surface is no longer drawn to,its window can be released then.
+     */
+    public void removeOutputSurface(RESOutputSurface outputSurface) {
+        synchronized (syncOp) {
+            if (videoGLHander != null) {
+                videoGLHander.sendMessage(videoGLHander.obtainMessage(VideoGLHandler.WHAT_REMOVE_OUTPUT, outputSurface));
+                outputSurface.waitRemoved();
+            }
+        }
+    }
+
     private class VideoGLHandler extends Handler {
         static final int WHAT_INIT = 0x001;
         static final int WHAT_UNINIT = 0x002;
@@ -272,9 +366,13 @@ public class RESHardVideoCore implements RESVideoCore {
         static final int WHAT_START_STREAMING = 0x100;
         static final int WHAT_STOP_STREAMING = 0x200;
         static final int WHAT_RESET_BITRATE = 0x300;
+        static final int WHAT_REQUEST_KEY_FRAME = 0x400;
+        static final int WHAT_ADD_OUTPUT = 0x500;
+        static final int WHAT_REMOVE_OUTPUT = 0x600;
         private Size screenSize;
         //=========================
         public static final int FILTER_LOCK_TOLERATION = 3;//3ms
+        public static final int SAMPLE2D_FRAMEBUFFER_NUM = 3;
         private final Object syncFrameNum = new Object();
         private int frameNum = 0;
         //gl stuff
@@ -283,37 +381,41 @@ public class RESHardVideoCore implements RESVideoCore {
 
         private SurfaceTexture screenTexture;
 
-        private MediaCodecGLWapper mediaCodecGLWapper;
-        private ScreenGLWapper screenGLWapper;
         private OffScreenGLWapper offScreenGLWapper;
+        //encoder,preview & extra outputs,all drawn from the offscreen context
+        private RESOutputSurfaceManager outputSurfaceManager;
+        private RESOutputSurface mediaCodecOutputSurface;
+        private RESOutputSurface screenOutputSurface;
 
-        private int sample2DFrameBuffer;
-        private int sample2DFrameBufferTexture;
+        //camera copies,written by WHAT_FRAME & read by WHAT_DRAW
+        private RESFrameBufferRing sample2DFrameBufferRing;
         private int frameBuffer;
         private int frameBufferTexture;
         private FloatBuffer shapeVerticesBuffer;
-        private FloatBuffer mediaCodecTextureVerticesBuffer;
-        private FloatBuffer screenTextureVerticesBuffer;
         private int currCamera;
         private final Object syncCameraTextureVerticesBuffer = new Object();
         private FloatBuffer camera2dTextureVerticesBuffer;
         private FloatBuffer cameraTextureVerticesBuffer;
         private ShortBuffer drawIndecesBuffer;
+        //gl side copies of the buffers above,legacy filters still get the client side ones
+        private GLQuad glQuad;
+        private int camera2dTextureCoordBuffer;
+        private int cameraTextureCoordBuffer;
+        private boolean camera2dTextureCoordDirty;
+        private final float[] textureMatrix = new float[16];
         private BaseHardVideoFilter innerVideoFilter = null;
         private RESFrameRateMeter drawFrameRateMeter;
         private int directionFlag;
         //sender
         private VideoSenderThread videoSenderThread;
 
-        boolean hasNewFrame = false;
         public boolean dropNextFrame = false;
 
         public VideoGLHandler(Looper looper) {
             super(looper);
-            screenGLWapper = null;
-            mediaCodecGLWapper = null;
             drawFrameRateMeter = new RESFrameRateMeter();
             screenSize = new Size(1, 1);
+            sample2DFrameBufferRing = new RESFrameBufferRing(SAMPLE2D_FRAMEBUFFER_NUM);
             initBuffer();
         }
 
@@ -321,7 +423,9 @@ public class RESHardVideoCore implements RESVideoCore {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case WHAT_FRAME: {
+                    long frameStart = System.nanoTime();
                     GLHelper.makeCurrent(offScreenGLWapper);
+                    boolean hasNewFrame = false;
                     synchronized (syncFrameNum) {
                         synchronized (syncCameraTex) {
                             if (cameraTexture != null) {
@@ -340,32 +444,32 @@ public class RESHardVideoCore implements RESVideoCore {
                             }
                         }
                     }
-                    drawSample2DFrameBuffer(cameraTexture);
+                    if (hasNewFrame) {
+                        int slot = sample2DFrameBufferRing.beginWrite();
+                        drawSample2DFrameBuffer(cameraTexture, sample2DFrameBufferRing.getFrameBuffer(slot));
+                        sample2DFrameBufferRing.endWrite(slot);
+                        drawStageTimer.record(STAGE_CAMERA, frameStart);
+                    }
                 }
                 break;
                 case WHAT_DRAW: {
-                    long time = (Long) msg.obj;
-                    long interval = time + loopingInterval - SystemClock.uptimeMillis();
+                    long presentationTimeNs = frameScheduler.onFrame();
                     synchronized (syncIsLooping) {
                         if (isPreviewing || isStreaming) {
-                            if (interval > 0) {
-                                videoGLHander.sendMessageDelayed(videoGLHander.obtainMessage(
-                                        VideoGLHandler.WHAT_DRAW,
-                                        SystemClock.uptimeMillis() + interval),
-                                        interval);
-                            } else {
-                                videoGLHander.sendMessage(videoGLHander.obtainMessage(
-                                        VideoGLHandler.WHAT_DRAW,
-                                        SystemClock.uptimeMillis() + loopingInterval));
-                            }
+                            videoGLHander.sendEmptyMessageAtTime(VideoGLHandler.WHAT_DRAW, frameScheduler.getNextFrameUptimeMillis());
                         }
                     }
-                    if (hasNewFrame) {
-                        drawFrameBuffer();
-                        drawMediaCodec(time * 1000000);
-                        drawScreen();
+                    int slot = sample2DFrameBufferRing.beginRead();
+                    if (slot >= 0) {
+                        long stageStart = System.nanoTime();
+                        drawFrameBuffer(sample2DFrameBufferRing.getFrameBufferTexture(slot));
+                        sample2DFrameBufferRing.endRead(slot);
+                        stageStart = drawStageTimer.record(STAGE_FRAMEBUFFER, stageStart);
+                        if (outputSurfaceManager.draw(frameBufferTexture, presentationTimeNs) > 0) {
+                            drawStageTimer.record(STAGE_OUTPUT, stageStart);
+                        }
+                        frameReader.onFrame(frameBuffer, resCoreParameters.videoWidth, resCoreParameters.videoHeight, presentationTimeNs);
                         drawFrameRateMeter.count();
-                        hasNewFrame = false;
                     }
                 }
                 break;
@@ -384,8 +488,8 @@ public class RESHardVideoCore implements RESVideoCore {
                 }
                 break;
                 case WHAT_START_PREVIEW: {
-                    initScreenGL((SurfaceTexture) msg.obj);
                     updatePreview(msg.arg1, msg.arg2);
+                    initScreenGL((SurfaceTexture) msg.obj);
                 }
                 break;
                 case WHAT_STOP_PREVIEW: {
@@ -404,10 +508,12 @@ public class RESHardVideoCore implements RESVideoCore {
                             throw new RuntimeException("create Video MediaCodec failed");
                         }
                     }
+                    //may set encoder callback,before configure
+                    videoSenderThread = new VideoSenderThread("VideoSenderThread", dstVideoEncoder, (RESFlvDataCollecter) msg.obj,
+                            keyFrameController, encodeLatency, resCoreParameters.encoderCallbackMode);
                     dstVideoEncoder.configure(dstVideoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
                     initMediaCodecGL(dstVideoEncoder.createInputSurface());
                     dstVideoEncoder.start();
-                    videoSenderThread = new VideoSenderThread("VideoSenderThread", dstVideoEncoder, (RESFlvDataCollecter) msg.obj);
                     videoSenderThread.start();
                 }
                 break;
@@ -419,6 +525,7 @@ public class RESHardVideoCore implements RESVideoCore {
                         LogTools.trace("RESHardVideoCore,stopStreaming()failed", e);
                     }
                     videoSenderThread = null;
+                    keyFrameController.cancelPending();
                     uninitMediaCodecGL();
                     dstVideoEncoder.stop();
                     dstVideoEncoder.release();
@@ -426,13 +533,21 @@ public class RESHardVideoCore implements RESVideoCore {
                 }
                 break;
                 case WHAT_RESET_BITRATE: {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && mediaCodecGLWapper != null) {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && mediaCodecOutputSurface != null) {
                         Bundle bitrateBundle = new Bundle();
                         bitrateBundle.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, msg.arg1);
                         dstVideoEncoder.setParameters(bitrateBundle);
                     }
                 }
                 break;
+                case WHAT_REQUEST_KEY_FRAME: {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && mediaCodecOutputSurface != null) {
+                        Bundle syncFrameBundle = new Bundle();
+                        syncFrameBundle.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                        dstVideoEncoder.setParameters(syncFrameBundle);
+                    }
+                }
+                break;
                 case WHAT_RESET_VIDEO: {
                     RESCoreParameters newParameters = (RESCoreParameters) msg.obj;
                     resCoreParameters.videoWidth = newParameters.videoWidth;
@@ -440,7 +555,7 @@ public class RESHardVideoCore implements RESVideoCore {
                     resCoreParameters.cropRatio = newParameters.cropRatio;
                     updateCameraIndex(currCamera);
                     resetFrameBuff();
-                    if (mediaCodecGLWapper != null) {
+                    if (mediaCodecOutputSurface != null) {
                         uninitMediaCodecGL();
                         dstVideoEncoder.stop();
                         dstVideoEncoder.release();
@@ -448,10 +563,10 @@ public class RESHardVideoCore implements RESVideoCore {
                         if (dstVideoEncoder == null) {
                             throw new RuntimeException("create Video MediaCodec failed");
                         }
+                        videoSenderThread.updateMediaCodec(dstVideoEncoder);
                         dstVideoEncoder.configure(dstVideoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
                         initMediaCodecGL(dstVideoEncoder.createInputSurface());
                         dstVideoEncoder.start();
-                        videoSenderThread.updateMediaCodec(dstVideoEncoder);
                     }
                     synchronized (syncResVideoChangeListener) {
                         if (resVideoChangeListener != null) {
@@ -462,53 +577,60 @@ public class RESHardVideoCore implements RESVideoCore {
                     }
                 }
                 break;
+                case WHAT_ADD_OUTPUT: {
+                    outputSurfaceManager.addOutputSurface((RESOutputSurface) msg.obj);
+                }
+                break;
+                case WHAT_REMOVE_OUTPUT: {
+                    RESOutputSurface outputSurface = (RESOutputSurface) msg.obj;
+                    if (outputSurfaceManager != null) {
+                        outputSurfaceManager.removeOutputSurface(outputSurface);
+                    }
+                    outputSurface.setRemoved(true);
+                }
+                break;
                 default:
             }
         }
 
 
-        private void drawSample2DFrameBuffer(SurfaceTexture cameraTexture) {
+        private void drawSample2DFrameBuffer(SurfaceTexture cameraTexture, int sample2DFrameBuffer) {
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, sample2DFrameBuffer);
             GLES20.glUseProgram(offScreenGLWapper.cam2dProgram);
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
             GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, OVERWATCH_TEXTURE_ID);
-            GLES20.glUniform1i(offScreenGLWapper.cam2dTextureLoc, 0);
             synchronized (syncCameraTextureVerticesBuffer) {
-                GLHelper.enableVertex(offScreenGLWapper.cam2dPostionLoc, offScreenGLWapper.cam2dTextureCoordLoc,
-                        shapeVerticesBuffer, camera2dTextureVerticesBuffer);
+                if (camera2dTextureCoordDirty) {
+                    GLQuad.updateTextureCoordBuffer(camera2dTextureCoordBuffer, camera2dTextureVerticesBuffer);
+                    camera2dTextureCoordDirty = false;
+                }
             }
-            float[] textureMatrix = new float[16];
+            glQuad.enable(offScreenGLWapper.cam2dPostionLoc, offScreenGLWapper.cam2dTextureCoordLoc, camera2dTextureCoordBuffer);
             cameraTexture.getTransformMatrix(textureMatrix);
             GLES20.glUniformMatrix4fv(offScreenGLWapper.cam2dTextureMatrix, 1, false, textureMatrix, 0);
             GLES20.glViewport(0, 0, resCoreParameters.videoWidth, resCoreParameters.videoHeight);
             doGLDraw();
-            GLES20.glFinish();
-            GLHelper.disableVertex(offScreenGLWapper.cam2dPostionLoc, offScreenGLWapper.cam2dTextureCoordLoc);
+            glQuad.disable(offScreenGLWapper.cam2dPostionLoc, offScreenGLWapper.cam2dTextureCoordLoc);
             GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
             GLES20.glUseProgram(0);
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
         }
 
-        private void drawOriginFrameBuffer() {
+        private void drawOriginFrameBuffer(int sample2DFrameBufferTexture) {
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
             GLES20.glUseProgram(offScreenGLWapper.camProgram);
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, sample2DFrameBufferTexture);
-            GLES20.glUniform1i(offScreenGLWapper.camTextureLoc, 0);
-            synchronized (syncCameraTextureVerticesBuffer) {
-                GLHelper.enableVertex(offScreenGLWapper.camPostionLoc, offScreenGLWapper.camTextureCoordLoc,
-                        shapeVerticesBuffer, cameraTextureVerticesBuffer);
-            }
+            glQuad.enable(offScreenGLWapper.camPostionLoc, offScreenGLWapper.camTextureCoordLoc, cameraTextureCoordBuffer);
             GLES20.glViewport(0, 0, resCoreParameters.videoWidth, resCoreParameters.videoHeight);
             doGLDraw();
-            GLES20.glFinish();
-            GLHelper.disableVertex(offScreenGLWapper.camPostionLoc, offScreenGLWapper.camTextureCoordLoc);
+            glQuad.disable(offScreenGLWapper.camPostionLoc, offScreenGLWapper.camTextureCoordLoc);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
             GLES20.glUseProgram(0);
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
         }
 
-        private void drawFrameBuffer() {
+        private void drawFrameBuffer(int sample2DFrameBufferTexture) {
             GLHelper.makeCurrent(offScreenGLWapper);
             boolean isFilterLocked = lockVideoFilter();
             if (isFilterLocked) {
@@ -527,63 +649,18 @@ public class RESHardVideoCore implements RESVideoCore {
                         innerVideoFilter.onDraw(sample2DFrameBufferTexture, frameBuffer, shapeVerticesBuffer, cameraTextureVerticesBuffer);
                     }
                 } else {
-                    drawOriginFrameBuffer();
+                    drawOriginFrameBuffer(sample2DFrameBufferTexture);
                 }
                 unlockVideoFilter();
             } else {
-                drawOriginFrameBuffer();
-            }
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer);
-            checkScreenShot();
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        }
-
-        private void drawMediaCodec(long currTime) {
-            if (mediaCodecGLWapper != null) {
-                GLHelper.makeCurrent(mediaCodecGLWapper);
-                GLES20.glUseProgram(mediaCodecGLWapper.drawProgram);
-                GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, frameBufferTexture);
-                GLES20.glUniform1i(mediaCodecGLWapper.drawTextureLoc, 0);
-                GLHelper.enableVertex(mediaCodecGLWapper.drawPostionLoc, mediaCodecGLWapper.drawTextureCoordLoc,
-                        shapeVerticesBuffer, mediaCodecTextureVerticesBuffer);
-                doGLDraw();
-                GLES20.glFinish();
-                GLHelper.disableVertex(mediaCodecGLWapper.drawPostionLoc, mediaCodecGLWapper.drawTextureCoordLoc);
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-                GLES20.glUseProgram(0);
-                EGLExt.eglPresentationTimeANDROID(mediaCodecGLWapper.eglDisplay, mediaCodecGLWapper.eglSurface, currTime);
-                if (!EGL14.eglSwapBuffers(mediaCodecGLWapper.eglDisplay, mediaCodecGLWapper.eglSurface)) {
-                    throw new RuntimeException("eglSwapBuffers,failed!");
-                }
-            }
-        }
-
-        private void drawScreen() {
-            if (screenGLWapper != null) {
-                GLHelper.makeCurrent(screenGLWapper);
-                GLES20.glUseProgram(screenGLWapper.drawProgram);
-                GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, frameBufferTexture);
-                GLES20.glUniform1i(screenGLWapper.drawTextureLoc, 0);
-                GLHelper.enableVertex(screenGLWapper.drawPostionLoc, screenGLWapper.drawTextureCoordLoc,
-                        shapeVerticesBuffer, screenTextureVerticesBuffer);
-                GLES20.glViewport(0, 0, screenSize.getWidth(), screenSize.getHeight());
-                doGLDraw();
-                GLES20.glFinish();
-                GLHelper.disableVertex(screenGLWapper.drawPostionLoc, screenGLWapper.drawTextureCoordLoc);
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-                GLES20.glUseProgram(0);
-                if (!EGL14.eglSwapBuffers(screenGLWapper.eglDisplay, screenGLWapper.eglSurface)) {
-                    throw new RuntimeException("eglSwapBuffers,failed!");
-                }
+                drawOriginFrameBuffer(sample2DFrameBufferTexture);
             }
         }
 
         private void doGLDraw() {
             GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-            GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawIndecesBuffer.limit(), GLES20.GL_UNSIGNED_SHORT, drawIndecesBuffer);
+            glQuad.draw();
         }
 
         /**
@@ -602,30 +679,6 @@ public class RESHardVideoCore implements RESVideoCore {
             lockVideoFilter.unlock();
         }
 
-        private void checkScreenShot() {
-            synchronized (syncResScreenShotListener) {
-                if (resScreenShotListener != null) {
-                    Bitmap result = null;
-                    try {
-                        IntBuffer pixBuffer = IntBuffer.allocate(resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        GLES20.glReadPixels(0, 0, resCoreParameters.videoWidth, resCoreParameters.videoHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixBuffer);
-                        int[] glPixel = pixBuffer.array();
-                        int[] argbPixel = new int[resCoreParameters.videoWidth * resCoreParameters.videoHeight];
-                        ColorHelper.FIXGLPIXEL(glPixel, argbPixel, resCoreParameters.videoWidth, resCoreParameters.videoHeight);
-                        result = Bitmap.createBitmap(argbPixel,
-                                resCoreParameters.videoWidth,
-                                resCoreParameters.videoHeight,
-                                Bitmap.Config.ARGB_8888);
-                    } catch (Exception e) {
-                        LogTools.trace("takescreenshot failed:", e);
-                    } finally {
-                        CallbackDelivery.i().post(new RESScreenShotListener.RESScreenShotListenerRunable(resScreenShotListener, result));
-                        resScreenShotListener = null;
-                    }
-                }
-            }
-        }
-
         private void initOffScreenGL() {
             if (offScreenGLWapper == null) {
                 offScreenGLWapper = new OffScreenGLWapper();
@@ -637,6 +690,8 @@ public class RESHardVideoCore implements RESVideoCore {
                 offScreenGLWapper.camTextureLoc = GLES20.glGetUniformLocation(offScreenGLWapper.camProgram, "uTexture");
                 offScreenGLWapper.camPostionLoc = GLES20.glGetAttribLocation(offScreenGLWapper.camProgram, "aPosition");
                 offScreenGLWapper.camTextureCoordLoc = GLES20.glGetAttribLocation(offScreenGLWapper.camProgram, "aTextureCoord");
+                //always sampling unit 0
+                GLES20.glUniform1i(offScreenGLWapper.camTextureLoc, 0);
                 //camera2d
                 offScreenGLWapper.cam2dProgram = GLHelper.createCamera2DProgram();
                 GLES20.glUseProgram(offScreenGLWapper.cam2dProgram);
@@ -644,11 +699,19 @@ public class RESHardVideoCore implements RESVideoCore {
                 offScreenGLWapper.cam2dPostionLoc = GLES20.glGetAttribLocation(offScreenGLWapper.cam2dProgram, "aPosition");
                 offScreenGLWapper.cam2dTextureCoordLoc = GLES20.glGetAttribLocation(offScreenGLWapper.cam2dProgram, "aTextureCoord");
                 offScreenGLWapper.cam2dTextureMatrix = GLES20.glGetUniformLocation(offScreenGLWapper.cam2dProgram, "uTextureMatrix");
+                GLES20.glUniform1i(offScreenGLWapper.cam2dTextureLoc, 0);
+                GLES20.glUseProgram(0);
+                glQuad = new GLQuad();
+                synchronized (syncCameraTextureVerticesBuffer) {
+                    camera2dTextureCoordBuffer = GLQuad.createTextureCoordBuffer(camera2dTextureVerticesBuffer);
+                    camera2dTextureCoordDirty = false;
+                }
+                cameraTextureCoordBuffer = GLQuad.createTextureCoordBuffer(cameraTextureVerticesBuffer);
+                outputSurfaceManager = new RESOutputSurfaceManager(offScreenGLWapper, glQuad);
+                frameReader.initGL(offScreenGLWapper.glVersion >= 3);
+                sample2DFrameBufferRing.create(resCoreParameters.videoWidth, resCoreParameters.videoHeight);
                 int[] fb = new int[1], fbt = new int[1];
                 GLHelper.createCamFrameBuff(fb, fbt, resCoreParameters.videoWidth, resCoreParameters.videoHeight);
-                sample2DFrameBuffer = fb[0];
-                sample2DFrameBufferTexture = fbt[0];
-                GLHelper.createCamFrameBuff(fb, fbt, resCoreParameters.videoWidth, resCoreParameters.videoHeight);
                 frameBuffer = fb[0];
                 frameBufferTexture = fbt[0];
             } else {
@@ -659,12 +722,19 @@ public class RESHardVideoCore implements RESVideoCore {
         private void uninitOffScreenGL() {
             if (offScreenGLWapper != null) {
                 GLHelper.makeCurrent(offScreenGLWapper);
+                outputSurfaceManager.release();
+                outputSurfaceManager = null;
+                mediaCodecOutputSurface = null;
+                screenOutputSurface = null;
+                frameReader.releaseGL();
                 GLES20.glDeleteProgram(offScreenGLWapper.camProgram);
                 GLES20.glDeleteProgram(offScreenGLWapper.cam2dProgram);
+                GLQuad.deleteBuffer(camera2dTextureCoordBuffer);
+                GLQuad.deleteBuffer(cameraTextureCoordBuffer);
+                glQuad.release();
                 GLES20.glDeleteFramebuffers(1, new int[]{frameBuffer}, 0);
                 GLES20.glDeleteTextures(1, new int[]{frameBufferTexture}, 0);
-                GLES20.glDeleteFramebuffers(1, new int[]{sample2DFrameBuffer}, 0);
-                GLES20.glDeleteTextures(1, new int[]{sample2DFrameBufferTexture}, 0);
+                sample2DFrameBufferRing.destroy();
                 EGL14.eglDestroySurface(offScreenGLWapper.eglDisplay, offScreenGLWapper.eglSurface);
                 EGL14.eglDestroyContext(offScreenGLWapper.eglDisplay, offScreenGLWapper.eglContext);
                 EGL14.eglTerminate(offScreenGLWapper.eglDisplay);
@@ -675,60 +745,37 @@ public class RESHardVideoCore implements RESVideoCore {
         }
 
         private void initScreenGL(SurfaceTexture screenSurfaceTexture) {
-            if (screenGLWapper == null) {
+            if (screenOutputSurface == null) {
                 screenTexture = screenSurfaceTexture;
-                screenGLWapper = new ScreenGLWapper();
-                GLHelper.initScreenGL(screenGLWapper, offScreenGLWapper.eglContext, screenSurfaceTexture);
-                GLHelper.makeCurrent(screenGLWapper);
-                screenGLWapper.drawProgram = GLHelper.createScreenProgram();
-                GLES20.glUseProgram(screenGLWapper.drawProgram);
-                screenGLWapper.drawTextureLoc = GLES20.glGetUniformLocation(screenGLWapper.drawProgram, "uTexture");
-                screenGLWapper.drawPostionLoc = GLES20.glGetAttribLocation(screenGLWapper.drawProgram, "aPosition");
-                screenGLWapper.drawTextureCoordLoc = GLES20.glGetAttribLocation(screenGLWapper.drawProgram, "aTextureCoord");
+                screenOutputSurface = new RESOutputSurface(screenSurfaceTexture, screenSize.getWidth(), screenSize.getHeight(), false);
+                outputSurfaceManager.addOutputSurface(screenOutputSurface);
             } else {
                 throw new IllegalStateException("initScreenGL without unInitScreenGL");
             }
         }
 
         private void uninitScreenGL() {
-            if (screenGLWapper != null) {
-                GLHelper.makeCurrent(screenGLWapper);
-                GLES20.glDeleteProgram(screenGLWapper.drawProgram);
-                EGL14.eglDestroySurface(screenGLWapper.eglDisplay, screenGLWapper.eglSurface);
-                EGL14.eglDestroyContext(screenGLWapper.eglDisplay, screenGLWapper.eglContext);
-                EGL14.eglTerminate(screenGLWapper.eglDisplay);
-                EGL14.eglMakeCurrent(screenGLWapper.eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
-                screenGLWapper = null;
+            if (screenOutputSurface != null) {
+                outputSurfaceManager.removeOutputSurface(screenOutputSurface);
+                screenOutputSurface = null;
             } else {
                 throw new IllegalStateException("unInitScreenGL without initScreenGL");
             }
         }
 
         private void initMediaCodecGL(Surface mediacodecSurface) {
-            if (mediaCodecGLWapper == null) {
-                mediaCodecGLWapper = new MediaCodecGLWapper();
-                GLHelper.initMediaCodecGL(mediaCodecGLWapper, offScreenGLWapper.eglContext, mediacodecSurface);
-                GLHelper.makeCurrent(mediaCodecGLWapper);
-                GLES20.glEnable(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
-                mediaCodecGLWapper.drawProgram = GLHelper.createMediaCodecProgram();
-                GLES20.glUseProgram(mediaCodecGLWapper.drawProgram);
-                mediaCodecGLWapper.drawTextureLoc = GLES20.glGetUniformLocation(mediaCodecGLWapper.drawProgram, "uTexture");
-                mediaCodecGLWapper.drawPostionLoc = GLES20.glGetAttribLocation(mediaCodecGLWapper.drawProgram, "aPosition");
-                mediaCodecGLWapper.drawTextureCoordLoc = GLES20.glGetAttribLocation(mediaCodecGLWapper.drawProgram, "aTextureCoord");
+            if (mediaCodecOutputSurface == null) {
+                mediaCodecOutputSurface = new RESOutputSurface(mediacodecSurface, resCoreParameters.videoWidth, resCoreParameters.videoHeight, true);
+                outputSurfaceManager.addOutputSurface(mediaCodecOutputSurface);
             } else {
                 throw new IllegalStateException("initMediaCodecGL without uninitMediaCodecGL");
             }
         }
 
         private void uninitMediaCodecGL() {
-            if (mediaCodecGLWapper != null) {
-                GLHelper.makeCurrent(mediaCodecGLWapper);
-                GLES20.glDeleteProgram(mediaCodecGLWapper.drawProgram);
-                EGL14.eglDestroySurface(mediaCodecGLWapper.eglDisplay, mediaCodecGLWapper.eglSurface);
-                EGL14.eglDestroyContext(mediaCodecGLWapper.eglDisplay, mediaCodecGLWapper.eglContext);
-                EGL14.eglTerminate(mediaCodecGLWapper.eglDisplay);
-                EGL14.eglMakeCurrent(mediaCodecGLWapper.eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
-                mediaCodecGLWapper = null;
+            if (mediaCodecOutputSurface != null) {
+                outputSurfaceManager.removeOutputSurface(mediaCodecOutputSurface);
+                mediaCodecOutputSurface = null;
             } else {
                 throw new IllegalStateException("uninitMediaCodecGL without initMediaCodecGL");
             }
@@ -738,21 +785,16 @@ public class RESHardVideoCore implements RESVideoCore {
             GLHelper.makeCurrent(offScreenGLWapper);
             GLES20.glDeleteFramebuffers(1, new int[]{frameBuffer}, 0);
             GLES20.glDeleteTextures(1, new int[]{frameBufferTexture}, 0);
-            GLES20.glDeleteFramebuffers(1, new int[]{sample2DFrameBuffer}, 0);
-            GLES20.glDeleteTextures(1, new int[]{sample2DFrameBufferTexture}, 0);
+            sample2DFrameBufferRing.destroy();
+            sample2DFrameBufferRing.create(resCoreParameters.videoWidth, resCoreParameters.videoHeight);
             int[] fb = new int[1], fbt = new int[1];
             GLHelper.createCamFrameBuff(fb, fbt, resCoreParameters.videoWidth, resCoreParameters.videoHeight);
-            sample2DFrameBuffer = fb[0];
-            sample2DFrameBufferTexture = fbt[0];
-            GLHelper.createCamFrameBuff(fb, fbt, resCoreParameters.videoWidth, resCoreParameters.videoHeight);
             frameBuffer = fb[0];
             frameBufferTexture = fbt[0];
         }
 
         private void initBuffer() {
             shapeVerticesBuffer = GLHelper.getShapeVerticesBuffer();
-            mediaCodecTextureVerticesBuffer = GLHelper.getMediaCodecTextureVerticesBuffer();
-            screenTextureVerticesBuffer = GLHelper.getScreenTextureVerticesBuffer();
             updateCameraIndex(currCamera);
             drawIndecesBuffer = GLHelper.getDrawIndecesBuffer();
             cameraTextureVerticesBuffer = GLHelper.getCameraTextureVerticesBuffer();
@@ -767,6 +809,7 @@ public class RESHardVideoCore implements RESVideoCore {
                     directionFlag = resCoreParameters.backCameraDirectionMode;
                 }
                 camera2dTextureVerticesBuffer = GLHelper.getCamera2DTextureVerticesBuffer(directionFlag, resCoreParameters.cropRatio);
+                camera2dTextureCoordDirty = true;
             }
         }
 
@@ -774,6 +817,14 @@ public class RESHardVideoCore implements RESVideoCore {
             return drawFrameRateMeter.getFps();
         }
 
+        long getCameraDroppedFrames() {
+            return sample2DFrameBufferRing.getDroppedFrames();
+        }
+
+        int getPipelineOccupancy() {
+            return sample2DFrameBufferRing.getOccupancy();
+        }
+
 
         void updateCamTexture(SurfaceTexture surfaceTexture) {
             synchronized (syncCameraTex) {
@@ -796,6 +847,10 @@ public class RESHardVideoCore implements RESVideoCore {
 
         void updatePreview(int w, int h) {
             screenSize = new Size(w, h);
+            RESOutputSurface outputSurface = screenOutputSurface;
+            if (outputSurface != null) {
+                outputSurface.setViewport(0, 0, w, h);
+            }
         }
     }
 }
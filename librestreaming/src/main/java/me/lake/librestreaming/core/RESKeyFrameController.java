@@ -0,0 +1,97 @@
+package me.lake.librestreaming.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limiter & counters for forced IDR requests.<br/>
+ * {@link #tryRequest()} is called before asking the encoder for a sync frame,
+ * {@link #onKeyFrame()} for every IDR the encoder outputs,
+ * the first IDR after an accepted request counts as forced,the others as scheduled by GOP.
+ */
+public class RESKeyFrameController {
+    public static final int DEFAULT_MIN_INTERVAL_MS = 1000;
+    private final long minIntervalNs;
+    private final Object syncRequest = new Object();
+    private long lastRequestTime;
+    private boolean requested = false;
+    private boolean pending = false;
+    private final AtomicLong forcedKeyFrames = new AtomicLong(0);
+    private final AtomicLong scheduledKeyFrames = new AtomicLong(0);
+    private final AtomicLong acceptedRequests = new AtomicLong(0);
+    private final AtomicLong rejectedRequests = new AtomicLong(0);
+
+    public RESKeyFrameController() {
+        this(DEFAULT_MIN_INTERVAL_MS);
+    }
+
+    /**
+     * @param minIntervalMs min time between two accepted requests
+     */
+    public RESKeyFrameController(int minIntervalMs) {
+        minIntervalNs = TimeUnit.MILLISECONDS.toNanos(minIntervalMs);
+    }
+
+    /**
+     * @return true if the encoder should be asked for a sync frame now,
+     * false if one was requested less than minInterval ago
+     */
+    public boolean tryRequest() {
+        long now = System.nanoTime();
+        synchronized (syncRequest) {
+            if (requested && now - lastRequestTime < minIntervalNs) {
+                rejectedRequests.incrementAndGet();
+                return false;
+            }
+            requested = true;
+            lastRequestTime = now;
+            pending = true;
+        }
+        acceptedRequests.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * called on the video sender thread for every IDR.
+     */
+    public void onKeyFrame() {
+        boolean forced;
+        synchronized (syncRequest) {
+            forced = pending;
+            pending = false;
+        }
+        if (forced) {
+            forcedKeyFrames.incrementAndGet();
+        } else {
+            scheduledKeyFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * forget a request the encoder will never serve,called when the encoder is released.
+     */
+    public void cancelPending() {
+        synchronized (syncRequest) {
+            pending = false;
+        }
+    }
+
+    public long getForcedKeyFrames() {
+        return forcedKeyFrames.get();
+    }
+
+    public long getScheduledKeyFrames() {
+        return scheduledKeyFrames.get();
+    }
+
+    public long getAcceptedRequests() {
+        return acceptedRequests.get();
+    }
+
+    /**
+     * @return requests ignored by the rate limit
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+}
@@ -0,0 +1,105 @@
+package me.lake.librestreaming.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed ms buckets,recorded by one thread and read from any.<br/>
+ * bucket i counts samples in (bound[i-1],bound[i]],the last bucket counts everything above the last bound.
+ */
+public class RESLatencyHistogram {
+    private static final int[] BUCKET_BOUNDS_MS = {1, 2, 5, 10, 15, 20, 30, 50, 75, 100, 200, 500};
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+    private final AtomicLong sampleCount = new AtomicLong(0);
+    private final AtomicLong totalMs = new AtomicLong(0);
+    private volatile long maxMs;
+
+    /**
+     * @param latencyMs negative values count as 0
+     */
+    public void record(long latencyMs) {
+        if (latencyMs < 0) {
+            latencyMs = 0;
+        }
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && latencyMs > BUCKET_BOUNDS_MS[bucket]) {
+            ++bucket;
+        }
+        counts.incrementAndGet(bucket);
+        sampleCount.incrementAndGet();
+        totalMs.addAndGet(latencyMs);
+        if (latencyMs > maxMs) {
+            maxMs = latencyMs;
+        }
+    }
+
+    /**
+     * @return upper bound in ms of every bucket but the last one
+     */
+    public int[] getBucketBounds() {
+        return BUCKET_BOUNDS_MS.clone();
+    }
+
+    /**
+     * @return samples in each bucket,one more element than {@link #getBucketBounds()}
+     */
+    public long[] getCounts() {
+        long[] res = new long[counts.length()];
+        for (int i = 0; i < res.length; ++i) {
+            res[i] = counts.get(i);
+        }
+        return res;
+    }
+
+    public long getCount() {
+        return sampleCount.get();
+    }
+
+    public float getAverage() {
+        long count = sampleCount.get();
+        return count == 0 ? 0 : ((float) totalMs.get()) / count;
+    }
+
+    public long getMax() {
+        return maxMs;
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return upper bound of the bucket holding the percentile,{@link #getMax()} if it falls in the last bucket,0 if empty
+     */
+    public long getPercentile(float percentile) {
+        long[] snapshot = getCounts();
+        long count = 0;
+        for (long c : snapshot) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile / 100f);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MS.length; ++i) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return BUCKET_BOUNDS_MS[i];
+            }
+        }
+        return maxMs;
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); ++i) {
+            counts.set(i, 0);
+        }
+        sampleCount.set(0);
+        totalMs.set(0);
+        maxMs = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ",avg=" + getAverage() + "ms,p50=" + getPercentile(50) +
+                "ms,p95=" + getPercentile(95) + "ms,max=" + getMax() + "ms";
+    }
+}
@@ -0,0 +1,105 @@
+package me.lake.librestreaming.core;
+
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A window the hard core blits every filtered frame to,see {@link RESOutputSurfaceManager}.<br/>
+ * viewport and texture coordinates may be changed from any thread.
+ */
+public class RESOutputSurface {
+    //Surface,SurfaceTexture or SurfaceHolder
+    final Object window;
+    final boolean presentationTime;
+    EGLSurface eglSurface;
+    private int viewportX;
+    private int viewportY;
+    private int viewportWidth;
+    private int viewportHeight;
+    private FloatBuffer textureVerticesBuffer;
+    //gl side copy of textureVerticesBuffer,created on first draw
+    private int textureCoordBuffer;
+    private boolean textureVerticesDirty;
+    private boolean removed;
+
+    /**
+     * @param window           Surface,SurfaceTexture or SurfaceHolder
+     * @param presentationTime true for encoder input surfaces,frames are stamped with their draw time
+     */
+    public RESOutputSurface(Object window, int width, int height, boolean presentationTime) {
+        this.window = window;
+        this.presentationTime = presentationTime;
+        viewportWidth = width;
+        viewportHeight = height;
+        textureVerticesBuffer = GLHelper.getOutputTextureVerticesBuffer();
+    }
+
+    public synchronized void setViewport(int x, int y, int width, int height) {
+        viewportX = x;
+        viewportY = y;
+        viewportWidth = width;
+        viewportHeight = height;
+    }
+
+    /**
+     * @param textureVertices 4 (s,t) pairs matching the vertices of {@link GLHelper#getShapeVerticesBuffer()}
+     */
+    public synchronized void setTextureVertices(float[] textureVertices) {
+        if (textureVertices.length != 8) {
+            throw new IllegalArgumentException("textureVertices.length must be 8");
+        }
+        FloatBuffer buffer = ByteBuffer.allocateDirect(GLHelper.FLOAT_SIZE_BYTES * textureVertices.length).
+                order(ByteOrder.nativeOrder()).
+                asFloatBuffer();
+        buffer.put(textureVertices);
+        buffer.position(0);
+        textureVerticesBuffer = buffer;
+        textureVerticesDirty = true;
+    }
+
+    synchronized void setRemoved(boolean removed) {
+        this.removed = removed;
+        notifyAll();
+    }
+
+    /**
+     * block until the gl thread destroyed the egl surface,the window may be released after.
+     */
+    synchronized void waitRemoved() {
+        while (!removed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * gl thread only,applies viewport & texture coordinates of this surface.
+     */
+    synchronized void applyDrawState(GLQuad glQuad, int textureCoordLoc) {
+        GLES20.glViewport(viewportX, viewportY, viewportWidth, viewportHeight);
+        if (textureCoordBuffer == 0) {
+            textureCoordBuffer = GLQuad.createTextureCoordBuffer(textureVerticesBuffer);
+        } else if (textureVerticesDirty) {
+            GLQuad.updateTextureCoordBuffer(textureCoordBuffer, textureVerticesBuffer);
+        }
+        textureVerticesDirty = false;
+        glQuad.setTextureCoord(textureCoordLoc, textureCoordBuffer);
+    }
+
+    /**
+     * gl thread only.
+     */
+    synchronized void releaseTextureCoordBuffer() {
+        if (textureCoordBuffer != 0) {
+            GLQuad.deleteBuffer(textureCoordBuffer);
+            textureCoordBuffer = 0;
+        }
+    }
+}
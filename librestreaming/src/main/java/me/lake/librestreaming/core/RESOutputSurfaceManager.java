@@ -0,0 +1,124 @@
+package me.lake.librestreaming.core;
+
+import android.opengl.EGL14;
+import android.opengl.EGLExt;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+import java.util.ArrayList;
+
+import me.lake.librestreaming.model.OffScreenGLWapper;
+
+/**
+ * Blits one texture to every registered {@link RESOutputSurface} from the offscreen context.<br/>
+ * all window surfaces are created on the offscreen display/config/context,
+ * switching between them only changes the draw surface,never the context.<br/>
+ * gl thread only.
+ */
+public class RESOutputSurfaceManager {
+    private final OffScreenGLWapper offScreenGLWapper;
+    private final GLQuad glQuad;
+    private final ArrayList<RESOutputSurface> outputSurfaces = new ArrayList<>();
+    private int drawProgram;
+    private int drawTextureLoc;
+    private int drawPostionLoc;
+    private int drawTextureCoordLoc;
+
+    /**
+     * offscreen context must be current.
+     *
+     * @param glQuad quad of the offscreen context
+     */
+    public RESOutputSurfaceManager(OffScreenGLWapper offScreenGLWapper, GLQuad glQuad) {
+        this.offScreenGLWapper = offScreenGLWapper;
+        this.glQuad = glQuad;
+        drawProgram = GLHelper.createOutputProgram();
+        GLES20.glUseProgram(drawProgram);
+        drawTextureLoc = GLES20.glGetUniformLocation(drawProgram, "uTexture");
+        drawPostionLoc = GLES20.glGetAttribLocation(drawProgram, "aPosition");
+        drawTextureCoordLoc = GLES20.glGetAttribLocation(drawProgram, "aTextureCoord");
+        //always sampling unit 0
+        GLES20.glUniform1i(drawTextureLoc, 0);
+        GLES20.glUseProgram(0);
+    }
+
+    public void addOutputSurface(RESOutputSurface outputSurface) {
+        if (outputSurface.eglSurface != null) {
+            throw new IllegalStateException("addOutputSurface,already added");
+        }
+        int[] surfaceAttribs = {
+                EGL14.EGL_NONE
+        };
+        outputSurface.eglSurface = EGL14.eglCreateWindowSurface(offScreenGLWapper.eglDisplay, offScreenGLWapper.eglConfig,
+                outputSurface.window, surfaceAttribs, 0);
+        if (null == outputSurface.eglSurface || EGL14.EGL_NO_SURFACE == outputSurface.eglSurface) {
+            outputSurface.eglSurface = null;
+            throw new RuntimeException("eglCreateWindowSurface,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
+        }
+        outputSurfaces.add(outputSurface);
+    }
+
+    public void removeOutputSurface(RESOutputSurface outputSurface) {
+        if (outputSurfaces.remove(outputSurface)) {
+            GLHelper.makeCurrent(offScreenGLWapper);
+            EGL14.eglDestroySurface(offScreenGLWapper.eglDisplay, outputSurface.eglSurface);
+            outputSurface.eglSurface = null;
+            outputSurface.releaseTextureCoordBuffer();
+        }
+    }
+
+    public int getOutputSurfaceNum() {
+        return outputSurfaces.size();
+    }
+
+    /**
+     * @param presentationTimeNs set on surfaces created with presentationTime
+     * @return number of surfaces drawn,offscreen surface is current again on return
+     */
+    public int draw(int texture, long presentationTimeNs) {
+        int outputSurfaceNum = outputSurfaces.size();
+        if (outputSurfaceNum == 0) {
+            return 0;
+        }
+        //program,texture & position are context state,set once for all surfaces
+        GLES20.glUseProgram(drawProgram);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        //texture coordinates are per surface,set in applyDrawState
+        glQuad.enableShape(drawPostionLoc);
+        for (int i = 0; i < outputSurfaceNum; ++i) {
+            RESOutputSurface outputSurface = outputSurfaces.get(i);
+            if (!EGL14.eglMakeCurrent(offScreenGLWapper.eglDisplay, outputSurface.eglSurface, outputSurface.eglSurface, offScreenGLWapper.eglContext)) {
+                throw new RuntimeException("eglMakeCurrent,failed:" + GLUtils.getEGLErrorString(EGL14.eglGetError()));
+            }
+            outputSurface.applyDrawState(glQuad, drawTextureCoordLoc);
+            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            glQuad.draw();
+            if (outputSurface.presentationTime) {
+                EGLExt.eglPresentationTimeANDROID(offScreenGLWapper.eglDisplay, outputSurface.eglSurface, presentationTimeNs);
+            }
+            if (!EGL14.eglSwapBuffers(offScreenGLWapper.eglDisplay, outputSurface.eglSurface)) {
+                throw new RuntimeException("eglSwapBuffers,failed!");
+            }
+        }
+        glQuad.disable(drawPostionLoc, drawTextureCoordLoc);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glUseProgram(0);
+        GLHelper.makeCurrent(offScreenGLWapper);
+        return outputSurfaceNum;
+    }
+
+    /**
+     * destroys every remaining surface,offscreen context must be current.
+     */
+    public void release() {
+        for (RESOutputSurface outputSurface : outputSurfaces) {
+            EGL14.eglDestroySurface(offScreenGLWapper.eglDisplay, outputSurface.eglSurface);
+            outputSurface.eglSurface = null;
+            outputSurface.releaseTextureCoordBuffer();
+        }
+        outputSurfaces.clear();
+        GLES20.glDeleteProgram(drawProgram);
+    }
+}
@@ -12,6 +12,7 @@ import android.os.SystemClock;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -37,9 +38,11 @@ public class RESSoftAudioCore {
     //buffers to handle buff from queueAudio
     private RESAudioBuff[] orignAudioBuffs;
     private int lastAudioQueueBuffIndex;
-    //buffer to handle buff from orignAudioBuffs
-    private RESAudioBuff orignAudioBuff;
+    //buffer to handle filtered buff from filter if filter are set
     private RESAudioBuff filteredAudioBuff;
+    //frames dropped because the encoder had no free input buffer
+    private final AtomicLong encoderDroppedFrames = new AtomicLong(0);
+    private final RESLatencyHistogram encodeLatency = new RESLatencyHistogram();
     private AudioFilterHandler audioFilterHandler;
     private HandlerThread audioFilterHandlerThread;
     private AudioSenderThread audioSenderThread;
@@ -84,7 +87,6 @@ public class RESSoftAudioCore {
             for (int i = 0; i < audioQueueNum; i++) {
                 orignAudioBuffs[i] = new RESAudioBuff(AudioFormat.ENCODING_PCM_16BIT, orignAudioBuffSize);
             }
-            orignAudioBuff = new RESAudioBuff(AudioFormat.ENCODING_PCM_16BIT, orignAudioBuffSize);
             filteredAudioBuff = new RESAudioBuff(AudioFormat.ENCODING_PCM_16BIT, orignAudioBuffSize);
             return true;
         }
@@ -99,11 +101,13 @@ public class RESSoftAudioCore {
                 if (dstAudioEncoder == null) {
                     dstAudioEncoder = MediaCodec.createEncoderByType(dstAudioFormat.getString(MediaFormat.KEY_MIME));
                 }
+                //may set encoder callback,before configure
+                audioSenderThread = new AudioSenderThread("AudioSenderThread", dstAudioEncoder, flvDataCollecter,
+                        encodeLatency, resCoreParameters.encoderCallbackMode);
                 dstAudioEncoder.configure(dstAudioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
                 dstAudioEncoder.start();
                 lastAudioQueueBuffIndex = 0;
                 audioFilterHandlerThread = new HandlerThread("audioFilterHandlerThread");
-                audioSenderThread = new AudioSenderThread("AudioSenderThread", dstAudioEncoder, flvDataCollecter);
                 audioFilterHandlerThread.start();
                 audioSenderThread.start();
                 audioFilterHandler = new AudioFilterHandler(audioFilterHandlerThread.getLooper());
@@ -151,6 +155,20 @@ public class RESSoftAudioCore {
         lockAudioFilter.unlock();
     }
 
+    /**
+     * @return frames dropped because the encoder input stayed full for {@link AudioFilterHandler#INPUT_BUFFER_TIMEOUT}
+     */
+    public long getEncoderDroppedFrames() {
+        return encoderDroppedFrames.get();
+    }
+
+    /**
+     * @return time from a frame entering the encoder to its tag being collected
+     */
+    public RESLatencyHistogram getEncodeLatency() {
+        return encodeLatency;
+    }
+
     public void destroy() {
         synchronized (syncOp) {
             lockAudioFilter.lock();
@@ -163,6 +181,7 @@ public class RESSoftAudioCore {
 
     private class AudioFilterHandler extends Handler {
         public static final int FILTER_LOCK_TOLERATION = 3;//3ms
+        public static final int INPUT_BUFFER_TIMEOUT = 20000;//20ms
         public static final int WHAT_INCOMING_BUFF = 1;
         private int sequenceNum;
 
@@ -179,29 +198,25 @@ public class RESSoftAudioCore {
             sequenceNum++;
             int targetIndex = msg.arg1;
             long nowTimeMs = SystemClock.uptimeMillis();
-            System.arraycopy(orignAudioBuffs[targetIndex].buff, 0,
-                    orignAudioBuff.buff, 0, orignAudioBuff.buff.length);
-            orignAudioBuffs[targetIndex].isReadyToFill = true;
+            byte[] orignBuff = orignAudioBuffs[targetIndex].buff;
             boolean isFilterLocked = lockAudioFilter();
             boolean filtered = false;
             if (isFilterLocked) {
-                filtered = audioFilter.onFrame(orignAudioBuff.buff, filteredAudioBuff.buff, nowTimeMs, sequenceNum);
+                filtered = audioFilter.onFrame(orignBuff, filteredAudioBuff.buff, nowTimeMs, sequenceNum);
                 unlockAudioFilter();
-            } else {
-                System.arraycopy(orignAudioBuffs[targetIndex].buff, 0,
-                        orignAudioBuff.buff, 0, orignAudioBuff.buff.length);
-                orignAudioBuffs[targetIndex].isReadyToFill = true;
             }
-            //orignAudioBuff is ready
-            int eibIndex = dstAudioEncoder.dequeueInputBuffer(-1);
+            //orignBuff or filteredAudioBuff goes to encoder input buffer directly
+            int eibIndex = audioSenderThread.dequeueInputBuffer(INPUT_BUFFER_TIMEOUT);
             if (eibIndex >= 0) {
-                ByteBuffer dstAudioEncoderIBuffer = dstAudioEncoder.getInputBuffers()[eibIndex];
+                ByteBuffer dstAudioEncoderIBuffer = dstAudioEncoder.getInputBuffer(eibIndex);
                 dstAudioEncoderIBuffer.position(0);
-                dstAudioEncoderIBuffer.put(filtered?filteredAudioBuff.buff:orignAudioBuff.buff, 0, orignAudioBuff.buff.length);
-                dstAudioEncoder.queueInputBuffer(eibIndex, 0, orignAudioBuff.buff.length, nowTimeMs * 1000, 0);
+                dstAudioEncoderIBuffer.put(filtered ? filteredAudioBuff.buff : orignBuff, 0, orignBuff.length);
+                dstAudioEncoder.queueInputBuffer(eibIndex, 0, orignBuff.length, nowTimeMs * 1000, 0);
             } else {
-                LogTools.d("dstAudioEncoder.dequeueInputBuffer(-1)<0");
+                encoderDroppedFrames.incrementAndGet();
+                LogTools.d("dstAudioEncoder.dequeueInputBuffer timeout,drop frame");
             }
+            orignAudioBuffs[targetIndex].isReadyToFill = true;
             LogTools.d("AudioFilterHandler,ProcessTime:" + (System.currentTimeMillis() - nowTimeMs));
         }
 
@@ -17,6 +17,7 @@ import android.os.SystemClock;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -43,7 +44,7 @@ public class RESSoftVideoCore implements RESVideoCore {
     private final Object syncOp = new Object();
     private SurfaceTexture cameraTexture;
 
-    private int currentCamera;
+    private volatile int currentCamera;
     private MediaCodec dstVideoEncoder;
     private boolean isEncoderStarted;
     private final Object syncDstVideoEncoder = new Object();
@@ -58,16 +59,26 @@ public class RESSoftVideoCore implements RESVideoCore {
     private HandlerThread videoFilterHandlerThread;
     //sender
     private VideoSenderThread videoSenderThread;
+    private final RESKeyFrameController keyFrameController = new RESKeyFrameController();
     //VideoBuffs
-    //buffers to handle buff from queueVideo
-    private RESVideoBuff[] orignVideoBuffs;
-    private int lastVideoQueueBuffIndex;
-    //buffer to convert orignVideoBuff to NV21 if filter are set
+    //frames from queueVideo,read in place by filter thread
+    private volatile RESVideoFrameRing videoFrameRing;
+    //blank frame drawn before the first camera frame
     private RESVideoBuff orignNV21VideoBuff;
+    /**
+     * set by filter thread when the frame goes to nothing but the encoder,
+     * the camera thread then queues it as shot and the filter thread rotates it while converting for the encoder.
+     */
+    private volatile boolean deferTransform = false;
+    //a deferred frame rotated for filter,preview or screenshot
+    private RESVideoBuff transformedNV21VideoBuff;
     //buffer to handle filtered color from filter if filter are set
     private RESVideoBuff filteredNV21VideoBuff;
     //buffer to convert other color format to suitable color format for dstVideoEncoder if nessesary
     private RESVideoBuff suitable4VideoEncoderBuff;
+    //frames dropped because the encoder had no free input buffer
+    private final AtomicLong encoderDroppedFrames = new AtomicLong(0);
+    private final RESLatencyHistogram encodeLatency = new RESLatencyHistogram();
 
     final private Object syncResScreenShotListener = new Object();
     private RESScreenShotListener resScreenShotListener;
@@ -75,7 +86,7 @@ public class RESSoftVideoCore implements RESVideoCore {
     private final Object syncIsLooping = new Object();
     private boolean isPreviewing = false;
     private boolean isStreaming = false;
-    private int loopingInterval;
+    private final RESFrameScheduler frameScheduler = new RESFrameScheduler();
 
     public RESSoftVideoCore(RESCoreParameters parameters) {
         resCoreParameters = parameters;
@@ -84,20 +95,17 @@ public class RESSoftVideoCore implements RESVideoCore {
     }
 
     public void setCurrentCamera(int camIndex) {
-        if (currentCamera != camIndex) {
-            synchronized (syncOp) {
-                if (videoFilterHandler != null) {
-                    videoFilterHandler.removeMessages(VideoFilterHandler.WHAT_INCOMING_BUFF);
-                }
-                if (orignVideoBuffs != null) {
-                    for (RESVideoBuff buff : orignVideoBuffs) {
-                        buff.isReadyToFill = true;
-                    }
-                    lastVideoQueueBuffIndex = 0;
-                }
+        synchronized (syncOp) {
+            if (currentCamera != camIndex && videoFrameRing != null && videoFrameRing.getPublishedFrames() > 0) {
+                //frames of the previous camera must not be drawn,blank frame until the new one delivers
+                videoFrameRing = createVideoFrameRing();
             }
+            currentCamera = camIndex;
         }
-        currentCamera = camIndex;
+    }
+
+    private RESVideoFrameRing createVideoFrameRing() {
+        return new RESVideoFrameRing(Math.max(resCoreParameters.videoBufferQueueNum, 2), resCoreParameters.previewBufferSize);
     }
 
     @Override
@@ -108,7 +116,7 @@ public class RESSoftVideoCore implements RESVideoCore {
             resCoreParameters.videoBufferQueueNum = resConfig.getVideoBufferQueueNum();
             resCoreParameters.mediacodecAVCIFrameInterval = resConfig.getVideoGOP();
             resCoreParameters.mediacodecAVCFrameRate = resCoreParameters.videoFPS;
-            loopingInterval = 1000 / resCoreParameters.videoFPS;
+            frameScheduler.setFrameRate(resCoreParameters.videoFPS);
             dstVideoFormat = new MediaFormat();
             synchronized (syncDstVideoEncoder) {
                 dstVideoEncoder = MediaCodecHelper.createSoftVideoMediaCodec(resCoreParameters, dstVideoFormat);
@@ -123,14 +131,11 @@ public class RESSoftVideoCore implements RESVideoCore {
             //video
             int videoWidth = resCoreParameters.videoWidth;
             int videoHeight = resCoreParameters.videoHeight;
-            int videoQueueNum = resCoreParameters.videoBufferQueueNum;
-            orignVideoBuffs = new RESVideoBuff[videoQueueNum];
-            for (int i = 0; i < videoQueueNum; i++) {
-                orignVideoBuffs[i] = new RESVideoBuff(resCoreParameters.previewColorFormat, resCoreParameters.previewBufferSize);
-            }
-            lastVideoQueueBuffIndex = 0;
+            videoFrameRing = createVideoFrameRing();
             orignNV21VideoBuff = new RESVideoBuff(MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
                     BuffSizeCalculator.calculator(videoWidth, videoHeight, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar));
+            transformedNV21VideoBuff = new RESVideoBuff(MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
+                    BuffSizeCalculator.calculator(videoWidth, videoHeight, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar));
             filteredNV21VideoBuff = new RESVideoBuff(MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar,
                     BuffSizeCalculator.calculator(videoWidth, videoHeight, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar));
             suitable4VideoEncoderBuff = new RESVideoBuff(resCoreParameters.mediacodecAVCColorFormat,
@@ -150,16 +155,19 @@ public class RESSoftVideoCore implements RESVideoCore {
                     if (dstVideoEncoder == null) {
                         dstVideoEncoder = MediaCodec.createEncoderByType(dstVideoFormat.getString(MediaFormat.KEY_MIME));
                     }
+                    //may set encoder callback,before configure
+                    videoSenderThread = new VideoSenderThread("VideoSenderThread", dstVideoEncoder, flvDataCollecter,
+                            keyFrameController, encodeLatency, resCoreParameters.encoderCallbackMode);
                     dstVideoEncoder.configure(dstVideoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
                     dstVideoEncoder.start();
                     isEncoderStarted = true;
                 }
-                videoSenderThread = new VideoSenderThread("VideoSenderThread", dstVideoEncoder, flvDataCollecter);
                 videoSenderThread.start();
                 synchronized (syncIsLooping) {
                     if (!isPreviewing && !isStreaming) {
                         videoFilterHandler.removeMessages(VideoFilterHandler.WHAT_DRAW);
-                        videoFilterHandler.sendMessageDelayed(videoFilterHandler.obtainMessage(VideoFilterHandler.WHAT_DRAW, SystemClock.uptimeMillis() + loopingInterval), loopingInterval);
+                        frameScheduler.start();
+                        videoFilterHandler.sendEmptyMessageAtTime(VideoFilterHandler.WHAT_DRAW, frameScheduler.getNextFrameUptimeMillis());
                     }
                     isStreaming = true;
                 }
@@ -194,6 +202,7 @@ public class RESSoftVideoCore implements RESVideoCore {
                 isEncoderStarted = false;
             }
             videoSenderThread = null;
+            keyFrameController.cancelPending();
             return true;
         }
     }
@@ -231,11 +240,25 @@ public class RESSoftVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public void requestKeyFrame() {
+        synchronized (syncOp) {
+            if (videoFilterHandler != null && videoSenderThread != null && keyFrameController.tryRequest()) {
+                videoFilterHandler.sendEmptyMessage(VideoFilterHandler.WHAT_REQUEST_KEY_FRAME);
+            }
+        }
+    }
+
+    @Override
+    public RESKeyFrameController getKeyFrameController() {
+        return keyFrameController;
+    }
+
     @Override
     public void reSetVideoFPS(int fps) {
         synchronized (syncOp) {
             resCoreParameters.videoFPS = fps;
-            loopingInterval = 1000 / resCoreParameters.videoFPS;
+            frameScheduler.setFrameRate(resCoreParameters.videoFPS);
         }
     }
 
@@ -269,7 +292,8 @@ public class RESSoftVideoCore implements RESVideoCore {
             synchronized (syncIsLooping) {
                 if (!isPreviewing && !isStreaming) {
                     videoFilterHandler.removeMessages(VideoFilterHandler.WHAT_DRAW);
-                    videoFilterHandler.sendMessageDelayed(videoFilterHandler.obtainMessage(VideoFilterHandler.WHAT_DRAW, SystemClock.uptimeMillis() + loopingInterval), loopingInterval);
+                    frameScheduler.start();
+                    videoFilterHandler.sendEmptyMessageAtTime(VideoFilterHandler.WHAT_DRAW, frameScheduler.getNextFrameUptimeMillis());
                 }
                 isPreviewing = true;
             }
@@ -300,29 +324,35 @@ public class RESSoftVideoCore implements RESVideoCore {
         }
     }
 
+    /**
+     * never block,called from camera preview callback.
+     */
     public void queueVideo(byte[] rawVideoFrame) {
-        synchronized (syncOp) {
-            int targetIndex = (lastVideoQueueBuffIndex + 1) % orignVideoBuffs.length;
-            if (orignVideoBuffs[targetIndex].isReadyToFill) {
-                LogTools.d("queueVideo,accept ,targetIndex" + targetIndex);
-                acceptVideo(rawVideoFrame, orignVideoBuffs[targetIndex].buff);
-                orignVideoBuffs[targetIndex].isReadyToFill = false;
-                lastVideoQueueBuffIndex = targetIndex;
-                videoFilterHandler.sendMessage(videoFilterHandler.obtainMessage(VideoFilterHandler.WHAT_INCOMING_BUFF, targetIndex, 0));
-            } else {
-                LogTools.d("queueVideo,abandon,targetIndex" + targetIndex);
-            }
+        RESVideoFrameRing ring = videoFrameRing;
+        byte[] dst = ring == null ? null : ring.beginWrite();
+        if (dst == null) {
+            LogTools.d("queueVideo,abandon");
+            return;
         }
+        ring.endWrite(acceptVideo(rawVideoFrame, dst));
     }
 
 
-    private void acceptVideo(byte[] src, byte[] dst) {
+    /**
+     * @return direction flag still to apply,0 if dst is rotated already
+     */
+    private int acceptVideo(byte[] src, byte[] dst) {
         int directionFlag = currentCamera == Camera.CameraInfo.CAMERA_FACING_BACK ? resCoreParameters.backCameraDirectionMode : resCoreParameters.frontCameraDirectionMode;
+        if (deferTransform) {
+            System.arraycopy(src, 0, dst, 0, resCoreParameters.previewVideoWidth * resCoreParameters.previewVideoHeight * 3 / 2);
+            return directionFlag;
+        }
         ColorHelper.NV21Transform(src,
                 dst,
                 resCoreParameters.previewVideoWidth,
                 resCoreParameters.previewVideoHeight,
                 directionFlag);
+        return 0;
     }
 
     public BaseSoftVideoFilter acquireVideoFilter() {
@@ -364,12 +394,40 @@ public class RESSoftVideoCore implements RESVideoCore {
         }
     }
 
+    @Override
+    public long getCameraDroppedFrames() {
+        RESVideoFrameRing ring = videoFrameRing;
+        return ring == null ? 0 : ring.getDroppedFrames() + ring.getRejectedFrames();
+    }
+
+    @Override
+    public int getPipelineOccupancy() {
+        RESVideoFrameRing ring = videoFrameRing;
+        return ring == null ? 0 : ring.getOccupancy();
+    }
+
+    @Override
+    public long getEncoderDroppedFrames() {
+        return encoderDroppedFrames.get();
+    }
+
+    @Override
+    public RESLatencyHistogram getEncodeLatency() {
+        return encodeLatency;
+    }
+
+    @Override
+    public RESFrameScheduler getFrameScheduler() {
+        return frameScheduler;
+    }
+
     //worker handler
     private class VideoFilterHandler extends Handler {
         public static final int FILTER_LOCK_TOLERATION = 3;//3ms
-        public static final int WHAT_INCOMING_BUFF = 1;
+        public static final int INPUT_BUFFER_TIMEOUT = 10000;//10ms
         public static final int WHAT_DRAW = 2;
         public static final int WHAT_RESET_BITRATE = 3;
+        public static final int WHAT_REQUEST_KEY_FRAME = 4;
         private int sequenceNum;
         private RESFrameRateMeter drawFrameRateMeter;
 
@@ -386,81 +444,66 @@ public class RESSoftVideoCore implements RESVideoCore {
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
-                case WHAT_INCOMING_BUFF: {
-                    int targetIndex = msg.arg1;
-                    /**
-                     * orignVideoBuffs[targetIndex] is ready
-                     * orignVideoBuffs[targetIndex]->orignNV21VideoBuff
-                     */
-                    System.arraycopy(orignVideoBuffs[targetIndex].buff, 0,
-                            orignNV21VideoBuff.buff, 0, orignNV21VideoBuff.buff.length);
-                    orignVideoBuffs[targetIndex].isReadyToFill = true;
-                }
-                break;
                 case WHAT_DRAW: {
-                    long time = (Long) msg.obj;
-                    long interval = time + loopingInterval - SystemClock.uptimeMillis();
+                    long presentationTimeNs = frameScheduler.onFrame();
                     synchronized (syncIsLooping) {
                         if (isPreviewing || isStreaming) {
-                            if (interval > 0) {
-                                videoFilterHandler.sendMessageDelayed(videoFilterHandler.obtainMessage(
-                                                VideoFilterHandler.WHAT_DRAW,
-                                                SystemClock.uptimeMillis() + interval),
-                                        interval);
-                            } else {
-                                videoFilterHandler.sendMessage(videoFilterHandler.obtainMessage(
-                                        VideoFilterHandler.WHAT_DRAW,
-                                        SystemClock.uptimeMillis() + loopingInterval));
-                            }
+                            videoFilterHandler.sendEmptyMessageAtTime(VideoFilterHandler.WHAT_DRAW, frameScheduler.getNextFrameUptimeMillis());
                         }
                     }
                     sequenceNum++;
                     long nowTimeMs = SystemClock.uptimeMillis();
+                    /**
+                     * newest camera frame,read in place.
+                     * held by this thread until next draw
+                     */
+                    RESVideoFrameRing ring = videoFrameRing;
+                    byte[] orignBuff = ring.acquireLatest();
+                    int pendingDirection = 0;
+                    if (orignBuff == null) {
+                        orignBuff = orignNV21VideoBuff.buff;
+                    } else {
+                        pendingDirection = ring.getHeldTag();
+                    }
                     boolean isFilterLocked = lockVideoFilter();
+                    boolean needNV21 = isFilterLocked || isNV21Wanted();
+                    boolean encoding = isEncoding();
+                    if (pendingDirection != 0 && (needNV21 || !encoding)) {
+                        //queued before the filter,preview or screenshot showed up
+                        ColorHelper.NV21Transform(orignBuff,
+                                transformedNV21VideoBuff.buff,
+                                resCoreParameters.previewVideoWidth,
+                                resCoreParameters.previewVideoHeight,
+                                pendingDirection);
+                        orignBuff = transformedNV21VideoBuff.buff;
+                        pendingDirection = 0;
+                    }
+                    deferTransform = !needNV21 && encoding;
+                    byte[] encodeBuff;
                     if (isFilterLocked) {
                         boolean modified;
-                        modified = videoFilter.onFrame(orignNV21VideoBuff.buff, filteredNV21VideoBuff.buff, nowTimeMs, sequenceNum);
+                        modified = videoFilter.onFrame(orignBuff, filteredNV21VideoBuff.buff, nowTimeMs, sequenceNum);
                         unlockVideoFilter();
-                        rendering(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff);
-                        checkScreenShot(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff);
-                        /**
-                         * orignNV21VideoBuff is ready
-                         * orignNV21VideoBuff->suitable4VideoEncoderBuff
-                         */
-                        if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
-                            ColorHelper.NV21TOYUV420SP(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff, resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        } else if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
-                            ColorHelper.NV21TOYUV420P(modified ? filteredNV21VideoBuff.buff : orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff, resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        } else {//LAKETODO colorConvert
-                        }
+                        encodeBuff = modified ? filteredNV21VideoBuff.buff : orignBuff;
                     } else {
-                        rendering(orignNV21VideoBuff.buff);
-                        checkScreenShot(orignNV21VideoBuff.buff);
-                        if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
-                            ColorHelper.NV21TOYUV420SP(orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff,
-                                    resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        } else if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
-                            ColorHelper.NV21TOYUV420P(orignNV21VideoBuff.buff,
-                                    suitable4VideoEncoderBuff.buff,
-                                    resCoreParameters.videoWidth * resCoreParameters.videoHeight);
-                        }
-                        orignNV21VideoBuff.isReadyToFill = true;
+                        encodeBuff = orignBuff;
+                    }
+                    if (pendingDirection == 0) {
+                        rendering(encodeBuff);
+                        checkScreenShot(encodeBuff);
                     }
                     drawFrameRateMeter.count();
-                    //suitable4VideoEncoderBuff is ready
                     synchronized (syncDstVideoEncoder) {
                         if (dstVideoEncoder != null && isEncoderStarted) {
-                            int eibIndex = dstVideoEncoder.dequeueInputBuffer(-1);
+                            int eibIndex = videoSenderThread.dequeueInputBuffer(INPUT_BUFFER_TIMEOUT);
                             if (eibIndex >= 0) {
-                                ByteBuffer dstVideoEncoderIBuffer = dstVideoEncoder.getInputBuffers()[eibIndex];
-                                dstVideoEncoderIBuffer.position(0);
-                                dstVideoEncoderIBuffer.put(suitable4VideoEncoderBuff.buff, 0, suitable4VideoEncoderBuff.buff.length);
-                                dstVideoEncoder.queueInputBuffer(eibIndex, 0, suitable4VideoEncoderBuff.buff.length, nowTimeMs * 1000, 0);
+                                ByteBuffer dstVideoEncoderIBuffer = dstVideoEncoder.getInputBuffer(eibIndex);
+                                int size = suitable4VideoEncoderBuff.buff.length;
+                                convertToEncoder(encodeBuff, pendingDirection, dstVideoEncoderIBuffer);
+                                dstVideoEncoder.queueInputBuffer(eibIndex, 0, size, presentationTimeNs / 1000, 0);
                             } else {
-                                LogTools.d("dstVideoEncoder.dequeueInputBuffer(-1)<0");
+                                encoderDroppedFrames.incrementAndGet();
+                                LogTools.d("dstVideoEncoder.dequeueInputBuffer timeout,drop frame");
                             }
                         }
                     }
@@ -476,6 +519,87 @@ public class RESSoftVideoCore implements RESVideoCore {
                     }
                 }
                 break;
+                case WHAT_REQUEST_KEY_FRAME: {
+                    synchronized (syncDstVideoEncoder) {
+                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && dstVideoEncoder != null && isEncoderStarted) {
+                            Bundle syncFrameBundle = new Bundle();
+                            syncFrameBundle.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                            dstVideoEncoder.setParameters(syncFrameBundle);
+                        }
+                    }
+                }
+                break;
+            }
+        }
+
+        /**
+         * NV21 frame->encoder input buffer in mediacodecAVCColorFormat.<br/>
+         * converted in one pass when the buffer is direct,
+         * otherwise through suitable4VideoEncoderBuff and a copy.
+         *
+         * @param pendingDirection direction flag nv21 is still to be rotated with,0 if rotated already
+         */
+        private void convertToEncoder(byte[] nv21, int pendingDirection, ByteBuffer encoderBuffer) {
+            if (pendingDirection != 0) {
+                transformToEncoder(nv21, pendingDirection, encoderBuffer);
+                return;
+            }
+            int ySize = resCoreParameters.videoWidth * resCoreParameters.videoHeight;
+            if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+                if (ColorHelper.NV21TOYUV420SP(nv21, encoderBuffer, ySize)) {
+                    return;
+                }
+                ColorHelper.NV21TOYUV420SP(nv21, suitable4VideoEncoderBuff.buff, ySize);
+            } else if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+                if (ColorHelper.NV21TOYUV420P(nv21, encoderBuffer, ySize)) {
+                    return;
+                }
+                ColorHelper.NV21TOYUV420P(nv21, suitable4VideoEncoderBuff.buff, ySize);
+            } else {//LAKETODO colorConvert
+            }
+            encoderBuffer.position(0);
+            encoderBuffer.put(suitable4VideoEncoderBuff.buff, 0, suitable4VideoEncoderBuff.buff.length);
+        }
+
+        /**
+         * camera frame->encoder input buffer,rotated & converted in the same pass.
+         */
+        private void transformToEncoder(byte[] nv21, int directionFlag, ByteBuffer encoderBuffer) {
+            int width = resCoreParameters.previewVideoWidth;
+            int height = resCoreParameters.previewVideoHeight;
+            if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+                if (ColorHelper.NV21TransformTOYUV420SP(nv21, encoderBuffer, width, height, directionFlag)) {
+                    return;
+                }
+                ColorHelper.NV21TransformTOYUV420SP(nv21, suitable4VideoEncoderBuff.buff, width, height, directionFlag);
+            } else if (resCoreParameters.mediacodecAVCColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+                if (ColorHelper.NV21TransformTOYUV420P(nv21, encoderBuffer, width, height, directionFlag)) {
+                    return;
+                }
+                ColorHelper.NV21TransformTOYUV420P(nv21, suitable4VideoEncoderBuff.buff, width, height, directionFlag);
+            } else {//LAKETODO colorConvert
+            }
+            encoderBuffer.position(0);
+            encoderBuffer.put(suitable4VideoEncoderBuff.buff, 0, suitable4VideoEncoderBuff.buff.length);
+        }
+
+        /**
+         * @return true if the preview or a screenshot needs the rotated NV21 frame
+         */
+        private boolean isNV21Wanted() {
+            synchronized (syncPreview) {
+                if (previewRender != null) {
+                    return true;
+                }
+            }
+            synchronized (syncResScreenShotListener) {
+                return resScreenShotListener != null;
+            }
+        }
+
+        private boolean isEncoding() {
+            synchronized (syncDstVideoEncoder) {
+                return dstVideoEncoder != null && isEncoderStarted;
             }
         }
 
@@ -0,0 +1,68 @@
+package me.lake.librestreaming.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Cpu time spent in each stage of a draw loop,recorded by the draw thread and read from any.
+ */
+public class RESStageTimer {
+    private final String[] stageNames;
+    private final AtomicLongArray totalNanos;
+    private final AtomicLongArray counts;
+
+    public RESStageTimer(String... stageNames) {
+        this.stageNames = stageNames;
+        totalNanos = new AtomicLongArray(stageNames.length);
+        counts = new AtomicLongArray(stageNames.length);
+    }
+
+    /**
+     * @param startNanos System.nanoTime() when the stage began
+     * @return now,start of the next stage
+     */
+    public long record(int stage, long startNanos) {
+        long now = System.nanoTime();
+        totalNanos.addAndGet(stage, now - startNanos);
+        counts.incrementAndGet(stage);
+        return now;
+    }
+
+    public int getStageNum() {
+        return stageNames.length;
+    }
+
+    public String getStageName(int stage) {
+        return stageNames[stage];
+    }
+
+    public long getCount(int stage) {
+        return counts.get(stage);
+    }
+
+    /**
+     * @return average ms per run of the stage,0 if it never ran
+     */
+    public float getAverageMs(int stage) {
+        long count = counts.get(stage);
+        return count == 0 ? 0 : totalNanos.get(stage) / 1000000f / count;
+    }
+
+    public void reset() {
+        for (int i = 0; i < stageNames.length; ++i) {
+            totalNanos.set(i, 0);
+            counts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < stageNames.length; ++i) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(stageNames[i]).append('=').append(getAverageMs(i)).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -34,6 +34,13 @@ public interface RESVideoCore {
 
     int getVideoBitrate();
 
+    /**
+     * ask the encoder for an IDR as soon as possible,rate limited.
+     */
+    void requestKeyFrame();
+
+    RESKeyFrameController getKeyFrameController();
+
     void reSetVideoFPS(int fps);
 
     void reSetVideoSize(RESCoreParameters newParameters);
@@ -45,4 +52,29 @@ public interface RESVideoCore {
     void setVideoChangeListener(RESVideoChangeListener listener);
 
     float getDrawFrameRate();
+
+    /**
+     * @return camera frames replaced or rejected before they were filtered
+     */
+    long getCameraDroppedFrames();
+
+    /**
+     * @return camera frames being copied,waiting or being filtered
+     */
+    int getPipelineOccupancy();
+
+    /**
+     * @return frames dropped because the encoder had no free input buffer in time
+     */
+    long getEncoderDroppedFrames();
+
+    /**
+     * @return time from a frame entering the encoder to its tag being collected
+     */
+    RESLatencyHistogram getEncodeLatency();
+
+    /**
+     * @return pacing of the draw loop,skipped frames & jitter
+     */
+    RESFrameScheduler getFrameScheduler();
 }
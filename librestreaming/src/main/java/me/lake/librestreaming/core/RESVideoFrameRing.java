@@ -0,0 +1,178 @@
+package me.lake.librestreaming.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Single-producer,single-consumer ring of video frames,the consumer always takes the newest one.<br/>
+ * the camera thread fills a slot in place and publishes it,the filter thread reads the newest published slot in place
+ * and holds it until a newer one is published,a held frame can be drawn several times but never changes while held.<br/>
+ * when no slot is free the oldest published one is overwritten,a late consumer only loses stale frames.<br/>
+ * every slot state is stamped with the publish sequence,so state changes are CAS on (sequence,state) and never ABA.
+ */
+class RESVideoFrameRing {
+    private static final long FREE = 0;
+    private static final long WRITING = 1;
+    private static final long READY = 2;
+    private static final long READING = 3;
+    private static final long STATE_MASK = 3;
+
+    private final byte[][] buffs;
+    /**
+     * per slot (sequence<<2)|state.
+     */
+    private final AtomicLongArray slots;
+    /**
+     * per slot value set by producer with the frame,published along with it.
+     */
+    private final int[] tags;
+    //producer only
+    private long publishSequence;
+    private int writingIndex = -1;
+    //consumer only
+    private int readingIndex = -1;
+    private long readingSequence;
+    //statistics
+    private final AtomicLong publishedFrames = new AtomicLong(0);
+    private final AtomicLong droppedFrames = new AtomicLong(0);
+    private final AtomicLong rejectedFrames = new AtomicLong(0);
+
+    /**
+     * @param slotNum  at least 2,one held by consumer and one for producer
+     * @param buffSize bytes of one frame
+     */
+    RESVideoFrameRing(int slotNum, int buffSize) {
+        if (slotNum < 2) {
+            throw new IllegalArgumentException("invalid frame ring slot num:" + slotNum);
+        }
+        buffs = new byte[slotNum][buffSize];
+        slots = new AtomicLongArray(slotNum);
+        tags = new int[slotNum];
+    }
+
+    /**
+     * producer only.
+     *
+     * @return buffer to fill,null if every slot is busy.call {@link #endWrite()} after filling it
+     */
+    byte[] beginWrite() {
+        for (int i = 0; i < buffs.length; ++i) {
+            long slot = slots.get(i);
+            if ((slot & STATE_MASK) == FREE && slots.compareAndSet(i, slot, (slot & ~STATE_MASK) | WRITING)) {
+                writingIndex = i;
+                return buffs[i];
+            }
+        }
+        //overwrite the oldest frame the consumer did not take
+        int oldestIndex = -1;
+        long oldestSlot = 0;
+        for (int i = 0; i < buffs.length; ++i) {
+            long slot = slots.get(i);
+            if ((slot & STATE_MASK) == READY && (oldestIndex < 0 || slot < oldestSlot)) {
+                oldestIndex = i;
+                oldestSlot = slot;
+            }
+        }
+        if (oldestIndex >= 0 && slots.compareAndSet(oldestIndex, oldestSlot, (oldestSlot & ~STATE_MASK) | WRITING)) {
+            droppedFrames.incrementAndGet();
+            writingIndex = oldestIndex;
+            return buffs[oldestIndex];
+        }
+        rejectedFrames.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * producer only,publish the buffer returned by {@link #beginWrite()}.
+     */
+    void endWrite() {
+        endWrite(0);
+    }
+
+    /**
+     * producer only,publish the buffer returned by {@link #beginWrite()} with a tag,see {@link #getHeldTag()}.
+     */
+    void endWrite(int tag) {
+        if (writingIndex < 0) {
+            return;
+        }
+        tags[writingIndex] = tag;
+        slots.set(writingIndex, (++publishSequence << 2) | READY);
+        writingIndex = -1;
+        publishedFrames.incrementAndGet();
+    }
+
+    /**
+     * consumer only.<br/>
+     * switch to the newest published frame if there is one,the previous held frame goes back to producer.
+     *
+     * @return the held frame,valid until next call.null if nothing has been published yet
+     */
+    byte[] acquireLatest() {
+        int newestIndex = -1;
+        long newestSlot = (readingSequence << 2) | STATE_MASK;
+        for (int i = 0; i < buffs.length; ++i) {
+            long slot = slots.get(i);
+            if ((slot & STATE_MASK) == READY && slot > newestSlot) {
+                newestIndex = i;
+                newestSlot = slot;
+            }
+        }
+        if (newestIndex >= 0 && slots.compareAndSet(newestIndex, newestSlot, (newestSlot & ~STATE_MASK) | READING)) {
+            if (readingIndex >= 0) {
+                slots.set(readingIndex, (readingSequence << 2) | FREE);
+            }
+            readingIndex = newestIndex;
+            readingSequence = newestSlot >>> 2;
+            //frames older than the held one will never be drawn
+            for (int i = 0; i < buffs.length; ++i) {
+                long slot = slots.get(i);
+                if ((slot & STATE_MASK) == READY && (slot >>> 2) < readingSequence
+                        && slots.compareAndSet(i, slot, (slot & ~STATE_MASK) | FREE)) {
+                    droppedFrames.incrementAndGet();
+                }
+            }
+        }
+        return readingIndex >= 0 ? buffs[readingIndex] : null;
+    }
+
+    /**
+     * consumer only.
+     *
+     * @return tag the held frame was published with,0 if none
+     */
+    int getHeldTag() {
+        return readingIndex >= 0 ? tags[readingIndex] : 0;
+    }
+
+    long getPublishedFrames() {
+        return publishedFrames.get();
+    }
+
+    /**
+     * @return frames published but replaced before the consumer took them
+     */
+    long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return frames the producer could not write
+     */
+    long getRejectedFrames() {
+        return rejectedFrames.get();
+    }
+
+    /**
+     * @return slots not free,being written,waiting or held by consumer
+     */
+    int getOccupancy() {
+        int res = 0;
+        for (int i = 0; i < buffs.length; ++i) {
+            if ((slots.get(i) & STATE_MASK) != FREE) {
+                ++res;
+            }
+        }
+        return res;
+    }
+}
@@ -1,17 +1,30 @@
 package me.lake.librestreaming.core;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import me.lake.librestreaming.rtmp.RESFlvData;
 import me.lake.librestreaming.rtmp.RESFlvDataCollecter;
+import me.lake.librestreaming.rtmp.RESFlvDataPool;
 import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.rtmp.RtmpClient;
 import me.lake.librestreaming.tools.LogTools;
 
 /**
  * Created by lakeinchina on 26/05/16.
+ * encoder output goes to dataCollecter either by polling on this thread,
+ * or in callback mode through MediaCodec.Callback on a dedicated HandlerThread (api 23+).<br/>
+ * in callback mode the encoder must not be dequeued directly,
+ * buffer input goes through {@link #dequeueInputBuffer(long)}.
  */
 public class VideoSenderThread extends Thread {
     private static final long WAIT_TIME = 5000;
@@ -20,18 +33,67 @@ public class VideoSenderThread extends Thread {
     private MediaCodec dstVideoEncoder;
     private final Object syncDstVideoEncoder = new Object();
     private RESFlvDataCollecter dataCollecter;
+    private final RESKeyFrameController keyFrameController;
+    private final RESLatencyHistogram encodeLatency;
+    //callback mode
+    private final boolean callbackMode;
+    private HandlerThread callbackThread;
+    private Handler callbackHandler;
+    private MediaCodec.Callback encoderCallback;
+    private final LinkedBlockingQueue<Integer> inputBufferIndexes = new LinkedBlockingQueue<>();
 
-    VideoSenderThread(String name, MediaCodec encoder, RESFlvDataCollecter flvDataCollecter) {
+    /**
+     * @param callbackMode use MediaCodec.Callback if supported,call before encoder.configure() then
+     */
+    VideoSenderThread(String name, MediaCodec encoder, RESFlvDataCollecter flvDataCollecter,
+                      RESKeyFrameController keyFrameController, RESLatencyHistogram encodeLatency,
+                      boolean callbackMode) {
         super(name);
         eInfo = new MediaCodec.BufferInfo();
         startTime = 0;
         dstVideoEncoder = encoder;
         dataCollecter = flvDataCollecter;
+        this.keyFrameController = keyFrameController;
+        this.encodeLatency = encodeLatency;
+        this.callbackMode = callbackMode && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        if (this.callbackMode) {
+            callbackThread = new HandlerThread(name + "Callback");
+            callbackThread.start();
+            callbackHandler = new Handler(callbackThread.getLooper());
+            encoderCallback = new EncoderCallback();
+            encoder.setCallback(encoderCallback, callbackHandler);
+        }
     }
 
+    /**
+     * in callback mode call it before the new encoder is configured.
+     */
     public void updateMediaCodec(MediaCodec encoder) {
         synchronized (syncDstVideoEncoder) {
             dstVideoEncoder = encoder;
+            if (callbackMode) {
+                inputBufferIndexes.clear();
+                encoder.setCallback(encoderCallback, callbackHandler);
+            }
+        }
+    }
+
+    boolean isCallbackMode() {
+        return callbackMode;
+    }
+
+    /**
+     * replace of encoder.dequeueInputBuffer(),which is not allowed in callback mode.
+     */
+    int dequeueInputBuffer(long timeoutUs) {
+        if (!callbackMode) {
+            return dstVideoEncoder.dequeueInputBuffer(timeoutUs);
+        }
+        try {
+            Integer index = inputBufferIndexes.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            return index == null ? MediaCodec.INFO_TRY_AGAIN_LATER : index;
+        } catch (InterruptedException e) {
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
         }
     }
 
@@ -39,11 +101,24 @@ public class VideoSenderThread extends Thread {
 
     void quit() {
         shouldQuit = true;
+        if (callbackThread != null) {
+            callbackThread.quitSafely();
+        }
         this.interrupt();
     }
 
     @Override
     public void run() {
+        if (callbackMode) {
+            //lives as long as callbackThread,so join() still waits for the last delivery
+            while (callbackThread.isAlive()) {
+                try {
+                    callbackThread.join();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return;
+        }
         while (!shouldQuit) {
             synchronized (syncDstVideoEncoder) {
                 int eobIndex = MediaCodec.INFO_TRY_AGAIN_LATER;
@@ -65,20 +140,7 @@ public class VideoSenderThread extends Thread {
                         break;
                     default:
                         LogTools.d("VideoSenderThread,MediaCode,eobIndex=" + eobIndex);
-                        if (startTime == 0) {
-                            startTime = eInfo.presentationTimeUs / 1000;
-                        }
-                        /**
-                         * we send sps pps already in INFO_OUTPUT_FORMAT_CHANGED
-                         * so we ignore MediaCodec.BUFFER_FLAG_CODEC_CONFIG
-                         */
-                        if (eInfo.flags != MediaCodec.BUFFER_FLAG_CODEC_CONFIG && eInfo.size != 0) {
-                            ByteBuffer realData = dstVideoEncoder.getOutputBuffers()[eobIndex];
-                            realData.position(eInfo.offset + 4);
-                            realData.limit(eInfo.offset + eInfo.size);
-                            sendRealData((eInfo.presentationTimeUs / 1000) - startTime, realData);
-                        }
-                        dstVideoEncoder.releaseOutputBuffer(eobIndex, false);
+                        drainOutputBuffer(dstVideoEncoder, eobIndex, eInfo);
                         break;
                 }
             }
@@ -90,11 +152,60 @@ public class VideoSenderThread extends Thread {
         eInfo = null;
     }
 
+    private void drainOutputBuffer(MediaCodec encoder, int eobIndex, MediaCodec.BufferInfo info) {
+        if (startTime == 0) {
+            startTime = info.presentationTimeUs / 1000;
+        }
+        /**
+         * we send sps pps already in INFO_OUTPUT_FORMAT_CHANGED
+         * so we ignore MediaCodec.BUFFER_FLAG_CODEC_CONFIG
+         */
+        if (info.flags != MediaCodec.BUFFER_FLAG_CODEC_CONFIG && info.size != 0) {
+            ByteBuffer realData = encoder.getOutputBuffer(eobIndex);
+            realData.position(info.offset + 4);
+            realData.limit(info.offset + info.size);
+            sendRealData((info.presentationTimeUs / 1000) - startTime, realData);
+            //presentation time is taken from SystemClock.uptimeMillis() when the frame is queued
+            encodeLatency.record(SystemClock.uptimeMillis() - info.presentationTimeUs / 1000);
+        }
+        encoder.releaseOutputBuffer(eobIndex, false);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private class EncoderCallback extends MediaCodec.Callback {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            inputBufferIndexes.offer(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            try {
+                drainOutputBuffer(codec, index, info);
+            } catch (IllegalStateException e) {
+                //encoder stopped or replaced meanwhile
+                LogTools.trace("VideoSenderThread,onOutputBufferAvailable", e);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            LogTools.trace("VideoSenderThread,onError", e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            LogTools.d("VideoSenderThread,onOutputFormatChanged:" + format.toString());
+            sendAVCDecoderConfigurationRecord(0, format);
+        }
+    }
+
     private void sendAVCDecoderConfigurationRecord(long tms, MediaFormat format) {
         byte[] AVCDecoderConfigurationRecord = Packager.H264Packager.generateAVCDecoderConfigurationRecord(format);
         int packetLen = Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH +
                 AVCDecoderConfigurationRecord.length;
-        byte[] finalBuff = new byte[packetLen];
+        RESFlvData resFlvData = RESFlvDataPool.i().obtain(packetLen);
+        byte[] finalBuff = resFlvData.byteBuffer;
         Packager.FLVPackager.fillFlvVideoTag(finalBuff,
                 0,
                 true,
@@ -102,10 +213,7 @@ public class VideoSenderThread extends Thread {
                 AVCDecoderConfigurationRecord.length);
         System.arraycopy(AVCDecoderConfigurationRecord, 0,
                 finalBuff, Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH, AVCDecoderConfigurationRecord.length);
-        RESFlvData resFlvData = new RESFlvData();
         resFlvData.droppable = false;
-        resFlvData.byteBuffer = finalBuff;
-        resFlvData.size = finalBuff.length;
         resFlvData.dts = (int) tms;
         resFlvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
         resFlvData.videoFrameType = RESFlvData.NALU_TYPE_IDR;
@@ -117,21 +225,23 @@ public class VideoSenderThread extends Thread {
         int packetLen = Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH +
                 Packager.FLVPackager.NALU_HEADER_LENGTH +
                 realDataLength;
-        byte[] finalBuff = new byte[packetLen];
-        realData.get(finalBuff, Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH +
-                        Packager.FLVPackager.NALU_HEADER_LENGTH,
-                realDataLength);
-        int frameType = finalBuff[Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH +
-                Packager.FLVPackager.NALU_HEADER_LENGTH] & 0x1F;
+        RESFlvData resFlvData = RESFlvDataPool.i().obtainDirect(packetLen);
+        ByteBuffer finalBuff = resFlvData.directBuffer;
+        int dataPos = RtmpClient.HEADROOM + Packager.FLVPackager.FLV_VIDEO_TAG_LENGTH +
+                Packager.FLVPackager.NALU_HEADER_LENGTH;
+        finalBuff.clear();
+        finalBuff.position(dataPos);
+        finalBuff.put(realData);
+        int frameType = finalBuff.get(dataPos) & 0x1F;
+        if (frameType == RESFlvData.NALU_TYPE_IDR) {
+            keyFrameController.onKeyFrame();
+        }
         Packager.FLVPackager.fillFlvVideoTag(finalBuff,
-                0,
+                RtmpClient.HEADROOM,
                 false,
                 frameType == 5,
                 realDataLength);
-        RESFlvData resFlvData = new RESFlvData();
         resFlvData.droppable = true;
-        resFlvData.byteBuffer = finalBuff;
-        resFlvData.size = finalBuff.length;
         resFlvData.dts = (int) tms;
         resFlvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
         resFlvData.videoFrameType = frameType;
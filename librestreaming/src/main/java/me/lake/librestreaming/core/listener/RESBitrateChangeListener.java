@@ -0,0 +1,37 @@
+package me.lake.librestreaming.core.listener;
+
+/**
+ * Librestreaming project.
+ * decisions of adaptive bitrate controller.
+ */
+public interface RESBitrateChangeListener {
+    int REASON_CONGESTED = 1;
+    int REASON_RECOVERED = 2;
+    int REASON_OUT_OF_RANGE = 3;
+
+    /**
+     * @param oldBitrate bits/sec
+     * @param newBitrate bits/sec
+     * @param reason     {@link #REASON_CONGESTED},{@link #REASON_RECOVERED} or {@link #REASON_OUT_OF_RANGE}
+     */
+    void onBitrateChanged(int oldBitrate, int newBitrate, int reason);
+
+    class RESBitrateChangeRunable implements Runnable {
+        RESBitrateChangeListener bitrateChangeListener;
+        int oldBitrate, newBitrate, reason;
+
+        public RESBitrateChangeRunable(RESBitrateChangeListener bitrateChangeListener, int oldBitrate, int newBitrate, int reason) {
+            this.bitrateChangeListener = bitrateChangeListener;
+            this.oldBitrate = oldBitrate;
+            this.newBitrate = newBitrate;
+            this.reason = reason;
+        }
+
+        @Override
+        public void run() {
+            if (bitrateChangeListener != null) {
+                bitrateChangeListener.onBitrateChanged(oldBitrate, newBitrate, reason);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package me.lake.librestreaming.core.listener;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives filtered video frames at a low rate,e.g. for thumbnails or content moderation.<br/>
+ * called on the frame reader thread,never on the gl thread.
+ */
+public interface RESFrameTapListener {
+    /**
+     * @param rgbaPixels         width*height RGBA pixels,top row first.
+     *                           reused for later frames,copy what is needed before returning & do not modify
+     * @param presentationTimeNs presentation time of the frame,same as the encoder
+     */
+    void onFrameTap(ByteBuffer rgbaPixels, int width, int height, long presentationTimeNs);
+}
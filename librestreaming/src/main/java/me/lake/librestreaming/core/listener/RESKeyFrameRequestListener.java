@@ -0,0 +1,12 @@
+package me.lake.librestreaming.core.listener;
+
+/**
+ * Librestreaming project.
+ * asks the video encoder for an IDR,e.g. when a consumer lost frames and waits for the next keyframe.
+ */
+public interface RESKeyFrameRequestListener {
+    /**
+     * called on the thread that needs the keyframe,must not block.
+     */
+    void onKeyFrameRequest();
+}
@@ -4,6 +4,7 @@ import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 
 import me.lake.librestreaming.core.GLHelper;
+import me.lake.librestreaming.core.GLQuad;
 
 /**
  * Created by lake on 16-5-31.
@@ -13,6 +14,7 @@ public class BaseHardVideoFilter {
     protected int SIZE_HEIGHT;
     protected int directionFlag=-1;
     protected ShortBuffer drawIndecesBuffer;
+    private GLQuad glQuad;
 
     public void onInit(int VWidth, int VHeight) {
         SIZE_WIDTH = VWidth;
@@ -24,7 +26,21 @@ public class BaseHardVideoFilter {
     }
 
     public void onDestroy() {
+        if (glQuad != null) {
+            glQuad.release();
+            glQuad = null;
+        }
+    }
 
+    /**
+     * for filters drawing the quad from buffer objects instead of shapeBuffer & drawIndecesBuffer,
+     * created on first call,gl thread only.
+     */
+    protected GLQuad getGLQuad() {
+        if (glQuad == null) {
+            glQuad = new GLQuad();
+        }
+        return glQuad;
     }
 
     public void onDirectionUpdate(int _directionFlag) {
@@ -3,7 +3,7 @@ package me.lake.librestreaming.filter.hardvideofilter;
 import android.opengl.GLES20;
 
 import java.nio.FloatBuffer;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import me.lake.librestreaming.tools.GLESTools;
@@ -12,13 +12,13 @@ import me.lake.librestreaming.tools.GLESTools;
  * Created by lake on 07/06/16.
  */
 public class HardVideoGroupFilter extends BaseHardVideoFilter {
-    private LinkedList<FilterWrapper> filterWrappers;
+    private ArrayList<FilterWrapper> filterWrappers;
 
     public HardVideoGroupFilter(List<BaseHardVideoFilter> filters) {
         if (filters == null || filters.isEmpty()) {
             throw new IllegalArgumentException("can not create empty GroupFilter");
         }
-        filterWrappers = new LinkedList<FilterWrapper>();
+        filterWrappers = new ArrayList<FilterWrapper>(filters.size());
         for (BaseHardVideoFilter filter : filters) {
             filterWrappers.add(new FilterWrapper(filter));
         }
@@ -46,21 +46,21 @@ public class HardVideoGroupFilter extends BaseHardVideoFilter {
     @Override
     public void onDraw(int cameraTexture, int targetFrameBuffer, FloatBuffer shapeBuffer, FloatBuffer textrueBuffer) {
         FilterWrapper preFilterWrapper = null;
-        int i = 0;
         int texture;
-        for (FilterWrapper wrapper : filterWrappers) {
+        //indexed,no iterator per frame
+        for (int i = 0, size = filterWrappers.size(); i < size; i++) {
+            FilterWrapper wrapper = filterWrappers.get(i);
             if (preFilterWrapper == null) {
                 texture = cameraTexture;
             } else {
                 texture = preFilterWrapper.frameBufferTexture;
             }
-            if (i == (filterWrappers.size() - 1)) {
+            if (i == (size - 1)) {
                 wrapper.filter.onDraw(texture, targetFrameBuffer, shapeBuffer, textrueBuffer);
             } else {
                 wrapper.filter.onDraw(texture, wrapper.frameBuffer, shapeBuffer, textrueBuffer);
             }
             preFilterWrapper = wrapper;
-            i++;
         }
     }
 
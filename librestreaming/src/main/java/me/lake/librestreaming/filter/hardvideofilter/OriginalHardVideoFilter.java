@@ -4,7 +4,9 @@ import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 
 import java.nio.FloatBuffer;
+import java.util.HashMap;
 
+import me.lake.librestreaming.core.GLQuad;
 import me.lake.librestreaming.tools.GLESTools;
 
 /**
@@ -15,6 +17,10 @@ public class OriginalHardVideoFilter extends BaseHardVideoFilter {
     protected int glTextureLoc;
     protected int glCamPostionLoc;
     protected int glCamTextureCoordLoc;
+    private final HashMap<String, Integer> uniformLocations = new HashMap<>();
+    //gl side copy of the last textrueBuffer passed to onDraw
+    private int textureCoordBuffer;
+    private FloatBuffer uploadedTextureBuffer;
     protected String vertexShader_filter = "" +
             "attribute vec4 aCamPosition;\n" +
             "attribute vec2 aCamTextureCoord;\n" +
@@ -49,6 +55,20 @@ public class OriginalHardVideoFilter extends BaseHardVideoFilter {
         glTextureLoc = GLES20.glGetUniformLocation(glProgram, "uCamTexture");
         glCamPostionLoc = GLES20.glGetAttribLocation(glProgram, "aCamPosition");
         glCamTextureCoordLoc = GLES20.glGetAttribLocation(glProgram, "aCamTextureCoord");
+        //always sampling unit 0
+        GLES20.glUniform1i(glTextureLoc, 0);
+    }
+
+    /**
+     * @return location of the uniform in glProgram,queried once and cached
+     */
+    protected int getUniformLocation(String name) {
+        Integer location = uniformLocations.get(name);
+        if (location == null) {
+            location = GLES20.glGetUniformLocation(glProgram, name);
+            uniformLocations.put(name, location);
+        }
+        return location;
     }
 
 
@@ -58,26 +78,23 @@ public class OriginalHardVideoFilter extends BaseHardVideoFilter {
         GLES20.glUseProgram(glProgram);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, cameraTexture);
-        GLES20.glUniform1i(glTextureLoc, 0);
-        GLES20.glEnableVertexAttribArray(glCamPostionLoc);
-        GLES20.glEnableVertexAttribArray(glCamTextureCoordLoc);
-        shapeBuffer.position(0);
-        GLES20.glVertexAttribPointer(glCamPostionLoc, 2,
-                GLES20.GL_FLOAT, false,
-                2 * 4, shapeBuffer);
-        textrueBuffer.position(0);
-        GLES20.glVertexAttribPointer(glCamTextureCoordLoc, 2,
-                GLES20.GL_FLOAT, false,
-                2 * 4, textrueBuffer);
+        GLQuad glQuad = getGLQuad();
+        //the quad is fixed,texture coordinates are uploaded again only when another buffer comes in
+        if (uploadedTextureBuffer == null) {
+            textureCoordBuffer = GLQuad.createTextureCoordBuffer(textrueBuffer);
+            uploadedTextureBuffer = textrueBuffer;
+        } else if (textrueBuffer != uploadedTextureBuffer) {
+            GLQuad.updateTextureCoordBuffer(textureCoordBuffer, textrueBuffer);
+            uploadedTextureBuffer = textrueBuffer;
+        }
+        glQuad.enable(glCamPostionLoc, glCamTextureCoordLoc, textureCoordBuffer);
         onPreDraw();
         GLES20.glViewport(0, 0, SIZE_WIDTH, SIZE_HEIGHT);
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawIndecesBuffer.limit(), GLES20.GL_UNSIGNED_SHORT, drawIndecesBuffer);
-        GLES20.glFinish();
+        glQuad.draw();
         onAfterDraw();
-        GLES20.glDisableVertexAttribArray(glCamPostionLoc);
-        GLES20.glDisableVertexAttribArray(glCamTextureCoordLoc);
+        glQuad.disable(glCamPostionLoc, glCamTextureCoordLoc);
         GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, 0);
         GLES20.glUseProgram(0);
         GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
@@ -95,5 +112,11 @@ public class OriginalHardVideoFilter extends BaseHardVideoFilter {
     public void onDestroy() {
         super.onDestroy();
         GLES20.glDeleteProgram(glProgram);
+        if (uploadedTextureBuffer != null) {
+            GLQuad.deleteBuffer(textureCoordBuffer);
+            textureCoordBuffer = 0;
+            uploadedTextureBuffer = null;
+        }
+        uniformLocations.clear();
     }
 }
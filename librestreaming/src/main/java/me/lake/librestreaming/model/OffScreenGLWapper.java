@@ -14,6 +14,8 @@ public class OffScreenGLWapper {
     public EGLConfig eglConfig;
     public EGLSurface eglSurface;
     public EGLContext eglContext;
+    //EGL_CONTEXT_CLIENT_VERSION of eglContext,2 or 3
+    public int glVersion;
 
     public int cam2dProgram;
     public int cam2dTextureMatrix;
@@ -3,6 +3,10 @@ package me.lake.librestreaming.model;
 
 import android.hardware.Camera;
 
+import me.lake.librestreaming.rtmp.RESFlvMuxer;
+import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.rtmp.javartmp.JavaRtmpPublisher;
+
 /**
  * Created by lake on 16-3-16.
  */
@@ -26,6 +30,17 @@ public class RESConfig {
         public static final int FLAG_DIRECTION_ROATATION_270 = RESCoreParameters.FLAG_DIRECTION_ROATATION_270;
     }
 
+    public static class RtmpBackend {
+        /**
+         * librtmp through jni
+         */
+        public static final int NATIVE = RESCoreParameters.RTMP_BACKEND_NATIVE;
+        /**
+         * pure java publisher on SocketChannel
+         */
+        public static final int JAVA = RESCoreParameters.RTMP_BACKEND_JAVA;
+    }
+
     private int filterMode;
     private Size targetVideoSize;
     private int videoBufferQueueNum;
@@ -38,6 +53,14 @@ public class RESConfig {
     private int videoFPS;
     private int videoGOP;
     private boolean printDetailMsg;
+    private int adaptiveMinBitRate;
+    private int adaptiveMaxBitRate;
+    private int rtmpBackend;
+    private int rtmpChunkSize;
+    private int muxLatency;
+    private int reconnectTimes;
+    private int reconnectDelay;
+    private boolean encoderCallbackMode;
 
     private RESConfig() {
     }
@@ -52,6 +75,11 @@ public class RESConfig {
         res.setVideoBufferQueueNum(5);
         res.setBitRate(2000000);
         res.setPrintDetailMsg(false);
+        res.setRtmpBackend(RtmpBackend.NATIVE);
+        res.setRtmpChunkSize(JavaRtmpPublisher.DEFAULT_CHUNK_SIZE);
+        res.setMuxLatency(RESFlvMuxer.DEFAULT_LATENCY_MS);
+        res.setReconnect(RESRtmpSender.DEFAULT_RECONNECT_TIMES, RESRtmpSender.DEFAULT_RECONNECT_DELAY_MS);
+        res.setEncoderCallbackMode(true);
         res.setDefaultCamera(Camera.CameraInfo.CAMERA_FACING_BACK);
         res.setBackCameraDirectionMode(DirectionMode.FLAG_DIRECTION_ROATATION_0);
         res.setFrontCameraDirectionMode(DirectionMode.FLAG_DIRECTION_ROATATION_0);
@@ -132,6 +160,102 @@ public class RESConfig {
         this.bitRate = bitRate;
     }
 
+    /**
+     * let bitrate follow the network,between minBitRate and maxBitRate.<br/>
+     * pass 0,0 to disable(default).
+     * @param minBitRate floor bits/sec
+     * @param maxBitRate ceiling bits/sec
+     */
+    public void setAdaptiveBitRate(int minBitRate, int maxBitRate) {
+        this.adaptiveMinBitRate = minBitRate;
+        this.adaptiveMaxBitRate = maxBitRate;
+    }
+
+    public boolean isAdaptiveBitRateEnabled() {
+        return adaptiveMinBitRate > 0 && adaptiveMaxBitRate >= adaptiveMinBitRate;
+    }
+
+    public int getAdaptiveMinBitRate() {
+        return adaptiveMinBitRate;
+    }
+
+    public int getAdaptiveMaxBitRate() {
+        return adaptiveMaxBitRate;
+    }
+
+    /**
+     * choose the rtmp implementation.
+     *
+     * @param rtmpBackend {@link RtmpBackend}
+     */
+    public void setRtmpBackend(int rtmpBackend) {
+        this.rtmpBackend = rtmpBackend;
+    }
+
+    public int getRtmpBackend() {
+        return rtmpBackend;
+    }
+
+    /**
+     * outgoing chunk size,only used by {@link RtmpBackend#JAVA}.
+     *
+     * @param rtmpChunkSize 128~{@link JavaRtmpPublisher#MAX_CHUNK_SIZE}
+     */
+    public void setRtmpChunkSize(int rtmpChunkSize) {
+        this.rtmpChunkSize = rtmpChunkSize;
+    }
+
+    public int getRtmpChunkSize() {
+        return rtmpChunkSize;
+    }
+
+    /**
+     * audio & video tags are put in dts order before sending,
+     * a tag waits at most muxLatency ms for the other stream.
+     *
+     * @param muxLatency ms,0 to send tags in arrival order
+     */
+    public void setMuxLatency(int muxLatency) {
+        this.muxLatency = muxLatency;
+    }
+
+    public int getMuxLatency() {
+        return muxLatency;
+    }
+
+    /**
+     * reopen the connection inside the sender when a write fails,encoders keep running.<br/>
+     * attempt n waits reconnectDelay*2^(n-1) ms,at most {@link RESRtmpSender#MAX_RECONNECT_DELAY_MS}.<br/>
+     * the connection listener only gets onWriteError once all attempts failed.
+     *
+     * @param reconnectTimes attempts before giving up,0 to report every write error as before
+     * @param reconnectDelay ms before the first attempt
+     */
+    public void setReconnect(int reconnectTimes, int reconnectDelay) {
+        this.reconnectTimes = reconnectTimes;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    public int getReconnectTimes() {
+        return reconnectTimes;
+    }
+
+    public int getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    /**
+     * deliver encoder output through MediaCodec callbacks instead of polling threads.<br/>
+     * only used on api 23+,polling otherwise.
+     */
+    public void setEncoderCallbackMode(boolean encoderCallbackMode) {
+        this.encoderCallbackMode = encoderCallbackMode;
+    }
+
+    public boolean isEncoderCallbackMode() {
+        return encoderCallbackMode;
+    }
+
     public int getVideoFPS() {
         return videoFPS;
     }
@@ -24,6 +24,9 @@ public class RESCoreParameters {
     public static final int FLAG_DIRECTION_ROATATION_180 = 0x40;
     public static final int FLAG_DIRECTION_ROATATION_270 = 0x80;
 
+    public static final int RTMP_BACKEND_NATIVE = 1;
+    public static final int RTMP_BACKEND_JAVA = 2;
+
     public boolean done;
     public boolean printDetailMsg;
     public int filterMode;
@@ -66,6 +69,14 @@ public class RESCoreParameters {
 
     //sender
     public int senderQueueLength;
+    public int rtmpBackend;
+    public int rtmpChunkSize;
+    public int muxLatency;
+    public int muxWindow;
+    public int reconnectTimes;
+    public int reconnectDelay;
+    //encoder
+    public boolean encoderCallbackMode;
 
     public RESCoreParameters() {
         done = false;
@@ -89,6 +100,8 @@ public class RESCoreParameters {
         mediacodecAACChannelCount = -1;
         mediacodecAACBitRate = -1;
         mediacodecAACMaxInputSize = -1;
+        rtmpBackend = RTMP_BACKEND_NATIVE;
+        rtmpChunkSize = -1;
     }
 
     public void dump() {
@@ -0,0 +1,34 @@
+package me.lake.librestreaming.rtmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * one rtmp publishing connection,all methods are called from the sender thread only.<br/>
+ * write returns 0 on success,error code otherwise.
+ */
+public interface IRtmpPublisher {
+    /**
+     * connect,handshake & start publishing.
+     *
+     * @return true if the stream is ready for writing
+     */
+    boolean open(String url);
+
+    int write(byte[] data, int size, int type, int ts);
+
+    /**
+     * @param data      direct ByteBuffer,with at least {@link RtmpClient#HEADROOM} bytes before offset
+     * @param offset    absolute offset of tag data
+     * @param exclusive true if no other thread uses data,the publisher may then modify it while writing
+     */
+    int write(ByteBuffer data, int offset, int size, int type, int ts, boolean exclusive);
+
+    /**
+     * push out anything buffered,called when send queue runs empty.
+     */
+    int flush();
+
+    int close();
+
+    String getIpAddr();
+}
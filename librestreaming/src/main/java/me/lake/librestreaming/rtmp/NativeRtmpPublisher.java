@@ -0,0 +1,46 @@
+package me.lake.librestreaming.rtmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link IRtmpPublisher} on top of librtmp through {@link RtmpClient}.
+ */
+public class NativeRtmpPublisher implements IRtmpPublisher {
+    private long jniRtmpPointer = 0;
+
+    @Override
+    public boolean open(String url) {
+        jniRtmpPointer = RtmpClient.open(url, true);
+        return jniRtmpPointer != 0;
+    }
+
+    @Override
+    public int write(byte[] data, int size, int type, int ts) {
+        return RtmpClient.write(jniRtmpPointer, data, size, type, ts);
+    }
+
+    @Override
+    public int write(ByteBuffer data, int offset, int size, int type, int ts, boolean exclusive) {
+        return RtmpClient.write(jniRtmpPointer, data, offset, size, type, ts, exclusive);
+    }
+
+    @Override
+    public int flush() {
+        return 0;
+    }
+
+    @Override
+    public int close() {
+        if (jniRtmpPointer == 0) {
+            return 0;
+        }
+        int res = RtmpClient.close(jniRtmpPointer);
+        jniRtmpPointer = 0;
+        return res;
+    }
+
+    @Override
+    public String getIpAddr() {
+        return jniRtmpPointer == 0 ? null : RtmpClient.getIpAddr(jniRtmpPointer);
+    }
+}
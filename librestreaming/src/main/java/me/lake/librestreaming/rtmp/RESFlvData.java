@@ -1,5 +1,8 @@
 package me.lake.librestreaming.rtmp;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Created by lake on 16-3-16.
  */
@@ -9,21 +12,43 @@ public class RESFlvData {
     public final static int FLV_RTMP_PACKET_TYPE_AUDIO = 8;
     public final static int FLV_RTMP_PACKET_TYPE_INFO = 18;
     public final static int NALU_TYPE_IDR = 5;
+    final static int SIZE_CLASS_NONE = -1;
+    final static int SIZE_CLASS_OVERSIZE = -2;
 
     public boolean droppable;
 
     public int dts;//解码时间戳
 
-    public byte[] byteBuffer; //数据
+    public byte[] byteBuffer; //数据,may be larger than size when obtained from RESFlvDataPool
+
+    /**
+     * direct storage used instead of byteBuffer when not null,
+     * tag bytes start at {@link RtmpClient#HEADROOM} so they can be written without copy.
+     */
+    public ByteBuffer directBuffer;
 
-    public int size; //字节长度
+    public int size; //字节长度,valid bytes in byteBuffer
 
     public int flvTagType; //视频和音频的分类
 
     public int videoFrameType;
 
+    int sizeClass = SIZE_CLASS_NONE;
+    boolean inPool = false;
+    /**
+     * consumers holding this tag,see {@link RESFlvDataPool#retain(RESFlvData, int)}
+     */
+    final AtomicInteger refCount = new AtomicInteger(0);
+
     public boolean isKeyframe() {
         return videoFrameType == NALU_TYPE_IDR;
     }
 
+    /**
+     * @return true if more than one consumer holds this tag,its bytes must not be modified then.
+     */
+    public boolean isShared() {
+        return refCount.get() > 1;
+    }
+
 }
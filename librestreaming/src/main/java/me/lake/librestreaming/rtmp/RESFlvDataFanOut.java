@@ -0,0 +1,78 @@
+package me.lake.librestreaming.rtmp;
+
+import java.util.Arrays;
+
+/**
+ * Deliver every tag to several consumers,consumers can be added or removed while streaming.<br/>
+ * all consumers share the same tag,each of them must recycle it once and must not modify its bytes.<br/>
+ * a consumer added mid-stream first gets the cached sequence headers.
+ */
+public class RESFlvDataFanOut implements RESFlvDataCollecter {
+    private volatile RESFlvDataCollecter[] consumers = new RESFlvDataCollecter[0];
+    private final Object syncConsumers = new Object();
+    private final RESSequenceHeaderCache sequenceHeaderCache = new RESSequenceHeaderCache();
+
+    public void addConsumer(RESFlvDataCollecter consumer) {
+        synchronized (syncConsumers) {
+            if (indexOf(consumer) >= 0) {
+                return;
+            }
+            sequenceHeaderCache.replay(consumer);
+            RESFlvDataCollecter[] newConsumers = Arrays.copyOf(consumers, consumers.length + 1);
+            newConsumers[consumers.length] = consumer;
+            consumers = newConsumers;
+        }
+    }
+
+    public void removeConsumer(RESFlvDataCollecter consumer) {
+        synchronized (syncConsumers) {
+            int index = indexOf(consumer);
+            if (index < 0) {
+                return;
+            }
+            RESFlvDataCollecter[] newConsumers = new RESFlvDataCollecter[consumers.length - 1];
+            System.arraycopy(consumers, 0, newConsumers, 0, index);
+            System.arraycopy(consumers, index + 1, newConsumers, index, consumers.length - index - 1);
+            consumers = newConsumers;
+        }
+    }
+
+    public int getConsumerCount() {
+        return consumers.length;
+    }
+
+    public RESSequenceHeaderCache getSequenceHeaderCache() {
+        return sequenceHeaderCache;
+    }
+
+    @Override
+    public void collect(RESFlvData flvData, int type) {
+        RESFlvDataCollecter[] snapshot;
+        if (RESSequenceHeaderCache.isSequenceHeader(flvData)) {
+            //consumers added after this see the new header in replay,never twice
+            synchronized (syncConsumers) {
+                sequenceHeaderCache.update(flvData);
+                snapshot = consumers;
+            }
+        } else {
+            snapshot = consumers;
+        }
+        if (snapshot.length == 0) {
+            RESFlvDataPool.i().recycle(flvData);
+            return;
+        }
+        RESFlvDataPool.i().retain(flvData, snapshot.length - 1);
+        for (RESFlvDataCollecter consumer : snapshot) {
+            consumer.collect(flvData, type);
+        }
+    }
+
+    private int indexOf(RESFlvDataCollecter consumer) {
+        for (int i = 0; i < consumers.length; ++i) {
+            if (consumers[i] == consumer) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,176 @@
+package me.lake.librestreaming.rtmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Size-classed pool of {@link RESFlvData}.<br/>
+ * sender threads obtain a tag from here,consumer recycle it once the tag has been written or dropped.<br/>
+ * every size class is a power of two,buffers larger than the biggest class are not pooled.<br/>
+ * heap tags (byteBuffer) and direct tags (directBuffer) are cached separately.<br/>
+ * a tag can be shared by several consumers with {@link #retain(RESFlvData, int)},
+ * it goes back to pool when the last one recycles it.
+ */
+public class RESFlvDataPool {
+    private static final int MIN_CLASS_SHIFT = 9;//512B
+    private static final int MAX_CLASS_SHIFT = 22;//4MB
+    private static final int CLASS_NUM = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+    private static final int MAX_CACHED_PER_CLASS = 32;
+    private static final RESFlvDataPool instance = new RESFlvDataPool();
+
+    private final RESFlvData[][] cached;
+    private final int[] cachedNum;
+    private final RESFlvData[][] cachedDirect;
+    private final int[] cachedDirectNum;
+    private final Object syncPool = new Object();
+    private long hitCount;
+    private long missCount;
+    private int outstandingCount;
+
+    public static RESFlvDataPool i() {
+        return instance;
+    }
+
+    RESFlvDataPool() {
+        cached = new RESFlvData[CLASS_NUM][MAX_CACHED_PER_CLASS];
+        cachedNum = new int[CLASS_NUM];
+        cachedDirect = new RESFlvData[CLASS_NUM][MAX_CACHED_PER_CLASS];
+        cachedDirectNum = new int[CLASS_NUM];
+    }
+
+    /**
+     * @param size bytes needed
+     * @return a clean RESFlvData whose byteBuffer can hold at least size bytes,size is set already.
+     */
+    public RESFlvData obtain(int size) {
+        return obtain(size, false);
+    }
+
+    /**
+     * @param size bytes needed
+     * @return a clean RESFlvData backed by a direct ByteBuffer,
+     * tag bytes go to [{@link RtmpClient#HEADROOM},{@link RtmpClient#HEADROOM}+size) of directBuffer.
+     */
+    public RESFlvData obtainDirect(int size) {
+        return obtain(size, true);
+    }
+
+    private RESFlvData obtain(int size, boolean direct) {
+        int sizeClass = sizeClassOf(size);
+        RESFlvData[][] cache = direct ? cachedDirect : cached;
+        int[] num = direct ? cachedDirectNum : cachedNum;
+        RESFlvData res = null;
+        synchronized (syncPool) {
+            if (sizeClass >= 0 && num[sizeClass] > 0) {
+                res = cache[sizeClass][--num[sizeClass]];
+                cache[sizeClass][num[sizeClass]] = null;
+                ++hitCount;
+            } else {
+                ++missCount;
+            }
+            ++outstandingCount;
+        }
+        if (res == null) {
+            res = new RESFlvData();
+            int capacity = sizeClass >= 0 ? 1 << (sizeClass + MIN_CLASS_SHIFT) : size;
+            if (direct) {
+                res.directBuffer = ByteBuffer.allocateDirect(RtmpClient.HEADROOM + capacity);
+            } else {
+                res.byteBuffer = new byte[capacity];
+            }
+            res.sizeClass = sizeClass;
+        }
+        res.inPool = false;
+        res.refCount.set(1);
+        res.droppable = false;
+        res.dts = 0;
+        res.size = size;
+        res.flvTagType = 0;
+        res.videoFrameType = 0;
+        return res;
+    }
+
+    /**
+     * add count more holders,each of them must call {@link #recycle(RESFlvData)} once.<br/>
+     * tags not obtained from pool are ignored.
+     */
+    public void retain(RESFlvData flvData, int count) {
+        if (flvData == null || flvData.sizeClass == RESFlvData.SIZE_CLASS_NONE || count <= 0) {
+            return;
+        }
+        flvData.refCount.addAndGet(count);
+    }
+
+    /**
+     * give the tag back,do NOT touch it after recycle.<br/>
+     * a shared tag is only pooled when its last holder recycles it,
+     * tags not obtained from pool are ignored.
+     */
+    public void recycle(RESFlvData flvData) {
+        if (flvData == null || flvData.sizeClass == RESFlvData.SIZE_CLASS_NONE) {
+            return;
+        }
+        if (flvData.refCount.decrementAndGet() > 0) {
+            return;
+        }
+        synchronized (syncPool) {
+            if (flvData.inPool) {
+                return;
+            }
+            flvData.inPool = true;
+            --outstandingCount;
+            int sizeClass = flvData.sizeClass;
+            RESFlvData[][] cache = flvData.directBuffer != null ? cachedDirect : cached;
+            int[] num = flvData.directBuffer != null ? cachedDirectNum : cachedNum;
+            if (sizeClass >= 0 && num[sizeClass] < MAX_CACHED_PER_CLASS) {
+                cache[sizeClass][num[sizeClass]++] = flvData;
+            }
+        }
+    }
+
+    /**
+     * drop all cached buffers,counters are kept.
+     */
+    public void clear() {
+        synchronized (syncPool) {
+            for (int i = 0; i < CLASS_NUM; ++i) {
+                for (int j = 0; j < cachedNum[i]; ++j) {
+                    cached[i][j] = null;
+                }
+                cachedNum[i] = 0;
+                for (int j = 0; j < cachedDirectNum[i]; ++j) {
+                    cachedDirect[i][j] = null;
+                }
+                cachedDirectNum[i] = 0;
+            }
+        }
+    }
+
+    public long getHitCount() {
+        synchronized (syncPool) {
+            return hitCount;
+        }
+    }
+
+    public long getMissCount() {
+        synchronized (syncPool) {
+            return missCount;
+        }
+    }
+
+    /**
+     * @return number of tags obtained but not recycled yet
+     */
+    public int getOutstandingCount() {
+        synchronized (syncPool) {
+            return outstandingCount;
+        }
+    }
+
+    private static int sizeClassOf(int size) {
+        if (size <= (1 << MIN_CLASS_SHIFT)) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_CLASS_SHIFT ? RESFlvData.SIZE_CLASS_OVERSIZE : shift - MIN_CLASS_SHIFT;
+    }
+}
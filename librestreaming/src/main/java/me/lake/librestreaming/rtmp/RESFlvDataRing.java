@@ -0,0 +1,91 @@
+package me.lake.librestreaming.rtmp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer,single-consumer ring of {@link RESFlvData}.<br/>
+ * {@link #offer(RESFlvData)} never blocks,it fails when the ring holds limit tags.<br/>
+ * {@link #poll()} must only be called from the single consumer thread.<br/>
+ * {@link #size()} is wait-free and can be called from any thread.
+ */
+class RESFlvDataRing {
+    private final int limit;
+    private final int mask;
+    private final RESFlvData[] slots;
+    /**
+     * per slot sequence,equals to the position that may be written next time.
+     */
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0);
+    private final AtomicLong head = new AtomicLong(0);
+
+    RESFlvDataRing(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("invalid ring limit:" + limit);
+        }
+        int capacity = Integer.highestOneBit(limit);
+        if (capacity < limit) {
+            capacity <<= 1;
+        }
+        this.limit = limit;
+        mask = capacity - 1;
+        slots = new RESFlvData[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if ring is full
+     */
+    boolean offer(RESFlvData flvData) {
+        while (true) {
+            long pos = tail.get();
+            if (pos - head.get() >= limit) {
+                return false;
+            }
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = flvData;
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * consumer only.
+     *
+     * @return null if ring is empty
+     */
+    RESFlvData poll() {
+        long pos = head.get();
+        int index = (int) pos & mask;
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        RESFlvData flvData = slots[index];
+        slots[index] = null;
+        sequences.lazySet(index, pos + mask + 1);
+        head.lazySet(pos + 1);
+        return flvData;
+    }
+
+    int size() {
+        long h = head.get();
+        long t = tail.get();
+        long size = t - h;
+        return size <= 0 ? 0 : (int) Math.min(size, limit);
+    }
+
+    int getLimit() {
+        return limit;
+    }
+}
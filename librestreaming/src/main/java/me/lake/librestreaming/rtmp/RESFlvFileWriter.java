@@ -0,0 +1,311 @@
+package me.lake.librestreaming.rtmp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * Record tags into a local .flv file.<br/>
+ * {@link #collect(RESFlvData, int)} never blocks,tags are queued for a writer thread
+ * which batches them into large FileChannel writes.<br/>
+ * video before the first IDR is skipped,so the file is playable from its start.
+ */
+public class RESFlvFileWriter implements RESFlvDataCollecter {
+    private static final int QUEUE_LENGTH = 300;
+    private static final int STAGE_SIZE = 512 * 1024;
+    private static final long FLUSH_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final int FLV_HEADER_SIZE = 9;
+    static final int TAG_HEADER_SIZE = 11;
+    static final int PREVIOUS_TAG_SIZE = 4;
+
+    private final File file;
+    private final FLvMetaData fLvMetaData;
+    private final Object syncOp = new Object();
+    private volatile WriterThread writerThread;
+    private final AtomicLong writtenBytes = new AtomicLong(0);
+    private final AtomicLong writtenTags = new AtomicLong(0);
+    private final AtomicLong droppedTags = new AtomicLong(0);
+    private final AtomicLong skippedTags = new AtomicLong(0);
+
+    public RESFlvFileWriter(File file, FLvMetaData fLvMetaData) {
+        this.file = file;
+        this.fLvMetaData = fLvMetaData;
+    }
+
+    /**
+     * create the file and write FLV header & onMetaData.
+     *
+     * @return false if the file can not be created
+     */
+    public boolean start() {
+        synchronized (syncOp) {
+            if (writerThread != null) {
+                return true;
+            }
+            writtenBytes.set(0);
+            writtenTags.set(0);
+            droppedTags.set(0);
+            skippedTags.set(0);
+            FileChannel channel = null;
+            try {
+                channel = new FileOutputStream(file).getChannel();
+                WriterThread thread = new WriterThread(channel);
+                thread.writeFileHeader(fLvMetaData.getMetaData());
+                thread.start();
+                writerThread = thread;
+                return true;
+            } catch (IOException e) {
+                LogTools.trace("RESFlvFileWriter,start failed", e);
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * write out everything queued and close the file,blocks until done.
+     */
+    public void stop() {
+        WriterThread thread;
+        synchronized (syncOp) {
+            thread = writerThread;
+            writerThread = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        thread.quit();
+        try {
+            thread.join();
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    public void collect(RESFlvData flvData, int type) {
+        WriterThread thread = writerThread;
+        if (thread == null) {
+            RESFlvDataPool.i().recycle(flvData);
+            return;
+        }
+        thread.offer(flvData);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return bytes written to file,FLV header included
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    public long getWrittenTags() {
+        return writtenTags.get();
+    }
+
+    /**
+     * @return tags abandoned because disk could not keep up or writing failed
+     */
+    public long getDroppedTags() {
+        return droppedTags.get();
+    }
+
+    /**
+     * @return video tags skipped while waiting for the first IDR
+     */
+    public long getSkippedTags() {
+        return skippedTags.get();
+    }
+
+    private class WriterThread extends Thread {
+        private final FileChannel channel;
+        private final RESFlvDataRing queue = new RESFlvDataRing(QUEUE_LENGTH);
+        private final ByteBuffer stage = ByteBuffer.allocateDirect(STAGE_SIZE);
+        private final ByteBuffer tagHeader = ByteBuffer.allocate(TAG_HEADER_SIZE);
+        private final ByteBuffer previousTagSize = ByteBuffer.allocate(PREVIOUS_TAG_SIZE);
+        private volatile boolean waiting = false;
+        private volatile boolean shouldQuit = false;
+        private boolean failed = false;
+        private boolean waitingForKeyframe = true;
+        private long lastWriteTime;
+
+        WriterThread(FileChannel channel) {
+            super("RESFlvFileWriter,writerThread");
+            this.channel = channel;
+        }
+
+        void offer(RESFlvData flvData) {
+            if (queue.offer(flvData)) {
+                if (waiting) {
+                    LockSupport.unpark(this);
+                }
+            } else {
+                droppedTags.incrementAndGet();
+                RESFlvDataPool.i().recycle(flvData);
+            }
+        }
+
+        void quit() {
+            shouldQuit = true;
+            LockSupport.unpark(this);
+        }
+
+        /**
+         * FLV header,PreviousTagSize0 and the onMetaData script tag,called before start.
+         */
+        void writeFileHeader(byte[] metaData) throws IOException {
+            stage.put((byte) 'F');
+            stage.put((byte) 'L');
+            stage.put((byte) 'V');
+            stage.put((byte) 0x01);
+            //audio & video
+            stage.put((byte) 0x05);
+            stage.putInt(FLV_HEADER_SIZE);
+            stage.putInt(0);
+            putTagHeader(stage, RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, metaData.length, 0);
+            stage.put(metaData);
+            stage.putInt(TAG_HEADER_SIZE + metaData.length);
+            writeStage();
+        }
+
+        @Override
+        public void run() {
+            lastWriteTime = System.nanoTime();
+            while (true) {
+                RESFlvData flvData = queue.poll();
+                if (flvData != null) {
+                    append(flvData);
+                    RESFlvDataPool.i().recycle(flvData);
+                    continue;
+                }
+                if (shouldQuit) {
+                    break;
+                }
+                if (stage.position() > 0 && System.nanoTime() - lastWriteTime >= FLUSH_INTERVAL_NS) {
+                    writeStageSafely();
+                }
+                waiting = true;
+                if (queue.size() == 0 && !shouldQuit) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NS);
+                }
+                waiting = false;
+            }
+            writeStageSafely();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LogTools.trace("RESFlvFileWriter,close failed", e);
+            }
+        }
+
+        private void append(RESFlvData flvData) {
+            if (failed) {
+                droppedTags.incrementAndGet();
+                return;
+            }
+            if (waitingForKeyframe && flvData.droppable && flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                //attached mid-GOP,sequence headers are not droppable and pass
+                if (!flvData.isKeyframe()) {
+                    skippedTags.incrementAndGet();
+                    return;
+                }
+                waitingForKeyframe = false;
+            }
+            try {
+                int tagSize = TAG_HEADER_SIZE + flvData.size + PREVIOUS_TAG_SIZE;
+                if (stage.remaining() < tagSize) {
+                    writeStage();
+                }
+                ByteBuffer data;
+                if (flvData.directBuffer != null) {
+                    data = flvData.directBuffer.duplicate();
+                    data.limit(RtmpClient.HEADROOM + flvData.size);
+                    data.position(RtmpClient.HEADROOM);
+                } else {
+                    data = ByteBuffer.wrap(flvData.byteBuffer, 0, flvData.size);
+                }
+                if (stage.remaining() < tagSize) {
+                    //bigger than stage,write it directly
+                    tagHeader.clear();
+                    putTagHeader(tagHeader, flvData.flvTagType, flvData.size, flvData.dts);
+                    tagHeader.flip();
+                    previousTagSize.clear();
+                    previousTagSize.putInt(TAG_HEADER_SIZE + flvData.size);
+                    previousTagSize.flip();
+                    writeFully(tagHeader);
+                    writeFully(data);
+                    writeFully(previousTagSize);
+                } else {
+                    putTagHeader(stage, flvData.flvTagType, flvData.size, flvData.dts);
+                    stage.put(data);
+                    stage.putInt(TAG_HEADER_SIZE + flvData.size);
+                }
+                writtenTags.incrementAndGet();
+            } catch (IOException e) {
+                LogTools.trace("RESFlvFileWriter,write failed", e);
+                failed = true;
+                droppedTags.incrementAndGet();
+            }
+        }
+
+        private void writeStageSafely() {
+            if (failed) {
+                return;
+            }
+            try {
+                writeStage();
+            } catch (IOException e) {
+                LogTools.trace("RESFlvFileWriter,write failed", e);
+                failed = true;
+            }
+        }
+
+        private void writeStage() throws IOException {
+            stage.flip();
+            try {
+                writeFully(stage);
+            } finally {
+                stage.clear();
+            }
+            lastWriteTime = System.nanoTime();
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                writtenBytes.addAndGet(channel.write(src));
+            }
+        }
+
+        private void putTagHeader(ByteBuffer dst, int tagType, int dataSize, int dts) {
+            dst.put((byte) tagType);
+            dst.put((byte) (dataSize >> 16));
+            dst.put((byte) (dataSize >> 8));
+            dst.put((byte) dataSize);
+            //Timestamp,lower 24 bits then TimestampExtended
+            dst.put((byte) (dts >> 16));
+            dst.put((byte) (dts >> 8));
+            dst.put((byte) dts);
+            dst.put((byte) (dts >> 24));
+            //StreamID
+            dst.put((byte) 0);
+            dst.put((byte) 0);
+            dst.put((byte) 0);
+        }
+    }
+}
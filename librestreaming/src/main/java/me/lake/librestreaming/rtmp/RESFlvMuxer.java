@@ -0,0 +1,240 @@
+package me.lake.librestreaming.rtmp;
+
+/**
+ * Reorders audio & video tags by dts before passing them on.<br/>
+ * each source is monotonic by itself,so the head of one source is released once the other source has caught up,
+ * the window is full or the tag has been held for the latency ceiling.<br/>
+ * a tag arriving behind what has been released already gets its dts raised,output dts never goes back.
+ */
+public class RESFlvMuxer implements RESFlvDataCollecter {
+    public static final int DEFAULT_LATENCY_MS = 200;
+    public static final int DEFAULT_WINDOW = 64;
+    private static final long NS_PER_MS = 1000000L;
+
+    private final RESFlvDataCollecter downstream;
+    private final long latencyNs;
+    private final int window;
+    private final SourceQueue audioQueue;
+    private final SourceQueue videoQueue;
+    private final Object syncMux = new Object();
+    private boolean released;
+    private int lastDts;
+    //metrics
+    private int maxReorderDepth;
+    private long releasedCount;
+    private long totalDelayNs;
+    private long maxDelayNs;
+    private long lateCount;
+    private long latencyFlushCount;
+
+    /**
+     * fixed size fifo of one source.
+     */
+    private static class SourceQueue {
+        final int type;
+        final RESFlvData[] items;
+        final long[] arrivals;
+        int head;
+        int size;
+        boolean pushed;
+        int lastPushedDts;
+
+        SourceQueue(int type, int capacity) {
+            this.type = type;
+            items = new RESFlvData[capacity];
+            arrivals = new long[capacity];
+        }
+
+        void push(RESFlvData flvData, long arrival) {
+            int index = (head + size) % items.length;
+            items[index] = flvData;
+            arrivals[index] = arrival;
+            ++size;
+            pushed = true;
+            lastPushedDts = flvData.dts;
+        }
+
+        RESFlvData peek() {
+            return items[head];
+        }
+
+        long peekArrival() {
+            return arrivals[head];
+        }
+
+        RESFlvData pop() {
+            RESFlvData res = items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            --size;
+            return res;
+        }
+    }
+
+    public RESFlvMuxer(RESFlvDataCollecter downstream) {
+        this(downstream, DEFAULT_LATENCY_MS, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param downstream where ordered tags go,called with the muxer locked,must not block
+     * @param latencyMs  max time a tag can be held
+     * @param window     max tags held,audio & video together
+     */
+    public RESFlvMuxer(RESFlvDataCollecter downstream, int latencyMs, int window) {
+        if (latencyMs <= 0 || window <= 0) {
+            throw new IllegalArgumentException("invalid muxer latency/window:" + latencyMs + "/" + window);
+        }
+        this.downstream = downstream;
+        this.latencyNs = latencyMs * NS_PER_MS;
+        this.window = window;
+        audioQueue = new SourceQueue(RESRtmpSender.FROM_AUDIO, window + 1);
+        videoQueue = new SourceQueue(RESRtmpSender.FROM_VIDEO, window + 1);
+    }
+
+    @Override
+    public void collect(RESFlvData flvData, int type) {
+        long now = System.nanoTime();
+        synchronized (syncMux) {
+            SourceQueue queue = type == RESRtmpSender.FROM_VIDEO ? videoQueue : audioQueue;
+            queue.push(flvData, now);
+            int depth = audioQueue.size + videoQueue.size;
+            if (depth > maxReorderDepth) {
+                maxReorderDepth = depth;
+            }
+            drain(now, false);
+        }
+    }
+
+    /**
+     * release everything held,in dts order.
+     */
+    public void flush() {
+        synchronized (syncMux) {
+            drain(System.nanoTime(), true);
+        }
+    }
+
+    /**
+     * flush and forget the dts history,call it before a new session.
+     */
+    public void reset() {
+        synchronized (syncMux) {
+            drain(System.nanoTime(), true);
+            released = false;
+            lastDts = 0;
+            audioQueue.pushed = false;
+            videoQueue.pushed = false;
+        }
+    }
+
+    private void drain(long now, boolean force) {
+        while (true) {
+            SourceQueue queue;
+            SourceQueue other;
+            if (audioQueue.size == 0 && videoQueue.size == 0) {
+                return;
+            } else if (videoQueue.size == 0) {
+                queue = audioQueue;
+                other = videoQueue;
+            } else if (audioQueue.size == 0 || videoQueue.peek().dts <= audioQueue.peek().dts) {
+                queue = videoQueue;
+                other = audioQueue;
+            } else {
+                queue = audioQueue;
+                other = videoQueue;
+            }
+            int dts = queue.peek().dts;
+            if (force
+                    || other.size > 0
+                    || (other.pushed && other.lastPushedDts >= dts)
+                    || (released && dts <= lastDts)
+                    || audioQueue.size + videoQueue.size > window) {
+                release(queue, now);
+            } else if (now - queue.peekArrival() >= latencyNs) {
+                ++latencyFlushCount;
+                release(queue, now);
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void release(SourceQueue queue, long now) {
+        long delay = now - queue.peekArrival();
+        RESFlvData flvData = queue.pop();
+        if (released && flvData.dts < lastDts) {
+            flvData.dts = lastDts;
+            ++lateCount;
+        }
+        released = true;
+        lastDts = flvData.dts;
+        ++releasedCount;
+        totalDelayNs += delay;
+        if (delay > maxDelayNs) {
+            maxDelayNs = delay;
+        }
+        downstream.collect(flvData, queue.type);
+    }
+
+    /**
+     * @return tags held right now
+     */
+    public int getReorderDepth() {
+        synchronized (syncMux) {
+            return audioQueue.size + videoQueue.size;
+        }
+    }
+
+    public int getMaxReorderDepth() {
+        synchronized (syncMux) {
+            return maxReorderDepth;
+        }
+    }
+
+    /**
+     * @return average time a tag was held,ms
+     */
+    public float getAverageDelay() {
+        synchronized (syncMux) {
+            return releasedCount == 0 ? 0 : (float) totalDelayNs / releasedCount / NS_PER_MS;
+        }
+    }
+
+    /**
+     * @return longest time a tag was held,ms
+     */
+    public float getMaxDelay() {
+        synchronized (syncMux) {
+            return (float) maxDelayNs / NS_PER_MS;
+        }
+    }
+
+    /**
+     * @return tags whose dts was raised to keep output monotonic
+     */
+    public long getLateCount() {
+        synchronized (syncMux) {
+            return lateCount;
+        }
+    }
+
+    /**
+     * @return tags released by the latency ceiling
+     */
+    public long getLatencyFlushCount() {
+        synchronized (syncMux) {
+            return latencyFlushCount;
+        }
+    }
+
+    public void resetStats() {
+        synchronized (syncMux) {
+            maxReorderDepth = 0;
+            releasedCount = 0;
+            totalDelayNs = 0;
+            maxDelayNs = 0;
+            lateCount = 0;
+            latencyFlushCount = 0;
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package me.lake.librestreaming.rtmp;
 
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
-import android.os.Message;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import me.lake.librestreaming.client.CallbackDelivery;
 import me.lake.librestreaming.core.RESByteSpeedometer;
 import me.lake.librestreaming.core.RESFrameRateMeter;
 import me.lake.librestreaming.core.listener.RESConnectionListener;
+import me.lake.librestreaming.core.listener.RESKeyFrameRequestListener;
 import me.lake.librestreaming.model.RESCoreParameters;
+import me.lake.librestreaming.rtmp.droppolicy.BaseDropPolicy;
+import me.lake.librestreaming.rtmp.droppolicy.GOPDropPolicy;
+import me.lake.librestreaming.rtmp.javartmp.JavaRtmpPublisher;
 import me.lake.librestreaming.tools.LogTools;
 
 /**
@@ -19,95 +23,162 @@ public class RESRtmpSender {
     private static final int TIMEGRANULARITY = 3000;
     public static final int FROM_AUDIO = 8;
     public static final int FROM_VIDEO = 6;
-    private WorkHandler workHandler;
-    private HandlerThread workHandlerThread;
+    public static final int DEFAULT_RECONNECT_TIMES = 5;
+    public static final int DEFAULT_RECONNECT_DELAY_MS = 500;
+    public static final int MAX_RECONNECT_DELAY_MS = 8000;
+    private volatile WorkThread workThread;
     private final Object syncOp = new Object();
 
     public void prepare(RESCoreParameters coreParameters) {
         synchronized (syncOp) {
-            workHandlerThread = new HandlerThread("RESRtmpSender,workHandlerThread");
-            workHandlerThread.start();
-            workHandler = new WorkHandler(coreParameters.senderQueueLength,
+            workThread = new WorkThread(coreParameters.senderQueueLength,
                     new FLvMetaData(coreParameters),
-                    workHandlerThread.getLooper());
+                    coreParameters.rtmpBackend,
+                    coreParameters.rtmpChunkSize,
+                    coreParameters.reconnectTimes,
+                    coreParameters.reconnectDelay);
+            workThread.start();
         }
     }
 
     public void setConnectionListener(RESConnectionListener connectionListener) {
         synchronized (syncOp) {
-            workHandler.setConnectionListener(connectionListener);
+            workThread.setConnectionListener(connectionListener);
         }
     }
 
-    public String getServerIpAddr() {
+    /**
+     * @param keyFrameRequestListener called on the sender thread when video is dropped until the next IDR,
+     *                                once per wait
+     */
+    public void setKeyFrameRequestListener(RESKeyFrameRequestListener keyFrameRequestListener) {
         synchronized (syncOp) {
-            return workHandler == null ? null : workHandler.getServerIpAddr();
+            workThread.setKeyFrameRequestListener(keyFrameRequestListener);
         }
     }
 
-    public float getSendFrameRate() {
+    /**
+     * @param dropPolicy policy to apply when send queue is crowded,null to restore default {@link GOPDropPolicy}
+     */
+    public void setDropPolicy(BaseDropPolicy dropPolicy) {
         synchronized (syncOp) {
-            return workHandler == null ? 0 : workHandler.getSendFrameRate();
+            workThread.setDropPolicy(dropPolicy == null ? new GOPDropPolicy() : dropPolicy);
         }
     }
 
+    public BaseDropPolicy getDropPolicy() {
+        WorkThread thread = workThread;
+        return thread == null ? null : thread.getDropPolicy();
+    }
+
+    public String getServerIpAddr() {
+        WorkThread thread = workThread;
+        return thread == null ? null : thread.getServerIpAddr();
+    }
+
+    public float getSendFrameRate() {
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getSendFrameRate();
+    }
+
+    /**
+     * wait-free,safe to call from any thread.
+     */
     public float getSendBufferFreePercent() {
-        synchronized (syncOp) {
-            return workHandler == null ? 0 : workHandler.getSendBufferFreePercent();
-        }
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getSendBufferFreePercent();
+    }
+
+    /**
+     * @return true while the connection is lost and being reopened
+     */
+    public boolean isReconnecting() {
+        WorkThread thread = workThread;
+        return thread != null && thread.isReconnecting();
+    }
+
+    /**
+     * @return successful reconnects since prepare
+     */
+    public int getReconnectCount() {
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getReconnectCount();
     }
 
     public void start(String rtmpAddr) {
         synchronized (syncOp) {
-            workHandler.sendStart(rtmpAddr);
+            workThread.sendStart(rtmpAddr);
         }
     }
 
+    /**
+     * never block,called from audio & video sender threads.
+     */
     public void feed(RESFlvData flvData, int type) {
-        synchronized (syncOp) {
-            workHandler.sendFood(flvData, type);
+        WorkThread thread = workThread;
+        if (thread == null) {
+            RESFlvDataPool.i().recycle(flvData);
+            return;
         }
+        thread.sendFood(flvData, type);
     }
 
     public void stop() {
         synchronized (syncOp) {
-            workHandler.sendStop();
+            workThread.sendStop();
         }
     }
 
     public void destroy() {
         synchronized (syncOp) {
-            workHandler.removeCallbacksAndMessages(null);
-            workHandlerThread.quit();
             /**
              * do not wait librtmp to quit
              */
-//        try {
-//            workHandlerThread.join();
-//        } catch (InterruptedException ignored) {
-//        }
+            workThread.quit();
         }
     }
 
+    /**
+     * @return video send speed in B/s
+     */
+    public int getVideoSpeed() {
+        WorkThread thread = workThread;
+        return thread == null ? 0 : thread.getVideoSpeed();
+    }
+
     public int getTotalSpeed() {
-        synchronized (syncOp) {
-            if (workHandler != null) {
-                return workHandler.getTotalSpeed();
-            } else {
-                return 0;
-            }
+        WorkThread thread = workThread;
+        if (thread != null) {
+            return thread.getTotalSpeed();
+        } else {
+            return 0;
         }
     }
 
-    static class WorkHandler extends Handler {
+    /**
+     * the only thread touching the publisher.<br/>
+     * consumes control commands first,then tags from the ring.<br/>
+     * a failed write moves it to RECONNECTING:the publisher is reopened with exponential backoff,
+     * tags wait in a bounded backlog starting at the newest IDR,
+     * then onMetaData & the cached sequence headers are resent before the backlog.
+     */
+    static class WorkThread extends Thread {
         private final static int MSG_START = 1;
-        private final static int MSG_WRITE = 2;
         private final static int MSG_STOP = 3;
-        private long jniRtmpPointer = 0;
-        private String serverIpAddr = null;
-        private int maxQueueLength;
-        private int writeMsgNum = 0;
-        private final Object syncWriteMsgNum = new Object();
+        private final static long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(100);
+        private final int rtmpBackend;
+        private final int rtmpChunkSize;
+        private final int reconnectTimes;
+        private final int reconnectDelay;
+        private IRtmpPublisher publisher;
+        private String rtmpAddr;
+        private volatile String serverIpAddr = null;
+        private final RESFlvDataRing sendRing;
+        private final ArrayDeque<Command> commands = new ArrayDeque<>();
+        private final Object syncCommands = new Object();
+        private volatile boolean waiting = false;
+        private volatile boolean shouldQuit = false;
+        private volatile BaseDropPolicy dropPolicy = new GOPDropPolicy();
         private RESByteSpeedometer videoByteSpeedometer = new RESByteSpeedometer(TIMEGRANULARITY);
         private RESByteSpeedometer audioByteSpeedometer = new RESByteSpeedometer(TIMEGRANULARITY);
         private RESFrameRateMeter sendFrameRateMeter = new RESFrameRateMeter();
@@ -115,22 +186,56 @@ public class RESRtmpSender {
         private RESConnectionListener connectionListener;
         private final Object syncConnectionListener = new Object();
         private int errorTime = 0;
+        //reconnect
+        private final ArrayDeque<RESFlvData> backlog = new ArrayDeque<>();
+        private boolean waitingForKeyframe;
+        private int reconnectAttempt;
+        private long nextReconnectTime;
+        private int lastErrno;
+        private volatile int reconnectCount = 0;
+        private final RESSequenceHeaderCache sequenceHeaderCache = new RESSequenceHeaderCache();
+        private volatile RESKeyFrameRequestListener keyFrameRequestListener;
+        private boolean keyFrameRequested;
 
         private enum STATE {
             IDLE,
             RUNNING,
+            RECONNECTING,
             STOPPED
         }
 
         private STATE state;
 
-        WorkHandler(int maxQueueLength, FLvMetaData fLvMetaData, Looper looper) {
-            super(looper);
-            this.maxQueueLength = maxQueueLength;
+        private static class Command {
+            final int what;
+            final String rtmpAddr;
+
+            Command(int what, String rtmpAddr) {
+                this.what = what;
+                this.rtmpAddr = rtmpAddr;
+            }
+        }
+
+        WorkThread(int maxQueueLength, FLvMetaData fLvMetaData, int rtmpBackend, int rtmpChunkSize,
+                   int reconnectTimes, int reconnectDelay) {
+            super("RESRtmpSender,workThread");
+            this.sendRing = new RESFlvDataRing(maxQueueLength);
             this.fLvMetaData = fLvMetaData;
+            this.rtmpBackend = rtmpBackend;
+            this.rtmpChunkSize = rtmpChunkSize;
+            this.reconnectTimes = reconnectTimes;
+            this.reconnectDelay = reconnectDelay > 0 ? reconnectDelay : DEFAULT_RECONNECT_DELAY_MS;
             state = STATE.IDLE;
         }
 
+        boolean isReconnecting() {
+            return state == STATE.RECONNECTING;
+        }
+
+        int getReconnectCount() {
+            return reconnectCount;
+        }
+
         public String getServerIpAddr() {
             return serverIpAddr;
         }
@@ -140,25 +245,74 @@ public class RESRtmpSender {
         }
 
         public float getSendBufferFreePercent() {
-            synchronized (syncWriteMsgNum) {
-                float res = (float) (maxQueueLength - writeMsgNum) / (float) maxQueueLength;
-                return res <= 0 ? 0f : res;
-            }
+            int maxQueueLength = sendRing.getLimit();
+            float res = (float) (maxQueueLength - sendRing.size()) / (float) maxQueueLength;
+            return res <= 0 ? 0f : res;
         }
 
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
+        public void run() {
+            while (!shouldQuit) {
+                Command command = pollCommand();
+                if (command != null) {
+                    handleCommand(command);
+                    continue;
+                }
+                if (state == STATE.RECONNECTING && System.nanoTime() - nextReconnectTime >= 0) {
+                    reconnect();
+                    continue;
+                }
+                RESFlvData flvData = sendRing.poll();
+                if (flvData != null) {
+                    handleWrite(flvData);
+                    continue;
+                }
+                if (publisher != null && state == STATE.RUNNING) {
+                    int res = publisher.flush();
+                    if (res != 0) {
+                        onWriteError(res);
+                    }
+                }
+                long parkNs = IDLE_PARK_NS;
+                if (state == STATE.RECONNECTING) {
+                    parkNs = Math.min(parkNs, nextReconnectTime - System.nanoTime());
+                }
+                waiting = true;
+                if (parkNs > 0 && sendRing.size() == 0 && !hasCommand() && !shouldQuit) {
+                    LockSupport.parkNanos(this, parkNs);
+                }
+                waiting = false;
+            }
+            clearRing();
+            clearBacklog();
+            sequenceHeaderCache.clear();
+        }
+
+        private void handleCommand(Command command) {
+            switch (command.what) {
                 case MSG_START:
+                    boolean headerKept = clearRingKeepHeaders();
                     if (state == STATE.RUNNING) {
+                        if (headerKept) {
+                            writeSequenceHeaders();
+                        }
                         break;
                     }
+                    clearBacklog();
+                    //a stream must start with an IDR,same as after reconnect
+                    waitingForKeyframe = true;
+                    reconnectAttempt = 0;
+                    rtmpAddr = command.rtmpAddr;
+                    state = STATE.IDLE;
+                    dropPolicy.onReset();
                     sendFrameRateMeter.reSet();
-                    LogTools.d("RESRtmpSender,WorkHandler,tid=" + Thread.currentThread().getId());
-                    jniRtmpPointer = RtmpClient.open((String) msg.obj, true);
-                    final int openR = jniRtmpPointer == 0 ? 1 : 0;
+                    LogTools.d("RESRtmpSender,WorkThread,tid=" + Thread.currentThread().getId());
+                    publisher = createPublisher();
+                    final int openR = publisher.open(command.rtmpAddr) ? 0 : 1;
                     if (openR == 0) {
-                        serverIpAddr = RtmpClient.getIpAddr(jniRtmpPointer);
+                        serverIpAddr = publisher.getIpAddr();
+                    } else {
+                        publisher = null;
                     }
                     synchronized (syncConnectionListener) {
                         if (connectionListener != null) {
@@ -170,23 +324,30 @@ public class RESRtmpSender {
                             });
                         }
                     }
-                    if (jniRtmpPointer == 0) {
+                    if (publisher == null) {
                         break;
                     } else {
                         byte[] MetaData = fLvMetaData.getMetaData();
-                        RtmpClient.write(jniRtmpPointer,
-                                MetaData,
+                        publisher.write(MetaData,
                                 MetaData.length,
                                 RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, 0);
                         state = STATE.RUNNING;
+                        writeSequenceHeaders();
                     }
                     break;
                 case MSG_STOP:
-                    if (state == STATE.STOPPED || jniRtmpPointer == 0) {
+                    clearRing();
+                    clearBacklog();
+                    if (state == STATE.RECONNECTING) {
+                        state = STATE.STOPPED;
+                    }
+                    if (state == STATE.STOPPED || publisher == null) {
                         break;
                     }
                     errorTime = 0;
-                    final int closeR = RtmpClient.close(jniRtmpPointer);
+                    publisher.flush();
+                    final int closeR = publisher.close();
+                    publisher = null;
                     serverIpAddr = null;
                     synchronized (syncConnectionListener) {
                         if (connectionListener != null) {
@@ -200,71 +361,314 @@ public class RESRtmpSender {
                     }
                     state = STATE.STOPPED;
                     break;
-                case MSG_WRITE:
-                    synchronized (syncWriteMsgNum) {
-                        --writeMsgNum;
-                    }
-                    if (state != STATE.RUNNING) {
-                        break;
-                    }
-                    RESFlvData flvData = (RESFlvData) msg.obj;
-                    if (writeMsgNum >= (maxQueueLength * 2 / 3) && flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO && flvData.droppable) {
-                        LogTools.d("senderQueue is crowded,abandon video");
-                        break;
-                    }
-                    final int res = RtmpClient.write(jniRtmpPointer, flvData.byteBuffer, flvData.byteBuffer.length, flvData.flvTagType, flvData.dts);
-                    if (res == 0) {
-                        errorTime = 0;
-                        if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
-                            videoByteSpeedometer.gain(flvData.size);
-                            sendFrameRateMeter.count();
-                        } else {
-                            audioByteSpeedometer.gain(flvData.size);
-                        }
-                    } else {
-                        ++errorTime;
-                        synchronized (syncConnectionListener) {
-                            if (connectionListener != null) {
-                                CallbackDelivery.i().post(new RESConnectionListener.RESWriteErrorRunable(connectionListener, res));
-                            }
-                        }
-                    }
-                    break;
                 default:
                     break;
             }
         }
 
-        public void sendStart(String rtmpAddr) {
-            this.removeMessages(MSG_START);
-            synchronized (syncWriteMsgNum) {
-                this.removeMessages(MSG_WRITE);
-                writeMsgNum = 0;
+        private void handleWrite(RESFlvData flvData) {
+            sequenceHeaderCache.update(flvData);
+            if (state == STATE.RECONNECTING) {
+                holdBacklog(flvData);
+                return;
             }
-            this.sendMessage(this.obtainMessage(MSG_START, rtmpAddr));
+            if (state != STATE.RUNNING) {
+                RESFlvDataPool.i().recycle(flvData);
+                return;
+            }
+            if (waitingForKeyframe && flvData.droppable && flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                //resumed before any IDR arrived
+                if (!flvData.isKeyframe()) {
+                    requestKeyFrame();
+                    RESFlvDataPool.i().recycle(flvData);
+                    return;
+                }
+                waitingForKeyframe = false;
+            }
+            if (dropPolicy.check(flvData, sendRing.size(), sendRing.getLimit())) {
+                LogTools.d("senderQueue is crowded,abandon");
+                if (dropPolicy.isWaitingForIDR()) {
+                    requestKeyFrame();
+                }
+                RESFlvDataPool.i().recycle(flvData);
+                return;
+            }
+            final int res;
+            if (flvData.directBuffer != null) {
+                res = publisher.write(flvData.directBuffer, RtmpClient.HEADROOM, flvData.size, flvData.flvTagType, flvData.dts,
+                        !flvData.isShared());
+            } else {
+                res = publisher.write(flvData.byteBuffer, flvData.size, flvData.flvTagType, flvData.dts);
+            }
+            if (res == 0) {
+                errorTime = 0;
+                reconnectAttempt = 0;
+                if (flvData.isKeyframe()) {
+                    keyFrameRequested = false;
+                }
+                if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                    videoByteSpeedometer.gain(flvData.size);
+                    sendFrameRateMeter.count();
+                } else {
+                    audioByteSpeedometer.gain(flvData.size);
+                }
+            } else {
+                onWriteError(res);
+            }
+            RESFlvDataPool.i().recycle(flvData);
         }
 
-        public void sendStop() {
-            this.removeMessages(MSG_STOP);
-            synchronized (syncWriteMsgNum) {
-                this.removeMessages(MSG_WRITE);
-                writeMsgNum = 0;
+        private void onWriteError(int res) {
+            if (reconnectTimes > 0) {
+                LogTools.e("RESRtmpSender,write failed,reconnecting,errno=" + res);
+                lastErrno = res;
+                publisher.close();
+                publisher = null;
+                serverIpAddr = null;
+                state = STATE.RECONNECTING;
+                waitingForKeyframe = true;
+                retryReconnect();
+                return;
+            }
+            reportWriteError(res);
+        }
+
+        /**
+         * attempts only start over once a tag is written again,
+         * a connection lost before that (e.g. right after reopen) counts as one more failed attempt.
+         */
+        private void retryReconnect() {
+            if (reconnectAttempt >= reconnectTimes) {
+                LogTools.e("RESRtmpSender,reconnect gave up after " + reconnectAttempt + " attempts");
+                clearBacklog();
+                state = STATE.STOPPED;
+                reportWriteError(lastErrno);
+            } else {
+                scheduleReconnect();
+            }
+        }
+
+        private void reportWriteError(int res) {
+            ++errorTime;
+            synchronized (syncConnectionListener) {
+                if (connectionListener != null) {
+                    CallbackDelivery.i().post(new RESConnectionListener.RESWriteErrorRunable(connectionListener, res));
+                }
+            }
+        }
+
+        private void scheduleReconnect() {
+            long delay = Math.min((long) reconnectDelay << Math.min(reconnectAttempt, 16), MAX_RECONNECT_DELAY_MS);
+            nextReconnectTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        private void reconnect() {
+            ++reconnectAttempt;
+            IRtmpPublisher candidate = createPublisher();
+            if (!candidate.open(rtmpAddr)) {
+                LogTools.e("RESRtmpSender,reconnect failed,attempt=" + reconnectAttempt);
+                retryReconnect();
+                return;
+            }
+            LogTools.d("RESRtmpSender,reconnected,attempt=" + reconnectAttempt);
+            publisher = candidate;
+            serverIpAddr = publisher.getIpAddr();
+            state = STATE.RUNNING;
+            ++reconnectCount;
+            errorTime = 0;
+            dropPolicy.onReset();
+            byte[] MetaData = fLvMetaData.getMetaData();
+            int res = publisher.write(MetaData,
+                    MetaData.length,
+                    RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, 0);
+            if (res == 0) {
+                res = writeSequenceHeader(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO);
+            }
+            if (res == 0) {
+                res = writeSequenceHeader(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO);
+            }
+            if (res != 0) {
+                onWriteError(res);
+                return;
+            }
+            if (waitingForKeyframe) {
+                requestKeyFrame();
+            }
+            //a failure in the middle puts the rest back to backlog,in order
+            RESFlvData flvData;
+            for (int i = backlog.size(); i > 0 && (flvData = backlog.pollFirst()) != null; --i) {
+                handleWrite(flvData);
+            }
+        }
+
+        /**
+         * keep tags while reconnecting,the backlog always starts at an IDR so the stream resumes cleanly.<br/>
+         * sequence headers are not kept,they are resent from cache.
+         */
+        private void holdBacklog(RESFlvData flvData) {
+            if (!flvData.droppable) {
+                RESFlvDataPool.i().recycle(flvData);
+                return;
+            }
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                if (flvData.isKeyframe()) {
+                    clearBacklog();
+                    waitingForKeyframe = false;
+                } else if (waitingForKeyframe) {
+                    RESFlvDataPool.i().recycle(flvData);
+                    return;
+                }
+            }
+            if (backlog.size() >= sendRing.getLimit()) {
+                //too old to be useful,wait for next IDR
+                clearBacklog();
+                waitingForKeyframe = true;
+                if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                    RESFlvDataPool.i().recycle(flvData);
+                    return;
+                }
+            }
+            backlog.addLast(flvData);
+        }
+
+        private int writeSequenceHeader(int flvTagType) {
+            RESFlvData flvData = sequenceHeaderCache.acquire(flvTagType);
+            if (flvData == null) {
+                return 0;
+            }
+            final int res;
+            if (flvData.directBuffer != null) {
+                res = publisher.write(flvData.directBuffer, RtmpClient.HEADROOM, flvData.size, flvData.flvTagType, flvData.dts,
+                        false);
+            } else {
+                res = publisher.write(flvData.byteBuffer, flvData.size, flvData.flvTagType, flvData.dts);
+            }
+            RESFlvDataPool.i().recycle(flvData);
+            return res;
+        }
+
+        /**
+         * headers fed before the connection opened (e.g. replayed to a late destination) were cached,
+         * not sent,write them ahead of the first frame.
+         */
+        private void writeSequenceHeaders() {
+            int res = writeSequenceHeader(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO);
+            if (res == 0) {
+                res = writeSequenceHeader(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO);
+            }
+            if (res != 0) {
+                onWriteError(res);
+            }
+        }
+
+        private void requestKeyFrame() {
+            RESKeyFrameRequestListener listener = keyFrameRequestListener;
+            if (listener != null && !keyFrameRequested) {
+                keyFrameRequested = true;
+                listener.onKeyFrameRequest();
+            }
+        }
+
+        void setKeyFrameRequestListener(RESKeyFrameRequestListener keyFrameRequestListener) {
+            this.keyFrameRequestListener = keyFrameRequestListener;
+        }
+
+        private void clearBacklog() {
+            RESFlvData flvData;
+            while ((flvData = backlog.pollFirst()) != null) {
+                RESFlvDataPool.i().recycle(flvData);
+            }
+        }
+
+        IRtmpPublisher createPublisher() {
+            if (rtmpBackend == RESCoreParameters.RTMP_BACKEND_JAVA) {
+                return rtmpChunkSize > 0 ? new JavaRtmpPublisher(rtmpChunkSize) : new JavaRtmpPublisher();
             }
-            this.sendEmptyMessage(MSG_STOP);
+            return new NativeRtmpPublisher();
+        }
+
+        private void clearRing() {
+            RESFlvData flvData;
+            while ((flvData = sendRing.poll()) != null) {
+                RESFlvDataPool.i().recycle(flvData);
+            }
+        }
+
+        /**
+         * drop queued tags but cache the sequence headers among them.
+         *
+         * @return true if any header was kept
+         */
+        private boolean clearRingKeepHeaders() {
+            boolean kept = false;
+            RESFlvData flvData;
+            while ((flvData = sendRing.poll()) != null) {
+                kept |= sequenceHeaderCache.update(flvData);
+                RESFlvDataPool.i().recycle(flvData);
+            }
+            return kept;
+        }
+
+        private Command pollCommand() {
+            synchronized (syncCommands) {
+                return commands.pollFirst();
+            }
+        }
+
+        private boolean hasCommand() {
+            synchronized (syncCommands) {
+                return !commands.isEmpty();
+            }
+        }
+
+        private void postCommand(Command command) {
+            synchronized (syncCommands) {
+                Iterator<Command> iterator = commands.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().what == command.what) {
+                        iterator.remove();
+                    }
+                }
+                commands.addLast(command);
+            }
+            LockSupport.unpark(this);
+        }
+
+        public void sendStart(String rtmpAddr) {
+            postCommand(new Command(MSG_START, rtmpAddr));
+        }
+
+        public void sendStop() {
+            postCommand(new Command(MSG_STOP, null));
         }
 
         public void sendFood(RESFlvData flvData, int type) {
-            synchronized (syncWriteMsgNum) {
-                //LAKETODO optimize
-                if (writeMsgNum <= maxQueueLength) {
-                    this.sendMessage(this.obtainMessage(MSG_WRITE, type, 0, flvData));
-                    ++writeMsgNum;
-                } else {
-                    LogTools.d("senderQueue is full,abandon");
+            BaseDropPolicy policy = dropPolicy;
+            policy.onFeed(flvData);
+            if (sendRing.offer(flvData)) {
+                if (waiting) {
+                    LockSupport.unpark(this);
                 }
+            } else {
+                LogTools.d("senderQueue is full,abandon");
+                policy.onFeedRejected(flvData);
+                RESFlvDataPool.i().recycle(flvData);
             }
         }
 
+        void quit() {
+            shouldQuit = true;
+            LockSupport.unpark(this);
+        }
+
+        void setDropPolicy(BaseDropPolicy dropPolicy) {
+            this.dropPolicy = dropPolicy;
+        }
+
+        BaseDropPolicy getDropPolicy() {
+            return dropPolicy;
+        }
+
         public void setConnectionListener(RESConnectionListener connectionListener) {
             synchronized (syncConnectionListener) {
                 this.connectionListener = connectionListener;
@@ -284,4 +688,3 @@ public class RESRtmpSender {
         }
     }
 }
-
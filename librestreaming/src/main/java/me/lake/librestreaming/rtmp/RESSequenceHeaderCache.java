@@ -0,0 +1,104 @@
+package me.lake.librestreaming.rtmp;
+
+/**
+ * Keep the latest AVC decoder configuration record & AAC AudioSpecificConfig.<br/>
+ * they are sent once per encoder start,anything attached later (a new connection,
+ * file sink or destination) needs them replayed before its first frame.<br/>
+ * cached tags are held by pool refcount,the previous one is released when replaced.
+ */
+public class RESSequenceHeaderCache {
+    private final Object syncCache = new Object();
+    private RESFlvData videoHeader;
+    private RESFlvData audioHeader;
+
+    /**
+     * @return true for the non-droppable config tags of audio & video,onMetaData excluded
+     */
+    public static boolean isSequenceHeader(RESFlvData flvData) {
+        return !flvData.droppable
+                && (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO
+                || flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO);
+    }
+
+    /**
+     * keep flvData if it is a sequence header,the caller still owns its own reference.
+     *
+     * @return true if cached
+     */
+    public boolean update(RESFlvData flvData) {
+        if (!isSequenceHeader(flvData)) {
+            return false;
+        }
+        RESFlvData old;
+        RESFlvDataPool.i().retain(flvData, 1);
+        synchronized (syncCache) {
+            if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                old = videoHeader;
+                videoHeader = flvData;
+            } else {
+                old = audioHeader;
+                audioHeader = flvData;
+            }
+        }
+        if (old != null) {
+            RESFlvDataPool.i().recycle(old);
+        }
+        return true;
+    }
+
+    /**
+     * @param flvTagType {@link RESFlvData#FLV_RTMP_PACKET_TYPE_VIDEO} or {@link RESFlvData#FLV_RTMP_PACKET_TYPE_AUDIO}
+     * @return cached header with one more reference for the caller,who must recycle it.null if none
+     */
+    public RESFlvData acquire(int flvTagType) {
+        synchronized (syncCache) {
+            RESFlvData res = flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO ? videoHeader : audioHeader;
+            if (res != null) {
+                RESFlvDataPool.i().retain(res, 1);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * deliver the cached headers to consumer,video first.
+     */
+    public void replay(RESFlvDataCollecter consumer) {
+        RESFlvData flvData = acquire(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO);
+        if (flvData != null) {
+            consumer.collect(flvData, RESRtmpSender.FROM_VIDEO);
+        }
+        flvData = acquire(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO);
+        if (flvData != null) {
+            consumer.collect(flvData, RESRtmpSender.FROM_AUDIO);
+        }
+    }
+
+    public boolean hasVideoHeader() {
+        synchronized (syncCache) {
+            return videoHeader != null;
+        }
+    }
+
+    public boolean hasAudioHeader() {
+        synchronized (syncCache) {
+            return audioHeader != null;
+        }
+    }
+
+    /**
+     * release the cached headers.
+     */
+    public void clear() {
+        RESFlvData video;
+        RESFlvData audio;
+        synchronized (syncCache) {
+            video = videoHeader;
+            audio = audioHeader;
+            videoHeader = null;
+            audioHeader = null;
+        }
+        RESFlvDataPool.i().recycle(video);
+        RESFlvDataPool.i().recycle(audio);
+    }
+}
@@ -1,10 +1,18 @@
 package me.lake.librestreaming.rtmp;
 
+import java.nio.ByteBuffer;
+
 /**
  * Created by lake on 16-3-30.
  */
 public class RtmpClient {
 
+    /**
+     * bytes reserved before the data of a direct buffer,librtmp writes chunk headers there.<br/>
+     * same with RTMP_MAX_HEADER_SIZE
+     */
+    public static final int HEADROOM = 18;
+
     static {
         System.loadLibrary("resrtmp");
     }
@@ -20,6 +28,35 @@ public class RtmpClient {
 
     public static native int write(long rtmpPointer, byte[] data, int size, int type, int ts);
 
+    /**
+     * same with {@link #write(long, ByteBuffer, int, int, int, int, boolean)},data is written in place.
+     */
+    public static int write(long rtmpPointer, ByteBuffer data, int offset, int size, int type, int ts) {
+        return write(rtmpPointer, data, offset, size, type, ts, true);
+    }
+
+    /**
+     * write from a direct ByteBuffer without copying it into a java array.<br/>
+     * in place with offset &gt;= {@link #HEADROOM}:chunk headers overwrite the headroom and data,nothing is copied.<br/>
+     * otherwise data is copied once into a per-connection native buffer and left untouched.
+     *
+     * @param data    direct ByteBuffer
+     * @param offset  absolute offset of data
+     * @param size    bytes to write
+     * @param inPlace false if other threads may read data at the same time
+     */
+    public static int write(long rtmpPointer, ByteBuffer data, int offset, int size, int type, int ts, boolean inPlace) {
+        if (!data.isDirect()) {
+            throw new IllegalArgumentException("only direct ByteBuffer is supported");
+        }
+        if (offset < 0 || size < 0 || offset + size > data.capacity()) {
+            throw new IndexOutOfBoundsException("offset=" + offset + ",size=" + size + ",capacity=" + data.capacity());
+        }
+        return writeDirect(rtmpPointer, data, offset, size, type, ts, inPlace);
+    }
+
+    private static native int writeDirect(long rtmpPointer, ByteBuffer data, int offset, int size, int type, int ts, boolean inPlace);
+
     public static native int close(long rtmpPointer);
 
     public static native String getIpAddr(long rtmpPointer);
@@ -0,0 +1,38 @@
+package me.lake.librestreaming.rtmp.droppolicy;
+
+import me.lake.librestreaming.rtmp.RESFlvData;
+
+/**
+ * keep audio before video.<br/>
+ * video is dropped (by GOP) from a low watermark,
+ * audio only when the queue is about to overflow.
+ */
+public class AudioFirstDropPolicy extends BaseDropPolicy {
+    private final float videoRatio;
+    private final float audioRatio;
+
+    public AudioFirstDropPolicy() {
+        this(0.5f, 0.9f);
+    }
+
+    /**
+     * @param videoRatio queue occupancy [0.0f,1.0f] to start dropping video
+     * @param audioRatio queue occupancy [0.0f,1.0f] to start dropping audio,should be larger than videoRatio
+     */
+    public AudioFirstDropPolicy(float videoRatio, float audioRatio) {
+        if (audioRatio < videoRatio) {
+            throw new IllegalArgumentException("audioRatio should not be less than videoRatio");
+        }
+        this.videoRatio = videoRatio;
+        this.audioRatio = audioRatio;
+    }
+
+    @Override
+    protected boolean shouldDrop(RESFlvData flvData, int queueSize, int queueLimit) {
+        if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+            return queueSize >= queueLimit * videoRatio;
+        } else {
+            return queueSize >= queueLimit * audioRatio;
+        }
+    }
+}
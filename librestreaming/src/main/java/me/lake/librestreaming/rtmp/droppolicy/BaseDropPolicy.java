@@ -0,0 +1,132 @@
+package me.lake.librestreaming.rtmp.droppolicy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.lake.librestreaming.rtmp.RESFlvData;
+
+/**
+ * Decide which tags RESRtmpSender abandons when the send queue is crowded.<br/>
+ * Once a video tag is dropped,the rest of its GOP is dropped too until the next IDR,
+ * so the decoder never sees a P-frame whose reference is missing.<br/>
+ * Non-droppable tags (metadata,sequence headers) are never dropped.<br/>
+ * extend it and override {@link #shouldDrop(RESFlvData, int, int)}.
+ */
+public class BaseDropPolicy {
+    private final AtomicLong droppedVideoFrames = new AtomicLong(0);
+    private final AtomicLong droppedVideoBytes = new AtomicLong(0);
+    private final AtomicLong droppedAudioFrames = new AtomicLong(0);
+    private final AtomicLong droppedAudioBytes = new AtomicLong(0);
+    private volatile boolean videoLostBeforeQueue = false;
+    private boolean waitingForIDR = false;
+
+    /**
+     * called on sender threads when a tag is queued.<br/>
+     * must be thread safe.
+     */
+    public void onFeed(RESFlvData flvData) {
+    }
+
+    /**
+     * called on the producer thread when the queue is full and the tag is abandoned.
+     */
+    public final void onFeedRejected(RESFlvData flvData) {
+        if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+            videoLostBeforeQueue = true;
+        }
+        countDrop(flvData);
+    }
+
+    /**
+     * called on the rtmp writer thread for every dequeued tag.
+     *
+     * @param flvData    tag about to be written
+     * @param queueSize  tags still waiting in queue
+     * @param queueLimit max tags of queue
+     * @return true if the tag should be abandoned
+     */
+    public final boolean check(RESFlvData flvData, int queueSize, int queueLimit) {
+        if (!flvData.droppable) {
+            return false;
+        }
+        boolean isVideo = flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+        if (isVideo) {
+            if (videoLostBeforeQueue) {
+                videoLostBeforeQueue = false;
+                waitingForIDR = true;
+            }
+            if (waitingForIDR) {
+                if (!flvData.isKeyframe()) {
+                    countDrop(flvData);
+                    return true;
+                }
+                waitingForIDR = false;
+            }
+        }
+        if (shouldDrop(flvData, queueSize, queueLimit)) {
+            if (isVideo) {
+                waitingForIDR = true;
+            }
+            countDrop(flvData);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true to drop this droppable tag
+     */
+    protected boolean shouldDrop(RESFlvData flvData, int queueSize, int queueLimit) {
+        return false;
+    }
+
+    /**
+     * called on the rtmp writer thread.
+     *
+     * @return true if video is being dropped until the next IDR
+     */
+    public final boolean isWaitingForIDR() {
+        return waitingForIDR || videoLostBeforeQueue;
+    }
+
+    /**
+     * called on the rtmp writer thread when a new connection starts,
+     * clear stream state but keep counters.
+     */
+    public void onReset() {
+        videoLostBeforeQueue = false;
+        waitingForIDR = false;
+    }
+
+    public long getDroppedVideoFrames() {
+        return droppedVideoFrames.get();
+    }
+
+    public long getDroppedVideoBytes() {
+        return droppedVideoBytes.get();
+    }
+
+    public long getDroppedAudioFrames() {
+        return droppedAudioFrames.get();
+    }
+
+    public long getDroppedAudioBytes() {
+        return droppedAudioBytes.get();
+    }
+
+    public void resetCounters() {
+        droppedVideoFrames.set(0);
+        droppedVideoBytes.set(0);
+        droppedAudioFrames.set(0);
+        droppedAudioBytes.set(0);
+    }
+
+    private void countDrop(RESFlvData flvData) {
+        if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+            droppedVideoFrames.incrementAndGet();
+            droppedVideoBytes.addAndGet(flvData.size);
+        } else {
+            droppedAudioFrames.incrementAndGet();
+            droppedAudioBytes.addAndGet(flvData.size);
+        }
+    }
+}
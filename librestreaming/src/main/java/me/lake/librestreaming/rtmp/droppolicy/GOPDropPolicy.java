@@ -0,0 +1,28 @@
+package me.lake.librestreaming.rtmp.droppolicy;
+
+import me.lake.librestreaming.rtmp.RESFlvData;
+
+/**
+ * drop video once the queue is crowded,audio is kept.<br/>
+ * the dropped frame and the rest of its GOP are skipped till next IDR.
+ */
+public class GOPDropPolicy extends BaseDropPolicy {
+    private final float crowdedRatio;
+
+    public GOPDropPolicy() {
+        this(2f / 3f);
+    }
+
+    /**
+     * @param crowdedRatio queue occupancy [0.0f,1.0f] to start dropping video
+     */
+    public GOPDropPolicy(float crowdedRatio) {
+        this.crowdedRatio = crowdedRatio;
+    }
+
+    @Override
+    protected boolean shouldDrop(RESFlvData flvData, int queueSize, int queueLimit) {
+        return flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO &&
+                queueSize >= queueLimit * crowdedRatio;
+    }
+}
@@ -0,0 +1,58 @@
+package me.lake.librestreaming.rtmp.droppolicy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.lake.librestreaming.rtmp.RESFlvData;
+
+/**
+ * drop tags which have waited longer than a latency budget.<br/>
+ * the age of a tag is the dts distance to the newest queued tag of the same type.
+ */
+public class LatencyDropPolicy extends BaseDropPolicy {
+    private final int latencyBudgetMs;
+    private final AtomicInteger newestVideoDts = new AtomicInteger(0);
+    private final AtomicInteger newestAudioDts = new AtomicInteger(0);
+
+    /**
+     * @param latencyBudgetMs max queueing delay in ms
+     */
+    public LatencyDropPolicy(int latencyBudgetMs) {
+        this.latencyBudgetMs = latencyBudgetMs;
+    }
+
+    /**
+     * fed from the audio & video sender threads,with the muxer on a tag of either type may come from
+     * whichever thread releases it,cached sequence headers are replayed from the client thread.<br/>
+     * so the newest dts only moves forward,a late or replayed tag never pulls it back.
+     */
+    @Override
+    public void onFeed(RESFlvData flvData) {
+        if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+            raise(newestVideoDts, flvData.dts);
+        } else if (flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO) {
+            raise(newestAudioDts, flvData.dts);
+        }
+    }
+
+    @Override
+    protected boolean shouldDrop(RESFlvData flvData, int queueSize, int queueLimit) {
+        AtomicInteger newest = flvData.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO ? newestVideoDts : newestAudioDts;
+        return newest.get() - flvData.dts > latencyBudgetMs;
+    }
+
+    @Override
+    public void onReset() {
+        super.onReset();
+        newestVideoDts.set(0);
+        newestAudioDts.set(0);
+    }
+
+    private static void raise(AtomicInteger newest, int dts) {
+        int current;
+        while (dts > (current = newest.get())) {
+            if (newest.compareAndSet(current, dts)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * minimal AMF0 for rtmp commands.<br/>
+ * decoded values are Double,Boolean,String,Map,List or null.
+ */
+final class Amf0 {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int TYPE_NUMBER = 0x00;
+    private static final int TYPE_BOOLEAN = 0x01;
+    private static final int TYPE_STRING = 0x02;
+    private static final int TYPE_OBJECT = 0x03;
+    private static final int TYPE_NULL = 0x05;
+    private static final int TYPE_UNDEFINED = 0x06;
+    private static final int TYPE_ECMA_ARRAY = 0x08;
+    private static final int TYPE_OBJECT_END = 0x09;
+    private static final int TYPE_STRICT_ARRAY = 0x0A;
+    private static final int TYPE_DATE = 0x0B;
+    private static final int TYPE_LONG_STRING = 0x0C;
+
+    private Amf0() {
+    }
+
+    static void writeNumber(ByteBuffer dst, double value) {
+        dst.put((byte) TYPE_NUMBER);
+        dst.putDouble(value);
+    }
+
+    static void writeBoolean(ByteBuffer dst, boolean value) {
+        dst.put((byte) TYPE_BOOLEAN);
+        dst.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    static void writeString(ByteBuffer dst, String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        if (bytes.length > 0xFFFF) {
+            dst.put((byte) TYPE_LONG_STRING);
+            dst.putInt(bytes.length);
+        } else {
+            dst.put((byte) TYPE_STRING);
+            dst.putShort((short) bytes.length);
+        }
+        dst.put(bytes);
+    }
+
+    static void writeNull(ByteBuffer dst) {
+        dst.put((byte) TYPE_NULL);
+    }
+
+    static void writeObjectBegin(ByteBuffer dst) {
+        dst.put((byte) TYPE_OBJECT);
+    }
+
+    /**
+     * property name inside an object,follow it by a value.
+     */
+    static void writeKey(ByteBuffer dst, String key) {
+        byte[] bytes = key.getBytes(UTF8);
+        dst.putShort((short) bytes.length);
+        dst.put(bytes);
+    }
+
+    static void writeObjectEnd(ByteBuffer dst) {
+        dst.put((byte) 0x00);
+        dst.put((byte) 0x00);
+        dst.put((byte) TYPE_OBJECT_END);
+    }
+
+    /**
+     * @return all values until src is exhausted
+     */
+    static List<Object> readAll(ByteBuffer src) throws IOException {
+        ArrayList<Object> res = new ArrayList<>();
+        while (src.hasRemaining()) {
+            res.add(read(src));
+        }
+        return res;
+    }
+
+    static Object read(ByteBuffer src) throws IOException {
+        try {
+            int type = src.get() & 0xFF;
+            switch (type) {
+                case TYPE_NUMBER:
+                    return src.getDouble();
+                case TYPE_BOOLEAN:
+                    return src.get() != 0;
+                case TYPE_STRING:
+                    return readUTF(src, src.getShort() & 0xFFFF);
+                case TYPE_LONG_STRING:
+                    return readUTF(src, src.getInt());
+                case TYPE_OBJECT:
+                    return readProperties(src);
+                case TYPE_ECMA_ARRAY:
+                    src.getInt();
+                    return readProperties(src);
+                case TYPE_STRICT_ARRAY:
+                    int count = src.getInt();
+                    ArrayList<Object> list = new ArrayList<>();
+                    for (int i = 0; i < count; ++i) {
+                        list.add(read(src));
+                    }
+                    return list;
+                case TYPE_DATE:
+                    double date = src.getDouble();
+                    src.getShort();
+                    return date;
+                case TYPE_NULL:
+                case TYPE_UNDEFINED:
+                    return null;
+                default:
+                    throw new IOException("unsupported amf0 type:" + type);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("malformed amf0 data", e);
+        }
+    }
+
+    private static Map<String, Object> readProperties(ByteBuffer src) throws IOException {
+        HashMap<String, Object> res = new HashMap<>();
+        while (true) {
+            String key = readUTF(src, src.getShort() & 0xFFFF);
+            if (key.length() == 0 && (src.get(src.position()) & 0xFF) == TYPE_OBJECT_END) {
+                src.get();
+                return res;
+            }
+            res.put(key, read(src));
+        }
+    }
+
+    private static String readUTF(ByteBuffer src, int length) {
+        byte[] bytes = new byte[length];
+        src.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
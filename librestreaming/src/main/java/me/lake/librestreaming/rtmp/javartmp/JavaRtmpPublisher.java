@@ -0,0 +1,436 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import me.lake.librestreaming.rtmp.IRtmpPublisher;
+import me.lake.librestreaming.rtmp.RESFlvData;
+import me.lake.librestreaming.tools.LogTools;
+
+/**
+ * pure java rtmp publisher on a SocketChannel.<br/>
+ * handshake,connect,createStream & publish are done in {@link #open(String)},
+ * audio/video/metadata go out on their own chunk streams with compressed headers.<br/>
+ * small chunks are buffered until {@link #flush()},the stage is full or a big frame is written.
+ */
+public class JavaRtmpPublisher implements IRtmpPublisher {
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+    public static final int MAX_CHUNK_SIZE = 0xFFFFFF;
+    public static final int ERROR_IO = -1;
+    public static final int ERROR_NOT_OPENED = -2;
+    private static final int DEFAULT_TIMEOUT_MS = 5000;
+    private static final int DRAIN_INTERVAL = 64;
+
+    private static final int CSID_CONTROL = 2;
+    private static final int CSID_COMMAND = 3;
+    private static final int CSID_VIDEO = 4;
+    private static final int CSID_AUDIO = 5;
+    private static final int CSID_DATA = 6;
+
+    private static final int MSG_SET_CHUNK_SIZE = 1;
+    private static final int MSG_ACK = 3;
+    private static final int MSG_USER_CONTROL = 4;
+    private static final int MSG_WINDOW_ACK_SIZE = 5;
+    private static final int MSG_SET_PEER_BANDWIDTH = 6;
+    private static final int MSG_AMF3_COMMAND = 17;
+    private static final int MSG_AMF0_COMMAND = 20;
+
+    private static final int USER_CONTROL_PING_REQUEST = 6;
+    private static final int USER_CONTROL_PING_RESPONSE = 7;
+
+    private final int chunkSize;
+    private int timeoutMs = DEFAULT_TIMEOUT_MS;
+    private int sendBufferSize = 0;
+    private boolean tcpNoDelay = true;
+
+    private RtmpSocket socket;
+    private RtmpChunkWriter writer;
+    private RtmpChunkReader reader;
+    private final ByteBuffer commandBuff = ByteBuffer.allocate(4096);
+    private final ByteBuffer controlBuff = ByteBuffer.allocate(16);
+    private ByteBuffer heapView;
+    private String streamName;
+    private int streamId;
+    private double transactionId;
+    private long ackWindow;
+    private long lastAckBytes;
+    private int writesSinceDrain;
+
+    public JavaRtmpPublisher() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize outgoing chunk size,128~{@link #MAX_CHUNK_SIZE}
+     */
+    public JavaRtmpPublisher(int chunkSize) {
+        if (chunkSize < RtmpChunkWriter.DEFAULT_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("invalid rtmp chunk size:" + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * connect/read/write timeout,call before open.
+     */
+    public void setTimeout(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * SO_SNDBUF,0 keeps system default,call before open.
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * TCP_NODELAY,default true,call before open.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    @Override
+    public boolean open(String url) {
+        try {
+            RtmpUrl rtmpUrl = RtmpUrl.parse(url);
+            streamName = rtmpUrl.stream;
+            transactionId = 0;
+            ackWindow = 0;
+            lastAckBytes = 0;
+            writesSinceDrain = 0;
+            socket = new RtmpSocket(timeoutMs);
+            socket.connect(rtmpUrl.host, rtmpUrl.port, sendBufferSize, tcpNoDelay);
+            RtmpHandshake.perform(socket);
+            writer = new RtmpChunkWriter(socket);
+            reader = new RtmpChunkReader();
+
+            sendControl(MSG_SET_CHUNK_SIZE, chunkSize);
+            writer.setChunkSize(chunkSize);
+
+            double connectId = beginCommand("connect");
+            Amf0.writeObjectBegin(commandBuff);
+            Amf0.writeKey(commandBuff, "app");
+            Amf0.writeString(commandBuff, rtmpUrl.app);
+            Amf0.writeKey(commandBuff, "type");
+            Amf0.writeString(commandBuff, "nonprivate");
+            Amf0.writeKey(commandBuff, "flashVer");
+            Amf0.writeString(commandBuff, "FMLE/3.0 (compatible; FMSc/1.0)");
+            Amf0.writeKey(commandBuff, "tcUrl");
+            Amf0.writeString(commandBuff, rtmpUrl.tcUrl);
+            Amf0.writeObjectEnd(commandBuff);
+            endCommand(0);
+            waitResult(connectId);
+
+            beginCommand("releaseStream");
+            Amf0.writeNull(commandBuff);
+            Amf0.writeString(commandBuff, streamName);
+            endCommand(0);
+            beginCommand("FCPublish");
+            Amf0.writeNull(commandBuff);
+            Amf0.writeString(commandBuff, streamName);
+            endCommand(0);
+            double createStreamId = beginCommand("createStream");
+            Amf0.writeNull(commandBuff);
+            endCommand(0);
+            List<Object> result = waitResult(createStreamId);
+            if (result.size() < 4 || !(result.get(3) instanceof Double)) {
+                throw new IOException("createStream returned no stream id");
+            }
+            streamId = ((Double) result.get(3)).intValue();
+
+            beginCommand("publish");
+            Amf0.writeNull(commandBuff);
+            Amf0.writeString(commandBuff, streamName);
+            Amf0.writeString(commandBuff, "live");
+            endCommand(streamId);
+            waitPublishStart();
+            LogTools.d("JavaRtmpPublisher,publishing " + streamName + ",streamId=" + streamId);
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            LogTools.trace("JavaRtmpPublisher,open failed", e);
+            release();
+            return false;
+        }
+    }
+
+    @Override
+    public int write(byte[] data, int size, int type, int ts) {
+        if (heapView == null || heapView.array() != data) {
+            heapView = ByteBuffer.wrap(data);
+        }
+        heapView.clear();
+        heapView.limit(size);
+        int res = writeMessage(heapView, type, ts);
+        heapView.clear();
+        return res;
+    }
+
+    @Override
+    public int write(ByteBuffer data, int offset, int size, int type, int ts, boolean exclusive) {
+        ByteBuffer view = exclusive ? data : data.duplicate();
+        view.clear();
+        view.position(offset);
+        view.limit(offset + size);
+        return writeMessage(view, type, ts);
+    }
+
+    @Override
+    public int flush() {
+        if (writer == null) {
+            return ERROR_NOT_OPENED;
+        }
+        try {
+            writer.flush();
+            drainIncoming();
+            return 0;
+        } catch (IOException e) {
+            LogTools.trace("JavaRtmpPublisher,flush failed", e);
+            return ERROR_IO;
+        }
+    }
+
+    @Override
+    public int close() {
+        if (writer == null) {
+            return 0;
+        }
+        try {
+            beginCommand("FCUnpublish");
+            Amf0.writeNull(commandBuff);
+            Amf0.writeString(commandBuff, streamName);
+            endCommand(streamId);
+            beginCommand("deleteStream");
+            Amf0.writeNull(commandBuff);
+            Amf0.writeNumber(commandBuff, streamId);
+            endCommand(0);
+        } catch (IOException e) {
+            LogTools.trace("JavaRtmpPublisher,close", e);
+        }
+        release();
+        return 0;
+    }
+
+    @Override
+    public String getIpAddr() {
+        return socket == null ? null : socket.getIpAddr();
+    }
+
+    /**
+     * @return bytes of chunk headers sent,0 if not opened
+     */
+    public long getHeaderBytes() {
+        return writer == null ? 0 : writer.getHeaderBytes();
+    }
+
+    /**
+     * @return bytes of message payload sent,0 if not opened
+     */
+    public long getPayloadBytes() {
+        return writer == null ? 0 : writer.getPayloadBytes();
+    }
+
+    /**
+     * @return all bytes put on the wire,handshake included
+     */
+    public long getBytesWritten() {
+        return socket == null ? 0 : socket.getBytesWritten();
+    }
+
+    private int writeMessage(ByteBuffer payload, int type, int ts) {
+        if (writer == null) {
+            return ERROR_NOT_OPENED;
+        }
+        int csid;
+        switch (type) {
+            case RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO:
+                csid = CSID_VIDEO;
+                break;
+            case RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO:
+                csid = CSID_AUDIO;
+                break;
+            default:
+                csid = CSID_DATA;
+                break;
+        }
+        try {
+            writer.writeMessage(csid, type, streamId, ts, payload);
+            if (++writesSinceDrain >= DRAIN_INTERVAL) {
+                writesSinceDrain = 0;
+                drainIncoming();
+            }
+            return 0;
+        } catch (IOException e) {
+            LogTools.trace("JavaRtmpPublisher,write failed", e);
+            return ERROR_IO;
+        }
+    }
+
+    private double beginCommand(String name) {
+        commandBuff.clear();
+        Amf0.writeString(commandBuff, name);
+        double id = ++transactionId;
+        Amf0.writeNumber(commandBuff, id);
+        return id;
+    }
+
+    private void endCommand(int msid) throws IOException {
+        commandBuff.flip();
+        writer.writeMessage(CSID_COMMAND, MSG_AMF0_COMMAND, msid, 0, commandBuff);
+        writer.flush();
+    }
+
+    private void sendControl(int type, int value) throws IOException {
+        controlBuff.clear();
+        controlBuff.putInt(value);
+        controlBuff.flip();
+        writer.writeMessage(CSID_CONTROL, type, 0, 0, controlBuff);
+        writer.flush();
+    }
+
+    private List<Object> waitResult(double id) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            List<Object> command = readCommand(deadline);
+            if (command.size() < 2) {
+                continue;
+            }
+            Object name = command.get(0);
+            if (("_result".equals(name) || "_error".equals(name)) && Double.valueOf(id).equals(command.get(1))) {
+                if ("_error".equals(name)) {
+                    throw new IOException("rtmp command failed:" + command);
+                }
+                return command;
+            }
+        }
+    }
+
+    private void waitPublishStart() throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            List<Object> command = readCommand(deadline);
+            String code = getStatusCode(command);
+            if (code == null) {
+                continue;
+            }
+            if ("NetStream.Publish.Start".equals(code)) {
+                return;
+            }
+            if (isErrorStatus(command)) {
+                throw new IOException("rtmp publish rejected:" + code);
+            }
+        }
+    }
+
+    /**
+     * @return next AMF command,control messages in between are handled
+     */
+    private List<Object> readCommand(long deadline) throws IOException {
+        while (true) {
+            RtmpChunkReader.Message message = reader.next();
+            if (message == null) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new SocketTimeoutException("rtmp server not responding");
+                }
+                reader.fill(socket, true);
+                continue;
+            }
+            List<Object> command = handleMessage(message);
+            if (command != null) {
+                return command;
+            }
+        }
+    }
+
+    /**
+     * handle what the server sent while publishing,never blocks.
+     */
+    private void drainIncoming() throws IOException {
+        while (true) {
+            RtmpChunkReader.Message message = reader.next();
+            if (message == null) {
+                if (reader.fill(socket, false) == 0) {
+                    return;
+                }
+                continue;
+            }
+            List<Object> command = handleMessage(message);
+            if (command != null && isErrorStatus(command)) {
+                throw new IOException("rtmp server error:" + getStatusCode(command));
+            }
+        }
+    }
+
+    /**
+     * @return decoded command,or null if message is a control message
+     */
+    private List<Object> handleMessage(RtmpChunkReader.Message message) throws IOException {
+        List<Object> command = null;
+        ByteBuffer body = message.body;
+        switch (message.type) {
+            case MSG_SET_CHUNK_SIZE:
+                reader.setChunkSize(body.getInt() & 0x7FFFFFFF);
+                break;
+            case MSG_USER_CONTROL:
+                if ((body.getShort() & 0xFFFF) == USER_CONTROL_PING_REQUEST) {
+                    int timestamp = body.getInt();
+                    controlBuff.clear();
+                    controlBuff.putShort((short) USER_CONTROL_PING_RESPONSE);
+                    controlBuff.putInt(timestamp);
+                    controlBuff.flip();
+                    writer.writeMessage(CSID_CONTROL, MSG_USER_CONTROL, 0, 0, controlBuff);
+                }
+                break;
+            case MSG_WINDOW_ACK_SIZE:
+                ackWindow = body.getInt() & 0xFFFFFFFFL;
+                break;
+            case MSG_SET_PEER_BANDWIDTH:
+                sendControl(MSG_WINDOW_ACK_SIZE, body.getInt());
+                break;
+            case MSG_AMF3_COMMAND:
+                body.get();
+                command = Amf0.readAll(body);
+                break;
+            case MSG_AMF0_COMMAND:
+                command = Amf0.readAll(body);
+                break;
+            default:
+                break;
+        }
+        long bytesRead = socket.getBytesRead();
+        if (ackWindow > 0 && bytesRead - lastAckBytes >= ackWindow) {
+            lastAckBytes = bytesRead;
+            sendControl(MSG_ACK, (int) bytesRead);
+        }
+        return command;
+    }
+
+    private static String getStatusCode(List<Object> command) {
+        if (command.size() < 4 || !"onStatus".equals(command.get(0)) || !(command.get(3) instanceof Map)) {
+            return null;
+        }
+        Object code = ((Map<?, ?>) command.get(3)).get("code");
+        return code instanceof String ? (String) code : null;
+    }
+
+    private static boolean isErrorStatus(List<Object> command) {
+        if (command.size() < 4 || !"onStatus".equals(command.get(0)) || !(command.get(3) instanceof Map)) {
+            return false;
+        }
+        return "error".equals(((Map<?, ?>) command.get(3)).get("level"));
+    }
+
+    private void release() {
+        if (socket != null) {
+            socket.close();
+        }
+        socket = null;
+        writer = null;
+        reader = null;
+        heapView = null;
+    }
+}
@@ -0,0 +1,179 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * reassemble incoming chunks into messages.<br/>
+ * bytes are fed by {@link #fill(RtmpSocket, boolean)},
+ * {@link #next()} returns complete messages and keeps partial chunks for later.
+ */
+final class RtmpChunkReader {
+    private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+    private static final long EXTENDED_TIMESTAMP = 0xFFFFFF;
+
+    static final class Message {
+        final int csid;
+        final int type;
+        final int msid;
+        final long timestamp;
+        final ByteBuffer body;
+
+        Message(int csid, int type, int msid, long timestamp, byte[] body) {
+            this.csid = csid;
+            this.type = type;
+            this.msid = msid;
+            this.timestamp = timestamp;
+            this.body = ByteBuffer.wrap(body);
+        }
+    }
+
+    private static class ChunkStreamState {
+        int msid;
+        int type;
+        int length;
+        long timestamp;
+        long delta;
+        boolean extended;
+        byte[] body;
+        int filled;
+    }
+
+    private final HashMap<Integer, ChunkStreamState> states = new HashMap<>();
+    private ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+    private Message completed;
+    private int chunkSize = RtmpChunkWriter.DEFAULT_CHUNK_SIZE;
+
+    void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param block wait for at least one byte
+     * @return bytes read
+     */
+    int fill(RtmpSocket socket, boolean block) throws IOException {
+        if (!in.hasRemaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+        return socket.read(in, block);
+    }
+
+    /**
+     * @return next complete message,null if more bytes are needed
+     */
+    Message next() throws IOException {
+        in.flip();
+        try {
+            while (in.hasRemaining()) {
+                int start = in.position();
+                if (!readChunk()) {
+                    in.position(start);
+                    return null;
+                }
+                if (completed != null) {
+                    Message res = completed;
+                    completed = null;
+                    return res;
+                }
+            }
+            return null;
+        } finally {
+            in.compact();
+        }
+    }
+
+    /**
+     * @return false if the chunk is not complete yet,nothing is consumed then
+     */
+    private boolean readChunk() throws IOException {
+        int b0 = in.get() & 0xFF;
+        int fmt = b0 >>> 6;
+        int csid = b0 & 0x3F;
+        if (csid == 0) {
+            if (in.remaining() < 1) {
+                return false;
+            }
+            csid = 64 + (in.get() & 0xFF);
+        } else if (csid == 1) {
+            if (in.remaining() < 2) {
+                return false;
+            }
+            csid = 64 + (in.get() & 0xFF) + ((in.get() & 0xFF) << 8);
+        }
+        ChunkStreamState state = states.get(csid);
+        if (state == null) {
+            if (fmt != 0) {
+                throw new IOException("rtmp chunk stream " + csid + " starts with fmt " + fmt);
+            }
+            state = new ChunkStreamState();
+            states.put(csid, state);
+        }
+        int headerSize = fmt == 0 ? 11 : fmt == 1 ? 7 : fmt == 2 ? 3 : 0;
+        if (in.remaining() < headerSize) {
+            return false;
+        }
+        long timestampField = 0;
+        int length = state.length;
+        int type = state.type;
+        int msid = state.msid;
+        if (fmt <= 2) {
+            timestampField = getMedium();
+        }
+        if (fmt <= 1) {
+            length = (int) getMedium();
+            type = in.get() & 0xFF;
+        }
+        if (fmt == 0) {
+            msid = (in.get() & 0xFF) | ((in.get() & 0xFF) << 8) | ((in.get() & 0xFF) << 16) | ((in.get() & 0xFF) << 24);
+        }
+        boolean extended = fmt == 3 ? state.extended : timestampField == EXTENDED_TIMESTAMP;
+        if (extended) {
+            if (in.remaining() < 4) {
+                return false;
+            }
+            timestampField = in.getInt() & 0xFFFFFFFFL;
+        }
+        if (length > MAX_MESSAGE_SIZE) {
+            throw new IOException("rtmp message too big:" + length);
+        }
+        boolean newMessage = fmt != 3 || state.body == null;
+        int read = Math.min(chunkSize, length - (newMessage ? 0 : state.filled));
+        if (in.remaining() < read) {
+            return false;
+        }
+        if (newMessage) {
+            if (fmt == 0) {
+                state.timestamp = timestampField;
+                state.delta = 0;
+            } else if (fmt == 3) {
+                state.timestamp += state.delta;
+            } else {
+                state.delta = timestampField;
+                state.timestamp += timestampField;
+            }
+            state.body = new byte[length];
+            state.filled = 0;
+        }
+        state.length = length;
+        state.type = type;
+        state.msid = msid;
+        state.extended = extended;
+        in.get(state.body, state.filled, read);
+        state.filled += read;
+        if (state.filled == length) {
+            completed = new Message(csid, type, msid, state.timestamp, state.body);
+            state.body = null;
+            state.filled = 0;
+        }
+        return true;
+    }
+
+    private long getMedium() {
+        return ((in.get() & 0xFF) << 16) | ((in.get() & 0xFF) << 8) | (in.get() & 0xFF);
+    }
+}
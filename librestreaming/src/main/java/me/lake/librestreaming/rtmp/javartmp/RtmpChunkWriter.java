@@ -0,0 +1,192 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * serialize rtmp messages into chunks.<br/>
+ * per chunk stream state is kept so every message gets the smallest valid header(type 0/1/2/3).<br/>
+ * chunks are staged in one direct buffer and go out together,
+ * a single-chunk payload big enough is not copied but sent with the stage by one gathering write.
+ */
+final class RtmpChunkWriter {
+    static final int DEFAULT_CHUNK_SIZE = 128;
+    private static final int MAX_CHUNK_STREAM_ID = 63;
+    private static final int MAX_HEADER_SIZE = 1 + 11 + 4;
+    private static final long EXTENDED_TIMESTAMP = 0xFFFFFF;
+    private static final int STAGE_SIZE = 64 * 1024;
+    private static final int GATHER_THRESHOLD = 1024;
+
+    private static class ChunkStreamState {
+        boolean valid;
+        int msid;
+        int type;
+        int length;
+        long timestamp;
+        long delta;
+        boolean hasDelta;
+    }
+
+    private final RtmpSocket socket;
+    private final ChunkStreamState[] states = new ChunkStreamState[MAX_CHUNK_STREAM_ID + 1];
+    private final ByteBuffer[] vector = new ByteBuffer[2];
+    private ByteBuffer stage;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private long headerBytes;
+    private long payloadBytes;
+
+    RtmpChunkWriter(RtmpSocket socket) {
+        this.socket = socket;
+        stage = ByteBuffer.allocateDirect(STAGE_SIZE);
+    }
+
+    /**
+     * change outgoing chunk size,
+     * the Set Chunk Size message must have been written with the old size already.
+     */
+    void setChunkSize(int chunkSize) throws IOException {
+        if (chunkSize + MAX_HEADER_SIZE > stage.capacity()) {
+            flush();
+            stage = ByteBuffer.allocateDirect(chunkSize + MAX_HEADER_SIZE);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param csid    chunk stream id,2~63
+     * @param ts      message timestamp,ms
+     * @param payload bytes between position and limit,position is moved to limit.
+     */
+    void writeMessage(int csid, int type, int msid, int ts, ByteBuffer payload) throws IOException {
+        ChunkStreamState state = states[csid];
+        if (state == null) {
+            state = states[csid] = new ChunkStreamState();
+        }
+        long timestamp = ts & 0xFFFFFFFFL;
+        int length = payload.remaining();
+        long delta = timestamp - state.timestamp;
+        int fmt;
+        if (!state.valid || state.msid != msid || delta < 0 || delta >= EXTENDED_TIMESTAMP) {
+            fmt = 0;
+        } else if (state.type != type || state.length != length) {
+            fmt = 1;
+        } else if (!state.hasDelta || state.delta != delta) {
+            fmt = 2;
+        } else {
+            fmt = 3;
+        }
+        state.valid = true;
+        state.msid = msid;
+        state.type = type;
+        state.length = length;
+        state.timestamp = timestamp;
+        state.hasDelta = fmt != 0;
+        state.delta = fmt == 0 ? 0 : delta;
+        long timestampField = fmt == 0 ? timestamp : delta;
+        boolean extended = fmt == 0 && timestamp >= EXTENDED_TIMESTAMP;
+        payloadBytes += length;
+
+        if (length <= chunkSize && length >= GATHER_THRESHOLD) {
+            if (stage.remaining() < MAX_HEADER_SIZE) {
+                flush();
+            }
+            putHeader(fmt, csid, timestampField, extended, length, type, msid);
+            stage.flip();
+            vector[0] = stage;
+            vector[1] = payload;
+            try {
+                socket.writeFully(vector);
+            } finally {
+                vector[1] = null;
+                stage.clear();
+            }
+            return;
+        }
+        int end = payload.limit();
+        int offset = payload.position();
+        boolean first = true;
+        do {
+            int n = Math.min(chunkSize, end - offset);
+            if (stage.remaining() < MAX_HEADER_SIZE + n) {
+                flush();
+            }
+            if (first) {
+                putHeader(fmt, csid, timestampField, extended, length, type, msid);
+                first = false;
+            } else {
+                stage.put((byte) (0xC0 | csid));
+                ++headerBytes;
+                if (extended) {
+                    stage.putInt((int) timestamp);
+                    headerBytes += 4;
+                }
+            }
+            payload.limit(offset + n);
+            stage.put(payload);
+            offset += n;
+        } while (offset < end);
+        payload.limit(end);
+    }
+
+    /**
+     * write out all staged chunks.
+     */
+    void flush() throws IOException {
+        if (stage.position() == 0) {
+            return;
+        }
+        stage.flip();
+        try {
+            socket.writeFully(stage);
+        } finally {
+            stage.clear();
+        }
+    }
+
+    /**
+     * @return bytes of chunk headers written so far
+     */
+    long getHeaderBytes() {
+        return headerBytes;
+    }
+
+    /**
+     * @return bytes of message payload written so far
+     */
+    long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    private void putHeader(int fmt, int csid, long timestampField, boolean extended, int length, int type, int msid) {
+        int start = stage.position();
+        stage.put((byte) ((fmt << 6) | csid));
+        if (fmt <= 2) {
+            putMedium(extended ? EXTENDED_TIMESTAMP : timestampField);
+        }
+        if (fmt <= 1) {
+            putMedium(length);
+            stage.put((byte) type);
+        }
+        if (fmt == 0) {
+            //message stream id is little-endian
+            stage.put((byte) msid);
+            stage.put((byte) (msid >> 8));
+            stage.put((byte) (msid >> 16));
+            stage.put((byte) (msid >> 24));
+        }
+        if (extended) {
+            stage.putInt((int) timestampField);
+        }
+        headerBytes += stage.position() - start;
+    }
+
+    private void putMedium(long value) {
+        stage.put((byte) (value >> 16));
+        stage.put((byte) (value >> 8));
+        stage.put((byte) value);
+    }
+}
@@ -0,0 +1,39 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * simple(non-digest) rtmp handshake:C0C1 -> S0S1S2 -> C2.
+ */
+final class RtmpHandshake {
+    static final int VERSION = 3;
+    static final int PACKET_SIZE = 1536;
+
+    private RtmpHandshake() {
+    }
+
+    static void perform(RtmpSocket socket) throws IOException {
+        ByteBuffer c0c1 = ByteBuffer.allocate(1 + PACKET_SIZE);
+        c0c1.put((byte) VERSION);
+        c0c1.putInt(0);
+        c0c1.putInt(0);
+        byte[] random = new byte[PACKET_SIZE - 8];
+        new Random().nextBytes(random);
+        c0c1.put(random);
+        c0c1.flip();
+        socket.writeFully(c0c1);
+
+        ByteBuffer s0s1s2 = ByteBuffer.allocate(1 + PACKET_SIZE * 2);
+        socket.readFully(s0s1s2);
+        s0s1s2.flip();
+        int version = s0s1s2.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("unsupported rtmp version:" + version);
+        }
+        //C2 echoes S1
+        s0s1s2.limit(1 + PACKET_SIZE);
+        socket.writeFully(s0s1s2);
+    }
+}
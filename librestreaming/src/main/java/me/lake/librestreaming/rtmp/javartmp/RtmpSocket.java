@@ -0,0 +1,145 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * non-blocking SocketChannel with blocking helpers bounded by a timeout.
+ */
+final class RtmpSocket {
+    private final int timeoutMs;
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    private long bytesWritten;
+    private long bytesRead;
+
+    RtmpSocket(int timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    void connect(String host, int port, int sendBufferSize, boolean tcpNoDelay) throws IOException {
+        channel = SocketChannel.open();
+        Socket socket = channel.socket();
+        socket.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        socket.connect(new InetSocketAddress(host, port), timeoutMs);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        key = channel.register(selector, 0);
+    }
+
+    void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            int n = channel.write(src);
+            if (n == 0) {
+                await(SelectionKey.OP_WRITE);
+            }
+            bytesWritten += n;
+        }
+    }
+
+    /**
+     * gathering write,srcs are written in order within as few syscalls as possible.
+     */
+    void writeFully(ByteBuffer[] srcs) throws IOException {
+        while (hasRemaining(srcs)) {
+            long n = channel.write(srcs);
+            if (n == 0) {
+                await(SelectionKey.OP_WRITE);
+            }
+            bytesWritten += n;
+        }
+    }
+
+    void readFully(ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (read(dst) == 0) {
+                await(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * @param block wait up to timeout for at least one byte
+     * @return bytes read,may be 0 when not blocking
+     */
+    int read(ByteBuffer dst, boolean block) throws IOException {
+        int n = read(dst);
+        if (n == 0 && block) {
+            await(SelectionKey.OP_READ);
+            n = read(dst);
+        }
+        return n;
+    }
+
+    private int read(ByteBuffer dst) throws IOException {
+        int n = channel.read(dst);
+        if (n < 0) {
+            throw new EOFException("rtmp connection closed by peer");
+        }
+        bytesRead += n;
+        return n;
+    }
+
+    private void await(int ops) throws IOException {
+        key.interestOps(ops);
+        int n = selector.select(timeoutMs);
+        key.interestOps(0);
+        selector.selectedKeys().clear();
+        if (n == 0) {
+            throw new SocketTimeoutException("rtmp socket timeout,ops=" + ops);
+        }
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    String getIpAddr() {
+        if (channel == null) {
+            return null;
+        }
+        InetSocketAddress address = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+        return address == null || address.getAddress() == null ? null : address.getAddress().getHostAddress();
+    }
+
+    void close() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException ignored) {
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+        selector = null;
+        channel = null;
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] srcs) {
+        for (ByteBuffer src : srcs) {
+            if (src.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,53 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+/**
+ * rtmp://host[:port]/app[/instance]/stream,the last path segment is the stream name.
+ */
+final class RtmpUrl {
+    static final int DEFAULT_PORT = 1935;
+    final String host;
+    final int port;
+    final String app;
+    final String stream;
+    final String tcUrl;
+
+    private RtmpUrl(String host, int port, String app, String stream) {
+        this.host = host;
+        this.port = port;
+        this.app = app;
+        this.stream = stream;
+        this.tcUrl = "rtmp://" + host + ":" + port + "/" + app;
+    }
+
+    static RtmpUrl parse(String url) {
+        String scheme = "rtmp://";
+        if (url == null || !url.regionMatches(true, 0, scheme, 0, scheme.length())) {
+            throw new IllegalArgumentException("not a rtmp url:" + url);
+        }
+        String rest = url.substring(scheme.length());
+        int slash = rest.indexOf('/');
+        int lastSlash = rest.lastIndexOf('/');
+        if (slash <= 0) {
+            throw new IllegalArgumentException("no app in rtmp url:" + url);
+        }
+        String hostPort = rest.substring(0, slash);
+        String host = hostPort;
+        int port = DEFAULT_PORT;
+        int colon = hostPort.lastIndexOf(':');
+        if (colon > 0 && hostPort.indexOf(']') < colon) {
+            host = hostPort.substring(0, colon);
+            try {
+                port = Integer.parseInt(hostPort.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad port in rtmp url:" + url);
+            }
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        if (lastSlash == slash || lastSlash == rest.length() - 1) {
+            throw new IllegalArgumentException("no stream in rtmp url:" + url);
+        }
+        return new RtmpUrl(host, port, rest.substring(slash + 1, lastSlash), rest.substring(lastSlash + 1));
+    }
+}
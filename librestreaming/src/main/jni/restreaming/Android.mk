@@ -3,7 +3,8 @@ include $(CLEAR_VARS)
 
 
 LOCAL_SRC_FILES := restreaming.c \
-					colorConvert.c 
+					colorConvert.c \
+					convertPool.c
 
 
 LOCAL_C_INCLUDES :=$(LOCAL_PATH)/
@@ -11,6 +12,9 @@ LOCAL_C_INCLUDES :=$(LOCAL_PATH)/
 
 LOCAL_MODULE := restreaming
 
+LOCAL_CFLAGS += -O3
+LOCAL_ARM_NEON := true
+
 LOCAL_LDLIBS := -llog -ljnigraphics -landroid
 
 include $(BUILD_SHARED_LIBRARY)
\ No newline at end of file
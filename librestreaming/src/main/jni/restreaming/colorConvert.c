@@ -1,44 +1,68 @@
 #include "colorConvert.h"
 #include <string.h>
+#include "convertPool.h"
 #include "log.h"
 
-void NV21TOYUV420SP(const unsigned char *src,const unsigned char *dst,int ySize)
+//bands smaller than this are not worth a thread
+#define MIN_BAND_ROWS 64
+#define MIN_BAND_PIXELS (MIN_BAND_ROWS*640)
+//rotation is done in TILE_SIZE x TILE_SIZE blocks to keep both sides in cache
+#define TILE_SIZE 32
+
+typedef struct {
+	const unsigned char *src;
+	unsigned char *dst;
+	int ySize;
+	int uSize;
+} PlanarArgs;
+
+/**
+ * band over chroma pairs [begin,end),luma [4*begin,4*end) goes with it
+ */
+static void copyLumaBand(PlanarArgs *args,int begin,int end)
 {
-	memcpy(dst,src,ySize);
-	int uvSize = ySize>>1;
-	int uSize = uvSize>>1;
-	memcpy(dst+ySize,src+ySize+1,uvSize-1);
-	unsigned char *nvcur = src+ySize;
-	unsigned char *yuvcur = dst+ySize+1;
-	int i=0;
-	while(i<uSize)
+	int yBegin = begin<<2;
+	int yEnd = end==args->uSize?args->ySize:end<<2;
+	memcpy(args->dst+yBegin,args->src+yBegin,yEnd-yBegin);
+}
+
+static void NV21TOYUV420SPBand(void *param,int begin,int end)
+{
+	PlanarArgs *args = (PlanarArgs *)param;
+	copyLumaBand(args,begin,end);
+	const unsigned char * __restrict srcuv = args->src+args->ySize;
+	unsigned char * __restrict dstuv = args->dst+args->ySize;
+	int i;
+	for(i=begin;i<end;++i)
 	{
-		(*yuvcur)=(*nvcur);
-		yuvcur+=2;
-		nvcur+=2;
-		++i;
+		dstuv[2*i]=srcuv[2*i+1];
+		dstuv[2*i+1]=srcuv[2*i];
 	}
 }
-void NV21TOYUV420P(const unsigned char *src,const unsigned char *dst,int ySize)
+void NV21TOYUV420SP(const unsigned char *src,const unsigned char *dst,int ySize)
 {
-	memcpy(dst,src,ySize);
-	int uSize = ySize>>2;
-	unsigned char *srcucur = src+ySize+1;
-	unsigned char *srcvcur = src+ySize;
-	unsigned char *dstucur = dst+ySize;
-	unsigned char *dstvcur = dst+ySize+uSize;
-	int i=0;
-	while(i<uSize)
+	PlanarArgs args = {src,(unsigned char *)dst,ySize,ySize>>2};
+	parallelBands(NV21TOYUV420SPBand,&args,args.uSize,1,MIN_BAND_PIXELS>>2);
+}
+static void NV21TOYUV420PBand(void *param,int begin,int end)
+{
+	PlanarArgs *args = (PlanarArgs *)param;
+	copyLumaBand(args,begin,end);
+	const unsigned char * __restrict srcuv = args->src+args->ySize;
+	unsigned char * __restrict dstu = args->dst+args->ySize;
+	unsigned char * __restrict dstv = args->dst+args->ySize+args->uSize;
+	int i;
+	for(i=begin;i<end;++i)
 	{
-		(*dstucur)=(*srcucur);
-		(*dstvcur)=(*srcvcur);
-		srcucur+=2;
-		srcvcur+=2;
-		++dstucur;
-		++dstvcur;
-		++i;
+		dstu[i]=srcuv[2*i+1];
+		dstv[i]=srcuv[2*i];
 	}
 }
+void NV21TOYUV420P(const unsigned char *src,const unsigned char *dst,int ySize)
+{
+	PlanarArgs args = {src,(unsigned char *)dst,ySize,ySize>>2};
+	parallelBands(NV21TOYUV420PBand,&args,args.uSize,1,MIN_BAND_PIXELS>>2);
+}
 void YUV420SPTOYUV420P(const unsigned char *src,const unsigned char *dst,int ySize)
 {
 	memcpy(dst,src,ySize);
@@ -59,15 +83,25 @@ void YUV420SPTOYUV420P(const unsigned char *src,const unsigned char *dst,int ySi
 		++i;
 	}
 }
-void NV21TOARGB(const unsigned char *src,const unsigned int *dst,int width,int height)
+typedef struct {
+	const unsigned char *src;
+	unsigned int *dst;
+	int width;
+	int height;
+} ARGBArgs;
+
+static void NV21TOARGBBand(void *param,int rowBegin,int rowEnd)
 {
-	int frameSize = width * height;
+	ARGBArgs *args = (ARGBArgs *)param;
+	const unsigned char * __restrict src = args->src;
+	unsigned int * __restrict target = args->dst;
+	int width = args->width;
+	int frameSize = width * args->height;
 
 	int i = 0, j = 0,yp = 0;
 	int uvp = 0, u = 0, v = 0;
 	int y1192 = 0, r = 0, g = 0, b = 0;
-	unsigned int *target=dst;
-	for (j = 0, yp = 0; j < height; j++)
+	for (j = rowBegin, yp = rowBegin * width; j < rowEnd; j++)
 	{
 		uvp = frameSize + (j >> 1) * width;
 		u = 0;
@@ -95,12 +129,172 @@ void NV21TOARGB(const unsigned char *src,const unsigned int *dst,int width,int h
 		}
 	}
 }
+void NV21TOARGB(const unsigned char *src,const unsigned int *dst,int width,int height)
+{
+	ARGBArgs args = {src,(unsigned int *)dst,width,height};
+	parallelBands(NV21TOARGBBand,&args,height,2,MIN_BAND_ROWS);
+}
 #define IS_FLIP_H ((FLAG_DIRECTION_FLIP_HORIZONTAL&directionFlag)!=0)
 #define IS_FLIP_V ((FLAG_DIRECTION_FLIP_VERTICAL&directionFlag)!=0)
-void NV21Transform(const unsigned char *src,const unsigned char *dst,int srcWidth,int srcHeight,int directionFlag)
+/**
+ * where one plane goes,element (srcX,srcY) lands at yStart+srcY*yStep+srcX*xStep.
+ * offsets are in elements of the plane,a byte for luma,a chroma pair for vu.
+ */
+typedef struct {
+	int yStart;
+	int yStep;
+	int xStep;
+} PlaneMapping;
+
+typedef struct {
+	const unsigned char *src;
+	unsigned char *dstY;
+	//chroma pair k goes to dstU[k*pairStride] & dstV[k*pairStride]
+	unsigned char *dstU;
+	unsigned char *dstV;
+	int pairStride;
+	int srcWidth;
+	int srcHeight;
+	int rotate;
+	PlaneMapping luma;
+	PlaneMapping chroma;
+} TransformArgs;
+
+/**
+ * @param width elements per source row
+ * @param height source rows
+ */
+static void mapPlane(PlaneMapping *mapping,int rotate,int hflip,int vflip,int width,int height)
+{
+	int planeSize = width*height;
+	if(rotate==1){
+		if(hflip==1){
+			mapping->yStart=vflip==1?planeSize-height:planeSize-1;
+			mapping->xStep=-height;
+		}else{
+			mapping->yStart=vflip==1?0:height-1;
+			mapping->xStep=height;
+		}
+		mapping->yStep=vflip==1?1:-1;
+	}else{
+		mapping->yStart=(vflip==1?planeSize-width:0)+(hflip==1?width-1:0);
+		mapping->yStep=vflip==1?-width:width;
+		mapping->xStep=hflip==1?-1:1;
+	}
+}
+
+/**
+ * luma rows [rowBegin,rowEnd),rotation is done tile by tile
+ */
+static void transformLuma(const unsigned char * __restrict src,unsigned char * __restrict dst,
+	int rowBegin,int rowEnd,int width,int rotate,const PlaneMapping *m)
+{
+	int tileRow,tileCol,srcY,srcX;
+	if(m->xStep==1){
+		for(srcY=rowBegin;srcY<rowEnd;++srcY){
+			memcpy(dst+m->yStart+srcY*m->yStep,src+srcY*width,width);
+		}
+		return;
+	}
+	if(rotate==0){
+		for(srcY=rowBegin;srcY<rowEnd;++srcY){
+			const unsigned char * __restrict s = src+srcY*width;
+			unsigned char * __restrict d = dst+m->yStart+srcY*m->yStep;
+			for(srcX=0;srcX<width;++srcX){
+				d[-srcX]=s[srcX];
+			}
+		}
+		return;
+	}
+	for(tileRow=rowBegin;tileRow<rowEnd;tileRow+=TILE_SIZE)
+	{
+		int tileRowEnd = tileRow+TILE_SIZE<rowEnd?tileRow+TILE_SIZE:rowEnd;
+		for(tileCol=0;tileCol<width;tileCol+=TILE_SIZE)
+		{
+			int tileColEnd = tileCol+TILE_SIZE<width?tileCol+TILE_SIZE:width;
+			for(srcY=tileRow;srcY<tileRowEnd;++srcY)
+			{
+				const unsigned char *s = src+srcY*width;
+				int dstCurr = m->yStart+srcY*m->yStep+tileCol*m->xStep;
+				for(srcX=tileCol;srcX<tileColEnd;++srcX)
+				{
+					dst[dstCurr]=s[srcX];
+					dstCurr+=m->xStep;
+				}
+			}
+		}
+	}
+}
+
+/**
+ * NV21 chroma rows [rowBegin,rowEnd) of width vu pairs,rotation is done tile by tile
+ */
+static void transformChroma(const unsigned char * __restrict src,unsigned char * __restrict dstU,unsigned char * __restrict dstV,
+	int pairStride,int rowBegin,int rowEnd,int width,int rotate,const PlaneMapping *m)
+{
+	int yStart = m->yStart*pairStride;
+	int yStep = m->yStep*pairStride;
+	int xStep = m->xStep*pairStride;
+	int rowBytes = width*2;
+	int tileRow,tileCol,srcY,srcX;
+	if(rotate==0){
+		if(xStep==2 && dstV+1==dstU){
+			//NV21 to NV21,rows stay whole
+			for(srcY=rowBegin;srcY<rowEnd;++srcY){
+				memcpy(dstV+yStart+srcY*yStep,src+srcY*rowBytes,rowBytes);
+			}
+			return;
+		}
+		for(srcY=rowBegin;srcY<rowEnd;++srcY){
+			const unsigned char * __restrict s = src+srcY*rowBytes;
+			int dstCurr = yStart+srcY*yStep;
+			for(srcX=0;srcX<width;++srcX){
+				dstV[dstCurr]=s[2*srcX];
+				dstU[dstCurr]=s[2*srcX+1];
+				dstCurr+=xStep;
+			}
+		}
+		return;
+	}
+	for(tileRow=rowBegin;tileRow<rowEnd;tileRow+=TILE_SIZE)
+	{
+		int tileRowEnd = tileRow+TILE_SIZE<rowEnd?tileRow+TILE_SIZE:rowEnd;
+		for(tileCol=0;tileCol<width;tileCol+=TILE_SIZE)
+		{
+			int tileColEnd = tileCol+TILE_SIZE<width?tileCol+TILE_SIZE:width;
+			for(srcY=tileRow;srcY<tileRowEnd;++srcY)
+			{
+				const unsigned char *s = src+srcY*rowBytes;
+				int dstCurr = yStart+srcY*yStep+tileCol*xStep;
+				for(srcX=tileCol;srcX<tileColEnd;++srcX)
+				{
+					dstV[dstCurr]=s[2*srcX];
+					dstU[dstCurr]=s[2*srcX+1];
+					dstCurr+=xStep;
+				}
+			}
+		}
+	}
+}
+
+/**
+ * band over source rows [rowBegin,rowEnd),chroma rows [rowBegin/2,rowEnd/2) go with it
+ */
+static void NV21TransformBand(void *param,int rowBegin,int rowEnd)
+{
+	TransformArgs *args = (TransformArgs *)param;
+	int srcWidth = args->srcWidth;
+	int ySize = srcWidth*args->srcHeight;
+	transformLuma(args->src,args->dstY,rowBegin,rowEnd,srcWidth,args->rotate,&args->luma);
+	transformChroma(args->src+ySize,args->dstU,args->dstV,args->pairStride,
+		rowBegin>>1,rowEnd>>1,srcWidth>>1,args->rotate,&args->chroma);
+}
+
+/**
+ * rotate & flip src,then write it in dstFormat,one pass over the frame.
+ */
+static void transform(const unsigned char *src,unsigned char *dst,int srcWidth,int srcHeight,int directionFlag,int dstFormat)
 {
-	unsigned char *cdst=dst;
-	unsigned char *csrc=src;
 	int rotate=0;
 	int hflip=0;
 	int vflip=0;
@@ -122,104 +316,41 @@ void NV21Transform(const unsigned char *src,const unsigned char *dst,int srcWidt
 			vflip = IS_FLIP_H?1:1;
 		}
 	}
-	int ySize=srcHeight*srcWidth;
-	int totalSize = ySize*3 / 2;
-	int yStart,yStep,xStep;
-	if(rotate==0 && hflip==0 && vflip==0){
-		memcpy(cdst,csrc,totalSize);
-		return;
-	}
-	int srcX,srcY,srcCurr;
-	int dstX,dstY,dstCurr;
-	int halfHeight=srcHeight>>1,halfWidth=srcWidth>>1;
-	if(rotate==1){
-		//transformY
-		if(hflip==1){
-			yStart=vflip==1?ySize-srcHeight:ySize-1;
-			yStep=vflip==1?1:-1;
-			xStep=-srcHeight;
-		}else{
-			yStart=vflip==1?0:srcHeight-1;
-			yStep=vflip==1?1:-1;
-			xStep=srcHeight;
-		}
-		srcCurr=-1;
-		for(srcY=0;srcY<srcHeight;++srcY){
-			dstCurr = yStart;
-			for(srcX=0;srcX<srcWidth;++srcX){
-				cdst[dstCurr]=csrc[++srcCurr];
-				dstCurr+=xStep;
-			}
-			yStart+=yStep;
-		}
-		//transformVU
-		if(hflip==1){
-			yStart=vflip==1?totalSize-srcHeight:totalSize-2;
-			yStep=vflip==1?2:-2;
-			xStep=-srcHeight;
-		}else{
-			yStart=vflip==1?ySize:ySize+srcHeight-2;
-			yStep=vflip==1?2:-2;
-			xStep=srcHeight;
-		}
-		srcCurr=ySize-1;
-		for(srcY=0;srcY<halfHeight;++srcY){
-			dstCurr = yStart;
-			for(srcX=0;srcX<halfWidth;++srcX){
-				cdst[dstCurr]=csrc[++srcCurr];
-				cdst[dstCurr+1]=csrc[++srcCurr];
-				dstCurr+=xStep;
-			}
-			yStart+=yStep;
-		}
+	int ySize = srcWidth*srcHeight;
+	TransformArgs args;
+	args.src = src;
+	args.dstY = dst;
+	args.srcWidth = srcWidth;
+	args.srcHeight = srcHeight;
+	args.rotate = rotate;
+	if(dstFormat==COLOR_FORMAT_YUV420P){
+		args.dstU = dst+ySize;
+		args.dstV = dst+ySize+(ySize>>2);
+		args.pairStride = 1;
+	}else if(dstFormat==COLOR_FORMAT_YUV420SP){
+		args.dstU = dst+ySize;
+		args.dstV = dst+ySize+1;
+		args.pairStride = 2;
 	}else{
-		if(vflip==1 && hflip==0){
-			//transformY
-			yStart = ySize-srcWidth;
-			srcCurr=-1;
-			for(srcY=0;srcY<srcHeight;++srcY){
-				dstCurr = yStart-1;
-				for(srcX=0;srcX<srcWidth;++srcX){
-					cdst[++dstCurr]=csrc[++srcCurr];
-				}
-				yStart-=srcWidth;
-			}
-			//transformVU
-			yStart=totalSize-srcWidth;
-			for(srcY=0;srcY<halfHeight;++srcY){
-				dstCurr = yStart-1;
-				for(srcX=0;srcX<halfWidth;++srcX){
-					cdst[++dstCurr]=csrc[++srcCurr];
-					cdst[++dstCurr]=csrc[++srcCurr];
-				}
-				yStart-=srcWidth;
-			}
-		}else{
-			yStep=vflip==1?-srcWidth:srcWidth;
-			yStart=vflip==1?ySize-1:srcWidth-1;
-			//transformY
-			srcCurr=-1;
-			for(srcY=0;srcY<srcHeight;++srcY){
-				dstCurr = yStart+1;
-				for(srcX=0;srcX<srcWidth;++srcX){
-					cdst[--dstCurr]=csrc[++srcCurr];
-				}
-				yStart+=yStep;
-			}
-			//transformVU
-			yStart=vflip==1?totalSize-1:ySize+srcWidth-1;
-			for(srcY=0;srcY<halfHeight;++srcY){
-				dstCurr = yStart;
-				for(srcX=0;srcX<halfWidth;++srcX){
-					cdst[dstCurr-1]=csrc[++srcCurr];
-					cdst[dstCurr]=csrc[++srcCurr];
-					dstCurr-=2;
-				}
-				yStart+=yStep;
-			}
-		}
+		args.dstU = dst+ySize+1;
+		args.dstV = dst+ySize;
+		args.pairStride = 2;
 	}
-
+	mapPlane(&args.luma,rotate,hflip,vflip,srcWidth,srcHeight);
+	mapPlane(&args.chroma,rotate,hflip,vflip,srcWidth>>1,srcHeight>>1);
+	parallelBands(NV21TransformBand,&args,srcHeight,2,MIN_BAND_ROWS);
+}
+void NV21Transform(const unsigned char *src,const unsigned char *dst,int srcWidth,int srcHeight,int directionFlag)
+{
+	transform(src,(unsigned char *)dst,srcWidth,srcHeight,directionFlag,COLOR_FORMAT_NV21);
+}
+void NV21TransformTOYUV420SP(const unsigned char *src,const unsigned char *dst,int srcWidth,int srcHeight,int directionFlag)
+{
+	transform(src,(unsigned char *)dst,srcWidth,srcHeight,directionFlag,COLOR_FORMAT_YUV420SP);
+}
+void NV21TransformTOYUV420P(const unsigned char *src,const unsigned char *dst,int srcWidth,int srcHeight,int directionFlag)
+{
+	transform(src,(unsigned char *)dst,srcWidth,srcHeight,directionFlag,COLOR_FORMAT_YUV420P);
 }
 void NV21TOYUV(const unsigned char *src,const unsigned char *dstY,const unsigned char *dstU,const unsigned char *dstV,int width,int height)
 {
@@ -245,28 +376,20 @@ void NV21TOYUV(const unsigned char *src,const unsigned char *dstY,const unsigned
 		++i;
 	}
 }
+/**
+ * flip vertically & swap R,B of every pixel,glReadPixels RGBA to ARGB
+ */
 void FIXGLPIXEL(const unsigned int *src,unsigned int *dst,int width,int height)
 {
-    int i=0;
-    int x,y;
-    unsigned char temp;
-    unsigned char *srcucur;
-    unsigned char *dstucur;
-    unsigned char *dstu=dst;
-    unsigned char *srcu=src;
-    for(y=0;y<height;y++)
-    {
-        srcucur=(srcu+y*width*4);
-        int step=(height-y-1)*width*4;
-        dstucur=(dstu+step);
-        dstucur+=3;
-        for(x=0;x<width;x++){
-            (*dstucur)=(unsigned char)(*(srcucur+3));
-            (*(dstucur+1))=(unsigned char)(*(srcucur+2));
-            (*(dstucur+2))=(unsigned char)(*(srcucur+1));
-            (*(dstucur+3))=(unsigned char)(*(srcucur));
-            srcucur+=4;
-            dstucur+=4;
-        }
-    }
-}
\ No newline at end of file
+	int x,y;
+	for(y=0;y<height;y++)
+	{
+		const unsigned int * __restrict s = src+y*width;
+		unsigned int * __restrict d = dst+(height-y-1)*width;
+		for(x=0;x<width;x++)
+		{
+			unsigned int p = s[x];
+			d[x] = (p&0xff00ff00)|((p&0xff)<<16)|((p>>16)&0xff);
+		}
+	}
+}
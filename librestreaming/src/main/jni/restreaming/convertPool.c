@@ -0,0 +1,127 @@
+#include "convertPool.h"
+#include <pthread.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <unistd.h>
+#include "log.h"
+//
+// persistent workers for band-partitioned color conversions.
+// one job at a time,a second caller does its whole job by itself instead of waiting.
+//
+static pthread_once_t poolOnce = PTHREAD_ONCE_INIT;
+static pthread_mutex_t submitLock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_mutex_t poolLock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t jobCond = PTHREAD_COND_INITIALIZER;
+static pthread_cond_t doneCond = PTHREAD_COND_INITIALIZER;
+static int workerNum = 0;
+static unsigned int jobGeneration = 0;
+static ConvertBandFunc jobFunc;
+static void *jobArg;
+static int bandBegin[MAX_CONVERT_THREADS];
+static int bandEnd[MAX_CONVERT_THREADS];
+static int pendingBands = 0;
+
+static void *workerLoop(void *param)
+{
+	int index = (int)(intptr_t)param;
+	unsigned int seenGeneration = 0;
+	pthread_mutex_lock(&poolLock);
+	while(1)
+	{
+		while(jobGeneration==seenGeneration)
+		{
+			pthread_cond_wait(&jobCond,&poolLock);
+		}
+		seenGeneration = jobGeneration;
+		ConvertBandFunc func = jobFunc;
+		void *arg = jobArg;
+		int begin = bandBegin[index];
+		int end = bandEnd[index];
+		pthread_mutex_unlock(&poolLock);
+		if(end>begin)
+		{
+			func(arg,begin,end);
+		}
+		pthread_mutex_lock(&poolLock);
+		if(--pendingBands==0)
+		{
+			pthread_cond_signal(&doneCond);
+		}
+	}
+	return NULL;
+}
+
+static void initPool()
+{
+	long cpus = sysconf(_SC_NPROCESSORS_ONLN);
+	//host tests force several bands on machines with fewer cores
+	const char *forced = getenv("RESTREAMING_CONVERT_THREADS");
+	if(forced!=NULL && atoi(forced)>0)
+	{
+		cpus = atoi(forced);
+	}
+	int wanted = cpus>MAX_CONVERT_THREADS?MAX_CONVERT_THREADS:(int)cpus;
+	pthread_attr_t attr;
+	pthread_attr_init(&attr);
+	pthread_attr_setdetachstate(&attr,PTHREAD_CREATE_DETACHED);
+	int i;
+	for(i=1;i<wanted;++i)
+	{
+		pthread_t thread;
+		if(pthread_create(&thread,&attr,workerLoop,(void *)(intptr_t)i)!=0)
+		{
+			break;
+		}
+		++workerNum;
+	}
+	pthread_attr_destroy(&attr);
+	LOGD("convertPool,workers=%d",workerNum);
+}
+
+int getConvertThreads()
+{
+	pthread_once(&poolOnce,initPool);
+	return workerNum+1;
+}
+
+void parallelBands(ConvertBandFunc func,void *arg,int total,int align,int minBand)
+{
+	int bands = total/(minBand>0?minBand:1);
+	int threads = getConvertThreads();
+	if(bands>threads)
+	{
+		bands = threads;
+	}
+	if(bands<=1 || pthread_mutex_trylock(&submitLock)!=0)
+	{
+		func(arg,0,total);
+		return;
+	}
+	int bandSize = (total+bands-1)/bands;
+	bandSize = (bandSize+align-1)/align*align;
+	int i;
+	pthread_mutex_lock(&poolLock);
+	for(i=1;i<=workerNum;++i)
+	{
+		int begin = i*bandSize;
+		int end = begin+bandSize;
+		bandBegin[i] = begin>total?total:begin;
+		bandEnd[i] = end>total?total:end;
+	}
+	jobFunc = func;
+	jobArg = arg;
+	pendingBands = workerNum;
+	++jobGeneration;
+	pthread_cond_broadcast(&jobCond);
+	pthread_mutex_unlock(&poolLock);
+
+	func(arg,0,bandSize>total?total:bandSize);
+
+	pthread_mutex_lock(&poolLock);
+	while(pendingBands>0)
+	{
+		pthread_cond_wait(&doneCond,&poolLock);
+	}
+	pthread_mutex_unlock(&poolLock);
+	pthread_mutex_unlock(&submitLock);
+}
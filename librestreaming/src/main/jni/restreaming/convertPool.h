@@ -0,0 +1,20 @@
+#ifndef __CONVERTPOOL_H__
+#define __CONVERTPOOL_H__
+
+#define MAX_CONVERT_THREADS 4
+
+typedef void (*ConvertBandFunc)(void *arg,int begin,int end);
+
+/**
+ * split [0,total) into bands,each a multiple of align and at least minBand long,
+ * run band 0 on the caller and the others on pool workers,return when all bands are done.
+ * the whole range runs on the caller if it is too small or the pool is busy with another caller.
+ */
+void parallelBands(ConvertBandFunc func,void *arg,int total,int align,int minBand);
+
+/**
+ * threads a conversion can use,caller included.
+ * online cores up to MAX_CONVERT_THREADS,or RESTREAMING_CONVERT_THREADS if set in the environment
+ */
+int getConvertThreads();
+#endif
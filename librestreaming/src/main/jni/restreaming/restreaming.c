@@ -1,4 +1,5 @@
 #include "colorConvert.h"
+#include "convertPool.h"
 #include "log.h"
 #include "jni.h"
 #include <string.h>
@@ -6,52 +7,120 @@
 //
 // Created by lake on 2016.04.05
 //
-JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TOYUV420SP
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TOYUV420SP
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint ySize) {
 	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
 	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
 	NV21TOYUV420SP(src,dst,ySize);
 	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleaseByteArrayElements(env,dstarray,dst,0);
 	return;
 }
-JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_YUV420SPTOYUV420P
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeYUV420SPTOYUV420P
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint ySize) {
 	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
 	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
 	YUV420SPTOYUV420P(src,dst,ySize);
 	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleaseByteArrayElements(env,dstarray,dst,0);
 	return;
 }
-JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TOYUV420P
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TOYUV420P
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint ySize) {
 	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
 	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
 	NV21TOYUV420P(src,dst,ySize);
 	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleaseByteArrayElements(env,dstarray,dst,0);
 	return;
 }
-JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21TOARGB
+JNIEXPORT jboolean JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TOYUV420SPBuffer
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jobject dstbuffer,jint ySize) {
+	unsigned char *dst = (unsigned char*)(*env)->GetDirectBufferAddress(env,dstbuffer);
+	if(dst==NULL || (*env)->GetDirectBufferCapacity(env,dstbuffer)<ySize*3/2){
+		return JNI_FALSE;
+	}
+	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
+	NV21TOYUV420SP(src,dst,ySize);
+	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
+	return JNI_TRUE;
+}
+JNIEXPORT jboolean JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TOYUV420PBuffer
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jobject dstbuffer,jint ySize) {
+	unsigned char *dst = (unsigned char*)(*env)->GetDirectBufferAddress(env,dstbuffer);
+	if(dst==NULL || (*env)->GetDirectBufferCapacity(env,dstbuffer)<ySize*3/2){
+		return JNI_FALSE;
+	}
+	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
+	NV21TOYUV420P(src,dst,ySize);
+	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
+	return JNI_TRUE;
+}
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TOARGB
 (JNIEnv *env, jobject thiz,jbyteArray srcarray,jintArray dstarray,jint width,jint height){
 		unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
 		unsigned int *dst = (unsigned int*)(*env)->GetIntArrayElements(env,dstarray, 0);
 		NV21TOARGB(src,dst,width,height);
 		(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-		(*env)->ReleaseIntArrayElements(env,dstarray,dst,JNI_ABORT);
+		(*env)->ReleaseIntArrayElements(env,dstarray,dst,0);
 		return;
 }
 
-JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_NV21Transform
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21Transform
 (JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint srcwidth,jint srcheight,jint directionflag) {
 	unsigned char *src = (unsigned char*)(*env)->GetByteArrayElements(env,srcarray, 0);
 	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
 	NV21Transform(src,dst,srcwidth,srcheight,directionflag);
 	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-	(*env)->ReleaseByteArrayElements(env,dstarray,dst,JNI_ABORT);
+	(*env)->ReleaseByteArrayElements(env,dstarray,dst,0);
+	return;
+}
+
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TransformTOYUV420SP
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint srcwidth,jint srcheight,jint directionflag) {
+	unsigned char *src = (unsigned char*)(*env)->GetByteArrayElements(env,srcarray, 0);
+	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
+	NV21TransformTOYUV420SP(src,dst,srcwidth,srcheight,directionflag);
+	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
+	(*env)->ReleaseByteArrayElements(env,dstarray,dst,0);
 	return;
 }
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TransformTOYUV420P
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jbyteArray dstarray,jint srcwidth,jint srcheight,jint directionflag) {
+	unsigned char *src = (unsigned char*)(*env)->GetByteArrayElements(env,srcarray, 0);
+	unsigned char *dst = (unsigned char*)(*env)->GetByteArrayElements(env,dstarray, 0);
+	NV21TransformTOYUV420P(src,dst,srcwidth,srcheight,directionflag);
+	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
+	(*env)->ReleaseByteArrayElements(env,dstarray,dst,0);
+	return;
+}
+JNIEXPORT jboolean JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TransformTOYUV420SPBuffer
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jobject dstbuffer,jint srcwidth,jint srcheight,jint directionflag) {
+	unsigned char *dst = (unsigned char*)(*env)->GetDirectBufferAddress(env,dstbuffer);
+	if(dst==NULL || (*env)->GetDirectBufferCapacity(env,dstbuffer)<srcwidth*srcheight*3/2){
+		return JNI_FALSE;
+	}
+	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
+	NV21TransformTOYUV420SP(src,dst,srcwidth,srcheight,directionflag);
+	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
+	return JNI_TRUE;
+}
+JNIEXPORT jboolean JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeNV21TransformTOYUV420PBuffer
+(JNIEnv * env, jobject thiz, jbyteArray srcarray,jobject dstbuffer,jint srcwidth,jint srcheight,jint directionflag) {
+	unsigned char *dst = (unsigned char*)(*env)->GetDirectBufferAddress(env,dstbuffer);
+	if(dst==NULL || (*env)->GetDirectBufferCapacity(env,dstbuffer)<srcwidth*srcheight*3/2){
+		return JNI_FALSE;
+	}
+	unsigned char *src = (unsigned char *)(*env)->GetByteArrayElements(env,srcarray, 0);
+	NV21TransformTOYUV420P(src,dst,srcwidth,srcheight,directionflag);
+	(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
+	return JNI_TRUE;
+}
+
+JNIEXPORT jint JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeGetConvertThreads
+(JNIEnv * env, jobject thiz) {
+	return getConvertThreads();
+}
 
 JNIEXPORT void JNICALL Java_me_lake_librestreaming_render_GLESRender_NV21TOYUV
 (JNIEnv *env, jobject thiz,jbyteArray srcarray,jbyteArray dstYarray,jbyteArray dstUarray,jbyteArray dstVarray,jint width,jint height){
@@ -61,18 +130,18 @@ JNIEXPORT void JNICALL Java_me_lake_librestreaming_render_GLESRender_NV21TOYUV
 		unsigned char *dstv = (unsigned char*)(*env)->GetByteArrayElements(env,dstVarray, 0);
 		NV21TOYUV(src,dsty,dstu,dstv,width,height);
 		(*env)->ReleaseByteArrayElements(env,srcarray,src,JNI_ABORT);
-		(*env)->ReleaseByteArrayElements(env,dstYarray,dsty,JNI_ABORT);
-		(*env)->ReleaseByteArrayElements(env,dstUarray,dstu,JNI_ABORT);
-		(*env)->ReleaseByteArrayElements(env,dstVarray,dstv,JNI_ABORT);
+		(*env)->ReleaseByteArrayElements(env,dstYarray,dsty,0);
+		(*env)->ReleaseByteArrayElements(env,dstUarray,dstu,0);
+		(*env)->ReleaseByteArrayElements(env,dstVarray,dstv,0);
 		return;
 }
-JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_FIXGLPIXEL
+JNIEXPORT void JNICALL Java_me_lake_librestreaming_core_ColorHelper_nativeFIXGLPIXEL
 (JNIEnv * env, jobject thiz, jintArray srcarray,jintArray dstarray,jint w,jint h) {
         unsigned int *src = (unsigned int *)(*env)->GetIntArrayElements(env,srcarray, 0);
         unsigned int *dst = (unsigned int *)(*env)->GetIntArrayElements(env,dstarray, 0);
         FIXGLPIXEL(src,dst,w,h);
         (*env)->ReleaseIntArrayElements(env,srcarray,src,JNI_ABORT);
-        (*env)->ReleaseIntArrayElements(env,dstarray,dst,JNI_ABORT);
+        (*env)->ReleaseIntArrayElements(env,dstarray,dst,0);
         return;
 }
 
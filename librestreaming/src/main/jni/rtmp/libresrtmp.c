@@ -1,6 +1,82 @@
 #include <malloc.h>
+#include <string.h>
 #include "libresrtmp.h"
 #include "rtmp.h"
+
+/*
+ * one per connection,the pointer handed to java.
+ * packetBuff is reused by every write,RTMP_MAX_HEADER_SIZE headroom included.
+ */
+typedef struct {
+	RTMP* rtmp;
+	char* packetBuff;
+	int packetBuffSize;
+} RESRtmpContext;
+
+static char* ensurePacketBuff(RESRtmpContext* ctx, int size) {
+	int needed = size + RTMP_MAX_HEADER_SIZE;
+	if (ctx->packetBuffSize < needed) {
+		int newSize = ctx->packetBuffSize == 0 ? 64 * 1024 : ctx->packetBuffSize;
+		while (newSize < needed) {
+			newSize <<= 1;
+		}
+		char* newBuff = realloc(ctx->packetBuff, newSize);
+		if (newBuff == NULL) {
+			return NULL;
+		}
+		ctx->packetBuff = newBuff;
+		ctx->packetBuffSize = newSize;
+	}
+	return ctx->packetBuff + RTMP_MAX_HEADER_SIZE;
+}
+
+/*
+ * body must have RTMP_MAX_HEADER_SIZE writable bytes before it,
+ * librtmp writes chunk headers in place.
+ */
+static jint sendBody(RESRtmpContext* ctx, char* body, jint size, jint type, jint ts) {
+	RTMP* rtmp = ctx->rtmp;
+	RTMPPacket packet;
+	RTMPPacket_Reset(&packet);
+	if (type == RTMP_PACKET_TYPE_INFO) { // metadata
+		packet.m_nChannel = 0x03;
+	} else if (type == RTMP_PACKET_TYPE_VIDEO) { // video
+		packet.m_nChannel = 0x04;
+	} else if (type == RTMP_PACKET_TYPE_AUDIO) { //audio
+		packet.m_nChannel = 0x05;
+	} else {
+		packet.m_nChannel = -1;
+	}
+	packet.m_nInfoField2 = rtmp->m_stream_id;
+	LOGD("write data type: %d, ts %d", type, ts);
+	packet.m_body = body;
+	packet.m_chunk = NULL;
+	/*
+	 * full header only for the first packet of a channel,a new stream or a timestamp going back,
+	 * otherwise librtmp shrinks MEDIUM to SMALL/MINIMUM against the last packet of the channel.
+	 */
+	RTMPPacket* prev = NULL;
+	if (packet.m_nChannel >= 0 && packet.m_nChannel < rtmp->m_channelsAllocatedOut) {
+		prev = rtmp->m_vecChannelsOut[packet.m_nChannel];
+	}
+	if (prev != NULL && prev->m_nInfoField2 == packet.m_nInfoField2 && (uint32_t) ts >= prev->m_nTimeStamp) {
+		packet.m_headerType = RTMP_PACKET_SIZE_MEDIUM;
+	} else {
+		packet.m_headerType = RTMP_PACKET_SIZE_LARGE;
+	}
+	packet.m_hasAbsTimestamp = FALSE;
+	packet.m_nTimeStamp = ts;
+	packet.m_packetType = type;
+	packet.m_nBodySize = size;
+	int ret = RTMP_SendPacket(rtmp, &packet, 0);
+	if (!ret) {
+		LOGD("end write error %d", sockerr);
+		return sockerr;
+	} else {
+		LOGD("end write success");
+		return 0;
+	}
+}
 /*
  * Class:     me_lake_librestreaming_rtmp_RtmpClient
  * Method:    open
@@ -46,8 +122,16 @@
  		return NULL;
  	}
  	(*env)->ReleaseStringUTFChars(env, url_, url);
+ 	RESRtmpContext* ctx = (RESRtmpContext*)calloc(1, sizeof(RESRtmpContext));
+ 	if (ctx == NULL) {
+ 		RTMP_Close(rtmp);
+ 		RTMP_Free(rtmp);
+ 		LOGD("RESRtmpContext alloc=NULL");
+ 		return NULL;
+ 	}
+ 	ctx->rtmp = rtmp;
  	LOGD("RTMP_OPENED");
- 	return rtmp;
+ 	return ctx;
  }
 
 
@@ -62,7 +146,7 @@
 
  	char* data = malloc(size*sizeof(char));
 
- 	int readCount = RTMP_Read((RTMP*)rtmp, data, size);
+ 	int readCount = RTMP_Read(((RESRtmpContext*)rtmp)->rtmp, data, size);
 
  	if (readCount > 0) {
         (*env)->SetByteArrayRegion(env, data_, offset, readCount, data);  // copy
@@ -80,42 +164,41 @@
  JNIEXPORT jint JNICALL Java_me_lake_librestreaming_rtmp_RtmpClient_write
  (JNIEnv * env, jobject thiz,jlong rtmp, jbyteArray data, jint size, jint type, jint ts) {
  	LOGD("start write");
- 	jbyte *buffer = (*env)->GetByteArrayElements(env, data, NULL);
- 	RTMPPacket *packet = (RTMPPacket*)malloc(sizeof(RTMPPacket));
- 	RTMPPacket_Alloc(packet, size);
- 	RTMPPacket_Reset(packet);
-    if (type == RTMP_PACKET_TYPE_INFO) { // metadata
-    	packet->m_nChannel = 0x03;
-    } else if (type == RTMP_PACKET_TYPE_VIDEO) { // video
-    	packet->m_nChannel = 0x04;
-    } else if (type == RTMP_PACKET_TYPE_AUDIO) { //audio
-    	packet->m_nChannel = 0x05;
-    } else {
-    	packet->m_nChannel = -1;
-    }
+ 	RESRtmpContext* ctx = (RESRtmpContext*)rtmp;
+ 	char* body = ensurePacketBuff(ctx, size);
+ 	if (body == NULL) {
+ 		return -1;
+ 	}
+ 	(*env)->GetByteArrayRegion(env, data, 0, size, (jbyte*)body);
+ 	return sendBody(ctx, body, size, type, ts);
+}
 
-    packet->m_nInfoField2  =  ((RTMP*)rtmp)->m_stream_id;
-
-    LOGD("write data type: %d, ts %d", type, ts);
-
-    memcpy(packet->m_body,  buffer,  size);
-    packet->m_headerType = RTMP_PACKET_SIZE_LARGE;
-    packet->m_hasAbsTimestamp = FALSE;
-    packet->m_nTimeStamp = ts;
-    packet->m_packetType = type;
-    packet->m_nBodySize  = size;
-    int ret = RTMP_SendPacket((RTMP*)rtmp, packet, 0);
-    RTMPPacket_Free(packet);
-    free(packet);
-    (*env)->ReleaseByteArrayElements(env, data, buffer, 0);
-    if (!ret) {
-    	LOGD("end write error %d", sockerr);
-		return sockerr;
-    }else
-    {
-    	LOGD("end write success");
-		return 0;
-    }
+/*
+ * Class:     me_lake_librestreaming_rtmp_RtmpClient
+ * Method:    writeDirect
+ * Signature: (JLjava/nio/ByteBuffer;IIIIZ)I
+ */
+ JNIEXPORT jint JNICALL Java_me_lake_librestreaming_rtmp_RtmpClient_writeDirect
+ (JNIEnv * env, jobject thiz,jlong rtmp, jobject data, jint offset, jint size, jint type, jint ts, jboolean inPlace) {
+ 	LOGD("start write direct");
+ 	RESRtmpContext* ctx = (RESRtmpContext*)rtmp;
+ 	char* addr = (char*)(*env)->GetDirectBufferAddress(env, data);
+ 	if (addr == NULL) {
+ 		return -1;
+ 	}
+ 	/*
+	 * librtmp overwrites the bytes before the body and before every continuation chunk,
+	 * only do it when nobody else reads the buffer.
+	 */
+	if (inPlace && offset >= RTMP_MAX_HEADER_SIZE) {
+ 		return sendBody(ctx, addr + offset, size, type, ts);
+ 	}
+ 	char* body = ensurePacketBuff(ctx, size);
+ 	if (body == NULL) {
+ 		return -1;
+ 	}
+ 	memcpy(body, addr + offset, size);
+ 	return sendBody(ctx, body, size, type, ts);
 }
 
 /*
@@ -125,15 +208,18 @@
  */
  JNIEXPORT jint JNICALL Java_me_lake_librestreaming_rtmp_RtmpClient_close
  (JNIEnv * env, jobject thiz, jlong rtmp) {
- 	RTMP_Close((RTMP*)rtmp);
- 	RTMP_Free((RTMP*)rtmp);
+ 	RESRtmpContext* ctx = (RESRtmpContext*)rtmp;
+ 	RTMP_Close(ctx->rtmp);
+ 	RTMP_Free(ctx->rtmp);
+ 	free(ctx->packetBuff);
+ 	free(ctx);
  	return 0;
  }
 
 JNIEXPORT jstring JNICALL Java_me_lake_librestreaming_rtmp_RtmpClient_getIpAddr
 		(JNIEnv * env,jobject thiz,jlong rtmp) {
 	if(rtmp!=0){
-		RTMP* r= (RTMP*)rtmp;
+		RTMP* r= ((RESRtmpContext*)rtmp)->rtmp;
 		return (*env)->NewStringUTF(env, r->ipaddr);
 	}else {
 		return (*env)->NewStringUTF(env, "");
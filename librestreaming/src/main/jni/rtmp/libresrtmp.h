@@ -29,6 +29,14 @@ extern "C" {
  JNIEXPORT jint JNICALL Java_me_lake_librestreaming_rtmp_RtmpClient_write
  (JNIEnv * env, jobject thiz,jlong rtmp, jbyteArray data, jint size, jint type, jint ts);
 
+/*
+ * Class:     me_lake_librestreaming_rtmp_RtmpClient
+ * Method:    writeDirect
+ * Signature: (JLjava/nio/ByteBuffer;IIIIZ)I
+ */
+ JNIEXPORT jint JNICALL Java_me_lake_librestreaming_rtmp_RtmpClient_writeDirect
+ (JNIEnv * env, jobject thiz,jlong rtmp, jobject data, jint offset, jint size, jint type, jint ts, jboolean inPlace);
+
 /*
  * Class:     me_lake_librestreaming_rtmp_RtmpClient
  * Method:    close
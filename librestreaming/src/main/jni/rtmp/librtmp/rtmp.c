@@ -185,6 +185,7 @@ RTMPPacket_Reset(RTMPPacket *p)
   p->m_hasAbsTimestamp = FALSE;
   p->m_nBodySize = 0;
   p->m_nBytesRead = 0;
+  p->m_nTimeDelta = 0;
 }
 
 int
@@ -3987,9 +3988,13 @@ RTMP_SendPacket(RTMP *r, RTMPPacket *packet, int queue)
 	  && packet->m_headerType == RTMP_PACKET_SIZE_MEDIUM)
 	packet->m_headerType = RTMP_PACKET_SIZE_SMALL;
 
-      if (prevPacket->m_nTimeStamp == packet->m_nTimeStamp
+      //lake===start
+      /* type 3 repeats the previous delta,not the previous timestamp */
+      if (prevPacket->m_headerType != RTMP_PACKET_SIZE_LARGE
+	  && packet->m_nTimeStamp - prevPacket->m_nTimeStamp == prevPacket->m_nTimeDelta
 	  && packet->m_headerType == RTMP_PACKET_SIZE_SMALL)
 	packet->m_headerType = RTMP_PACKET_SIZE_MINIMUM;
+      //lake===end
       last = prevPacket->m_nTimeStamp;
     }
 
@@ -4171,6 +4176,8 @@ RTMP_SendPacket(RTMP *r, RTMPPacket *packet, int queue)
 
   if (!r->m_vecChannelsOut[packet->m_nChannel])
     r->m_vecChannelsOut[packet->m_nChannel] = malloc(sizeof(RTMPPacket));
+  //lake
+  packet->m_nTimeDelta = t;
   memcpy(r->m_vecChannelsOut[packet->m_nChannel], packet, sizeof(RTMPPacket));
   return TRUE;
 }
@@ -122,6 +122,8 @@ extern "C"
     uint32_t m_nBytesRead;
     RTMPChunk *m_chunk;
     char *m_body;
+    //lake
+    uint32_t m_nTimeDelta;	/* delta written in the header,outgoing only */
   } RTMPPacket;
 
   typedef struct RTMPSockBuf
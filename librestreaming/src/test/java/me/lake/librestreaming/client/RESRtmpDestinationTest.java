@@ -0,0 +1,264 @@
+package me.lake.librestreaming.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import me.lake.librestreaming.model.RESCoreParameters;
+import me.lake.librestreaming.rtmp.RESFlvData;
+import me.lake.librestreaming.rtmp.RESFlvDataFanOut;
+import me.lake.librestreaming.rtmp.RESFlvDataPool;
+import me.lake.librestreaming.rtmp.RESRtmpSender;
+import me.lake.librestreaming.rtmp.RtmpClient;
+import me.lake.librestreaming.rtmp.droppolicy.BaseDropPolicy;
+import me.lake.librestreaming.rtmp.javartmp.RtmpServerStub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class RESRtmpDestinationTest {
+    private static final int VIDEO_FRAME_SIZE = 30000;
+    private static final int IDR_SIZE = 60000;
+    private static final int AUDIO_FRAME_SIZE = 300;
+    private static final int GOP = 30;
+    private static final int SLOW_LINK = 40 * 1024;
+
+    private RtmpServerStub fastServer;
+    private RtmpServerStub slowServer;
+    private RESCoreParameters coreParameters;
+
+    @Before
+    public void setUp() throws IOException {
+        fastServer = new RtmpServerStub();
+        slowServer = new RtmpServerStub(8 * 1024);
+        slowServer.setReadBytesPerSecond(SLOW_LINK);
+        coreParameters = new RESCoreParameters();
+        coreParameters.rtmpBackend = RESCoreParameters.RTMP_BACKEND_JAVA;
+        coreParameters.senderQueueLength = 60;
+        coreParameters.mediacodecAVCFrameRate = 30;
+        coreParameters.videoWidth = 640;
+        coreParameters.videoHeight = 360;
+    }
+
+    @After
+    public void tearDown() {
+        fastServer.close();
+        slowServer.close();
+    }
+
+    @Test(timeout = 60000)
+    public void slowDestinationDropsAlone() throws Exception {
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        RESFlvDataFanOut fanOut = new RESFlvDataFanOut();
+        RESRtmpDestination fast = new RESRtmpDestination(fastServer.getUrl("fast"), coreParameters, null);
+        RESRtmpDestination slow = new RESRtmpDestination(slowServer.getUrl("slow"), coreParameters, null);
+        fanOut.addConsumer(fast.getDataCollecter());
+        fanOut.addConsumer(slow.getDataCollecter());
+        fast.start();
+        slow.start();
+        RtmpServerStub.Session fastSession = fastServer.awaitSession("fast", 5000);
+        RtmpServerStub.Session slowSession = slowServer.awaitSession("slow", 5000);
+        assertNotNull(fastSession);
+        assertNotNull(slowSession);
+
+        fanOut.collect(header(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), RESRtmpSender.FROM_VIDEO);
+        fanOut.collect(header(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO), RESRtmpSender.FROM_AUDIO);
+        //6s of 30fps at double speed,~1.8MB/s,more than the kernel buffers of the slow link can hide
+        int frames = 180;
+        long fedBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; ++i) {
+            RESFlvData video = frame(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, i, i % GOP == 0);
+            RESFlvData audio = frame(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, i, false);
+            fedBytes += video.size + audio.size;
+            fanOut.collect(video, RESRtmpSender.FROM_VIDEO);
+            fanOut.collect(audio, RESRtmpSender.FROM_AUDIO);
+            long waitMs = (start + (i + 1) * 16500000L - System.nanoTime()) / 1000000;
+            if (waitMs > 0) {
+                Thread.sleep(waitMs);
+            }
+        }
+        //metadata & 2 sequence headers come first
+        int expected = 3 + frames * 2;
+        assertTrue(fastServer.awaitMedia(fastSession, expected, 10000));
+        BaseDropPolicy fastPolicy = fast.getSendDropPolicy();
+        BaseDropPolicy slowPolicy = slow.getSendDropPolicy();
+
+        //the fast one got everything,byte for byte
+        assertEquals(0, fastPolicy.getDroppedVideoFrames() + fastPolicy.getDroppedAudioFrames());
+        assertEquals(expected, fastSession.getMediaCount());
+        assertEquals(fedBytes, payloadBytes(fastSession.getMedia(), 3));
+        //measured send speed follows each link
+        assertTrue("speed fast:" + fast.getAVSpeed() + ",slow:" + slow.getAVSpeed(), slow.getAVSpeed() < fast.getAVSpeed());
+
+        //the slow one dropped its own frames,let it drain what the kernel buffered and check what went out
+        assertTrue(slowPolicy.getDroppedVideoFrames() > 0);
+        slowServer.setReadBytesPerSecond(0);
+        long deadline = System.currentTimeMillis() + 20000;
+        long slowDropped;
+        while (true) {
+            slowDropped = slowPolicy.getDroppedVideoFrames() + slowPolicy.getDroppedAudioFrames();
+            if (slowSession.getMediaCount() == expected - slowDropped || System.currentTimeMillis() > deadline) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        List<RtmpServerStub.Message> slowMedia = slowSession.getMedia();
+        assertEquals(expected - slowDropped, slowMedia.size());
+        long slowBytes = payloadBytes(slowMedia, 3);
+        assertEquals(fedBytes - slowPolicy.getDroppedVideoBytes() - slowPolicy.getDroppedAudioBytes(), slowBytes);
+        //whole GOPs were dropped
+        assertDecodable(slowMedia);
+
+        fanOut.removeConsumer(fast.getDataCollecter());
+        fanOut.removeConsumer(slow.getDataCollecter());
+        fast.stop();
+        slow.stop();
+        fast.destroy();
+        slow.destroy();
+        fanOut.getSequenceHeaderCache().clear();
+        //every shared tag is released by every holder
+        deadline = System.currentTimeMillis() + 10000;
+        while (RESFlvDataPool.i().getOutstandingCount() != outstanding && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+    }
+
+    @Test(timeout = 60000)
+    public void lateDestinationGetsHeadersFirst() throws Exception {
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        RESFlvDataFanOut fanOut = new RESFlvDataFanOut();
+        RESRtmpDestination early = new RESRtmpDestination(fastServer.getUrl("early"), coreParameters, null);
+        fanOut.addConsumer(early.getDataCollecter());
+        early.start();
+        RtmpServerStub.Session earlySession = fastServer.awaitSession("early", 5000);
+        assertNotNull(earlySession);
+        fanOut.collect(header(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO), RESRtmpSender.FROM_VIDEO);
+        fanOut.collect(header(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO), RESRtmpSender.FROM_AUDIO);
+        feedGop(fanOut, 0);
+        //attached mid-stream,long after the encoder sent its headers.
+        //same order as RESClient.addDestination,the replayed headers race the worker handling start
+        int rounds = 8;
+        RESRtmpDestination[] lates = new RESRtmpDestination[rounds];
+        RtmpServerStub.Session[] lateSessions = new RtmpServerStub.Session[rounds];
+        for (int r = 0; r < rounds; ++r) {
+            lates[r] = new RESRtmpDestination(fastServer.getUrl("late" + r), coreParameters, null);
+            lates[r].start();
+            fanOut.addConsumer(lates[r].getDataCollecter());
+            lateSessions[r] = fastServer.awaitSession("late" + r, 5000);
+            assertNotNull(lateSessions[r]);
+            feedGop(fanOut, r + 1);
+        }
+        assertTrue(fastServer.awaitMedia(earlySession, 3 + (rounds + 1) * GOP * 2, 10000));
+        for (int r = 0; r < rounds; ++r) {
+            int expected = 3 + (rounds - r) * GOP * 2;
+            assertTrue(fastServer.awaitMedia(lateSessions[r], expected, 10000));
+            //onMetaData,AVC & AAC sequence headers,then the first IDR after attaching
+            List<RtmpServerStub.Message> media = lateSessions[r].getMedia();
+            assertEquals("late" + r, expected, media.size());
+            assertEquals(RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, media.get(0).type);
+            assertEquals(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, media.get(1).type);
+            assertEquals(0, media.get(1).payload[0]);
+            assertEquals(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, media.get(2).type);
+            assertEquals(0, media.get(2).payload[0]);
+            assertEquals(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, media.get(3).type);
+            ByteBuffer first = ByteBuffer.wrap(media.get(3).payload);
+            assertEquals(0x17, first.get());
+            assertEquals((r + 1) * GOP, first.getInt());
+            assertDecodable(media);
+        }
+
+        fanOut.removeConsumer(early.getDataCollecter());
+        early.stop();
+        early.destroy();
+        for (RESRtmpDestination late : lates) {
+            fanOut.removeConsumer(late.getDataCollecter());
+            late.stop();
+            late.destroy();
+        }
+        fanOut.getSequenceHeaderCache().clear();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (RESFlvDataPool.i().getOutstandingCount() != outstanding && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+    }
+
+    @Test
+    public void noConsumerRecycles() {
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        RESFlvDataFanOut fanOut = new RESFlvDataFanOut();
+        fanOut.collect(frame(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, 0, true), RESRtmpSender.FROM_VIDEO);
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+    }
+
+    /**
+     * one GOP of audio & video starting at an IDR,paced so the send queues never fill.
+     */
+    private static void feedGop(RESFlvDataFanOut fanOut, int gopIndex) throws InterruptedException {
+        for (int i = gopIndex * GOP; i < (gopIndex + 1) * GOP; ++i) {
+            fanOut.collect(frame(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, i, i % GOP == 0), RESRtmpSender.FROM_VIDEO);
+            fanOut.collect(frame(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, i, false), RESRtmpSender.FROM_AUDIO);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * payload:frame type,then the frame index
+     */
+    private static RESFlvData frame(int type, int index, boolean idr) {
+        int size = type == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO ? AUDIO_FRAME_SIZE : idr ? IDR_SIZE : VIDEO_FRAME_SIZE;
+        RESFlvData flvData = RESFlvDataPool.i().obtainDirect(size);
+        ByteBuffer buffer = flvData.directBuffer;
+        buffer.clear();
+        buffer.position(RtmpClient.HEADROOM);
+        buffer.put((byte) (idr ? 0x17 : 0x27));
+        buffer.putInt(index);
+        flvData.flvTagType = type;
+        flvData.dts = index * 33;
+        flvData.droppable = true;
+        flvData.videoFrameType = idr ? RESFlvData.NALU_TYPE_IDR : 1;
+        return flvData;
+    }
+
+    private static RESFlvData header(int type) {
+        RESFlvData flvData = RESFlvDataPool.i().obtain(40);
+        //pooled bytes are not cleared
+        flvData.byteBuffer[0] = 0;
+        flvData.flvTagType = type;
+        flvData.droppable = false;
+        return flvData;
+    }
+
+    private static long payloadBytes(List<RtmpServerStub.Message> media, int from) {
+        long n = 0;
+        for (int i = from; i < media.size(); ++i) {
+            n += media.get(i).payload.length;
+        }
+        return n;
+    }
+
+    /**
+     * every P-frame follows its predecessor or an IDR.
+     */
+    private static void assertDecodable(List<RtmpServerStub.Message> media) {
+        int last = -2;
+        for (RtmpServerStub.Message message : media) {
+            if (message.type != RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO || message.payload[0] == 0) {
+                //sequence header
+                continue;
+            }
+            ByteBuffer payload = ByteBuffer.wrap(message.payload);
+            boolean idr = payload.get() == 0x17;
+            int index = payload.getInt();
+            assertTrue("frame " + index + " after " + last, idr || index == last + 1);
+            last = index;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package me.lake.librestreaming.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.lake.librestreaming.core.listener.RESBitrateChangeListener;
+
+/**
+ * Replays a link bandwidth trace against {@link RESBitrateController},the way RESBitrateSampler drives it.<br/>
+ * 1 step = 100ms:the encoder queues bitrate worth of bytes plus fixed audio,
+ * the link sends what its bandwidth allows,bytes arriving at a full send buffer are dropped.<br/>
+ * the controller is sampled every second with the free percent of the send buffer and the video speed.
+ */
+class BitrateTraceReplay {
+    static final int STEP_MS = 100;
+    static final int SAMPLE_INTERVAL_MS = 1000;
+    static final int AUDIO_BITRATE = 64 * 1000;
+
+    static class Event {
+        final int second;
+        final int oldBitrate;
+        final int newBitrate;
+        final int reason;
+
+        Event(int second, int oldBitrate, int newBitrate, int reason) {
+            this.second = second;
+            this.oldBitrate = oldBitrate;
+            this.newBitrate = newBitrate;
+            this.reason = reason;
+        }
+    }
+
+    private final RESBitrateController controller;
+    private final long sendBufferBytes;
+    final List<Event> events = new ArrayList<>();
+    /**
+     * per second of trace
+     */
+    final List<Integer> bitrates = new ArrayList<>();
+    final List<Float> freePercents = new ArrayList<>();
+    final List<Long> droppedBytes = new ArrayList<>();
+    private int bitrate;
+    private double queuedBytes;
+    private int elapsedMs;
+
+    BitrateTraceReplay(RESBitrateController controller, int initBitrate, long sendBufferBytes) {
+        this.controller = controller;
+        this.bitrate = initBitrate;
+        this.sendBufferBytes = sendBufferBytes;
+    }
+
+    /**
+     * @param trace pairs of {seconds,link bits/sec}
+     */
+    void replay(int[][] trace) {
+        for (int[] segment : trace) {
+            for (int s = 0; s < segment[0]; ++s) {
+                runSecond(segment[1]);
+            }
+        }
+    }
+
+    int getBitrate() {
+        return bitrate;
+    }
+
+    private void runSecond(int linkBitrate) {
+        double sentVideo = 0;
+        double dropped = 0;
+        for (int t = 0; t < SAMPLE_INTERVAL_MS; t += STEP_MS) {
+            double produced = (bitrate + AUDIO_BITRATE) / 8.0 * STEP_MS / 1000;
+            double accepted = Math.min(produced, sendBufferBytes - queuedBytes);
+            dropped += produced - accepted;
+            queuedBytes += accepted;
+            double videoShare = bitrate / (double) (bitrate + AUDIO_BITRATE);
+            double sent = Math.min(queuedBytes, linkBitrate / 8.0 * STEP_MS / 1000);
+            queuedBytes -= sent;
+            sentVideo += sent * videoShare;
+            elapsedMs += STEP_MS;
+        }
+        float freePercent = (float) (1 - queuedBytes / sendBufferBytes);
+        int target = controller.onSample(freePercent, (int) sentVideo, bitrate);
+        if (target != bitrate) {
+            events.add(new Event(elapsedMs / 1000, bitrate, target, controller.getLastReason()));
+            bitrate = target;
+        }
+        bitrates.add(bitrate);
+        freePercents.add(freePercent);
+        droppedBytes.add((long) dropped);
+    }
+
+    int countEvents(int fromSecond, int toSecond, int reason) {
+        int n = 0;
+        for (Event event : events) {
+            if (event.second > fromSecond && event.second <= toSecond && event.reason == reason) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    long droppedBetween(int fromSecond, int toSecond) {
+        long n = 0;
+        for (int s = fromSecond; s < toSecond; ++s) {
+            n += droppedBytes.get(s);
+        }
+        return n;
+    }
+
+    static boolean isDecrease(Event event) {
+        return event.reason == RESBitrateChangeListener.REASON_CONGESTED;
+    }
+}
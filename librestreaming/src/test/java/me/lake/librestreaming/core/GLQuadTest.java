@@ -0,0 +1,84 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.lake.librestreaming.filter.hardvideofilter.BaseHardVideoFilter;
+import me.lake.librestreaming.filter.hardvideofilter.HardVideoGroupFilter;
+import me.lake.librestreaming.filter.hardvideofilter.OriginalHardVideoFilter;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * per frame allocations of the hard mode draw path.<br/>
+ * GLES20 is stubbed by the unit test android.jar (returnDefaultValues),so only the java side is measured,
+ * shaders are never compiled and filters are drawn without onInit.
+ */
+public class GLQuadTest {
+    private static final int ROUNDS = 10000;
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setUp() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void quadDrawDoesNotAllocate() {
+        GLQuad quad = new GLQuad();
+        int textureCoordBuffer = GLQuad.createTextureCoordBuffer(GLHelper.getCameraTextureVerticesBuffer());
+        //warm up the jit
+        drawQuad(quad, textureCoordBuffer, ROUNDS);
+        long tid = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(tid);
+        drawQuad(quad, textureCoordBuffer, ROUNDS);
+        long allocated = threadBean.getThreadAllocatedBytes(tid) - before;
+        assertTrue("allocated " + allocated + " bytes in " + ROUNDS + " draws", allocated < 16 * 1024);
+        GLQuad.deleteBuffer(textureCoordBuffer);
+        quad.release();
+    }
+
+    @Test
+    public void filterDrawLoopDoesNotAllocate() {
+        List<BaseHardVideoFilter> filters = new ArrayList<>();
+        filters.add(new OriginalHardVideoFilter(null, null));
+        filters.add(new OriginalHardVideoFilter(null, null));
+        filters.add(new OriginalHardVideoFilter(null, null));
+        HardVideoGroupFilter groupFilter = new HardVideoGroupFilter(filters);
+        FloatBuffer shapeBuffer = GLHelper.getShapeVerticesBuffer();
+        FloatBuffer textureBuffer = GLHelper.getCameraTextureVerticesBuffer();
+        //warm up the jit,first draw creates each quad & texture coordinate buffer
+        drawFilter(groupFilter, shapeBuffer, textureBuffer, ROUNDS);
+        long tid = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(tid);
+        drawFilter(groupFilter, shapeBuffer, textureBuffer, ROUNDS);
+        long allocated = threadBean.getThreadAllocatedBytes(tid) - before;
+        assertTrue("allocated " + allocated + " bytes in " + ROUNDS + " frames", allocated < 16 * 1024);
+        groupFilter.onDestroy();
+    }
+
+    private static void drawQuad(GLQuad quad, int textureCoordBuffer, int rounds) {
+        for (int i = 0; i < rounds; ++i) {
+            quad.enable(0, 1, textureCoordBuffer);
+            quad.draw();
+            quad.disable(0, 1);
+        }
+    }
+
+    private static void drawFilter(BaseHardVideoFilter filter, FloatBuffer shapeBuffer, FloatBuffer textureBuffer, int rounds) {
+        for (int i = 0; i < rounds; ++i) {
+            filter.onDraw(1, 0, shapeBuffer, textureBuffer);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package me.lake.librestreaming.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * golden outputs were captured from colorConvert.c.
+ */
+public class JavaColorHelperTest {
+    /**
+     * ROATATION_0,90,180,270,each plain,FLIP_HORIZONTAL,FLIP_VERTICAL & both.
+     */
+    private static final int[] DIRECTION_FLAGS = {
+            0x10, 0x11, 0x12, 0x13,
+            0x20, 0x21, 0x22, 0x23,
+            0x40, 0x41, 0x42, 0x43,
+            0x80, 0x81, 0x82, 0x83};
+    /**
+     * 6x4 frame whose byte i is i:Y 0-23,VU pairs 24-35.
+     */
+    private static final int[][] GOLDEN_6X4 = {
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35},
+            {5, 4, 3, 2, 1, 0, 11, 10, 9, 8, 7, 6, 17, 16, 15, 14, 13, 12, 23, 22, 21, 20, 19, 18, 28, 29, 26, 27, 24, 25, 34, 35, 32, 33, 30, 31},
+            {18, 19, 20, 21, 22, 23, 12, 13, 14, 15, 16, 17, 6, 7, 8, 9, 10, 11, 0, 1, 2, 3, 4, 5, 30, 31, 32, 33, 34, 35, 24, 25, 26, 27, 28, 29},
+            {23, 22, 21, 20, 19, 18, 17, 16, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0, 34, 35, 32, 33, 30, 31, 28, 29, 26, 27, 24, 25},
+            {18, 12, 6, 0, 19, 13, 7, 1, 20, 14, 8, 2, 21, 15, 9, 3, 22, 16, 10, 4, 23, 17, 11, 5, 30, 31, 24, 25, 32, 33, 26, 27, 34, 35, 28, 29},
+            {23, 17, 11, 5, 22, 16, 10, 4, 21, 15, 9, 3, 20, 14, 8, 2, 19, 13, 7, 1, 18, 12, 6, 0, 34, 35, 28, 29, 32, 33, 26, 27, 30, 31, 24, 25},
+            {0, 6, 12, 18, 1, 7, 13, 19, 2, 8, 14, 20, 3, 9, 15, 21, 4, 10, 16, 22, 5, 11, 17, 23, 24, 25, 30, 31, 26, 27, 32, 33, 28, 29, 34, 35},
+            {5, 11, 17, 23, 4, 10, 16, 22, 3, 9, 15, 21, 2, 8, 14, 20, 1, 7, 13, 19, 0, 6, 12, 18, 28, 29, 34, 35, 26, 27, 32, 33, 24, 25, 30, 31},
+            {23, 22, 21, 20, 19, 18, 17, 16, 15, 14, 13, 12, 11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0, 34, 35, 32, 33, 30, 31, 28, 29, 26, 27, 24, 25},
+            {18, 19, 20, 21, 22, 23, 12, 13, 14, 15, 16, 17, 6, 7, 8, 9, 10, 11, 0, 1, 2, 3, 4, 5, 30, 31, 32, 33, 34, 35, 24, 25, 26, 27, 28, 29},
+            {5, 4, 3, 2, 1, 0, 11, 10, 9, 8, 7, 6, 17, 16, 15, 14, 13, 12, 23, 22, 21, 20, 19, 18, 28, 29, 26, 27, 24, 25, 34, 35, 32, 33, 30, 31},
+            {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35},
+            {5, 11, 17, 23, 4, 10, 16, 22, 3, 9, 15, 21, 2, 8, 14, 20, 1, 7, 13, 19, 0, 6, 12, 18, 28, 29, 34, 35, 26, 27, 32, 33, 24, 25, 30, 31},
+            {0, 6, 12, 18, 1, 7, 13, 19, 2, 8, 14, 20, 3, 9, 15, 21, 4, 10, 16, 22, 5, 11, 17, 23, 24, 25, 30, 31, 26, 27, 32, 33, 28, 29, 34, 35},
+            {23, 17, 11, 5, 22, 16, 10, 4, 21, 15, 9, 3, 20, 14, 8, 2, 19, 13, 7, 1, 18, 12, 6, 0, 34, 35, 28, 29, 32, 33, 26, 27, 30, 31, 24, 25},
+            {18, 12, 6, 0, 19, 13, 7, 1, 20, 14, 8, 2, 21, 15, 9, 3, 22, 16, 10, 4, 23, 17, 11, 5, 30, 31, 24, 25, 32, 33, 26, 27, 34, 35, 28, 29}};
+    /**
+     * CRC32 of the transformed 70x36 {@link #frame(int, int)},wider & taller than one rotation tile.
+     */
+    private static final long[] GOLDEN_70X36_CRC = {
+            0xe44b2aaeL, 0x6b81d347L, 0xb98cc0dfL, 0x3aa9b4efL,
+            0x404d3835L, 0x63a6ff73L, 0x7664c079L, 0xb0a69545L,
+            0x3aa9b4efL, 0xb98cc0dfL, 0x6b81d347L, 0xe44b2aaeL,
+            0xb0a69545L, 0x7664c079L, 0x63a6ff73L, 0x404d3835L};
+    private static final int WIDTH = 70;
+    private static final int HEIGHT = 36;
+
+    @After
+    public void tearDown() {
+        ColorHelper.setImplementation(ColorHelper.IMPLEMENTATION_AUTO);
+    }
+
+    @Test
+    public void transformMatchesGolden() {
+        byte[] src = new byte[36];
+        for (int i = 0; i < src.length; ++i) {
+            src[i] = (byte) i;
+        }
+        for (int i = 0; i < DIRECTION_FLAGS.length; ++i) {
+            byte[] dst = new byte[src.length];
+            JavaColorHelper.NV21Transform(src, dst, 6, 4, DIRECTION_FLAGS[i]);
+            assertArrayEquals("flag 0x" + Integer.toHexString(DIRECTION_FLAGS[i]), toBytes(GOLDEN_6X4[i]), dst);
+        }
+    }
+
+    @Test
+    public void transformAcrossTilesMatchesGolden() {
+        byte[] src = frame(WIDTH, HEIGHT);
+        for (int i = 0; i < DIRECTION_FLAGS.length; ++i) {
+            byte[] dst = new byte[src.length];
+            JavaColorHelper.NV21Transform(src, dst, WIDTH, HEIGHT, DIRECTION_FLAGS[i]);
+            assertEquals("flag 0x" + Integer.toHexString(DIRECTION_FLAGS[i]), GOLDEN_70X36_CRC[i], crc(dst));
+        }
+    }
+
+    @Test
+    public void conversionsMatchGolden() {
+        byte[] src = frame(WIDTH, HEIGHT);
+        byte[] dst = new byte[src.length];
+        JavaColorHelper.NV21TOYUV420SP(src, dst, WIDTH * HEIGHT);
+        assertEquals(0x84d8dcf8L, crc(dst));
+        JavaColorHelper.NV21TOYUV420P(src, dst, WIDTH * HEIGHT);
+        assertEquals(0xa2de8396L, crc(dst));
+        JavaColorHelper.YUV420SPTOYUV420P(src, dst, WIDTH * HEIGHT);
+        assertEquals(0x676d24f4L, crc(dst));
+        int[] argb = new int[WIDTH * HEIGHT];
+        JavaColorHelper.NV21TOARGB(src, argb, WIDTH, HEIGHT);
+        assertEquals(0x8b20721eL, crc(argb));
+        int[] fixed = new int[WIDTH * HEIGHT];
+        JavaColorHelper.FIXGLPIXEL(glPixels(WIDTH, HEIGHT), fixed, WIDTH, HEIGHT);
+        assertEquals(0xf11ffa46L, crc(fixed));
+    }
+
+    @Test
+    public void fusedTransformMatchesTwoPasses() {
+        int[][] sizes = {{6, 4}, {WIDTH, HEIGHT}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            int ySize = width * height;
+            byte[] src = frame(width, height);
+            byte[] transformed = new byte[src.length];
+            byte[] expected = new byte[src.length];
+            byte[] actual = new byte[src.length];
+            for (int flag : DIRECTION_FLAGS) {
+                String message = width + "x" + height + ",flag 0x" + Integer.toHexString(flag);
+                JavaColorHelper.NV21Transform(src, transformed, width, height, flag);
+                JavaColorHelper.NV21TOYUV420SP(transformed, expected, ySize);
+                JavaColorHelper.NV21TransformTOYUV420SP(src, actual, width, height, flag);
+                assertArrayEquals(message, expected, actual);
+                JavaColorHelper.NV21TOYUV420P(transformed, expected, ySize);
+                JavaColorHelper.NV21TransformTOYUV420P(src, actual, width, height, flag);
+                assertArrayEquals(message, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void colorHelperFallsBackToJava() {
+        assumeTrue(!ColorHelper.isNativeLoaded());
+        assertEquals(ColorHelper.IMPLEMENTATION_JAVA, ColorHelper.getImplementation());
+        byte[] src = frame(WIDTH, HEIGHT);
+        byte[] dst = new byte[src.length];
+        ColorHelper.NV21Transform(src, dst, WIDTH, HEIGHT, DIRECTION_FLAGS[5]);
+        assertEquals(GOLDEN_70X36_CRC[5], crc(dst));
+        //nothing written,the caller converts through an array
+        assertEquals(false, ColorHelper.NV21TOYUV420SP(src, ByteBuffer.allocateDirect(src.length), WIDTH * HEIGHT));
+        assertEquals(false, ColorHelper.NV21TransformTOYUV420P(src, ByteBuffer.allocateDirect(src.length), WIDTH, HEIGHT, DIRECTION_FLAGS[5]));
+    }
+
+    /**
+     * needs librestreaming built for the host on java.library.path,skipped otherwise,see -PhostNative in build.gradle.<br/>
+     * the larger sizes split into bands whose last one is shorter,RESTREAMING_CONVERT_THREADS forces the bands on few cores.
+     */
+    @Test
+    public void nativeMatchesJava() {
+        assumeTrue(ColorHelper.isNativeLoaded());
+        if (System.getenv("RESTREAMING_CONVERT_THREADS") != null) {
+            assertTrue(ColorHelper.getConvertThreads() > 1);
+        }
+        ColorHelper.setImplementation(ColorHelper.IMPLEMENTATION_NATIVE);
+        int[][] sizes = {{6, 4}, {WIDTH, HEIGHT}, {640, 360}, {642, 362}, {1280, 720}, {1918, 1078}, {1920, 1080}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            int ySize = width * height;
+            byte[] src = frame(width, height);
+            for (int flag : DIRECTION_FLAGS) {
+                byte[] expected = new byte[src.length];
+                byte[] actual = new byte[src.length];
+                JavaColorHelper.NV21Transform(src, expected, width, height, flag);
+                ColorHelper.NV21Transform(src, actual, width, height, flag);
+                String message = width + "x" + height + ",flag 0x" + Integer.toHexString(flag);
+                assertArrayEquals(message, expected, actual);
+                ByteBuffer direct = ByteBuffer.allocateDirect(src.length);
+                JavaColorHelper.NV21TransformTOYUV420SP(src, expected, width, height, flag);
+                ColorHelper.NV21TransformTOYUV420SP(src, actual, width, height, flag);
+                assertArrayEquals(message, expected, actual);
+                assertEquals(true, ColorHelper.NV21TransformTOYUV420SP(src, direct, width, height, flag));
+                direct.get(actual);
+                assertArrayEquals(message, expected, actual);
+                JavaColorHelper.NV21TransformTOYUV420P(src, expected, width, height, flag);
+                ColorHelper.NV21TransformTOYUV420P(src, actual, width, height, flag);
+                assertArrayEquals(message, expected, actual);
+                direct.clear();
+                assertEquals(true, ColorHelper.NV21TransformTOYUV420P(src, direct, width, height, flag));
+                direct.get(actual);
+                assertArrayEquals(message, expected, actual);
+            }
+            byte[] expected = new byte[src.length];
+            byte[] actual = new byte[src.length];
+            JavaColorHelper.NV21TOYUV420SP(src, expected, ySize);
+            ColorHelper.NV21TOYUV420SP(src, actual, ySize);
+            assertArrayEquals(expected, actual);
+            ByteBuffer direct = ByteBuffer.allocateDirect(src.length);
+            assertEquals(true, ColorHelper.NV21TOYUV420SP(src, direct, ySize));
+            direct.get(actual);
+            assertArrayEquals(expected, actual);
+            JavaColorHelper.NV21TOYUV420P(src, expected, ySize);
+            ColorHelper.NV21TOYUV420P(src, actual, ySize);
+            assertArrayEquals(expected, actual);
+            direct.clear();
+            assertEquals(true, ColorHelper.NV21TOYUV420P(src, direct, ySize));
+            direct.get(actual);
+            assertArrayEquals(expected, actual);
+            JavaColorHelper.YUV420SPTOYUV420P(src, expected, ySize);
+            ColorHelper.YUV420SPTOYUV420P(src, actual, ySize);
+            assertArrayEquals(expected, actual);
+            int[] expectedArgb = new int[ySize];
+            int[] actualArgb = new int[ySize];
+            JavaColorHelper.NV21TOARGB(src, expectedArgb, width, height);
+            ColorHelper.NV21TOARGB(src, actualArgb, width, height);
+            assertArrayEquals(expectedArgb, actualArgb);
+            int[] pixels = glPixels(width, height);
+            JavaColorHelper.FIXGLPIXEL(pixels, expectedArgb, width, height);
+            ColorHelper.FIXGLPIXEL(pixels, actualArgb, width, height);
+            assertArrayEquals(expectedArgb, actualArgb);
+        }
+    }
+
+    /**
+     * fixed pseudo random NV21 frame.
+     */
+    private static byte[] frame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        int x = 12345;
+        for (int i = 0; i < frame.length; ++i) {
+            x = x * 1103515245 + 12345;
+            frame[i] = (byte) (x >>> 16);
+        }
+        return frame;
+    }
+
+    private static int[] glPixels(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = i * 0x01020305 + 0x7f;
+        }
+        return pixels;
+    }
+
+    private static byte[] toBytes(int[] values) {
+        byte[] res = new byte[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            res[i] = (byte) values[i];
+        }
+        return res;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static long crc(int[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(data.length * 4);
+        buffer.asIntBuffer().put(data);
+        return crc(buffer.array());
+    }
+}
@@ -0,0 +1,152 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import me.lake.librestreaming.core.listener.RESBitrateChangeListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESBitrateControllerTest {
+    private static final int MIN = 400 * 1000;
+    private static final int MAX = 2000 * 1000;
+    //2s of the ceiling
+    private static final long SEND_BUFFER = MAX / 8 * 2;
+
+    @Test
+    public void stepDownAndRecover() {
+        RESBitrateController controller = new RESBitrateController(MIN, MAX);
+        BitrateTraceReplay replay = new BitrateTraceReplay(controller, 1000 * 1000, SEND_BUFFER);
+        replay.replay(new int[][]{
+                {60, 2500 * 1000},
+                {40, 700 * 1000},
+                {20, 300 * 1000},
+                {60, 3000 * 1000}});
+
+        //ramps up to the ceiling and stays,no decrease on a clear link
+        assertEquals(MAX, (int) replay.bitrates.get(59));
+        assertEquals(0, replay.countEvents(0, 60, RESBitrateChangeListener.REASON_CONGESTED));
+        assertEquals(0, replay.droppedBetween(0, 60));
+
+        //steps down below the link within a few seconds
+        int settled = -1;
+        for (int s = 60; s < 100; ++s) {
+            if (replay.bitrates.get(s) + BitrateTraceReplay.AUDIO_BITRATE <= 700 * 1000) {
+                settled = s;
+                break;
+            }
+        }
+        assertTrue("never got below the link", settled >= 0);
+        assertTrue("settled at " + settled, settled - 60 <= 8);
+        //the send buffer absorbs the step,then probing up overshoots the link by one step at most
+        assertEquals(0, replay.droppedBetween(60, 100));
+        for (int s = settled; s < 100; ++s) {
+            assertTrue(replay.bitrates.get(s) <= 700 * 1000 + MAX / 20);
+        }
+        assertTrue(replay.countEvents(60, 100, RESBitrateChangeListener.REASON_CONGESTED) >= 2);
+
+        //a link below the floor keeps the floor,the send buffer overflows then
+        assertEquals(MIN, (int) replay.bitrates.get(119));
+        assertTrue(replay.droppedBetween(100, 120) > 0);
+
+        //back to the ceiling once the link returns
+        assertEquals(MAX, replay.getBitrate());
+        assertTrue(replay.countEvents(120, 180, RESBitrateChangeListener.REASON_RECOVERED) > 0);
+        assertEquals(0, replay.countEvents(120, 180, RESBitrateChangeListener.REASON_CONGESTED));
+
+        for (int bitrate : replay.bitrates) {
+            assertTrue(bitrate >= MIN && bitrate <= MAX);
+        }
+        for (BitrateTraceReplay.Event event : replay.events) {
+            if (BitrateTraceReplay.isDecrease(event)) {
+                assertTrue(event.newBitrate < event.oldBitrate);
+            } else {
+                assertTrue(event.newBitrate > event.oldBitrate);
+            }
+        }
+    }
+
+    @Test
+    public void fluctuatingLinkHysteresis() {
+        RESBitrateController controller = new RESBitrateController(MIN, MAX);
+        BitrateTraceReplay replay = new BitrateTraceReplay(controller, 1200 * 1000, SEND_BUFFER);
+        //a link flapping between 1.2M and 1.6M every second
+        int[][] trace = new int[120][];
+        for (int i = 0; i < trace.length; ++i) {
+            trace[i] = new int[]{1, i % 2 == 0 ? 1200 * 1000 : 1600 * 1000};
+        }
+        replay.replay(trace);
+        //the controller does not chase every flap
+        assertTrue("changes:" + replay.events.size(), replay.events.size() <= 20);
+        //and holds a bitrate the slower state can carry
+        int bitrate = replay.bitrates.get(119);
+        assertTrue("bitrate:" + bitrate, bitrate + BitrateTraceReplay.AUDIO_BITRATE <= 1600 * 1000);
+        assertEquals(0, replay.droppedBetween(60, 120));
+    }
+
+    @Test
+    public void decreaseNotBelowMeasuredSpeed() {
+        RESBitrateController controller = new RESBitrateController(MIN, MAX);
+        //measured 100KB/s=800kbps while sending 2M,a 0.75 step alone would still be 1.5M
+        assertEquals(800 * 1000, controller.onSample(0.1f, 100 * 1000, MAX));
+        assertEquals(RESBitrateChangeListener.REASON_CONGESTED, controller.getLastReason());
+        //no second decrease right away
+        assertEquals(800 * 1000, controller.onSample(0.1f, 10 * 1000, 800 * 1000));
+        assertEquals(MIN, controller.onSample(0.1f, 10 * 1000, 800 * 1000));
+    }
+
+    @Test
+    public void increaseHysteresis() {
+        RESBitrateController controller = new RESBitrateController(MIN, MAX);
+        controller.setHysteresis(3, 0, 1);
+        controller.setStep(0.5f, 100 * 1000);
+        int bitrate = 1000 * 1000;
+        assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        assertEquals(bitrate + 100 * 1000, controller.onSample(1f, 0, bitrate));
+        assertEquals(RESBitrateChangeListener.REASON_RECOVERED, controller.getLastReason());
+        //a sample between thresholds breaks the streak
+        assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        assertEquals(bitrate, controller.onSample(0.7f, 0, bitrate));
+        assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        assertEquals(bitrate + 100 * 1000, controller.onSample(1f, 0, bitrate));
+    }
+
+    @Test
+    public void holdWhileReconnecting() {
+        RESBitrateController controller = new RESBitrateController(MIN, MAX);
+        controller.setHysteresis(3, 5, 2);
+        controller.setStep(0.5f, 100 * 1000);
+        int bitrate = 1000 * 1000;
+        assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        //link lost,the sampler holds instead of sampling the idle queue
+        for (int i = 0; i < 10; ++i) {
+            controller.hold();
+        }
+        //clear streak starts over and waits as after a decrease
+        for (int i = 1; i < 5; ++i) {
+            assertEquals(bitrate, controller.onSample(1f, 0, bitrate));
+        }
+        assertEquals(bitrate + 100 * 1000, controller.onSample(1f, 0, bitrate));
+        //the backlog flushed right after reconnect is not congestion yet
+        controller.hold();
+        assertEquals(bitrate, controller.onSample(0.1f, 0, bitrate));
+        assertEquals(bitrate / 2, controller.onSample(0.1f, 0, bitrate));
+        assertEquals(RESBitrateChangeListener.REASON_CONGESTED, controller.getLastReason());
+    }
+
+    @Test
+    public void outOfRangeClamped() {
+        RESBitrateController controller = new RESBitrateController(MIN, MAX);
+        assertEquals(MAX, controller.onSample(1f, 0, MAX * 2));
+        assertEquals(RESBitrateChangeListener.REASON_OUT_OF_RANGE, controller.getLastReason());
+        assertEquals(MIN, controller.onSample(1f, 0, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRange() {
+        new RESBitrateController(MAX, MIN);
+    }
+}
@@ -0,0 +1,157 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESFrameSchedulerTest {
+    private static final long START = 1000;
+    private static final long SECOND = 1000000000L;
+
+    private FakeClock clock;
+    private RESFrameScheduler scheduler;
+
+    private static class FakeClock implements RESFrameScheduler.Clock {
+        long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        clock.now = START;
+        scheduler = new RESFrameScheduler(clock);
+        scheduler.setFrameRate(30);
+        scheduler.start();
+    }
+
+    @Test
+    public void deadlinesAreEvenlySpaced() {
+        long last = START;
+        for (int k = 1; k <= 30; ++k) {
+            long due = scheduler.getNextFrameTimeNs();
+            assertEquals(START + k * SECOND / 30, due);
+            clock.now = due;
+            long pts = scheduler.onFrame();
+            assertEquals(due, pts);
+            //1e9/30 is not an integer,spacing alternates between the two nearest values and never accumulates
+            long spacing = pts - last;
+            assertTrue("spacing " + spacing, spacing == 33333333 || spacing == 33333334);
+            last = pts;
+        }
+        assertEquals(START + SECOND, last);
+        assertEquals(30, scheduler.getFrameCount());
+        assertEquals(0, scheduler.getSkippedFrames());
+        assertEquals(0, scheduler.getMaxJitterUs());
+    }
+
+    @Test
+    public void lateWakeUpsDoNotDrift() {
+        Random random = new Random(30);
+        long maxLateNs = 0;
+        for (int k = 1; k <= 300; ++k) {
+            //late by up to 90% of an interval,the next deadline does not move
+            long late = random.nextInt(30000000);
+            maxLateNs = Math.max(maxLateNs, late);
+            clock.now = scheduler.getNextFrameTimeNs() + late;
+            assertEquals(START + k * SECOND / 30, scheduler.onFrame());
+        }
+        assertEquals(0, scheduler.getSkippedFrames());
+        assertEquals(maxLateNs / 1000, scheduler.getMaxJitterUs());
+        assertTrue(scheduler.getAverageJitterUs() > 0 && scheduler.getAverageJitterUs() < scheduler.getMaxJitterUs());
+    }
+
+    @Test
+    public void skipsFramesMissedWhileLate() {
+        //early by 1ms
+        clock.now = 33334333 - 1000000;
+        assertEquals(33334333, scheduler.onFrame());
+        clock.now = 66667666 + 500000;
+        assertEquals(66667666, scheduler.onFrame());
+        //frames 3 & 4 are due before the loop wakes up,draw frame 5 instead
+        clock.now = 166668666 + 2000000;
+        assertEquals(166667666, scheduler.onFrame());
+        assertEquals(2, scheduler.getSkippedFrames());
+        assertEquals(200001000, scheduler.getNextFrameTimeNs());
+        clock.now = 200001000;
+        assertEquals(200001000, scheduler.onFrame());
+        assertEquals(4, scheduler.getFrameCount());
+        assertEquals(2, scheduler.getSkippedFrames());
+        //jitter of frame 5,measured against the frame drawn
+        assertEquals(2001, scheduler.getMaxJitterUs());
+    }
+
+    @Test
+    public void oneHourWithoutDrift() {
+        Random random = new Random(3600);
+        long pts = 0;
+        for (int k = 0; k < 3600 * 30; ++k) {
+            clock.now = scheduler.getNextFrameTimeNs() + random.nextInt(10000000);
+            pts = scheduler.onFrame();
+        }
+        assertEquals(START + 3600 * SECOND, pts);
+        assertEquals(0, scheduler.getSkippedFrames());
+    }
+
+    @Test
+    public void setFrameRateRebasesFromNextFrame() {
+        for (int k = 1; k <= 10; ++k) {
+            clock.now = scheduler.getNextFrameTimeNs();
+            scheduler.onFrame();
+        }
+        long due = scheduler.getNextFrameTimeNs();
+        assertEquals(START + 11 * SECOND / 30, due);
+        scheduler.setFrameRate(15);
+        assertEquals(15, scheduler.getFrameRate());
+        //the frame already due keeps its deadline,later ones follow the new rate
+        assertEquals(due, scheduler.getNextFrameTimeNs());
+        for (int k = 0; k <= 15; ++k) {
+            clock.now = scheduler.getNextFrameTimeNs() + 1000000;
+            assertEquals(due + k * SECOND / 15, scheduler.onFrame());
+        }
+        assertEquals(0, scheduler.getSkippedFrames());
+        //same rate changes nothing
+        long next = scheduler.getNextFrameTimeNs();
+        scheduler.setFrameRate(15);
+        assertEquals(next, scheduler.getNextFrameTimeNs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFrameRate() {
+        scheduler.setFrameRate(0);
+    }
+
+    @Test
+    public void uptimeMillisNeverAfterDeadline() {
+        for (int k = 1; k <= 30; ++k) {
+            long due = scheduler.getNextFrameTimeNs();
+            assertTrue(scheduler.getNextFrameUptimeMillis() * 1000000 <= due);
+            assertTrue(due - scheduler.getNextFrameUptimeMillis() * 1000000 < 1000000);
+            clock.now = due;
+            scheduler.onFrame();
+        }
+    }
+
+    @Test
+    public void startAndResetStatistics() {
+        clock.now = START + 5 * SECOND;
+        scheduler.onFrame();
+        assertTrue(scheduler.getSkippedFrames() > 0);
+        scheduler.resetStatistics();
+        assertEquals(0, scheduler.getFrameCount());
+        assertEquals(0, scheduler.getSkippedFrames());
+        assertEquals(0, scheduler.getMaxJitterUs());
+        assertEquals(0, scheduler.getAverageJitterUs());
+        //restart paces from now
+        scheduler.start();
+        assertEquals(clock.now + SECOND / 30, scheduler.getNextFrameTimeNs());
+    }
+}
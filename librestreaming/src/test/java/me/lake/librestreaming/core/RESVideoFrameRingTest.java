@@ -0,0 +1,361 @@
+package me.lake.librestreaming.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESVideoFrameRingTest {
+    private static final int FRAME_1080P_NV21 = 1920 * 1080 * 3 / 2;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSlotNum() {
+        new RESVideoFrameRing(1, 16);
+    }
+
+    @Test
+    public void takesNewestAndOverwritesOldest() {
+        RESVideoFrameRing ring = new RESVideoFrameRing(2, 16);
+        assertNull(ring.acquireLatest());
+        byte[] first = publish(ring, 1);
+        assertSame(first, ring.acquireLatest());
+        //held until a newer frame is published
+        assertSame(first, ring.acquireLatest());
+        assertEquals(1, ring.getOccupancy());
+        byte[] second = publish(ring, 2);
+        //the only slot not held is overwritten before the consumer took it
+        byte[] third = publish(ring, 3);
+        assertSame(second, third);
+        assertEquals(1, ring.getDroppedFrames());
+        byte[] held = ring.acquireLatest();
+        assertSame(third, held);
+        assertEquals(3, held[0]);
+        //the previous held slot went back to producer
+        assertSame(first, publish(ring, 4));
+        assertEquals(4, ring.getPublishedFrames());
+        assertEquals(0, ring.getRejectedFrames());
+    }
+
+    @Test
+    public void consumerSkipsStaleFrames() {
+        RESVideoFrameRing ring = new RESVideoFrameRing(4, 16);
+        publish(ring, 1);
+        publish(ring, 2);
+        publish(ring, 3);
+        assertEquals(3, ring.acquireLatest()[0]);
+        //1 & 2 will never be drawn,their slots are free again
+        assertEquals(2, ring.getDroppedFrames());
+        assertEquals(1, ring.getOccupancy());
+    }
+
+    @Test
+    public void tagFollowsItsFrame() {
+        RESVideoFrameRing ring = new RESVideoFrameRing(3, 16);
+        assertEquals(0, ring.getHeldTag());
+        ring.beginWrite()[0] = 1;
+        ring.endWrite(0x20);
+        assertEquals(1, ring.acquireLatest()[0]);
+        assertEquals(0x20, ring.getHeldTag());
+        //an untagged frame replaces it
+        publish(ring, 2);
+        assertEquals(0x20, ring.getHeldTag());
+        assertEquals(2, ring.acquireLatest()[0]);
+        assertEquals(0, ring.getHeldTag());
+        ring.beginWrite()[0] = 3;
+        ring.endWrite(0x81);
+        assertEquals(3, ring.acquireLatest()[0]);
+        assertEquals(0x81, ring.getHeldTag());
+    }
+
+    @Test(timeout = 60000)
+    public void noTornOrLostFrames() throws InterruptedException {
+        for (int slotNum = 2; slotNum <= 5; ++slotNum) {
+            stress(slotNum, 64 * 1024, 20000);
+        }
+    }
+
+    /**
+     * camera thread publishes stamped frames as fast as it can while the draw thread takes the newest one,
+     * checks every byte of the held frame & reads it again later to make sure it was not touched meanwhile.
+     */
+    private static void stress(int slotNum, int frameSize, final int frames) throws InterruptedException {
+        final RESVideoFrameRing ring = new RESVideoFrameRing(slotNum, frameSize);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final long[] published = new long[1];
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                awaitQuietly(startLatch);
+                long sequence = 0;
+                for (int i = 0; i < frames; ++i) {
+                    byte[] dst = ring.beginWrite();
+                    if (dst == null) {
+                        continue;
+                    }
+                    stamp(dst, ++sequence);
+                    ring.endWrite();
+                    //interleave with the consumer on a single core too
+                    if ((i & 3) == 0) {
+                        Thread.yield();
+                    }
+                }
+                published[0] = sequence;
+            }
+        };
+        producer.start();
+        startLatch.countDown();
+        long lastSequence = 0;
+        long taken = 0;
+        try {
+            while (producer.isAlive() || taken == 0 || lastSequence < published[0]) {
+                byte[] held = ring.acquireLatest();
+                if (held == null) {
+                    Thread.yield();
+                    continue;
+                }
+                long sequence = checkStamp(held);
+                assertTrue("went back from " + lastSequence + " to " + sequence, sequence >= lastSequence);
+                if (sequence > lastSequence) {
+                    ++taken;
+                    lastSequence = sequence;
+                }
+                Thread.yield();
+                //the producer kept running,the held frame must not change
+                assertEquals(sequence, checkStamp(held));
+            }
+        } catch (Throwable e) {
+            failure.set(e);
+        }
+        producer.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        //every published frame was either drawn or replaced,the newest one is drawn last
+        assertEquals(published[0], ring.getPublishedFrames());
+        assertEquals(published[0], lastSequence);
+        assertEquals(published[0], taken + ring.getDroppedFrames());
+        assertEquals(frames, published[0] + ring.getRejectedFrames());
+        System.out.println("slots:" + slotNum + ",published:" + published[0] + ",drawn:" + taken +
+                ",dropped:" + ring.getDroppedFrames() + ",rejected:" + ring.getRejectedFrames());
+    }
+
+    /**
+     * frame handoff of the ring against the former path at 1080p NV21,
+     * where the camera thread copied into a flagged buffer under syncOp
+     * and the filter thread copied it once more before drawing.
+     */
+    @Test(timeout = 120000)
+    public void benchmarkAgainstCopyHandoff() throws InterruptedException {
+        final int frames = 600;
+        //warm up
+        runBenchmark(new RingPath(3), frames / 4);
+        runBenchmark(new CopyPath(3), frames / 4);
+        System.out.println("ring:" + runBenchmark(new RingPath(3), frames));
+        System.out.println("copy handoff:" + runBenchmark(new CopyPath(3), frames));
+    }
+
+    private interface FramePath {
+        /**
+         * camera thread.
+         */
+        boolean queue(byte[] cameraFrame);
+
+        /**
+         * filter thread.
+         *
+         * @return frame to draw,null if none yet
+         */
+        byte[] take();
+    }
+
+    private static class RingPath implements FramePath {
+        private final RESVideoFrameRing ring;
+
+        RingPath(int slotNum) {
+            ring = new RESVideoFrameRing(slotNum, FRAME_1080P_NV21);
+        }
+
+        @Override
+        public boolean queue(byte[] cameraFrame) {
+            byte[] dst = ring.beginWrite();
+            if (dst == null) {
+                return false;
+            }
+            System.arraycopy(cameraFrame, 0, dst, 0, dst.length);
+            ring.endWrite();
+            return true;
+        }
+
+        @Override
+        public byte[] take() {
+            return ring.acquireLatest();
+        }
+    }
+
+    private static class CopyPath implements FramePath {
+        private final byte[][] buffs;
+        //the former code used plain flags
+        private final boolean[] isReadyToFill;
+        private final byte[] orignNV21VideoBuff = new byte[FRAME_1080P_NV21];
+        private final Object syncOp = new Object();
+        //stands for the filter handler message queue
+        private final ArrayDeque<Integer> incoming = new ArrayDeque<>();
+        private int lastVideoQueueBuffIndex;
+
+        CopyPath(int buffNum) {
+            buffs = new byte[buffNum][FRAME_1080P_NV21];
+            isReadyToFill = new boolean[buffNum];
+            for (int i = 0; i < buffNum; ++i) {
+                isReadyToFill[i] = true;
+            }
+        }
+
+        @Override
+        public boolean queue(byte[] cameraFrame) {
+            synchronized (syncOp) {
+                int targetIndex = (lastVideoQueueBuffIndex + 1) % buffs.length;
+                if (!isReadyToFill[targetIndex]) {
+                    return false;
+                }
+                System.arraycopy(cameraFrame, 0, buffs[targetIndex], 0, cameraFrame.length);
+                isReadyToFill[targetIndex] = false;
+                lastVideoQueueBuffIndex = targetIndex;
+                synchronized (incoming) {
+                    incoming.addLast(targetIndex);
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public byte[] take() {
+            Integer targetIndex;
+            while (true) {
+                synchronized (incoming) {
+                    targetIndex = incoming.pollFirst();
+                }
+                if (targetIndex == null) {
+                    break;
+                }
+                System.arraycopy(buffs[targetIndex], 0, orignNV21VideoBuff, 0, orignNV21VideoBuff.length);
+                isReadyToFill[targetIndex] = true;
+            }
+            return orignNV21VideoBuff;
+        }
+    }
+
+    /**
+     * the camera thread queues frames back to back while the filter thread takes & reads the newest one.
+     *
+     * @return frames accepted & drawn per second,time per queue & per take
+     */
+    private static String runBenchmark(final FramePath path, final int frames) throws InterruptedException {
+        final byte[] cameraFrame = new byte[FRAME_1080P_NV21];
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final long[] queueResult = new long[2];
+        Thread camera = new Thread() {
+            @Override
+            public void run() {
+                awaitQuietly(startLatch);
+                long accepted = 0;
+                long ns = 0;
+                for (int i = 1; i <= frames; ++i) {
+                    ByteBuffer.wrap(cameraFrame).putInt(0, i);
+                    long begin = System.nanoTime();
+                    if (path.queue(cameraFrame)) {
+                        ++accepted;
+                    }
+                    ns += System.nanoTime() - begin;
+                }
+                queueResult[0] = accepted;
+                queueResult[1] = ns;
+            }
+        };
+        camera.start();
+        long start = System.nanoTime();
+        startLatch.countDown();
+        int lastIndex = 0;
+        long drawn = 0;
+        long takes = 0;
+        long takeNs = 0;
+        while (lastIndex < frames) {
+            boolean cameraDone = !camera.isAlive();
+            long begin = System.nanoTime();
+            byte[] frame = path.take();
+            takeNs += System.nanoTime() - begin;
+            ++takes;
+            if (frame == null) {
+                Thread.yield();
+                continue;
+            }
+            int index = ByteBuffer.wrap(frame).getInt(0);
+            if (index != lastIndex) {
+                ++drawn;
+                lastIndex = index;
+            } else if (cameraDone) {
+                //the last frames were rejected
+                break;
+            }
+            Thread.yield();
+        }
+        camera.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("%.0f frames/s accepted,%.0f frames/s drawn,queue avg %dus,take avg %dus",
+                queueResult[0] / seconds, drawn / seconds,
+                queueResult[1] / frames / 1000, takeNs / takes / 1000);
+    }
+
+    private static byte[] publish(RESVideoFrameRing ring, int value) {
+        byte[] dst = ring.beginWrite();
+        assertNotNull(dst);
+        dst[0] = (byte) value;
+        ring.endWrite();
+        return dst;
+    }
+
+    /**
+     * sequence at both ends,its low byte everywhere in between.
+     */
+    private static void stamp(byte[] frame, long sequence) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putLong(0, sequence);
+        buffer.putLong(frame.length - 8, sequence);
+        byte fill = (byte) sequence;
+        for (int i = 8; i < frame.length - 8; ++i) {
+            frame[i] = fill;
+        }
+    }
+
+    /**
+     * @return the sequence,fails on a frame mixing two writes
+     */
+    private static long checkStamp(byte[] frame) {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        long sequence = buffer.getLong(0);
+        assertEquals("torn frame", sequence, buffer.getLong(frame.length - 8));
+        byte fill = (byte) sequence;
+        for (int i = 8; i < frame.length - 8; ++i) {
+            if (frame[i] != fill) {
+                throw new AssertionError("torn frame " + sequence + " at " + i);
+            }
+        }
+        return sequence;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESFlvDataFanOutTest {
+
+    @Test
+    public void lateConsumerGetsHeadersFirst() {
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        RESFlvDataFanOut fanOut = new RESFlvDataFanOut();
+        RecordingConsumer early = new RecordingConsumer();
+        RecordingConsumer late = new RecordingConsumer();
+        fanOut.addConsumer(early);
+        RESFlvData videoHeader = header(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO);
+        RESFlvData audioHeader = header(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO);
+        fanOut.collect(videoHeader, RESRtmpSender.FROM_VIDEO);
+        fanOut.collect(audioHeader, RESRtmpSender.FROM_AUDIO);
+        for (int i = 0; i < 10; ++i) {
+            fanOut.collect(frame(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, i), RESRtmpSender.FROM_VIDEO);
+            fanOut.collect(frame(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, i), RESRtmpSender.FROM_AUDIO);
+        }
+        //only the cache holds the headers now
+        assertEquals(1, videoHeader.refCount.get());
+        assertEquals(1, audioHeader.refCount.get());
+
+        fanOut.addConsumer(late);
+        assertEquals(2, late.tags.size());
+        for (int i = 10; i < 20; ++i) {
+            fanOut.collect(frame(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, i), RESRtmpSender.FROM_VIDEO);
+            fanOut.collect(frame(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, i), RESRtmpSender.FROM_AUDIO);
+        }
+        assertEquals(2 + 20 * 2, early.tags.size());
+        assertEquals(2 + 10 * 2, late.tags.size());
+        //headers,video first,the very same tags,then frames from where the consumer joined
+        assertSame(videoHeader, late.tags.get(0));
+        assertEquals(RESRtmpSender.FROM_VIDEO, (int) late.types.get(0));
+        assertSame(audioHeader, late.tags.get(1));
+        assertEquals(RESRtmpSender.FROM_AUDIO, (int) late.types.get(1));
+        for (int i = 2; i < late.tags.size(); ++i) {
+            assertTrue(late.droppables.get(i));
+            assertEquals((10 + (i - 2) / 2) * 33, (int) late.dtss.get(i));
+        }
+        //early consumer never gets a replay
+        assertSame(videoHeader, early.tags.get(0));
+        assertSame(audioHeader, early.tags.get(1));
+        assertTrue(early.droppables.get(2));
+        assertEquals(0, (int) early.dtss.get(2));
+
+        //adding twice replays nothing
+        fanOut.addConsumer(late);
+        assertEquals(2 + 10 * 2, late.tags.size());
+        assertEquals(2, fanOut.getConsumerCount());
+
+        fanOut.removeConsumer(early);
+        fanOut.removeConsumer(late);
+        assertEquals(0, fanOut.getConsumerCount());
+        assertEquals(outstanding + 2, RESFlvDataPool.i().getOutstandingCount());
+        fanOut.getSequenceHeaderCache().clear();
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+    }
+
+    @Test
+    public void newHeaderReplacesCached() {
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        RESFlvDataFanOut fanOut = new RESFlvDataFanOut();
+        RecordingConsumer early = new RecordingConsumer();
+        fanOut.addConsumer(early);
+        RESFlvData oldHeader = header(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO);
+        fanOut.collect(oldHeader, RESRtmpSender.FROM_VIDEO);
+        //encoder restarted with a new configuration
+        RESFlvData newHeader = header(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO);
+        fanOut.collect(newHeader, RESRtmpSender.FROM_VIDEO);
+        assertEquals(outstanding + 1, RESFlvDataPool.i().getOutstandingCount());
+
+        RecordingConsumer late = new RecordingConsumer();
+        fanOut.addConsumer(late);
+        assertEquals(1, late.tags.size());
+        assertSame(newHeader, late.tags.get(0));
+        assertFalse(fanOut.getSequenceHeaderCache().hasAudioHeader());
+
+        fanOut.getSequenceHeaderCache().clear();
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+        //nothing left to replay
+        RecordingConsumer last = new RecordingConsumer();
+        fanOut.addConsumer(last);
+        assertEquals(0, last.tags.size());
+    }
+
+    /**
+     * records what it got & releases it right away,like a consumer that sent it out.<br/>
+     * released tags go back to the pool,only their identity is kept,fields are copied.
+     */
+    private static class RecordingConsumer implements RESFlvDataCollecter {
+        final List<RESFlvData> tags = new ArrayList<>();
+        final List<Integer> types = new ArrayList<>();
+        final List<Integer> dtss = new ArrayList<>();
+        final List<Boolean> droppables = new ArrayList<>();
+
+        @Override
+        public void collect(RESFlvData flvData, int type) {
+            tags.add(flvData);
+            types.add(type);
+            dtss.add(flvData.dts);
+            droppables.add(flvData.droppable);
+            RESFlvDataPool.i().recycle(flvData);
+        }
+    }
+
+    private static RESFlvData header(int type) {
+        RESFlvData flvData = RESFlvDataPool.i().obtain(40);
+        flvData.flvTagType = type;
+        flvData.droppable = false;
+        flvData.dts = 0;
+        return flvData;
+    }
+
+    private static RESFlvData frame(int type, int index) {
+        RESFlvData flvData = RESFlvDataPool.i().obtain(type == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO ? 300 : 3000);
+        flvData.flvTagType = type;
+        flvData.droppable = true;
+        flvData.dts = index * 33;
+        flvData.videoFrameType = index % 30 == 0 ? RESFlvData.NALU_TYPE_IDR : 1;
+        return flvData;
+    }
+}
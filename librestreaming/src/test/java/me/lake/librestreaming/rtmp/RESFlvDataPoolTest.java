@@ -0,0 +1,191 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESFlvDataPoolTest {
+    //1080p30 video frames of varying size & aac frames,one second of them
+    private static final int[] FRAME_SIZES = {180000, 12000, 9000, 15000, 400, 380, 7000, 300000, 2000, 512, 513};
+
+    @Test
+    public void steadyStateHitsCacheOnly() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        //warm up,one tag of every class in flight at most
+        streamFrames(pool, 1);
+        long miss = pool.getMissCount();
+        long hit = pool.getHitCount();
+        assertEquals(0, pool.getOutstandingCount());
+
+        int rounds = 1000;
+        streamFrames(pool, rounds);
+        assertEquals(miss, pool.getMissCount());
+        assertEquals(hit + rounds * FRAME_SIZES.length, pool.getHitCount());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        RESFlvDataPool pool = new RESFlvDataPool();
+        //warm up the pool and the jit
+        streamFrames(pool, 2000);
+        long tid = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(tid);
+        int rounds = 10000;
+        streamFrames(pool, rounds);
+        long allocated = threadBean.getThreadAllocatedBytes(tid) - before;
+        //a single frame buffer is far bigger than this,so no frame got a fresh one
+        assertTrue("allocated " + allocated + " bytes in steady state", allocated < 64 * 1024);
+    }
+
+    @Test
+    public void sizeClasses() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        RESFlvData small = pool.obtain(1);
+        assertEquals(512, small.byteBuffer.length);
+        assertEquals(1, small.size);
+        RESFlvData exact = pool.obtain(4096);
+        assertEquals(4096, exact.byteBuffer.length);
+        RESFlvData above = pool.obtain(4097);
+        assertEquals(8192, above.byteBuffer.length);
+        RESFlvData direct = pool.obtainDirect(1000);
+        assertNull(direct.byteBuffer);
+        assertEquals(RtmpClient.HEADROOM + 1024, direct.directBuffer.capacity());
+        assertTrue(direct.directBuffer.isDirect());
+        assertEquals(4, pool.getMissCount());
+        assertEquals(4, pool.getOutstandingCount());
+
+        pool.recycle(above);
+        //a smaller size of the same class reuses the buffer
+        assertSame(above, pool.obtain(5000));
+        //another class does not
+        assertNotSame(above, pool.obtain(3000));
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void obtainedTagIsClean() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        RESFlvData flvData = pool.obtain(100);
+        flvData.droppable = true;
+        flvData.dts = 1234;
+        flvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+        flvData.videoFrameType = RESFlvData.NALU_TYPE_IDR;
+        pool.recycle(flvData);
+        RESFlvData again = pool.obtain(200);
+        assertSame(flvData, again);
+        assertFalse(again.droppable);
+        assertEquals(0, again.dts);
+        assertEquals(0, again.flvTagType);
+        assertEquals(0, again.videoFrameType);
+        assertEquals(200, again.size);
+        assertFalse(again.isShared());
+    }
+
+    @Test
+    public void heapAndDirectCachedSeparately() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        RESFlvData heap = pool.obtain(2000);
+        RESFlvData direct = pool.obtainDirect(2000);
+        pool.recycle(heap);
+        pool.recycle(direct);
+        RESFlvData direct2 = pool.obtainDirect(2000);
+        RESFlvData heap2 = pool.obtain(2000);
+        assertSame(direct, direct2);
+        assertNotNull(direct2.directBuffer);
+        assertSame(heap, heap2);
+        assertNotNull(heap2.byteBuffer);
+        assertEquals(2, pool.getHitCount());
+    }
+
+    @Test
+    public void oversizeIsNotPooled() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        int size = (4 << 20) + 1;
+        RESFlvData big = pool.obtain(size);
+        assertEquals(size, big.byteBuffer.length);
+        assertEquals(1, pool.getOutstandingCount());
+        pool.recycle(big);
+        assertEquals(0, pool.getOutstandingCount());
+        assertNotSame(big, pool.obtain(size));
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    @Test
+    public void sharedTagPooledByLastHolder() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        RESFlvData flvData = pool.obtain(1000);
+        pool.retain(flvData, 2);
+        assertTrue(flvData.isShared());
+        pool.recycle(flvData);
+        pool.recycle(flvData);
+        assertEquals(1, pool.getOutstandingCount());
+        assertNotSame(flvData, pool.obtain(1000));
+        pool.recycle(flvData);
+        assertEquals(1, pool.getOutstandingCount());
+        assertSame(flvData, pool.obtain(1000));
+    }
+
+    @Test
+    public void doubleRecycleIgnored() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        RESFlvData flvData = pool.obtain(1000);
+        pool.recycle(flvData);
+        pool.recycle(flvData);
+        assertEquals(0, pool.getOutstandingCount());
+        RESFlvData first = pool.obtain(1000);
+        RESFlvData second = pool.obtain(1000);
+        assertSame(flvData, first);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void foreignTagIgnored() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        RESFlvData flvData = new RESFlvData();
+        flvData.byteBuffer = new byte[1000];
+        pool.retain(flvData, 1);
+        pool.recycle(flvData);
+        assertEquals(0, pool.getOutstandingCount());
+        assertNotSame(flvData, pool.obtain(1000));
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void clearDropsCacheKeepsCounters() {
+        RESFlvDataPool pool = new RESFlvDataPool();
+        RESFlvData flvData = pool.obtain(1000);
+        pool.recycle(flvData);
+        pool.clear();
+        assertNotSame(flvData, pool.obtain(1000));
+        assertEquals(2, pool.getMissCount());
+        assertEquals(1, pool.getOutstandingCount());
+    }
+
+    private static void streamFrames(RESFlvDataPool pool, int rounds) {
+        for (int r = 0; r < rounds; ++r) {
+            for (int size : FRAME_SIZES) {
+                RESFlvData flvData = (size & 1) == 0 ? pool.obtain(size) : pool.obtainDirect(size);
+                flvData.dts = r;
+                pool.recycle(flvData);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RESFlvDataRingTest {
+    private static final int PRODUCERS = 4;
+    private static final int TAGS_PER_PRODUCER = 200000;
+
+    @Test
+    public void fifoUpToLimit() {
+        RESFlvDataRing ring = new RESFlvDataRing(5);
+        assertEquals(5, ring.getLimit());
+        assertNull(ring.poll());
+        RESFlvData[] tags = new RESFlvData[5];
+        for (int i = 0; i < tags.length; ++i) {
+            tags[i] = new RESFlvData();
+            assertTrue(ring.offer(tags[i]));
+        }
+        //capacity is 8,limit still holds
+        assertFalse(ring.offer(new RESFlvData()));
+        assertEquals(5, ring.size());
+        for (int round = 0; round < 100; ++round) {
+            RESFlvData head = ring.poll();
+            assertSame(tags[round % 5], head);
+            assertEquals(4, ring.size());
+            assertTrue(ring.offer(head));
+        }
+        for (int i = 0; i < 5; ++i) {
+            assertSame(tags[i], ring.poll());
+        }
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLimit() {
+        new RESFlvDataRing(0);
+    }
+
+    @Test(timeout = 60000)
+    public void multiProducerNoLossNoReorder() throws InterruptedException {
+        final RESFlvDataRing ring = new RESFlvDataRing(64);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicInteger rejected = new AtomicInteger();
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; ++p) {
+            final int producer = p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    awaitQuietly(startLatch);
+                    for (int seq = 0; seq < TAGS_PER_PRODUCER; ++seq) {
+                        RESFlvData flvData = new RESFlvData();
+                        flvData.flvTagType = producer;
+                        flvData.dts = seq;
+                        while (!ring.offer(flvData)) {
+                            rejected.incrementAndGet();
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            producers[p].start();
+        }
+        int[] nextSeq = new int[PRODUCERS];
+        int received = 0;
+        int maxSize = 0;
+        startLatch.countDown();
+        while (received < PRODUCERS * TAGS_PER_PRODUCER) {
+            maxSize = Math.max(maxSize, ring.size());
+            RESFlvData flvData = ring.poll();
+            if (flvData == null) {
+                Thread.yield();
+                continue;
+            }
+            //every producer's tags arrive once,in its own order
+            assertEquals(nextSeq[flvData.flvTagType], flvData.dts);
+            ++nextSeq[flvData.flvTagType];
+            ++received;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+        assertTrue("size went over limit:" + maxSize, maxSize <= ring.getLimit());
+        for (int p = 0; p < PRODUCERS; ++p) {
+            assertEquals(TAGS_PER_PRODUCER, nextSeq[p]);
+        }
+        System.out.println("ring:" + received + " tags," + rejected.get() + " offers rejected while full");
+    }
+
+    /**
+     * enqueue cost of the ring against the former send path,
+     * where every tag was posted into a synchronized message queue and counted under its own lock.
+     */
+    @Test(timeout = 120000)
+    public void benchmarkAgainstLockedQueue() throws InterruptedException {
+        final int tags = 200000;
+        //warm up
+        runBenchmark(new RingPath(1024), tags / 4);
+        runBenchmark(new LockedPath(1024), tags / 4);
+        System.out.println("ring:" + runBenchmark(new RingPath(1024), tags));
+        System.out.println("locked queue:" + runBenchmark(new LockedPath(1024), tags));
+    }
+
+    private interface SendPath {
+        boolean offer(RESFlvData flvData);
+
+        RESFlvData poll();
+    }
+
+    private static class RingPath implements SendPath {
+        private final RESFlvDataRing ring;
+
+        RingPath(int limit) {
+            ring = new RESFlvDataRing(limit);
+        }
+
+        @Override
+        public boolean offer(RESFlvData flvData) {
+            return ring.offer(flvData);
+        }
+
+        @Override
+        public RESFlvData poll() {
+            return ring.poll();
+        }
+    }
+
+    private static class LockedPath implements SendPath {
+        private final int limit;
+        private final ArrayDeque<RESFlvData> queue = new ArrayDeque<>();
+        private final Object syncOp = new Object();
+        private final Object syncWriteMsgNum = new Object();
+        private int writeMsgNum;
+
+        LockedPath(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean offer(RESFlvData flvData) {
+            synchronized (syncWriteMsgNum) {
+                if (writeMsgNum >= limit) {
+                    return false;
+                }
+                ++writeMsgNum;
+            }
+            synchronized (syncOp) {
+                queue.add(flvData);
+            }
+            return true;
+        }
+
+        @Override
+        public RESFlvData poll() {
+            RESFlvData flvData;
+            synchronized (syncOp) {
+                flvData = queue.poll();
+            }
+            if (flvData != null) {
+                synchronized (syncWriteMsgNum) {
+                    --writeMsgNum;
+                }
+            }
+            return flvData;
+        }
+    }
+
+    /**
+     * a video and an audio producer feed the path while one consumer drains it.
+     *
+     * @return throughput and enqueue latency,a rejected offer counts into the latency of its tag
+     */
+    private static String runBenchmark(final SendPath path, final int tagsPerProducer) throws InterruptedException {
+        final RESFlvData tag = new RESFlvData();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final long[] offerNs = new long[2];
+        final long[] maxOfferNs = new long[2];
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < producers.length; ++p) {
+            final int producer = p;
+            producers[p] = new Thread() {
+                @Override
+                public void run() {
+                    awaitQuietly(startLatch);
+                    long total = 0;
+                    long max = 0;
+                    for (int i = 0; i < tagsPerProducer; ++i) {
+                        long begin = System.nanoTime();
+                        while (!path.offer(tag)) {
+                            Thread.yield();
+                        }
+                        long cost = System.nanoTime() - begin;
+                        total += cost;
+                        max = Math.max(max, cost);
+                    }
+                    offerNs[producer] = total;
+                    maxOfferNs[producer] = max;
+                }
+            };
+            producers[p].start();
+        }
+        int received = 0;
+        long start = System.nanoTime();
+        startLatch.countDown();
+        while (received < tagsPerProducer * producers.length) {
+            if (path.poll() != null) {
+                ++received;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        int total = tagsPerProducer * producers.length;
+        return String.format("%.2fMtags/s,enqueue avg %dns max %dus",
+                total * 1000.0 / elapsed, (offerNs[0] + offerNs[1]) / total,
+                Math.max(maxOfferNs[0], maxOfferNs[1]) / 1000);
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RESFlvFileWriterTest {
+    private static final int TAG_NUM = 500;
+    private static final int BIG_TAG_SIZE = 700 * 1024;
+    private static final int EXTENDED_DTS = 0x01234567;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class Expected {
+        final int type;
+        final int dts;
+        final byte[] data;
+
+        Expected(int type, int dts, byte[] data) {
+            this.type = type;
+            this.dts = dts;
+            this.data = data;
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void roundTrip() throws Exception {
+        File file = folder.newFile("record.flv");
+        FLvMetaData metaData = new FLvMetaData();
+        metaData.setProperty("width", 1280);
+        metaData.setProperty("height", 720);
+        RESFlvFileWriter writer = new RESFlvFileWriter(file, metaData);
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        assertTrue(writer.start());
+
+        Random random = new Random(9);
+        List<Expected> expected = new ArrayList<>();
+        for (int i = 0; i < TAG_NUM; ++i) {
+            int size;
+            int dts = i * 20;
+            if (i == 100 || i == 301) {
+                //bigger than the stage,one heap and one direct
+                size = BIG_TAG_SIZE;
+            } else {
+                size = 1 + random.nextInt(i % 10 == 0 ? 60000 : 2000);
+            }
+            if (i == TAG_NUM - 1) {
+                //needs TimestampExtended
+                dts = EXTENDED_DTS;
+            }
+            int type = i % 3 == 0 ? RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO : RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            expected.add(new Expected(type, dts, data));
+
+            RESFlvData flvData;
+            if (i % 2 == 0) {
+                flvData = RESFlvDataPool.i().obtain(size);
+                System.arraycopy(data, 0, flvData.byteBuffer, 0, size);
+            } else {
+                flvData = RESFlvDataPool.i().obtainDirect(size);
+                flvData.directBuffer.clear();
+                flvData.directBuffer.position(RtmpClient.HEADROOM);
+                flvData.directBuffer.put(data);
+                //the writer must not rely on position/limit
+                flvData.directBuffer.position(0);
+            }
+            flvData.dts = dts;
+            flvData.flvTagType = type;
+            writer.collect(flvData, type == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO ? RESRtmpSender.FROM_AUDIO : RESRtmpSender.FROM_VIDEO);
+            //the queue holds 300,keep well below it
+            while (i + 1 - writer.getWrittenTags() >= 200) {
+                Thread.sleep(1);
+            }
+        }
+        writer.stop();
+
+        assertEquals(0, writer.getDroppedTags());
+        assertEquals(TAG_NUM, writer.getWrittenTags());
+        assertEquals(file.length(), writer.getWrittenBytes());
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            assertEquals('F', in.read());
+            assertEquals('L', in.read());
+            assertEquals('V', in.read());
+            assertEquals(1, in.read());
+            assertEquals(5, in.read());
+            assertEquals(RESFlvFileWriter.FLV_HEADER_SIZE, in.readInt());
+            assertEquals(0, in.readInt());
+            Expected script = new Expected(RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, 0, metaData.getMetaData());
+            assertTag(in, script, -1);
+            for (int i = 0; i < expected.size(); ++i) {
+                assertTag(in, expected.get(i), i);
+            }
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void collectAfterStopRecycles() throws IOException {
+        File file = folder.newFile("stopped.flv");
+        RESFlvFileWriter writer = new RESFlvFileWriter(file, new FLvMetaData());
+        assertTrue(writer.start());
+        writer.stop();
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        RESFlvData flvData = RESFlvDataPool.i().obtain(100);
+        writer.collect(flvData, RESRtmpSender.FROM_AUDIO);
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+        assertEquals(0, writer.getWrittenTags());
+    }
+
+    @Test(timeout = 10000)
+    public void videoStartsWithKeyframe() throws Exception {
+        File file = folder.newFile("gop.flv");
+        FLvMetaData metaData = new FLvMetaData();
+        RESFlvFileWriter writer = new RESFlvFileWriter(file, metaData);
+        int outstanding = RESFlvDataPool.i().getOutstandingCount();
+        assertTrue(writer.start());
+        //attached mid-GOP:sequence header,2 P frames,audio,then the IDR
+        List<Expected> expected = new ArrayList<>();
+        expected.add(collectTag(writer, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, false, 0, 0));
+        collectTag(writer, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, true, 1, 40);
+        collectTag(writer, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, true, 1, 80);
+        expected.add(collectTag(writer, RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, true, 0, 90));
+        expected.add(collectTag(writer, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, true, RESFlvData.NALU_TYPE_IDR, 120));
+        expected.add(collectTag(writer, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, true, 1, 160));
+        writer.stop();
+
+        assertEquals(2, writer.getSkippedTags());
+        assertEquals(0, writer.getDroppedTags());
+        assertEquals(expected.size(), writer.getWrittenTags());
+        assertEquals(outstanding, RESFlvDataPool.i().getOutstandingCount());
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(new byte[RESFlvFileWriter.FLV_HEADER_SIZE + RESFlvFileWriter.PREVIOUS_TAG_SIZE]);
+            assertTag(in, new Expected(RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, 0, metaData.getMetaData()), -1);
+            for (int i = 0; i < expected.size(); ++i) {
+                assertTag(in, expected.get(i), i);
+            }
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void startFailsOnDirectory() {
+        RESFlvFileWriter writer = new RESFlvFileWriter(folder.getRoot(), new FLvMetaData());
+        assertFalse(writer.start());
+    }
+
+    private static Expected collectTag(RESFlvFileWriter writer, int type, boolean droppable, int videoFrameType, int dts) {
+        byte[] data = new byte[]{(byte) type, (byte) videoFrameType, (byte) dts};
+        RESFlvData flvData = RESFlvDataPool.i().obtain(data.length);
+        System.arraycopy(data, 0, flvData.byteBuffer, 0, data.length);
+        flvData.flvTagType = type;
+        flvData.droppable = droppable;
+        flvData.videoFrameType = videoFrameType;
+        flvData.dts = dts;
+        writer.collect(flvData, type == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO ? RESRtmpSender.FROM_AUDIO : RESRtmpSender.FROM_VIDEO);
+        return new Expected(type, dts, data);
+    }
+
+    private static void assertTag(DataInputStream in, Expected tag, int index) throws IOException {
+        String name = "tag " + index;
+        assertEquals(name, tag.type, in.read());
+        int size = (in.read() << 16) | (in.read() << 8) | in.read();
+        assertEquals(name, tag.data.length, size);
+        int dts = (in.read() << 16) | (in.read() << 8) | in.read();
+        dts |= in.read() << 24;
+        assertEquals(name, tag.dts, dts);
+        assertEquals(name, 0, (in.read() << 16) | (in.read() << 8) | in.read());
+        byte[] data = new byte[size];
+        in.readFully(data);
+        assertArrayEquals(name, tag.data, data);
+        assertEquals(name, RESFlvFileWriter.TAG_HEADER_SIZE + size, in.readInt());
+    }
+}
@@ -0,0 +1,189 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RESFlvMuxerTest {
+    private static class Recorder implements RESFlvDataCollecter {
+        final List<RESFlvData> tags = new ArrayList<>();
+        final List<Integer> types = new ArrayList<>();
+
+        @Override
+        public void collect(RESFlvData flvData, int type) {
+            tags.add(flvData);
+            types.add(type);
+        }
+
+        void assertMonotonic() {
+            for (int i = 1; i < tags.size(); ++i) {
+                assertTrue("dts went back at " + i, tags.get(i).dts >= tags.get(i - 1).dts);
+            }
+        }
+
+        int count(int type) {
+            int n = 0;
+            for (int t : types) {
+                if (t == type) {
+                    ++n;
+                }
+            }
+            return n;
+        }
+    }
+
+    @Test
+    public void interleavesByDts() {
+        Recorder recorder = new Recorder();
+        RESFlvMuxer muxer = new RESFlvMuxer(recorder, 10000, 64);
+        for (int i = 0; i < 4; ++i) {
+            muxer.collect(tag(i * 33), RESRtmpSender.FROM_VIDEO);
+        }
+        //video waits for audio to catch up
+        assertEquals(0, recorder.tags.size());
+        for (int i = 0; i < 6; ++i) {
+            muxer.collect(tag(i * 23), RESRtmpSender.FROM_AUDIO);
+        }
+        muxer.flush();
+        assertEquals(10, recorder.tags.size());
+        recorder.assertMonotonic();
+        assertEquals(0, muxer.getLateCount());
+        assertEquals(0, muxer.getLatencyFlushCount());
+        assertEquals(5, muxer.getMaxReorderDepth());
+        assertEquals(0, muxer.getReorderDepth());
+    }
+
+    @Test
+    public void windowBoundsDepth() {
+        Recorder recorder = new Recorder();
+        RESFlvMuxer muxer = new RESFlvMuxer(recorder, 10000, 8);
+        for (int i = 0; i < 50; ++i) {
+            muxer.collect(tag(i * 33), RESRtmpSender.FROM_VIDEO);
+            assertTrue(muxer.getReorderDepth() <= 8);
+        }
+        assertEquals(42, recorder.tags.size());
+        recorder.assertMonotonic();
+    }
+
+    @Test
+    public void lateTagRaised() {
+        Recorder recorder = new Recorder();
+        RESFlvMuxer muxer = new RESFlvMuxer(recorder, 10000, 64);
+        muxer.collect(tag(100), RESRtmpSender.FROM_VIDEO);
+        muxer.flush();
+        muxer.collect(tag(50), RESRtmpSender.FROM_AUDIO);
+        assertEquals(2, recorder.tags.size());
+        assertEquals(100, recorder.tags.get(1).dts);
+        assertEquals(1, muxer.getLateCount());
+        //a new session starts over
+        muxer.reset();
+        muxer.collect(tag(0), RESRtmpSender.FROM_AUDIO);
+        muxer.flush();
+        assertEquals(0, recorder.tags.get(2).dts);
+        assertEquals(1, muxer.getLateCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidWindow() {
+        new RESFlvMuxer(new Recorder(), 200, 0);
+    }
+
+    @Test(timeout = 30000)
+    public void jitteredProducers() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        RESFlvMuxer muxer = new RESFlvMuxer(recorder, 200, 64);
+        long start = System.nanoTime();
+        Producer video = new Producer(muxer, RESRtmpSender.FROM_VIDEO, 33, 30, 90, start, 1);
+        Producer audio = new Producer(muxer, RESRtmpSender.FROM_AUDIO, 23, 30, 130, start, 2);
+        video.start();
+        audio.start();
+        video.join();
+        audio.join();
+        muxer.flush();
+
+        assertEquals(90, recorder.count(RESRtmpSender.FROM_VIDEO));
+        assertEquals(130, recorder.count(RESRtmpSender.FROM_AUDIO));
+        recorder.assertMonotonic();
+        //jitter stays far below the ceiling,nothing is late or forced out
+        assertEquals(0, muxer.getLateCount());
+        assertEquals(0, muxer.getLatencyFlushCount());
+        assertTrue("max delay " + muxer.getMaxDelay(), muxer.getMaxDelay() < 200);
+        assertTrue(muxer.getMaxReorderDepth() > 1);
+    }
+
+    @Test(timeout = 30000)
+    public void latencyCeiling() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        RESFlvMuxer muxer = new RESFlvMuxer(recorder, 200, 64);
+        long start = System.nanoTime();
+        Producer video = new Producer(muxer, RESRtmpSender.FROM_VIDEO, 33, 10, 90, start, 3);
+        //audio stalls after 1s
+        Producer audio = new Producer(muxer, RESRtmpSender.FROM_AUDIO, 23, 10, 43, start, 4);
+        video.start();
+        audio.start();
+        video.join();
+        audio.join();
+        float maxDelay = muxer.getMaxDelay();
+        muxer.flush();
+
+        assertEquals(90, recorder.count(RESRtmpSender.FROM_VIDEO));
+        assertEquals(43, recorder.count(RESRtmpSender.FROM_AUDIO));
+        recorder.assertMonotonic();
+        //video kept flowing without audio,held no longer than the ceiling plus one frame to notice it
+        assertTrue(muxer.getLatencyFlushCount() > 0);
+        assertTrue("max delay " + maxDelay, maxDelay >= 200 && maxDelay < 200 + 33 + 100);
+    }
+
+    /**
+     * tag i is due at start+i*interval and arrives up to jitterMs later,dts is i*interval.
+     */
+    private static class Producer extends Thread {
+        private final RESFlvMuxer muxer;
+        private final int type;
+        private final int intervalMs;
+        private final int jitterMs;
+        private final int count;
+        private final long start;
+        private final Random random;
+
+        Producer(RESFlvMuxer muxer, int type, int intervalMs, int jitterMs, int count, long start, long seed) {
+            this.muxer = muxer;
+            this.type = type;
+            this.intervalMs = intervalMs;
+            this.jitterMs = jitterMs;
+            this.count = count;
+            this.start = start;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public void run() {
+            int lastArrival = 0;
+            for (int i = 0; i < count; ++i) {
+                //arrivals of one source keep their order
+                int arrival = Math.max(lastArrival, i * intervalMs + random.nextInt(jitterMs + 1));
+                lastArrival = arrival;
+                long waitMs = (start + arrival * 1000000L - System.nanoTime()) / 1000000;
+                if (waitMs > 0) {
+                    try {
+                        Thread.sleep(waitMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                muxer.collect(tag(i * intervalMs), type);
+            }
+        }
+    }
+
+    private static RESFlvData tag(int dts) {
+        RESFlvData flvData = new RESFlvData();
+        flvData.dts = dts;
+        return flvData;
+    }
+}
@@ -0,0 +1,195 @@
+package me.lake.librestreaming.rtmp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.lake.librestreaming.core.listener.RESKeyFrameRequestListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RESRtmpSenderTest {
+    private static final int RECONNECT_DELAY = 5;
+
+    private RESRtmpSender.WorkThread workThread;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (workThread != null) {
+            workThread.quit();
+            workThread.join(5000);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void reopenFailureCountsAsAttempt() throws Exception {
+        final AtomicInteger opens = new AtomicInteger();
+        //the first connection dies on data,every reopened one dies on onMetaData
+        workThread = startWorkThread(3, opens, new PublisherFactory() {
+            @Override
+            public FakePublisher create(int index) {
+                return index == 0 ? new FakePublisher(Integer.MAX_VALUE, 0) : new FakePublisher(0, 0);
+            }
+        });
+        //start clears the ring,feed until the first connection got its tag
+        while (opens.get() < 2) {
+            workThread.sendFood(tag(0), RESRtmpSender.FROM_VIDEO);
+            Thread.sleep(5);
+        }
+        waitFor(opens, 4, 5000);
+        //gave up after reconnectTimes reopens
+        Thread.sleep(200);
+        assertEquals(4, opens.get());
+        assertEquals(3, workThread.getReconnectCount());
+        assertFalse(workThread.isReconnecting());
+        //stays stopped
+        workThread.sendFood(tag(1), RESRtmpSender.FROM_VIDEO);
+        Thread.sleep(100);
+        assertEquals(4, opens.get());
+    }
+
+    @Test(timeout = 10000)
+    public void dataWriteRestartsCount() throws Exception {
+        final AtomicInteger opens = new AtomicInteger();
+        //every connection writes onMetaData & one tag,then dies
+        workThread = startWorkThread(2, opens, new PublisherFactory() {
+            @Override
+            public FakePublisher create(int index) {
+                return new FakePublisher(Integer.MAX_VALUE, 1);
+            }
+        });
+        int dts = 0;
+        while (workThread.getReconnectCount() < 6) {
+            workThread.sendFood(tag(dts), RESRtmpSender.FROM_VIDEO);
+            dts += 33;
+            Thread.sleep(5);
+        }
+        //more reconnects than reconnectTimes,each one followed by a written tag
+        assertTrue(opens.get() > 6);
+    }
+
+    @Test(timeout = 10000)
+    public void videoStartsWithKeyframe() throws Exception {
+        final AtomicInteger opens = new AtomicInteger();
+        final FakePublisher publisher = new FakePublisher(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        workThread = startWorkThread(0, opens, new PublisherFactory() {
+            @Override
+            public FakePublisher create(int index) {
+                return publisher;
+            }
+        });
+        final AtomicInteger keyFrameRequests = new AtomicInteger();
+        workThread.setKeyFrameRequestListener(new RESKeyFrameRequestListener() {
+            @Override
+            public void onKeyFrameRequest() {
+                keyFrameRequests.incrementAndGet();
+            }
+        });
+        //start clears the ring before it opens
+        waitFor(opens, 1, 5000);
+        workThread.sendFood(tag(0, 1), RESRtmpSender.FROM_VIDEO);
+        workThread.sendFood(tag(33, 1), RESRtmpSender.FROM_VIDEO);
+        workThread.sendFood(tag(66, RESFlvData.NALU_TYPE_IDR), RESRtmpSender.FROM_VIDEO);
+        workThread.sendFood(tag(99, 1), RESRtmpSender.FROM_VIDEO);
+        waitFor(publisher.mediaWritten, 2, 5000);
+        assertEquals(66, publisher.firstMediaDts);
+        assertEquals(1, keyFrameRequests.get());
+    }
+
+    private interface PublisherFactory {
+        FakePublisher create(int index);
+    }
+
+    private static RESRtmpSender.WorkThread startWorkThread(int reconnectTimes, final AtomicInteger opens,
+                                                            final PublisherFactory factory) {
+        RESRtmpSender.WorkThread thread = new RESRtmpSender.WorkThread(30, new FLvMetaData(), 0, 0,
+                reconnectTimes, RECONNECT_DELAY) {
+            @Override
+            IRtmpPublisher createPublisher() {
+                return factory.create(opens.getAndIncrement());
+            }
+        };
+        thread.start();
+        thread.sendStart("rtmp://127.0.0.1/live/test");
+        return thread;
+    }
+
+    private static void waitFor(AtomicInteger counter, int value, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (counter.get() < value && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(value, counter.get());
+    }
+
+    private static RESFlvData tag(int dts) {
+        return tag(dts, RESFlvData.NALU_TYPE_IDR);
+    }
+
+    private static RESFlvData tag(int dts, int videoFrameType) {
+        RESFlvData flvData = RESFlvDataPool.i().obtain(16);
+        flvData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+        flvData.dts = dts;
+        flvData.droppable = true;
+        flvData.videoFrameType = videoFrameType;
+        return flvData;
+    }
+
+    /**
+     * opens fine,fails once the given number of onMetaData or media writes succeeded.
+     */
+    private static class FakePublisher implements IRtmpPublisher {
+        private int metaDataLeft;
+        private int mediaLeft;
+        final AtomicInteger mediaWritten = new AtomicInteger();
+        volatile int firstMediaDts = -1;
+
+        FakePublisher(int metaDataLeft, int mediaLeft) {
+            this.metaDataLeft = metaDataLeft;
+            this.mediaLeft = mediaLeft;
+        }
+
+        @Override
+        public boolean open(String url) {
+            return true;
+        }
+
+        @Override
+        public int write(byte[] data, int size, int type, int ts) {
+            if (type == RESFlvData.FLV_RTMP_PACKET_TYPE_INFO) {
+                return metaDataLeft-- > 0 ? 0 : -1;
+            }
+            if (mediaLeft-- <= 0) {
+                return -1;
+            }
+            if (mediaWritten.getAndIncrement() == 0) {
+                firstMediaDts = ts;
+            }
+            return 0;
+        }
+
+        @Override
+        public int write(ByteBuffer data, int offset, int size, int type, int ts, boolean exclusive) {
+            return write((byte[]) null, size, type, ts);
+        }
+
+        @Override
+        public int flush() {
+            return 0;
+        }
+
+        @Override
+        public int close() {
+            return 0;
+        }
+
+        @Override
+        public String getIpAddr() {
+            return "127.0.0.1";
+        }
+    }
+}
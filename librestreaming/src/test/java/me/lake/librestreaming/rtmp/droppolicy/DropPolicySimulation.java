@@ -0,0 +1,144 @@
+package me.lake.librestreaming.rtmp.droppolicy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import me.lake.librestreaming.rtmp.RESFlvData;
+
+/**
+ * Deterministic model of RESRtmpSender on a synthetic tag stream,1 step = 1ms.<br/>
+ * producer:30fps video with an IDR every gop frames,aac every 23ms,a tag is rejected when the queue is full.<br/>
+ * consumer:a link sending bytesPerMs,dequeued tags go through the policy,dropped tags cost nothing.
+ */
+class DropPolicySimulation {
+    static final int IDR_SIZE = 20000;
+    static final int P_SIZE = 4000;
+    static final int AUDIO_SIZE = 400;
+
+    private final BaseDropPolicy policy;
+    private final int queueLimit;
+    private final int gop;
+    private final ArrayDeque<RESFlvData> queue = new ArrayDeque<>();
+    final List<RESFlvData> sent = new ArrayList<>();
+    final List<RESFlvData> dropped = new ArrayList<>();
+    final List<RESFlvData> rejected = new ArrayList<>();
+    int maxQueueSize;
+    int maxSentAudioDelay;
+    private int videoFrames;
+    private long linkCredit;
+    private int now;
+
+    DropPolicySimulation(BaseDropPolicy policy, int queueLimit, int gop) {
+        this.policy = policy;
+        this.queueLimit = queueLimit;
+        this.gop = gop;
+    }
+
+    void run(int durationMs, int bytesPerMs) {
+        for (int end = now + durationMs; now < end; ++now) {
+            if (now * 30 % 1000 < 30) {
+                boolean idr = videoFrames++ % gop == 0;
+                feed(tag(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, idr ? IDR_SIZE : P_SIZE, idr));
+            }
+            if (now % 23 == 0) {
+                feed(tag(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, AUDIO_SIZE, false));
+            }
+            linkCredit += bytesPerMs;
+            while (!queue.isEmpty()) {
+                RESFlvData head = queue.peek();
+                if (policy.check(head, queue.size() - 1, queueLimit)) {
+                    queue.poll();
+                    dropped.add(head);
+                    continue;
+                }
+                if (linkCredit < head.size) {
+                    break;
+                }
+                queue.poll();
+                linkCredit -= head.size;
+                sent.add(head);
+                if (head.flvTagType == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO) {
+                    maxSentAudioDelay = Math.max(maxSentAudioDelay, now - head.dts);
+                }
+            }
+            if (queue.isEmpty()) {
+                //an idle link does not bank credit
+                linkCredit = 0;
+            }
+        }
+    }
+
+    /**
+     * @return true if every sent P-frame follows a sent IDR with no video dropped in between
+     */
+    boolean isVideoDecodable() {
+        boolean referenceValid = false;
+        List<RESFlvData> all = new ArrayList<>(sent);
+        all.addAll(dropped);
+        all.addAll(rejected);
+        Collections.sort(all, new Comparator<RESFlvData>() {
+            @Override
+            public int compare(RESFlvData a, RESFlvData b) {
+                return a.dts - b.dts;
+            }
+        });
+        for (RESFlvData flvData : all) {
+            if (flvData.flvTagType != RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO) {
+                continue;
+            }
+            boolean isSent = sent.contains(flvData);
+            if (flvData.isKeyframe()) {
+                referenceValid = isSent;
+            } else if (!isSent) {
+                referenceValid = false;
+            } else if (!referenceValid) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int count(List<RESFlvData> tags, int type) {
+        int n = 0;
+        for (RESFlvData flvData : tags) {
+            if (flvData.flvTagType == type) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    static long bytes(List<RESFlvData> tags, int type) {
+        long n = 0;
+        for (RESFlvData flvData : tags) {
+            if (flvData.flvTagType == type) {
+                n += flvData.size;
+            }
+        }
+        return n;
+    }
+
+    private void feed(RESFlvData flvData) {
+        if (queue.size() >= queueLimit) {
+            policy.onFeedRejected(flvData);
+            rejected.add(flvData);
+            return;
+        }
+        policy.onFeed(flvData);
+        queue.add(flvData);
+        maxQueueSize = Math.max(maxQueueSize, queue.size());
+    }
+
+    private RESFlvData tag(int type, int size, boolean idr) {
+        RESFlvData flvData = new RESFlvData();
+        flvData.flvTagType = type;
+        flvData.size = size;
+        flvData.dts = now;
+        flvData.droppable = true;
+        flvData.videoFrameType = idr ? RESFlvData.NALU_TYPE_IDR : 1;
+        return flvData;
+    }
+}
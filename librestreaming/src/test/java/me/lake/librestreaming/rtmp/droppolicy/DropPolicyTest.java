@@ -0,0 +1,291 @@
+package me.lake.librestreaming.rtmp.droppolicy;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import me.lake.librestreaming.rtmp.RESFlvData;
+
+import static me.lake.librestreaming.rtmp.RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO;
+import static me.lake.librestreaming.rtmp.RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO;
+import static me.lake.librestreaming.rtmp.droppolicy.DropPolicySimulation.AUDIO_SIZE;
+import static me.lake.librestreaming.rtmp.droppolicy.DropPolicySimulation.IDR_SIZE;
+import static me.lake.librestreaming.rtmp.droppolicy.DropPolicySimulation.P_SIZE;
+import static me.lake.librestreaming.rtmp.droppolicy.DropPolicySimulation.bytes;
+import static me.lake.librestreaming.rtmp.droppolicy.DropPolicySimulation.count;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DropPolicyTest {
+    private static final int LIMIT = 30;
+
+    @Test
+    public void gopSkipsUntilIDR() {
+        GOPDropPolicy policy = new GOPDropPolicy();
+        //crowded,P dropped
+        assertTrue(policy.check(video(10, false), 20, LIMIT));
+        assertTrue(policy.isWaitingForIDR());
+        //no longer crowded,the rest of the GOP still goes
+        assertTrue(policy.check(video(43, false), 0, LIMIT));
+        assertTrue(policy.check(video(76, false), 0, LIMIT));
+        //audio is untouched meanwhile
+        assertFalse(policy.check(audio(80), 29, LIMIT));
+        assertFalse(policy.check(video(110, true), 0, LIMIT));
+        assertFalse(policy.isWaitingForIDR());
+        assertFalse(policy.check(video(143, false), 0, LIMIT));
+        assertEquals(3, policy.getDroppedVideoFrames());
+        assertEquals(3 * P_SIZE, policy.getDroppedVideoBytes());
+        assertEquals(0, policy.getDroppedAudioFrames());
+    }
+
+    @Test
+    public void gopCrowdedIDRDroppedToo() {
+        GOPDropPolicy policy = new GOPDropPolicy(0.5f);
+        assertFalse(policy.check(video(0, false), 14, LIMIT));
+        assertTrue(policy.check(video(33, true), 15, LIMIT));
+        assertTrue(policy.check(video(66, false), 0, LIMIT));
+        assertFalse(policy.check(video(99, true), 0, LIMIT));
+        assertEquals(IDR_SIZE + P_SIZE, policy.getDroppedVideoBytes());
+    }
+
+    @Test
+    public void rejectedFeedSkipsUntilIDR() {
+        GOPDropPolicy policy = new GOPDropPolicy();
+        policy.onFeedRejected(video(10, false));
+        assertTrue(policy.isWaitingForIDR());
+        assertTrue(policy.check(video(43, false), 0, LIMIT));
+        assertFalse(policy.check(video(76, true), 0, LIMIT));
+        //the rejected one counts as a drop
+        assertEquals(2, policy.getDroppedVideoFrames());
+        policy.onFeedRejected(audio(80));
+        assertFalse(policy.isWaitingForIDR());
+        assertEquals(1, policy.getDroppedAudioFrames());
+        assertEquals(AUDIO_SIZE, policy.getDroppedAudioBytes());
+    }
+
+    @Test
+    public void nonDroppableNeverDropped() {
+        BaseDropPolicy[] policies = {new GOPDropPolicy(0f), new AudioFirstDropPolicy(0f, 0f), new LatencyDropPolicy(0)};
+        for (BaseDropPolicy policy : policies) {
+            policy.onFeed(video(1000, true));
+            policy.onFeedRejected(video(1000, false));
+            RESFlvData header = video(0, true);
+            header.droppable = false;
+            RESFlvData metaData = audio(0);
+            metaData.flvTagType = RESFlvData.FLV_RTMP_PACKET_TYPE_INFO;
+            metaData.droppable = false;
+            assertFalse(policy.check(header, LIMIT, LIMIT));
+            assertFalse(policy.check(metaData, LIMIT, LIMIT));
+            //still waiting,headers do not end the skip
+            assertTrue(policy.isWaitingForIDR());
+        }
+    }
+
+    @Test
+    public void resetKeepsCounters() {
+        GOPDropPolicy policy = new GOPDropPolicy();
+        assertTrue(policy.check(video(10, false), LIMIT, LIMIT));
+        policy.onReset();
+        assertFalse(policy.isWaitingForIDR());
+        assertFalse(policy.check(video(43, false), 0, LIMIT));
+        assertEquals(1, policy.getDroppedVideoFrames());
+        policy.resetCounters();
+        assertEquals(0, policy.getDroppedVideoFrames());
+        assertEquals(0, policy.getDroppedVideoBytes());
+    }
+
+    @Test
+    public void audioFirstWatermarks() {
+        AudioFirstDropPolicy policy = new AudioFirstDropPolicy(0.5f, 0.9f);
+        assertFalse(policy.check(video(0, true), 14, LIMIT));
+        assertTrue(policy.check(video(33, false), 15, LIMIT));
+        assertFalse(policy.check(audio(40), 26, LIMIT));
+        assertTrue(policy.check(audio(63), 27, LIMIT));
+        assertFalse(policy.check(audio(86), 0, LIMIT));
+        assertEquals(1, policy.getDroppedVideoFrames());
+        assertEquals(1, policy.getDroppedAudioFrames());
+        assertEquals(AUDIO_SIZE, policy.getDroppedAudioBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void audioFirstRatioOrder() {
+        new AudioFirstDropPolicy(0.9f, 0.5f);
+    }
+
+    @Test
+    public void latencyBudget() {
+        LatencyDropPolicy policy = new LatencyDropPolicy(500);
+        RESFlvData oldVideo = video(0, true);
+        RESFlvData edgeVideo = video(500, false);
+        RESFlvData oldAudio = audio(100);
+        policy.onFeed(oldVideo);
+        policy.onFeed(edgeVideo);
+        policy.onFeed(oldAudio);
+        policy.onFeed(video(1000, false));
+        policy.onFeed(audio(550));
+        //video is 1000ms behind the newest video,audio only 450ms behind the newest audio
+        assertTrue(policy.check(oldVideo, 0, LIMIT));
+        assertFalse(policy.check(oldAudio, 0, LIMIT));
+        //exactly the budget is kept,but the GOP is broken already
+        assertTrue(policy.check(edgeVideo, 0, LIMIT));
+        policy.onReset();
+        assertFalse(policy.check(edgeVideo, 0, LIMIT));
+        assertEquals(2, policy.getDroppedVideoFrames());
+        assertEquals(IDR_SIZE + P_SIZE, policy.getDroppedVideoBytes());
+        assertEquals(0, policy.getDroppedAudioFrames());
+    }
+
+    @Test
+    public void latencyIgnoresLateFeed() {
+        LatencyDropPolicy policy = new LatencyDropPolicy(500);
+        policy.onFeed(audio(2000));
+        //a replayed header or a tag released late by another thread
+        policy.onFeed(audio(0));
+        assertTrue(policy.check(audio(1400), 0, LIMIT));
+        policy.onReset();
+        policy.onFeed(audio(0));
+        assertFalse(policy.check(audio(0), 0, LIMIT));
+    }
+
+    @Test(timeout = 30000)
+    public void latencyConcurrentFeeders() throws InterruptedException {
+        final LatencyDropPolicy policy = new LatencyDropPolicy(100);
+        final int feeders = 4;
+        final int tags = 100000;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] threads = new Thread[feeders];
+        for (int i = 0; i < feeders; ++i) {
+            final int feeder = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                    for (int dts = feeder; dts < tags * feeders; dts += feeders) {
+                        policy.onFeed(audio(dts));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int newest = tags * feeders - 1;
+        assertFalse(policy.check(audio(newest - 100), 0, LIMIT));
+        assertTrue(policy.check(audio(newest - 101), 0, LIMIT));
+    }
+
+    @Test
+    public void simulationBaseOnlySkipsAfterRejection() {
+        BaseDropPolicy policy = new BaseDropPolicy();
+        DropPolicySimulation simulation = new DropPolicySimulation(policy, LIMIT, 30);
+        simulation.run(20000, 60);
+        //the queue fills up and whatever arrives then is rejected,audio too
+        assertEquals(LIMIT, simulation.maxQueueSize);
+        assertTrue(count(simulation.rejected, FLV_RTMP_PACKET_TYPE_AUDIO) > 0);
+        //only the GOP of a rejected frame is dropped on dequeue
+        assertEquals(0, count(simulation.dropped, FLV_RTMP_PACKET_TYPE_AUDIO));
+        for (RESFlvData flvData : simulation.dropped) {
+            assertFalse(flvData.isKeyframe());
+        }
+        assertTrue(simulation.isVideoDecodable());
+        assertCounters(policy, simulation);
+    }
+
+    @Test
+    public void simulationGOP() {
+        GOPDropPolicy policy = new GOPDropPolicy();
+        DropPolicySimulation simulation = new DropPolicySimulation(policy, LIMIT, 30);
+        //link ~60KB/s,stream ~155KB/s
+        simulation.run(20000, 60);
+        assertTrue(simulation.isVideoDecodable());
+        assertEquals(0, count(simulation.dropped, FLV_RTMP_PACKET_TYPE_AUDIO));
+        assertCounters(policy, simulation);
+        assertTrue(count(simulation.dropped, FLV_RTMP_PACKET_TYPE_VIDEO) > 0);
+        assertTrue(simulation.maxQueueSize < LIMIT);
+        assertTrue(simulation.rejected.isEmpty());
+    }
+
+    @Test
+    public void simulationAudioFirst() {
+        AudioFirstDropPolicy policy = new AudioFirstDropPolicy();
+        DropPolicySimulation simulation = new DropPolicySimulation(policy, LIMIT, 30);
+        simulation.run(20000, 60);
+        assertTrue(simulation.isVideoDecodable());
+        assertCounters(policy, simulation);
+        //video goes from 50% on,audio never reaches its watermark
+        assertEquals(0, count(simulation.dropped, FLV_RTMP_PACKET_TYPE_AUDIO));
+        assertTrue(count(simulation.dropped, FLV_RTMP_PACKET_TYPE_VIDEO) > 0);
+        assertTrue(simulation.maxQueueSize < LIMIT * 0.9f + 2);
+
+        //a link too slow even for audio,audio gets dropped but audio never waits for a full queue
+        AudioFirstDropPolicy starved = new AudioFirstDropPolicy();
+        DropPolicySimulation starvedSimulation = new DropPolicySimulation(starved, LIMIT, 30);
+        starvedSimulation.run(20000, 10);
+        assertTrue(starvedSimulation.isVideoDecodable());
+        assertCounters(starved, starvedSimulation);
+        assertTrue(count(starvedSimulation.dropped, FLV_RTMP_PACKET_TYPE_AUDIO) > 0);
+        assertTrue(starvedSimulation.rejected.isEmpty());
+    }
+
+    @Test
+    public void simulationLatency() {
+        int budgetMs = 1000;
+        LatencyDropPolicy policy = new LatencyDropPolicy(budgetMs);
+        DropPolicySimulation simulation = new DropPolicySimulation(policy, 200, 30);
+        simulation.run(20000, 60);
+        assertTrue(simulation.isVideoDecodable());
+        assertCounters(policy, simulation);
+        assertTrue(count(simulation.dropped, FLV_RTMP_PACKET_TYPE_VIDEO) > 0);
+        assertTrue(simulation.rejected.isEmpty());
+        //no audio sent later than budget plus the time to send what was queued before it
+        assertTrue("audio delay " + simulation.maxSentAudioDelay, simulation.maxSentAudioDelay <= budgetMs + IDR_SIZE / 60 * 2);
+    }
+
+    @Test
+    public void simulationFastLinkDropsNothing() {
+        BaseDropPolicy[] policies = {new GOPDropPolicy(), new AudioFirstDropPolicy(), new LatencyDropPolicy(500)};
+        for (BaseDropPolicy policy : policies) {
+            DropPolicySimulation simulation = new DropPolicySimulation(policy, LIMIT, 30);
+            simulation.run(10000, 400);
+            assertTrue(simulation.dropped.isEmpty());
+            assertTrue(simulation.rejected.isEmpty());
+            assertEquals(0, policy.getDroppedVideoFrames() + policy.getDroppedAudioFrames());
+        }
+    }
+
+    private static void assertCounters(BaseDropPolicy policy, DropPolicySimulation simulation) {
+        assertEquals(count(simulation.dropped, FLV_RTMP_PACKET_TYPE_VIDEO) + count(simulation.rejected, FLV_RTMP_PACKET_TYPE_VIDEO),
+                policy.getDroppedVideoFrames());
+        assertEquals(bytes(simulation.dropped, FLV_RTMP_PACKET_TYPE_VIDEO) + bytes(simulation.rejected, FLV_RTMP_PACKET_TYPE_VIDEO),
+                policy.getDroppedVideoBytes());
+        assertEquals(count(simulation.dropped, FLV_RTMP_PACKET_TYPE_AUDIO) + count(simulation.rejected, FLV_RTMP_PACKET_TYPE_AUDIO),
+                policy.getDroppedAudioFrames());
+        assertEquals(bytes(simulation.dropped, FLV_RTMP_PACKET_TYPE_AUDIO) + bytes(simulation.rejected, FLV_RTMP_PACKET_TYPE_AUDIO),
+                policy.getDroppedAudioBytes());
+    }
+
+    private static RESFlvData video(int dts, boolean idr) {
+        RESFlvData flvData = new RESFlvData();
+        flvData.flvTagType = FLV_RTMP_PACKET_TYPE_VIDEO;
+        flvData.videoFrameType = idr ? RESFlvData.NALU_TYPE_IDR : 1;
+        flvData.size = idr ? IDR_SIZE : P_SIZE;
+        flvData.dts = dts;
+        flvData.droppable = true;
+        return flvData;
+    }
+
+    private static RESFlvData audio(int dts) {
+        RESFlvData flvData = new RESFlvData();
+        flvData.flvTagType = FLV_RTMP_PACKET_TYPE_AUDIO;
+        flvData.size = AUDIO_SIZE;
+        flvData.dts = dts;
+        flvData.droppable = true;
+        return flvData;
+    }
+}
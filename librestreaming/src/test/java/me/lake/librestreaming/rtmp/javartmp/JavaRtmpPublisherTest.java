@@ -0,0 +1,262 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import me.lake.librestreaming.rtmp.RESFlvData;
+import me.lake.librestreaming.rtmp.RtmpClient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class JavaRtmpPublisherTest {
+    private RtmpServerStub server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new RtmpServerStub();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test(timeout = 30000)
+    public void publishEndToEnd() throws Exception {
+        JavaRtmpPublisher publisher = new JavaRtmpPublisher();
+        assertTrue(publisher.open(server.getUrl("stream1")));
+        assertEquals("127.0.0.1", publisher.getIpAddr());
+        RtmpServerStub.Session session = server.awaitSession("stream1", 5000);
+        assertNotNull(session);
+        assertEquals("live", session.app);
+
+        List<Sent> sent = new ArrayList<>();
+        Random random = new Random(1);
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_INFO, 0, randomBytes(random, 300)));
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, 0, randomBytes(random, 40)));
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, 0, randomBytes(random, 4)));
+        for (int i = 0; i < 300; ++i) {
+            int dts = i * 33;
+            //IDR bigger than a chunk,P frames around the gathering threshold,tiny ones staged
+            int videoSize = i % 30 == 0 ? 60000 : i % 3 == 0 ? 100 : 1024 + random.nextInt(3000);
+            sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, dts, randomBytes(random, videoSize)));
+            sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, dts + 10, randomBytes(random, 300 + random.nextInt(100))));
+        }
+        //crossing the 24bit timestamp
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, 0xFFFFF0, randomBytes(random, 5000)));
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, 0x1000020, randomBytes(random, 5000)));
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, 0x1000040, randomBytes(random, 5000)));
+        //a jump over 24bit needs an extended fmt 0 header,repeated on every continuation chunk
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, 0x2000000, randomBytes(random, 9000)));
+        sent.add(new Sent(RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, 0x2000017, randomBytes(random, 300)));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(RtmpClient.HEADROOM + 70000);
+        for (int i = 0; i < sent.size(); ++i) {
+            Sent tag = sent.get(i);
+            int res;
+            switch (i % 3) {
+                case 0:
+                    byte[] heap = new byte[tag.payload.length + 7];
+                    System.arraycopy(tag.payload, 0, heap, 0, tag.payload.length);
+                    res = publisher.write(heap, tag.payload.length, tag.type, tag.ts);
+                    break;
+                default:
+                    direct.clear();
+                    direct.position(RtmpClient.HEADROOM);
+                    direct.put(tag.payload);
+                    res = publisher.write(direct, RtmpClient.HEADROOM, tag.payload.length, tag.type, tag.ts, i % 3 == 1);
+                    break;
+            }
+            assertEquals(0, res);
+        }
+        assertEquals(0, publisher.flush());
+        assertTrue(server.awaitMedia(session, sent.size(), 10000));
+
+        List<RtmpServerStub.Message> received = session.getMedia();
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); ++i) {
+            Sent tag = sent.get(i);
+            RtmpServerStub.Message message = received.get(i);
+            assertEquals("message " + i, tag.type, message.type);
+            assertEquals("message " + i, tag.ts & 0xFFFFFFFFL, message.timestamp);
+            assertEquals(RtmpServerStub.STREAM_ID, message.msid);
+            assertArrayEquals("message " + i, tag.payload, message.payload);
+        }
+        //headers are compressed
+        assertTrue(session.fmtCounts[3] > 0);
+        assertTrue(session.fmtCounts[0] < sent.size() / 10);
+        assertTrue(publisher.getHeaderBytes() < publisher.getPayloadBytes() / 50);
+        assertTrue(publisher.getBytesWritten() >= publisher.getHeaderBytes() + publisher.getPayloadBytes());
+        assertTrue(session.pongReceived);
+
+        assertEquals(0, publisher.close());
+        assertTrue(server.awaitClosed(session, 5000));
+        List<String> commands = session.getCommands();
+        assertEquals("connect", commands.get(0));
+        assertTrue(commands.contains("createStream"));
+        assertTrue(commands.contains("publish"));
+        assertTrue(commands.contains("deleteStream"));
+        assertEquals(JavaRtmpPublisher.ERROR_NOT_OPENED, publisher.write(new byte[10], 10, RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO, 0));
+    }
+
+    @Test(timeout = 30000)
+    public void reopenAfterClose() throws Exception {
+        JavaRtmpPublisher publisher = new JavaRtmpPublisher(128);
+        for (int round = 0; round < 3; ++round) {
+            String stream = "stream" + round;
+            assertTrue(publisher.open(server.getUrl(stream)));
+            RtmpServerStub.Session session = server.awaitSession(stream, 5000);
+            assertNotNull(session);
+            byte[] payload = new byte[1000];
+            payload[999] = (byte) round;
+            assertEquals(0, publisher.write(payload, payload.length, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, 40));
+            assertEquals(0, publisher.flush());
+            assertTrue(server.awaitMedia(session, 1, 5000));
+            assertArrayEquals(payload, session.getMedia().get(0).payload);
+            publisher.close();
+        }
+        assertEquals(3, server.getSessionCount());
+    }
+
+    @Test(timeout = 30000)
+    public void publishRejected() {
+        server.setRejectPublish(true);
+        JavaRtmpPublisher publisher = new JavaRtmpPublisher();
+        assertFalse(publisher.open(server.getUrl("stream1")));
+        assertEquals(JavaRtmpPublisher.ERROR_NOT_OPENED, publisher.flush());
+    }
+
+    @Test(timeout = 30000)
+    public void noServer() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        JavaRtmpPublisher publisher = new JavaRtmpPublisher();
+        publisher.setTimeout(2000);
+        assertFalse(publisher.open("rtmp://127.0.0.1:" + port + "/live/stream1"));
+        assertFalse(publisher.open("http://127.0.0.1/live/stream1"));
+        assertFalse(publisher.open("rtmp://127.0.0.1/live"));
+    }
+
+    @Test(timeout = 30000)
+    public void connectionDroppedWhilePublishing() throws Exception {
+        server.setCloseAfterMedia(10);
+        JavaRtmpPublisher publisher = new JavaRtmpPublisher();
+        publisher.setTimeout(2000);
+        assertTrue(publisher.open(server.getUrl("stream1")));
+        RtmpServerStub.Session session = server.awaitSession("stream1", 5000);
+        byte[] payload = new byte[20000];
+        int res = 0;
+        for (int i = 0; i < 2000 && res == 0; ++i) {
+            res = publisher.write(payload, payload.length, RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO, i * 33);
+            if (res == 0) {
+                res = publisher.flush();
+            }
+        }
+        assertEquals(JavaRtmpPublisher.ERROR_IO, res);
+        assertTrue(server.awaitClosed(session, 5000));
+        publisher.close();
+    }
+
+    /**
+     * heap array against direct buffer writes,as RESRtmpSender issues them for pooled tags.
+     * reports throughput up to the server and bytes allocated by the writing thread per path.
+     */
+    @Test(timeout = 120000)
+    public void benchmarkHeapAgainstDirect() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        server.setKeepPayload(false);
+
+        int tags = 3000;
+        //warm up
+        for (int path = 0; path < 3; ++path) {
+            runBenchmark(threadBean, path, "warmup" + path, tags / 2);
+        }
+        System.out.println("heap array:" + runBenchmark(threadBean, 0, "heap", tags));
+        System.out.println("direct,exclusive:" + runBenchmark(threadBean, 1, "exclusive", tags));
+        System.out.println("direct,shared:" + runBenchmark(threadBean, 2, "shared", tags));
+    }
+
+    /**
+     * 30fps video with a 60KB IDR every GOP and 10KB P frames,interleaved with audio.
+     *
+     * @param path 0 heap array,1 exclusive direct buffer,2 shared direct buffer
+     * @return throughput and allocation of the writing thread
+     */
+    private String runBenchmark(com.sun.management.ThreadMXBean threadBean, int path, String stream, int tags)
+            throws Exception {
+        JavaRtmpPublisher publisher = new JavaRtmpPublisher();
+        assertTrue(publisher.open(server.getUrl(stream)));
+        RtmpServerStub.Session session = server.awaitSession(stream, 5000);
+        assertNotNull(session);
+        Random random = new Random(tags);
+        byte[] heap = new byte[60000];
+        random.nextBytes(heap);
+        ByteBuffer direct = ByteBuffer.allocateDirect(RtmpClient.HEADROOM + heap.length);
+        direct.position(RtmpClient.HEADROOM);
+        direct.put(heap);
+        long payloadBytes = 0;
+        long tid = Thread.currentThread().getId();
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < tags; ++i) {
+            int type = i % 2 == 0 ? RESFlvData.FLV_RTMP_PACKET_TYPE_VIDEO : RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO;
+            int size = type == RESFlvData.FLV_RTMP_PACKET_TYPE_AUDIO ? 300 : i % 60 == 0 ? 60000 : 10000;
+            int ts = i / 2 * 33;
+            int res;
+            if (path == 0) {
+                res = publisher.write(heap, size, type, ts);
+            } else {
+                res = publisher.write(direct, RtmpClient.HEADROOM, size, type, ts, path == 1);
+            }
+            assertEquals(0, res);
+            payloadBytes += size;
+        }
+        assertEquals(0, publisher.flush());
+        long allocated = threadBean.getThreadAllocatedBytes(tid) - allocatedBefore;
+        //only a shared buffer needs a duplicate per tag
+        assertTrue(stream + " allocated " + allocated + " bytes", path == 2 || allocated < 64 * 1024);
+        assertTrue(server.awaitMedia(session, tags, 30000));
+        long elapsedNs = System.nanoTime() - start;
+        publisher.close();
+        return String.format("%.1fMB/s,allocated %d bytes,%.1f bytes/tag",
+                payloadBytes * 1000.0 / elapsedNs, allocated, (double) allocated / tags);
+    }
+
+    private static class Sent {
+        final int type;
+        final int ts;
+        final byte[] payload;
+
+        Sent(int type, int ts, byte[] payload) {
+            this.type = type;
+            this.ts = ts;
+            this.payload = payload;
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] res = new byte[size];
+        random.nextBytes(res);
+        return res;
+    }
+}
@@ -0,0 +1,145 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class RtmpChunkWriterTest {
+    private static final int CSID = 4;
+    private static final int TYPE_VIDEO = 9;
+    private static final int TYPE_AUDIO = 8;
+    private static final int MSID = 1;
+
+    private ServerSocket serverSocket;
+    private Socket peer;
+    private DataInputStream peerIn;
+    private RtmpSocket socket;
+    private RtmpChunkWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        socket = new RtmpSocket(5000);
+        socket.connect("127.0.0.1", serverSocket.getLocalPort(), 0, true);
+        peer = serverSocket.accept();
+        peerIn = new DataInputStream(peer.getInputStream());
+        writer = new RtmpChunkWriter(socket);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        peer.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void sameStreamSameLengthSameDelta() throws IOException {
+        //first message of a chunk stream:full header
+        assertHeader(0, 12, CSID, TYPE_VIDEO, MSID, 0, 100);
+        //new length:type 1,it carries the delta
+        assertHeader(1, 8, CSID, TYPE_VIDEO, MSID, 33, 120);
+        //same length & delta:type 3
+        assertHeader(3, 1, CSID, TYPE_VIDEO, MSID, 66, 120);
+        assertHeader(3, 1, CSID, TYPE_VIDEO, MSID, 99, 120);
+        //same length,delta changes:type 2
+        assertHeader(2, 4, CSID, TYPE_VIDEO, MSID, 137, 120);
+        assertHeader(3, 1, CSID, TYPE_VIDEO, MSID, 175, 120);
+        //type changes:type 1
+        assertHeader(1, 8, CSID, TYPE_AUDIO, MSID, 213, 120);
+        //another message stream:type 0
+        assertHeader(0, 12, CSID, TYPE_AUDIO, MSID + 1, 251, 120);
+        //timestamp going back:type 0
+        assertHeader(0, 12, CSID, TYPE_AUDIO, MSID + 1, 200, 120);
+        //other chunk streams keep their own state
+        assertHeader(0, 12, CSID + 1, TYPE_AUDIO, MSID, 0, 10);
+        assertHeader(1, 8, CSID, TYPE_AUDIO, MSID + 1, 223, 10);
+        assertHeader(1, 8, CSID + 1, TYPE_AUDIO, MSID, 23, 20);
+        assertHeader(3, 1, CSID + 1, TYPE_AUDIO, MSID, 46, 20);
+        assertHeader(2, 4, CSID + 1, TYPE_AUDIO, MSID, 73, 20);
+        assertHeader(3, 1, CSID + 1, TYPE_AUDIO, MSID, 100, 20);
+        assertHeader(3, 1, CSID, TYPE_AUDIO, MSID + 1, 246, 10);
+    }
+
+    @Test
+    public void extendedTimestamp() throws IOException {
+        assertHeader(0, 12, CSID, TYPE_VIDEO, MSID, 0xFFFFFE, 100);
+        //delta is small,no extension needed
+        assertHeader(1, 8, CSID, TYPE_VIDEO, MSID, 0x1000010, 50);
+        //a jump of 24bit or more restarts with an extended type 0
+        assertHeader(0, 16, CSID, TYPE_VIDEO, MSID, 0x3000000, 50);
+        assertHeader(2, 4, CSID, TYPE_VIDEO, MSID, 0x3000021, 50);
+    }
+
+    @Test
+    public void continuationChunks() throws IOException {
+        writer.setChunkSize(128);
+        //300 bytes:header + 128,fmt 3 + 128,fmt 3 + 44
+        long headerBytes = writer.getHeaderBytes();
+        write(CSID, TYPE_VIDEO, MSID, 40, 300);
+        assertEquals(12 + 1 + 1, writer.getHeaderBytes() - headerBytes);
+        assertEquals(0x00 | CSID, peerIn.readUnsignedByte());
+        skipMessageHeader(11);
+        peerIn.skipBytes(128);
+        assertEquals(0xC0 | CSID, peerIn.readUnsignedByte());
+        peerIn.skipBytes(128);
+        assertEquals(0xC0 | CSID, peerIn.readUnsignedByte());
+        peerIn.skipBytes(44);
+
+        //extended timestamp is repeated on every continuation chunk
+        headerBytes = writer.getHeaderBytes();
+        write(CSID, TYPE_VIDEO, MSID, 0x7000000, 200);
+        assertEquals(16 + 1 + 4, writer.getHeaderBytes() - headerBytes);
+        assertEquals(0x00 | CSID, peerIn.readUnsignedByte());
+        skipMessageHeader(11);
+        assertEquals(0x7000000, peerIn.readInt());
+        peerIn.skipBytes(128);
+        assertEquals(0xC0 | CSID, peerIn.readUnsignedByte());
+        assertEquals(0x7000000, peerIn.readInt());
+        peerIn.skipBytes(72);
+        assertEquals(500, writer.getPayloadBytes());
+    }
+
+    @Test
+    public void gatheredPayloadKeepsHeader() throws IOException {
+        writer.setChunkSize(4096);
+        //big enough for the gathering write path
+        assertHeader(0, 12, CSID, TYPE_VIDEO, MSID, 0, 2000);
+        assertHeader(2, 4, CSID, TYPE_VIDEO, MSID, 33, 2000);
+        assertHeader(3, 1, CSID, TYPE_VIDEO, MSID, 66, 2000);
+        assertHeader(1, 8, CSID, TYPE_VIDEO, MSID, 99, 3000);
+    }
+
+    private void assertHeader(int fmt, int headerSize, int csid, int type, int msid, int ts, int length) throws IOException {
+        long headerBytes = writer.getHeaderBytes();
+        write(csid, type, msid, ts, length);
+        assertEquals("header size of fmt " + fmt, headerSize, writer.getHeaderBytes() - headerBytes);
+        int b0 = peerIn.readUnsignedByte();
+        assertEquals("fmt", fmt, b0 >>> 6);
+        assertEquals("csid", csid, b0 & 0x3F);
+        skipMessageHeader(headerSize - 1);
+        byte[] payload = new byte[length];
+        peerIn.readFully(payload);
+        assertEquals((byte) ts, payload[0]);
+    }
+
+    private void write(int csid, int type, int msid, int ts, int length) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.put(0, (byte) ts);
+        writer.writeMessage(csid, type, msid, ts, payload);
+        writer.flush();
+    }
+
+    private void skipMessageHeader(int size) throws IOException {
+        peerIn.readFully(new byte[size]);
+    }
+}
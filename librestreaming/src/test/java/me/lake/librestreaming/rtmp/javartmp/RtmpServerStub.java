@@ -0,0 +1,574 @@
+package me.lake.librestreaming.rtmp.javartmp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process rtmp server accepting publishers on localhost,for tests only.<br/>
+ * every connection gets its own thread,handshake,connect,createStream & publish are answered,
+ * media messages are parsed independently of the client code and kept in {@link Session}.<br/>
+ * can reject publish,cut a connection after some media messages and throttle reading to emulate a slow link.
+ */
+public class RtmpServerStub {
+    public static final int STREAM_ID = 1;
+    private static final int OUT_CHUNK_SIZE = 128;
+    private static final byte[] EMPTY = new byte[0];
+
+    public static class Message {
+        public final int type;
+        public final int msid;
+        public final long timestamp;
+        public final byte[] payload;
+
+        Message(int type, int msid, long timestamp, byte[] payload) {
+            this.type = type;
+            this.msid = msid;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+    }
+
+    public static class Session {
+        public volatile String app;
+        public volatile String streamName;
+        public volatile boolean publishing;
+        public volatile boolean pongReceived;
+        public volatile boolean closed;
+        public volatile long bytesRead;
+        /**
+         * chunk headers seen,by fmt
+         */
+        public final int[] fmtCounts = new int[4];
+        public final List<Message> media = new ArrayList<>();
+        public final List<String> commands = new ArrayList<>();
+
+        public synchronized List<Message> getMedia() {
+            return new ArrayList<>(media);
+        }
+
+        public synchronized List<String> getCommands() {
+            return new ArrayList<>(commands);
+        }
+
+        public synchronized int getMediaCount() {
+            return media.size();
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final List<Session> sessions = new ArrayList<>();
+    private final List<Socket> sockets = new ArrayList<>();
+    private volatile boolean rejectPublish;
+    private volatile int closeAfterMedia;
+    private volatile int readBytesPerSecond;
+    private volatile boolean keepPayload = true;
+    private final Thread acceptThread;
+
+    public RtmpServerStub() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param receiveBufferSize SO_RCVBUF of accepted connections,0 keeps system default.
+     *                          small ones let a throttled reader push back on the publisher quickly
+     */
+    public RtmpServerStub(int receiveBufferSize) throws IOException {
+        serverSocket = new ServerSocket();
+        if (receiveBufferSize > 0) {
+            serverSocket.setReceiveBufferSize(receiveBufferSize);
+        }
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 8);
+        acceptThread = new Thread("RtmpServerStub,accept") {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getUrl(String stream) {
+        return "rtmp://127.0.0.1:" + getPort() + "/live/" + stream;
+    }
+
+    /**
+     * answer publish with NetStream.Publish.BadName
+     */
+    public void setRejectPublish(boolean rejectPublish) {
+        this.rejectPublish = rejectPublish;
+    }
+
+    /**
+     * close every new connection once it has received this many media messages,0 never.
+     */
+    public void setCloseAfterMedia(int closeAfterMedia) {
+        this.closeAfterMedia = closeAfterMedia;
+    }
+
+    /**
+     * read at most this many bytes per second,0 unlimited.<br/>
+     * applies to open connections too,lifting it lets a slow reader drain what the kernel buffered.
+     */
+    public void setReadBytesPerSecond(int readBytesPerSecond) {
+        this.readBytesPerSecond = readBytesPerSecond;
+    }
+
+    /**
+     * false stores media messages with an empty payload,for benchmarks that only count them.
+     */
+    public void setKeepPayload(boolean keepPayload) {
+        this.keepPayload = keepPayload;
+    }
+
+    public synchronized List<Session> getSessions() {
+        return new ArrayList<>(sessions);
+    }
+
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return the first session publishing stream,waits up to timeoutMs for it
+     */
+    public Session awaitSession(String stream, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (true) {
+                for (Session session : sessions) {
+                    if (session.publishing && stream.equals(session.streamName)) {
+                        return session;
+                    }
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return null;
+                }
+                wait(left);
+            }
+        }
+    }
+
+    /**
+     * @return true if session got count media messages within timeoutMs
+     */
+    public boolean awaitMedia(Session session, int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (session.getMediaCount() < count) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+    }
+
+    public boolean awaitClosed(Session session, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (!session.closed) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+    }
+
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (this) {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        try {
+            acceptThread.join(1000);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            final Session session = new Session();
+            synchronized (this) {
+                sessions.add(session);
+                sockets.add(socket);
+                notifyAll();
+            }
+            final int closeAfter = closeAfterMedia;
+            final boolean reject = rejectPublish;
+            Thread thread = new Thread("RtmpServerStub,session") {
+                @Override
+                public void run() {
+                    try {
+                        new Connection(socket, session, closeAfter, reject).serve();
+                    } catch (IOException ignored) {
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                        synchronized (RtmpServerStub.this) {
+                            session.closed = true;
+                            RtmpServerStub.this.notifyAll();
+                        }
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static class ChunkStreamState {
+        int msid;
+        int type;
+        int length;
+        long timestamp;
+        long delta;
+        boolean extended;
+        byte[] body;
+        int filled;
+    }
+
+    private class Connection {
+        private final Socket socket;
+        private final Session session;
+        private final int closeAfter;
+        private final boolean reject;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final HashMap<Integer, ChunkStreamState> states = new HashMap<>();
+        private int inChunkSize = 128;
+
+        Connection(Socket socket, Session session, int closeAfter, boolean reject) throws IOException {
+            this.socket = socket;
+            this.session = session;
+            this.closeAfter = closeAfter;
+            this.reject = reject;
+            socket.setTcpNoDelay(true);
+            InputStream raw = socket.getInputStream();
+            in = new DataInputStream(new BufferedInputStream(new MeteredInputStream(raw, session)));
+            out = socket.getOutputStream();
+        }
+
+        void serve() throws IOException {
+            handshake();
+            while (true) {
+                ChunkStreamState state = readChunk();
+                if (state == null || state.filled < state.length) {
+                    continue;
+                }
+                byte[] body = state.body;
+                state.body = null;
+                state.filled = 0;
+                onMessage(state.type, state.msid, state.timestamp, body);
+            }
+        }
+
+        private void handshake() throws IOException {
+            byte[] c0c1 = new byte[1 + RtmpHandshake.PACKET_SIZE];
+            in.readFully(c0c1);
+            if (c0c1[0] != RtmpHandshake.VERSION) {
+                throw new IOException("bad version");
+            }
+            byte[] s0s1s2 = new byte[1 + RtmpHandshake.PACKET_SIZE * 2];
+            s0s1s2[0] = RtmpHandshake.VERSION;
+            for (int i = 9; i < 1 + RtmpHandshake.PACKET_SIZE; ++i) {
+                s0s1s2[i] = (byte) i;
+            }
+            System.arraycopy(c0c1, 1, s0s1s2, 1 + RtmpHandshake.PACKET_SIZE, RtmpHandshake.PACKET_SIZE);
+            out.write(s0s1s2);
+            out.flush();
+            byte[] c2 = new byte[RtmpHandshake.PACKET_SIZE];
+            in.readFully(c2);
+            for (int i = 0; i < c2.length; ++i) {
+                if (c2[i] != s0s1s2[1 + i]) {
+                    throw new IOException("C2 does not echo S1");
+                }
+            }
+        }
+
+        /**
+         * @return state of the chunk stream the chunk belongs to
+         */
+        private ChunkStreamState readChunk() throws IOException {
+            int b0 = in.readUnsignedByte();
+            int fmt = b0 >>> 6;
+            int csid = b0 & 0x3F;
+            if (csid == 0) {
+                csid = 64 + in.readUnsignedByte();
+            } else if (csid == 1) {
+                csid = 64 + in.readUnsignedByte() + (in.readUnsignedByte() << 8);
+            }
+            synchronized (session) {
+                ++session.fmtCounts[fmt];
+            }
+            ChunkStreamState state = states.get(csid);
+            if (state == null) {
+                if (fmt != 0) {
+                    throw new IOException("chunk stream " + csid + " starts with fmt " + fmt);
+                }
+                state = new ChunkStreamState();
+                states.put(csid, state);
+            }
+            long timestampField = 0;
+            if (fmt <= 2) {
+                timestampField = readMedium();
+            }
+            if (fmt <= 1) {
+                state.length = (int) readMedium();
+                state.type = in.readUnsignedByte();
+            }
+            if (fmt == 0) {
+                state.msid = Integer.reverseBytes(in.readInt());
+            }
+            if (fmt <= 2) {
+                state.extended = timestampField == 0xFFFFFF;
+            }
+            if (state.extended) {
+                long extended = in.readInt() & 0xFFFFFFFFL;
+                if (fmt <= 2) {
+                    timestampField = extended;
+                }
+            }
+            if (state.body == null) {
+                if (fmt == 0) {
+                    state.timestamp = timestampField;
+                    state.delta = 0;
+                } else if (fmt == 3) {
+                    state.timestamp += state.delta;
+                } else {
+                    state.delta = timestampField;
+                    state.timestamp += timestampField;
+                }
+                state.body = new byte[state.length];
+                state.filled = 0;
+            } else if (fmt != 3) {
+                throw new IOException("chunk stream " + csid + " interrupted by fmt " + fmt);
+            }
+            int n = Math.min(inChunkSize, state.length - state.filled);
+            in.readFully(state.body, state.filled, n);
+            state.filled += n;
+            return state;
+        }
+
+        private long readMedium() throws IOException {
+            return ((long) in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        }
+
+        private void onMessage(int type, int msid, long timestamp, byte[] body) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            switch (type) {
+                case 1:
+                    inChunkSize = buffer.getInt() & 0x7FFFFFFF;
+                    break;
+                case 4:
+                    if (buffer.getShort() == 7) {
+                        session.pongReceived = true;
+                    }
+                    break;
+                case 20:
+                    onCommand(Amf0.readAll(buffer));
+                    break;
+                case 8:
+                case 9:
+                case 18:
+                    synchronized (RtmpServerStub.this) {
+                        synchronized (session) {
+                            session.media.add(new Message(type, msid, timestamp, keepPayload ? body : EMPTY));
+                        }
+                        RtmpServerStub.this.notifyAll();
+                    }
+                    if (closeAfter > 0 && session.getMediaCount() >= closeAfter) {
+                        socket.close();
+                        throw new SocketException("closed after " + closeAfter + " media messages");
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onCommand(List<Object> command) throws IOException {
+            String name = (String) command.get(0);
+            double id = (Double) command.get(1);
+            synchronized (session) {
+                session.commands.add(name);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            if ("connect".equals(name)) {
+                Map<?, ?> params = (Map<?, ?>) command.get(2);
+                session.app = (String) params.get("app");
+                buffer.putInt(2500000);
+                sendMessage(2, 5, 0, buffer);
+                buffer.putInt(2500000);
+                buffer.put((byte) 2);
+                sendMessage(2, 6, 0, buffer);
+                buffer.putInt(4096);
+                sendMessage(2, 1, 0, buffer);
+                Amf0.writeString(buffer, "_result");
+                Amf0.writeNumber(buffer, id);
+                Amf0.writeObjectBegin(buffer);
+                Amf0.writeKey(buffer, "fmsVer");
+                Amf0.writeString(buffer, "FMS/3,0,1,123");
+                Amf0.writeObjectEnd(buffer);
+                writeStatus(buffer, "status", "NetConnection.Connect.Success");
+                sendMessage(3, 20, 0, buffer);
+            } else if ("createStream".equals(name)) {
+                Amf0.writeString(buffer, "_result");
+                Amf0.writeNumber(buffer, id);
+                Amf0.writeNull(buffer);
+                Amf0.writeNumber(buffer, STREAM_ID);
+                sendMessage(3, 20, 0, buffer);
+            } else if ("publish".equals(name)) {
+                String stream = (String) command.get(3);
+                Amf0.writeString(buffer, "onStatus");
+                Amf0.writeNumber(buffer, 0);
+                Amf0.writeNull(buffer);
+                if (reject) {
+                    writeStatus(buffer, "error", "NetStream.Publish.BadName");
+                    sendMessage(5, 20, STREAM_ID, buffer);
+                    return;
+                }
+                writeStatus(buffer, "status", "NetStream.Publish.Start");
+                sendMessage(5, 20, STREAM_ID, buffer);
+                //ping,the publisher must answer while streaming
+                buffer.putShort((short) 6);
+                buffer.putInt(1234);
+                sendMessage(2, 4, 0, buffer);
+                synchronized (RtmpServerStub.this) {
+                    session.streamName = stream;
+                    session.publishing = true;
+                    RtmpServerStub.this.notifyAll();
+                }
+            }
+        }
+
+        private void writeStatus(ByteBuffer buffer, String level, String code) {
+            Amf0.writeObjectBegin(buffer);
+            Amf0.writeKey(buffer, "level");
+            Amf0.writeString(buffer, level);
+            Amf0.writeKey(buffer, "code");
+            Amf0.writeString(buffer, code);
+            Amf0.writeObjectEnd(buffer);
+        }
+
+        /**
+         * fmt 0 then fmt 3 chunks of the default size,buffer is flipped & cleared.
+         */
+        private void sendMessage(int csid, int type, int msid, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            int length = buffer.remaining();
+            ByteBuffer chunk = ByteBuffer.allocate(12 + length + length / OUT_CHUNK_SIZE + 1);
+            chunk.put((byte) csid);
+            chunk.put((byte) 0).put((byte) 0).put((byte) 0);
+            chunk.put((byte) (length >> 16)).put((byte) (length >> 8)).put((byte) length);
+            chunk.put((byte) type);
+            chunk.putInt(Integer.reverseBytes(msid));
+            int offset = 0;
+            while (true) {
+                int n = Math.min(OUT_CHUNK_SIZE, length - offset);
+                chunk.put(buffer.array(), offset, n);
+                offset += n;
+                if (offset >= length) {
+                    break;
+                }
+                chunk.put((byte) (0xC0 | csid));
+            }
+            out.write(chunk.array(), 0, chunk.position());
+            out.flush();
+            buffer.clear();
+        }
+    }
+
+    /**
+     * counts bytes read and paces reading to readBytesPerSecond,which can change any time.
+     */
+    private class MeteredInputStream extends FilterInputStream {
+        private final Session session;
+        private long dueNs = System.nanoTime();
+
+        MeteredInputStream(InputStream in, Session session) {
+            super(in);
+            this.session = session;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            onRead(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int rate = readBytesPerSecond;
+            int n = super.read(b, off, rate > 0 ? Math.min(len, Math.max(1, rate / 50)) : len);
+            if (n > 0) {
+                onRead(n);
+            }
+            return n;
+        }
+
+        private void onRead(int n) throws IOException {
+            session.bytesRead += n;
+            int rate = readBytesPerSecond;
+            long now = System.nanoTime();
+            if (rate <= 0) {
+                dueNs = now;
+                return;
+            }
+            dueNs = Math.max(dueNs, now) + n * 1000000000L / rate;
+            long waitMs = (dueNs - now) / 1000000;
+            if (waitMs > 0) {
+                try {
+                    Thread.sleep(waitMs);
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+        }
+    }
+}